@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.client;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What a push consumer does with a pull response body: {@link MessageDecoder#decodes} splits it into messages, which
+ * then pass through the {@link ProcessQueue} until consumed. Scores are per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsumerDecodeBenchmark {
+
+    private static final int PULL_BATCH = 32;
+
+    @Param({"256", "4096"})
+    private int bodySize;
+
+    private byte[] pullBody;
+
+    private final ProcessQueue processQueue = new ProcessQueue();
+
+    @Setup
+    public void setup() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < PULL_BATCH; i++) {
+            MessageExt msg = new MessageExt();
+            msg.setTopic("TopicTest");
+            msg.setTags("TagA");
+            msg.setKeys("order-" + i);
+            msg.setQueueId(3);
+            msg.setQueueOffset(i);
+            msg.setCommitLogOffset(1024L * i);
+            msg.setBody(new byte[bodySize]);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreTimestamp(System.currentTimeMillis());
+            msg.setBornHost(new InetSocketAddress("127.0.0.1", 53214));
+            msg.setStoreHost(new InetSocketAddress("127.0.0.1", 10911));
+            out.write(MessageDecoder.encode(msg, false));
+        }
+        pullBody = out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PULL_BATCH)
+    public List<MessageExt> decodes() {
+        return MessageDecoder.decodes(ByteBuffer.wrap(pullBody));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PULL_BATCH)
+    public long decodeAndConsume() {
+        List<MessageExt> msgs = MessageDecoder.decodes(ByteBuffer.wrap(pullBody));
+        processQueue.putMessage(msgs);
+        return processQueue.removeMessage(msgs);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.filter;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.broker.filter.ConsumerFilterData;
+import org.apache.rocketmq.broker.filter.ConsumerFilterManager;
+import org.apache.rocketmq.broker.filter.ExpressionMessageFilter;
+import org.apache.rocketmq.broker.filter.MessageBufferEvaluationContext;
+import org.apache.rocketmq.broker.filter.MessageEvaluationContext;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.filter.FilterAPI;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.filter.expression.CompiledExpression;
+import org.apache.rocketmq.filter.expression.Expression;
+import org.apache.rocketmq.filter.parser.SelectorParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Broker side message filtering on pull: the tag hash check against the consume queue, the evaluation of a compiled
+ * SQL92 expression, and the same evaluation preceded by decoding the properties of the stored message. The typical
+ * {@code a > 5 AND b IN (...)} expression is also run through the interpreted tree over fully decoded properties and
+ * through the compiled tree reading only the referenced properties from the buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class MessageFilterBenchmark {
+
+    private static final String TOPIC = "TopicTest";
+
+    private static final String GROUP = "please_rename_unique_group_name_4";
+
+    private static final String SQL = "(TAGS is not null and TAGS in ('TagA', 'TagB')) and (region = 'eu-west' or price > 100)";
+
+    private static final String TYPICAL_SQL = "a > 5 AND b IN ('b1', 'b2', 'b3', 'b4', 'b5', 'b6')";
+
+    private ExpressionMessageFilter tagFilter;
+
+    private ExpressionMessageFilter sqlFilter;
+
+    private ConsumerFilterData consumerFilterData;
+
+    private Long tagsCode;
+
+    private Map<String, String> properties;
+
+    private ByteBuffer storedMessage;
+
+    private Expression typicalInterpreted;
+
+    private Expression typicalCompiled;
+
+    @Setup
+    public void setup() throws Exception {
+        SubscriptionData tagSubscription = FilterAPI.build(TOPIC, "TagA || TagB", ExpressionType.TAG);
+        tagFilter = new ExpressionMessageFilter(tagSubscription, null, null);
+        tagsCode = (long) "TagB".hashCode();
+
+        SubscriptionData sqlSubscription = FilterAPI.build(TOPIC, SQL, ExpressionType.SQL92);
+        consumerFilterData = ConsumerFilterManager.build(TOPIC, GROUP, SQL, ExpressionType.SQL92, System.currentTimeMillis());
+        sqlFilter = new ExpressionMessageFilter(sqlSubscription, consumerFilterData, new ConsumerFilterManager());
+
+        MessageExt msg = new MessageExt();
+        msg.setTopic(TOPIC);
+        msg.setTags("TagB");
+        msg.setKeys("order-42");
+        msg.putUserProperty("region", "us-east");
+        msg.putUserProperty("price", "120");
+        msg.putUserProperty("a", "7");
+        msg.putUserProperty("b", "b4");
+        msg.setBody(new byte[256]);
+        msg.setBornHost(new InetSocketAddress("127.0.0.1", 53214));
+        msg.setStoreHost(new InetSocketAddress("127.0.0.1", 10911));
+        storedMessage = ByteBuffer.wrap(MessageDecoder.encode(msg, false));
+        properties = new HashMap<String, String>(msg.getProperties());
+
+        typicalInterpreted = SelectorParser.parse(TYPICAL_SQL);
+        typicalCompiled = CompiledExpression.compile(typicalInterpreted);
+    }
+
+    @Benchmark
+    public boolean tagsCode() {
+        return tagFilter.isMatchedByConsumeQueue(tagsCode, null);
+    }
+
+    @Benchmark
+    public Object sql92Evaluate() throws Exception {
+        return consumerFilterData.getCompiledExpression().evaluate(new MessageEvaluationContext(properties));
+    }
+
+    @Benchmark
+    public boolean sql92FromCommitLog() {
+        return sqlFilter.isMatchedByCommitLog(storedMessage.duplicate(), null);
+    }
+
+    @Benchmark
+    public Object typicalInterpretedDecodeAll() throws Exception {
+        return typicalInterpreted.evaluate(new MessageEvaluationContext(MessageDecoder.decodeProperties(storedMessage.duplicate())));
+    }
+
+    @Benchmark
+    public Object typicalCompiledLazy() throws Exception {
+        return typicalCompiled.evaluate(new MessageBufferEvaluationContext(storedMessage));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.mqtt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.client.Client;
+import org.apache.rocketmq.common.client.ClientRole;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+import org.apache.rocketmq.mqtt.client.SubscriptionTrie;
+import org.apache.rocketmq.mqtt.constant.MqttConstant;
+import org.apache.rocketmq.mqtt.util.MqttUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching a published topic against the subscriptions of all sessions sharing one root topic, comparing the former
+ * split based linear scan, the allocation free {@link MqttUtil#isMatch(String, String)} scan and the
+ * {@link SubscriptionTrie}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriptionMatchBenchmark {
+
+    @Param({"1000", "10000"})
+    private int sessionCount;
+
+    private List<Client> clients;
+
+    private List<String> topicFilters;
+
+    private SubscriptionTrie subscriptionTrie;
+
+    private String[] topics;
+
+    private int topicIndex;
+
+    @Setup
+    public void setup() {
+        clients = new ArrayList<>(sessionCount);
+        topicFilters = new ArrayList<>(sessionCount);
+        subscriptionTrie = new SubscriptionTrie();
+        for (int i = 0; i < sessionCount; i++) {
+            MQTTSession session = new MQTTSession("client" + i, ClientRole.IOTCLIENT, Collections.singleton("IOT_GROUP"),
+                true, true, null, System.currentTimeMillis(), null);
+            String topicFilter;
+            switch (i % 4) {
+                case 0:
+                    topicFilter = "device/" + i + "/status";
+                    break;
+                case 1:
+                    topicFilter = "device/" + i + "/#";
+                    break;
+                case 2:
+                    topicFilter = "device/+/alarm/" + (i % 100);
+                    break;
+                default:
+                    topicFilter = "device/#";
+                    break;
+            }
+            clients.add(session);
+            topicFilters.add(topicFilter);
+            subscriptionTrie.subscribe(topicFilter, session);
+        }
+        topics = new String[] {"device/1/status", "device/4/status", "device/17/alarm/2", "device/8/config/version"};
+    }
+
+    @Benchmark
+    public Set<Client> splitScan() {
+        String topic = nextTopic();
+        Set<Client> result = new HashSet<>();
+        for (int i = 0; i < sessionCount; i++) {
+            if (splitMatch(topicFilters.get(i), topic)) {
+                result.add(clients.get(i));
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Set<Client> indexScan() {
+        String topic = nextTopic();
+        Set<Client> result = new HashSet<>();
+        for (int i = 0; i < sessionCount; i++) {
+            if (MqttUtil.isMatch(topicFilters.get(i), topic)) {
+                result.add(clients.get(i));
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Set<Client> trie() {
+        return subscriptionTrie.match(nextTopic());
+    }
+
+    private String nextTopic() {
+        topicIndex = (topicIndex + 1) % topics.length;
+        return topics[topicIndex];
+    }
+
+    private static boolean splitMatch(String topicFiter, String topic) {
+        if (!topicFiter.contains(MqttConstant.SUBSCRIPTION_FLAG_PLUS) && !topicFiter.contains(MqttConstant.SUBSCRIPTION_FLAG_SHARP)) {
+            return topicFiter.equals(topic);
+        }
+        String[] filterTopics = topicFiter.split(MqttConstant.SUBSCRIPTION_SEPARATOR);
+        String[] actualTopics = topic.split(MqttConstant.SUBSCRIPTION_SEPARATOR);
+
+        int i = 0;
+        for (; i < filterTopics.length && i < actualTopics.length; i++) {
+            if (MqttConstant.SUBSCRIPTION_FLAG_PLUS.equals(filterTopics[i])) {
+                continue;
+            }
+            if (MqttConstant.SUBSCRIPTION_FLAG_SHARP.equals(filterTopics[i])) {
+                return true;
+            }
+            if (!filterTopics[i].equals(actualTopics[i])) {
+                return false;
+            }
+        }
+        return i == actualTopics.length;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.remoting;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeaderV2;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+import org.apache.rocketmq.remoting.netty.CodecHelper;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Header handling on the send and pull paths: the client turns its custom header into ext fields, the server turns
+ * them back into a header object. Compares the former per-call reflective codec with the cached method handle codecs
+ * used by {@link CodecHelper}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class CommandCustomHeaderCodecBenchmark {
+
+    private static final Map<Class<?>, Field[]> REFLECTIVE_FIELD_CACHE = new HashMap<Class<?>, Field[]>();
+
+    private SendMessageRequestHeaderV2 sendHeader;
+
+    private PullMessageRequestHeader pullHeader;
+
+    @Setup
+    public void setup() {
+        SendMessageRequestHeader v1 = new SendMessageRequestHeader();
+        v1.setProducerGroup("please_rename_unique_group_name");
+        v1.setTopic("TopicTest");
+        v1.setDefaultTopic("TBW102");
+        v1.setDefaultTopicQueueNums(4);
+        v1.setQueueId(3);
+        v1.setSysFlag(0);
+        v1.setBornTimestamp(System.currentTimeMillis());
+        v1.setFlag(0);
+        v1.setProperties("KEYS\u0001order-42\u0002TAGS\u0001TagA\u0002WAIT\u0001true\u0002");
+        v1.setReconsumeTimes(0);
+        v1.setEnodeName("broker-a");
+        v1.setBornHost("10.0.0.12:53214");
+        sendHeader = SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(v1);
+
+        pullHeader = new PullMessageRequestHeader();
+        pullHeader.setConsumerGroup("please_rename_unique_group_name_4");
+        pullHeader.setTopic("TopicTest");
+        pullHeader.setQueueId(3);
+        pullHeader.setQueueOffset(123456789L);
+        pullHeader.setMaxMsgNums(32);
+        pullHeader.setSysFlag(3);
+        pullHeader.setCommitOffset(123456700L);
+        pullHeader.setSuspendTimeoutMillis(15000L);
+        pullHeader.setSubscription("TagA || TagB");
+        pullHeader.setSubVersion(System.currentTimeMillis());
+        pullHeader.setExpressionType("TAG");
+        pullHeader.setEnodeName("broker-a");
+    }
+
+    @Benchmark
+    public Object reflectiveSend() throws Exception {
+        return reflectiveRoundTrip(sendHeader);
+    }
+
+    @Benchmark
+    public Object codecSend() throws Exception {
+        return codecRoundTrip(sendHeader);
+    }
+
+    @Benchmark
+    public Object reflectivePull() throws Exception {
+        return reflectiveRoundTrip(pullHeader);
+    }
+
+    @Benchmark
+    public Object codecPull() throws Exception {
+        return codecRoundTrip(pullHeader);
+    }
+
+    private static CommandCustomHeader codecRoundTrip(CommandCustomHeader header) throws RemotingCommandException {
+        RemotingCommand request = RemotingCommand.createRequestCommand(0, header);
+        CodecHelper.makeCustomHeaderToNet(request);
+        RemotingCommand received = new RemotingCommand();
+        received.setExtFields(request.getExtFields());
+        return received.decodeCommandCustomHeader(header.getClass());
+    }
+
+    private static CommandCustomHeader reflectiveRoundTrip(CommandCustomHeader header) throws Exception {
+        HashMap<String, String> extFields = new HashMap<String, String>();
+        for (Field field : reflectiveFields(header.getClass())) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.getName().startsWith("this")) {
+                field.setAccessible(true);
+                Object value = field.get(header);
+                if (value != null) {
+                    extFields.put(field.getName(), value.toString());
+                }
+            }
+        }
+
+        CommandCustomHeader decoded = header.getClass().newInstance();
+        for (Field field : reflectiveFields(decoded.getClass())) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.getName().startsWith("this")) {
+                String value = extFields.get(field.getName());
+                if (value == null) {
+                    continue;
+                }
+                field.setAccessible(true);
+                String type = field.getType().getCanonicalName();
+                Object valueParsed;
+                if (type.equals(String.class.getCanonicalName())) {
+                    valueParsed = value;
+                } else if (type.equals(Integer.class.getCanonicalName()) || type.equals(int.class.getCanonicalName())) {
+                    valueParsed = Integer.parseInt(value);
+                } else if (type.equals(Long.class.getCanonicalName()) || type.equals(long.class.getCanonicalName())) {
+                    valueParsed = Long.parseLong(value);
+                } else if (type.equals(Boolean.class.getCanonicalName()) || type.equals(boolean.class.getCanonicalName())) {
+                    valueParsed = Boolean.parseBoolean(value);
+                } else {
+                    continue;
+                }
+                field.set(decoded, valueParsed);
+            }
+        }
+        decoded.checkFields();
+        return decoded;
+    }
+
+    private static Field[] reflectiveFields(Class<?> clazz) {
+        Field[] fields = REFLECTIVE_FIELD_CACHE.get(clazz);
+        if (fields == null) {
+            fields = clazz.getDeclaredFields();
+            synchronized (REFLECTIVE_FIELD_CACHE) {
+                REFLECTIVE_FIELD_CACHE.put(clazz, fields);
+            }
+        }
+        return fields;
+    }
+}
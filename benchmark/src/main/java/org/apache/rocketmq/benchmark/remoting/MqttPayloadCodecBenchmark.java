@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.remoting;
+
+import com.google.gson.Gson;
+import io.netty.handler.codec.mqtt.MqttConnectPayload;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.handler.codec.mqtt.MqttSubscribePayload;
+import io.netty.handler.codec.mqtt.MqttTopicSubscription;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.remoting.util.MqttEncodeDecodeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A reconnect storm: every reconnecting client sends a CONNECT then a SUBSCRIBE, whose payloads are encoded into a
+ * {@code RemotingCommand} body by the transport and decoded again by the MQTT processor. Compares the former Gson JSON
+ * round trip with the binary payload codecs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class MqttPayloadCodecBenchmark {
+
+    private static final Gson GSON = new Gson();
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private MqttConnectPayload connectPayload;
+
+    private MqttSubscribePayload subscribePayload;
+
+    @Setup
+    public void setup() {
+        connectPayload = new MqttConnectPayload("device-000042-gateway", "device/42/will", "offline".getBytes(UTF8), "device-42",
+            "2f1c8a4e9b7d".getBytes(UTF8));
+        subscribePayload = new MqttSubscribePayload(Arrays.asList(new MqttTopicSubscription("device/42/command/#", MqttQoS.AT_LEAST_ONCE),
+            new MqttTopicSubscription("broadcast/+/firmware", MqttQoS.AT_MOST_ONCE)));
+    }
+
+    @Benchmark
+    public Object gsonReconnect() {
+        byte[] connect = GSON.toJson(connectPayload).getBytes(UTF8);
+        byte[] subscribe = GSON.toJson(subscribePayload).getBytes(UTF8);
+        MqttConnectPayload decodedConnect = GSON.fromJson(new String(connect, UTF8), MqttConnectPayload.class);
+        MqttSubscribePayload decodedSubscribe = GSON.fromJson(new String(subscribe, UTF8), MqttSubscribePayload.class);
+        return decodedConnect.clientIdentifier().length() + decodedSubscribe.topicSubscriptions().size();
+    }
+
+    @Benchmark
+    public Object binaryReconnect() {
+        byte[] connect = MqttEncodeDecodeUtil.encode(MqttMessageType.CONNECT, connectPayload);
+        byte[] subscribe = MqttEncodeDecodeUtil.encode(MqttMessageType.SUBSCRIBE, subscribePayload);
+        MqttConnectPayload decodedConnect = MqttEncodeDecodeUtil.decode(MqttMessageType.CONNECT, connect);
+        MqttSubscribePayload decodedSubscribe = MqttEncodeDecodeUtil.decode(MqttMessageType.SUBSCRIBE, subscribe);
+        return decodedConnect.clientIdentifier().length() + decodedSubscribe.topicSubscriptions().size();
+    }
+}
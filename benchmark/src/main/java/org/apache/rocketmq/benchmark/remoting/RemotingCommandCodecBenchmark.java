@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.remoting;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeaderV2;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+import org.apache.rocketmq.remoting.netty.CodecHelper;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.serialize.SerializeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole frame encode and decode of a send request for each {@link SerializeType}: the custom header goes to ext
+ * fields, the command header is serialized and the body appended, then the way back on the receiving side.
+ * {@link SerializeType#MSGPACK} is left out as its serializer cannot write a {@link RemotingCommand}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class RemotingCommandCodecBenchmark {
+
+    @Param({"JSON", "ROCKETMQ"})
+    private SerializeType serializeType;
+
+    private SendMessageRequestHeaderV2 header;
+
+    private byte[] body;
+
+    /**
+     * An encoded frame without its length field, as handed over by the frame decoder.
+     */
+    private byte[] frame;
+
+    @Setup
+    public void setup() {
+        SendMessageRequestHeader v1 = new SendMessageRequestHeader();
+        v1.setProducerGroup("please_rename_unique_group_name");
+        v1.setTopic("TopicTest");
+        v1.setDefaultTopic("TBW102");
+        v1.setDefaultTopicQueueNums(4);
+        v1.setQueueId(3);
+        v1.setSysFlag(0);
+        v1.setBornTimestamp(System.currentTimeMillis());
+        v1.setFlag(0);
+        v1.setProperties("KEYS\u0001order-42\u0002TAGS\u0001TagA\u0002WAIT\u0001true\u0002");
+        v1.setReconsumeTimes(0);
+        v1.setEnodeName("broker-a");
+        v1.setBornHost("10.0.0.12:53214");
+        header = SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(v1);
+        body = new byte[256];
+
+        ByteBuffer encoded = encode();
+        frame = new byte[encoded.getInt()];
+        encoded.get(frame);
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2, header);
+        request.setSerializeTypeCurrentRPC(serializeType);
+        request.setBody(body);
+        return CodecHelper.encode(request);
+    }
+
+    @Benchmark
+    public CommandCustomHeader decode() throws RemotingCommandException {
+        RemotingCommand request = CodecHelper.decode(ByteBuffer.wrap(frame));
+        return request.decodeCommandCustomHeader(SendMessageRequestHeaderV2.class);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Concurrent producers appending small messages to the commit log, comparing the spin lock, the reentrant lock and the
+ * lock free append. Run with {@code -t 8}, {@code -t 16}, {@code -t 32} and {@code -t 64} to see how each scales with
+ * the number of producers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class CommitLogAppendBenchmark {
+
+    private static final String TOPIC = "CommitLogAppendBenchmark";
+
+    private static final int QUEUES = 16;
+
+    @Param({"spin", "reentrant", "lockFree"})
+    private String mode;
+
+    private String baseDir;
+
+    private DefaultMessageStore messageStore;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        baseDir = System.getProperty("java.io.tmpdir") + File.separator + "rocketmq-bench-" + UUID.randomUUID();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setUseReentrantLockWhenPutMessage("reentrant".equals(mode));
+        messageStoreConfig.setLockFreeAppendEnable("lockFree".equals(mode));
+
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("CommitLogAppendBenchmark"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        if (!messageStore.load()) {
+            throw new IllegalStateException("Failed to load the message store at " + baseDir);
+        }
+        messageStore.start();
+        body = new byte[256];
+    }
+
+    @TearDown
+    public void tearDown() {
+        messageStore.shutdown();
+        messageStore.destroy();
+        UtilAll.deleteFile(new File(baseDir));
+    }
+
+    @Benchmark
+    public PutMessageResult putMessage(ProducerState producer) {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(TOPIC);
+        msg.setQueueId(producer.nextQueueId());
+        msg.setBody(body);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(producer.host);
+        msg.setStoreHost(producer.host);
+        return messageStore.putMessage(msg);
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+        private final InetSocketAddress host = new InetSocketAddress("127.0.0.1", 10911);
+
+        private int queueId = (int) (Thread.currentThread().getId() % QUEUES);
+
+        int nextQueueId() {
+            queueId = (queueId + 1) % QUEUES;
+            return queueId;
+        }
+    }
+}
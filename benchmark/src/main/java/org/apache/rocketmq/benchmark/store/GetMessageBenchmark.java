@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pulls of 32 messages through {@link DefaultMessageStore#getMessage}, covering the consume queue lookup and the commit
+ * log read. Warm pulls read the newest messages like a consumer keeping up; cold pulls read random positions in the
+ * older half of the queue like a consumer replaying history. Those only miss the page cache when {@code messages} makes
+ * the store larger than the free memory of the machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class GetMessageBenchmark {
+
+    private static final String TOPIC = "GetMessageBenchmark";
+
+    private static final String GROUP = "GetMessageBenchmarkGroup";
+
+    private static final int PULL_BATCH = 32;
+
+    private static final int WARM_RANGE = 1024;
+
+    @Param({"200000"})
+    private int messages;
+
+    @Param({"1024"})
+    private int bodySize;
+
+    private String baseDir;
+
+    private DefaultMessageStore messageStore;
+
+    private long maxOffset;
+
+    @Setup
+    public void setup() throws Exception {
+        baseDir = System.getProperty("java.io.tmpdir") + File.separator + "rocketmq-bench-" + UUID.randomUUID();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024 * 128);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("GetMessageBenchmark"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        if (!messageStore.load()) {
+            throw new IllegalStateException("Failed to load the message store at " + baseDir);
+        }
+        messageStore.start();
+
+        InetSocketAddress host = new InetSocketAddress("127.0.0.1", 10911);
+        byte[] body = new byte[bodySize];
+        for (int i = 0; i < messages; i++) {
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(0);
+            msg.setTags("TagA");
+            msg.setTagsCode("TagA".hashCode());
+            msg.setBody(body);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setBornHost(host);
+            msg.setStoreHost(host);
+            if (messageStore.putMessage(msg).getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                throw new IllegalStateException("Failed to fill the message store");
+            }
+        }
+
+        long begin = System.currentTimeMillis();
+        while (messageStore.getMaxOffsetInQueue(TOPIC, 0) < messages) {
+            if (System.currentTimeMillis() - begin > 60 * 1000) {
+                throw new IllegalStateException("Consume queue not built in time");
+            }
+            Thread.sleep(10);
+        }
+        maxOffset = messageStore.getMaxOffsetInQueue(TOPIC, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        messageStore.shutdown();
+        messageStore.destroy();
+        UtilAll.deleteFile(new File(baseDir));
+    }
+
+    @Benchmark
+    public int warm() {
+        long range = Math.min(WARM_RANGE, maxOffset - PULL_BATCH);
+        return pull(maxOffset - PULL_BATCH - ThreadLocalRandom.current().nextLong(range));
+    }
+
+    @Benchmark
+    public int cold() {
+        return pull(ThreadLocalRandom.current().nextLong(maxOffset / 2));
+    }
+
+    private int pull(long offset) {
+        GetMessageResult result = messageStore.getMessage(GROUP, TOPIC, 0, offset, PULL_BATCH, null);
+        try {
+            return result.getMessageCount();
+        } finally {
+            result.release();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.config.BrokerRole;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Puts on a sync master whose slaves run in the same JVM and replicate over localhost, each put waiting for the ack
+ * quorum. Compares the plain and the compressed transfer, with one slave or with two slaves both to be acked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class HAReplicationBenchmark {
+
+    private static final String TOPIC = "HAReplicationBenchmark";
+
+    @Param({"1", "2"})
+    private int slaveNum;
+
+    @Param({"false", "true"})
+    private boolean compress;
+
+    private final List<String> baseDirs = new ArrayList<String>();
+
+    private final List<DefaultMessageStore> stores = new ArrayList<DefaultMessageStore>();
+
+    private DefaultMessageStore master;
+
+    private byte[] body;
+
+    private final InetSocketAddress host = new InetSocketAddress("127.0.0.1", 10911);
+
+    @Setup
+    public void setup() throws Exception {
+        int masterHaPort = freePort();
+        master = createStore(BrokerRole.SYNC_MASTER, masterHaPort);
+        for (int i = 0; i < slaveNum; i++) {
+            createStore(BrokerRole.SLAVE, freePort()).updateHaMasterAddress("127.0.0.1:" + masterHaPort);
+        }
+
+        long begin = System.currentTimeMillis();
+        while (!allSlavesReported()) {
+            if (System.currentTimeMillis() - begin > 10 * 1000) {
+                throw new IllegalStateException("Slaves did not connect to the master in time");
+            }
+            Thread.sleep(10);
+        }
+        body = new byte[256];
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (DefaultMessageStore store : stores) {
+            store.shutdown();
+            store.destroy();
+        }
+        for (String baseDir : baseDirs) {
+            UtilAll.deleteFile(new File(baseDir));
+        }
+    }
+
+    @Benchmark
+    public PutMessageResult putMessage() {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(TOPIC);
+        msg.setQueueId(0);
+        msg.setBody(body);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(host);
+        msg.setStoreHost(host);
+        return master.putMessage(msg);
+    }
+
+    private boolean allSlavesReported() {
+        Map<String, Long> ackOffsets = master.getHaService().getSlaveAckOffsetTable();
+        if (ackOffsets.size() < slaveNum) {
+            return false;
+        }
+        for (Long ackOffset : ackOffsets.values()) {
+            if (ackOffset < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private DefaultMessageStore createStore(BrokerRole role, int haListenPort) throws Exception {
+        String baseDir = System.getProperty("java.io.tmpdir") + File.separator + "rocketmq-bench-" + UUID.randomUUID();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setBrokerRole(role);
+        messageStoreConfig.setHaListenPort(haListenPort);
+        messageStoreConfig.setHaSendHeartbeatInterval(100);
+        messageStoreConfig.setHaAckQuorum(slaveNum);
+        messageStoreConfig.setHaTransferCompressEnable(compress);
+
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("HAReplicationBenchmark"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        if (!store.load()) {
+            throw new IllegalStateException("Failed to load the message store at " + baseDir);
+        }
+        store.start();
+        stores.add(store);
+        return store;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.benchmark.store;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single and batch puts through {@link DefaultMessageStore} under both flush modes, with and without the
+ * {@code TransientStorePool}. The pool only applies to asynchronous flush; with synchronous flush both settings take
+ * the same path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class PutMessageBenchmark {
+
+    private static final String TOPIC = "PutMessageBenchmark";
+
+    private static final int QUEUES = 8;
+
+    private static final int BATCH_SIZE = 16;
+
+    @Param({"ASYNC_FLUSH", "SYNC_FLUSH"})
+    private FlushDiskType flushDiskType;
+
+    @Param({"false", "true"})
+    private boolean transientStorePool;
+
+    @Param({"256"})
+    private int bodySize;
+
+    private String baseDir;
+
+    private DefaultMessageStore messageStore;
+
+    private byte[] body;
+
+    private byte[] batchBody;
+
+    @Setup
+    public void setup() throws Exception {
+        baseDir = System.getProperty("java.io.tmpdir") + File.separator + "rocketmq-bench-" + UUID.randomUUID();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024 * 128);
+        messageStoreConfig.setFlushDiskType(flushDiskType);
+        messageStoreConfig.setTransientStorePoolEnable(transientStorePool);
+
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("PutMessageBenchmark"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        if (!messageStore.load()) {
+            throw new IllegalStateException("Failed to load the message store at " + baseDir);
+        }
+        messageStore.start();
+
+        body = new byte[bodySize];
+        List<Message> messages = new ArrayList<Message>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            messages.add(new Message(TOPIC, "TagA", "key-" + i, body));
+        }
+        batchBody = MessageDecoder.encodeMessages(messages);
+    }
+
+    @TearDown
+    public void tearDown() {
+        messageStore.shutdown();
+        messageStore.destroy();
+        UtilAll.deleteFile(new File(baseDir));
+    }
+
+    @Benchmark
+    public PutMessageResult putMessage(ProducerState producer) {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(TOPIC);
+        msg.setQueueId(producer.nextQueueId());
+        msg.setBody(body);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(producer.host);
+        msg.setStoreHost(producer.host);
+        return messageStore.putMessage(msg);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public PutMessageResult putMessages(ProducerState producer) {
+        MessageExtBatch batch = new MessageExtBatch();
+        batch.setTopic(TOPIC);
+        batch.setQueueId(producer.nextQueueId());
+        batch.setBody(batchBody);
+        batch.setBornTimestamp(System.currentTimeMillis());
+        batch.setBornHost(producer.host);
+        batch.setStoreHost(producer.host);
+        return messageStore.putMessages(batch);
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+        private final InetSocketAddress host = new InetSocketAddress("127.0.0.1", 10911);
+
+        private int queueId = (int) (Thread.currentThread().getId() % QUEUES);
+
+        int nextQueueId() {
+            queueId = (queueId + 1) % QUEUES;
+            return queueId;
+        }
+    }
+}
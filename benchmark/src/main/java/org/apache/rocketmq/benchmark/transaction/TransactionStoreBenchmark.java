@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.benchmark.transaction;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.rocketmq.broker.transaction.file.FileTransactionStore;
+import org.apache.rocketmq.broker.transaction.file.FileTransactionStoreConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transactions through {@link FileTransactionStore}: one put when the half message is stored and one remove when it
+ * is committed or rolled back. Run next to {@code PutMessageBenchmark} with the same threads to compare with plain
+ * sends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TransactionStoreBenchmark {
+
+    @Param({"false", "true"})
+    private boolean syncFlush;
+
+    private String baseDir;
+
+    private FileTransactionStore transactionStore;
+
+    private final AtomicLong commitLogOffset = new AtomicLong();
+
+    @Setup
+    public void setup() {
+        baseDir = System.getProperty("java.io.tmpdir") + File.separator + "rocketmq-bench-" + UUID.randomUUID();
+        FileTransactionStoreConfig config = new FileTransactionStoreConfig();
+        config.setStorePath(baseDir);
+        config.setSyncFlush(syncFlush);
+        config.setCompactionInterval(1000);
+        transactionStore = new FileTransactionStore(config);
+        if (!transactionStore.open()) {
+            throw new IllegalStateException("Failed to open the transaction store at " + baseDir);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        transactionStore.close();
+        UtilAll.deleteFile(new File(baseDir));
+    }
+
+    /**
+     * The record type is deprecated along with the {@code TransactionStore} API it belongs to. It is not imported, as
+     * javac 8 warns on imports of deprecated types regardless of {@link SuppressWarnings}.
+     */
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public boolean putAndRemove() {
+        long offset = commitLogOffset.getAndAdd(256);
+        org.apache.rocketmq.broker.transaction.TransactionRecord record =
+            new org.apache.rocketmq.broker.transaction.TransactionRecord();
+        record.setOffset(offset);
+        record.setProducerGroup("TransactionStoreBenchmark");
+        boolean ok = transactionStore.put(Collections.singletonList(record));
+        transactionStore.remove(Collections.singletonList(offset));
+        return ok;
+    }
+}
@@ -484,6 +484,9 @@ public class BrokerController {
             this.transactionalMessageService = new TransactionalMessageServiceImpl(new TransactionalMessageBridge(this, this.getMessageStore()));
             log.warn("Load default transaction message hook service: {}", TransactionalMessageServiceImpl.class.getSimpleName());
         }
+        if (!this.transactionalMessageService.open()) {
+            log.error("Open transaction message service failed: {}", this.transactionalMessageService.getClass().getSimpleName());
+        }
         this.transactionalMessageCheckListener = ServiceProvider.loadClass(ServiceProvider.TRANSACTION_LISTENER_ID, AbstractTransactionalMessageCheckListener.class);
         if (null == this.transactionalMessageCheckListener) {
             this.transactionalMessageCheckListener = new DefaultTransactionalMessageCheckListener();
@@ -826,6 +829,10 @@ public class BrokerController {
         if (this.endTransactionExecutor != null) {
             this.endTransactionExecutor.shutdown();
         }
+
+        if (this.transactionalMessageService != null) {
+            this.transactionalMessageService.close();
+        }
     }
 
     private void unregisterBrokerAll() {
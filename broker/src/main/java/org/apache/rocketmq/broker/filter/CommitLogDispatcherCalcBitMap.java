@@ -21,13 +21,11 @@ import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.filter.expression.ExpressionPlan;
 import org.apache.rocketmq.filter.util.BitsArray;
 import org.apache.rocketmq.store.CommitLogDispatcher;
 import org.apache.rocketmq.store.DispatchRequest;
 
-import java.util.Collection;
-import java.util.Iterator;
-
 /**
  * Calculate bit map of filter.
  */
@@ -51,44 +49,41 @@ public class CommitLogDispatcherCalcBitMap implements CommitLogDispatcher {
 
         try {
 
-            Collection<ConsumerFilterData> filterDatas = consumerFilterManager.get(request.getTopic());
+            FilterEvaluationPlan plan = consumerFilterManager.getEvaluationPlan(request.getTopic());
 
-            if (filterDatas == null || filterDatas.isEmpty()) {
+            if (plan == null || plan.getConsumerNum() == 0) {
                 return;
             }
 
-            Iterator<ConsumerFilterData> iterator = filterDatas.iterator();
             BitsArray filterBitMap = BitsArray.create(
                 this.consumerFilterManager.getBloomFilter().getM()
             );
 
             long startTime = System.currentTimeMillis();
-            while (iterator.hasNext()) {
-                ConsumerFilterData filterData = iterator.next();
-
-                if (filterData.getCompiledExpression() == null) {
-                    log.error("[BUG] Consumer in filter manager has no compiled expression! {}", filterData);
-                    continue;
-                }
-
-                if (filterData.getBloomFilterData() == null) {
-                    log.error("[BUG] Consumer in filter manager has no bloom data! {}", filterData);
-                    continue;
-                }
+            // consumers with the same expression share one evaluation, common sub-expressions are evaluated once
+            ExpressionPlan.Evaluation evaluation = plan.getExpressionPlan().newEvaluation(
+                new MessageEvaluationContext(request.getPropertiesMap()));
+            for (int i = 0; i < plan.getExpressionNum(); i++) {
+                ConsumerFilterData[] consumers = plan.getConsumers(i);
 
-                Object ret = null;
+                boolean ret = false;
                 try {
-                    MessageEvaluationContext context = new MessageEvaluationContext(request.getPropertiesMap());
-
-                    ret = filterData.getCompiledExpression().evaluate(context);
+                    ret = evaluation.matches(i);
                 } catch (Throwable e) {
-                    log.error("Calc filter bit map error!commitLogOffset={}, consumer={}, {}", request.getCommitLogOffset(), filterData, e);
+                    log.error("Calc filter bit map error!commitLogOffset={}, consumer={}, {}", request.getCommitLogOffset(), consumers[0], e);
                 }
 
-                log.debug("Result of Calc bit map:ret={}, data={}, props={}, offset={}", ret, filterData, request.getPropertiesMap(), request.getCommitLogOffset());
+                log.debug("Result of Calc bit map:ret={}, data={}, consumerNum={}, props={}, offset={}", ret, consumers[0], consumers.length, request.getPropertiesMap(), request.getCommitLogOffset());
 
                 // eval true
-                if (ret != null && ret instanceof Boolean && (Boolean) ret) {
+                if (!ret) {
+                    continue;
+                }
+                for (ConsumerFilterData filterData : consumers) {
+                    if (filterData.getBloomFilterData() == null) {
+                        log.error("[BUG] Consumer in filter manager has no bloom data! {}", filterData);
+                        continue;
+                    }
                     consumerFilterManager.getBloomFilter().hashTo(
                         filterData.getBloomFilterData(),
                         filterBitMap
@@ -101,7 +96,7 @@ public class CommitLogDispatcherCalcBitMap implements CommitLogDispatcher {
             long eclipseTime = System.currentTimeMillis() - startTime;
             // 1ms
             if (eclipseTime >= 1) {
-                log.warn("Spend {} ms to calc bit map, consumerNum={}, topic={}", eclipseTime, filterDatas.size(), request.getTopic());
+                log.warn("Spend {} ms to calc bit map, consumerNum={}, expressionNum={}, topic={}", eclipseTime, plan.getConsumerNum(), plan.getExpressionNum(), request.getTopic());
             }
         } catch (Throwable e) {
             log.error("Calc bit map error! topic={}, offset={}, queueId={}, {}", request.getTopic(), request.getCommitLogOffset(), request.getQueueId(), e);
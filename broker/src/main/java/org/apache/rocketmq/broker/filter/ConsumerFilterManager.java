@@ -36,6 +36,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Consumer filter data manager.Just manage the consumers use expression filter.
@@ -206,6 +207,19 @@ public class ConsumerFilterManager extends ConfigManager {
         return this.filterDataByTopic.get(topic).getGroupFilterData().values();
     }
 
+    /**
+     * Evaluation plan shared by all consumers of the topic, rebuilt when its filter data changed.
+     *
+     * @return null if no consumer of the topic uses a filter expression.
+     */
+    public FilterEvaluationPlan getEvaluationPlan(final String topic) {
+        FilterDataMapByTopic filterDataMapByTopic = this.filterDataByTopic.get(topic);
+        if (filterDataMapByTopic == null || filterDataMapByTopic.getGroupFilterData().isEmpty()) {
+            return null;
+        }
+        return filterDataMapByTopic.getEvaluationPlan();
+    }
+
     public BloomFilter getBloomFilter() {
         return bloomFilter;
     }
@@ -302,6 +316,7 @@ public class ConsumerFilterManager extends ConfigManager {
                 if (filterData.howLongAfterDeath() >= (this.brokerController == null ? MS_24_HOUR : this.brokerController.getBrokerConfig().getFilterDataCleanTimeSpan())) {
                     log.info("Remove filter consumer {}, died too long!", filterDataByGroup.getValue());
                     filterDataIterator.remove();
+                    filterDataMapByTopic.getValue().markChanged();
                 }
             }
 
@@ -327,6 +342,14 @@ public class ConsumerFilterManager extends ConfigManager {
 
         private String topic;
 
+        /**
+         * Bumped whenever the filter data of a group is added, replaced, removed or changes liveness, so that the
+         * evaluation plan is checked for staleness without walking every group.
+         */
+        private final transient AtomicLong version = new AtomicLong();
+
+        private transient volatile FilterEvaluationPlan evaluationPlan;
+
         public FilterDataMapByTopic() {
         }
 
@@ -350,6 +373,7 @@ public class ConsumerFilterManager extends ConfigManager {
             log.info("Unregister consumer filter: {}, deadTime: {}", data, now);
 
             data.setDeadTime(now);
+            markChanged();
         }
 
         public boolean register(String consumerGroup, String expression, String type, BloomFilterData bloomFilterData,
@@ -365,6 +389,7 @@ public class ConsumerFilterManager extends ConfigManager {
 
                 old = this.groupFilterData.putIfAbsent(consumerGroup, consumerFilterData);
                 if (old == null) {
+                    markChanged();
                     log.info("New consumer filter registered: {}", consumerFilterData);
                     return true;
                 } else {
@@ -384,6 +409,7 @@ public class ConsumerFilterManager extends ConfigManager {
                         return false;
                     } else {
                         this.groupFilterData.put(consumerGroup, consumerFilterData);
+                        markChanged();
                         log.info("New consumer filter registered(concurrent): {}, old: {}", consumerFilterData, old);
                         return true;
                     }
@@ -419,11 +445,13 @@ public class ConsumerFilterManager extends ConfigManager {
                     if (consumerFilterData == null) {
                         // new expression compile error, remove old, let client report error.
                         this.groupFilterData.remove(consumerGroup);
+                        markChanged();
                         return false;
                     }
                     consumerFilterData.setBloomFilterData(bloomFilterData);
 
                     this.groupFilterData.put(consumerGroup, consumerFilterData);
+                    markChanged();
 
                     log.info("Consumer filter info change, old: {}, new: {}, change: {}",
                         old, consumerFilterData, change);
@@ -442,9 +470,27 @@ public class ConsumerFilterManager extends ConfigManager {
         protected void reAlive(ConsumerFilterData filterData) {
             long oldDeadTime = filterData.getDeadTime();
             filterData.setDeadTime(0);
+            markChanged();
             log.info("Re alive consumer filter: {}, oldDeadTime: {}", filterData, oldDeadTime);
         }
 
+        private void markChanged() {
+            this.version.incrementAndGet();
+        }
+
+        public FilterEvaluationPlan getEvaluationPlan() {
+            // Read the version before the filter data, a change in between only causes one more rebuild
+            long currentVersion = this.version.get();
+            FilterEvaluationPlan plan = this.evaluationPlan;
+            if (plan == null || plan.getVersion() != currentVersion) {
+                plan = FilterEvaluationPlan.build(this.groupFilterData.values(), currentVersion);
+                this.evaluationPlan = plan;
+                log.info("Build filter evaluation plan of {}, consumerNum={}, expressionNum={}, sharedNum={}",
+                    topic, plan.getConsumerNum(), plan.getExpressionNum(), plan.getExpressionPlan().getSharedNum());
+            }
+            return plan;
+        }
+
         public final ConsumerFilterData get(String consumerGroup) {
             return this.groupFilterData.get(consumerGroup);
         }
@@ -455,6 +501,7 @@ public class ConsumerFilterManager extends ConfigManager {
 
         public void setGroupFilterData(final ConcurrentHashMap<String, ConsumerFilterData> groupFilterData) {
             this.groupFilterData = groupFilterData;
+            markChanged();
         }
 
         public String getTopic() {
@@ -21,8 +21,8 @@ import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.filter.ExpressionType;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
-import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.filter.expression.EvaluationContext;
 import org.apache.rocketmq.filter.util.BitsArray;
 import org.apache.rocketmq.filter.util.BloomFilter;
 import org.apache.rocketmq.store.ConsumeQueueExt;
@@ -129,7 +129,6 @@ public class ExpressionMessageFilter implements MessageFilter {
         }
 
         ConsumerFilterData realFilterData = this.consumerFilterData;
-        Map<String, String> tempProperties = properties;
 
         // no expression
         if (realFilterData == null || realFilterData.getExpression() == null
@@ -137,20 +136,22 @@ public class ExpressionMessageFilter implements MessageFilter {
             return true;
         }
 
-        if (tempProperties == null && msgBuffer != null) {
-            tempProperties = MessageDecoder.decodeProperties(msgBuffer);
+        // only the properties referenced by the expression are decoded
+        EvaluationContext context;
+        if (properties == null && msgBuffer != null) {
+            context = new MessageBufferEvaluationContext(msgBuffer);
+        } else {
+            context = new MessageEvaluationContext(properties);
         }
 
         Object ret = null;
         try {
-            MessageEvaluationContext context = new MessageEvaluationContext(tempProperties);
-
             ret = realFilterData.getCompiledExpression().evaluate(context);
         } catch (Throwable e) {
-            log.error("Message Filter error, " + realFilterData + ", " + tempProperties, e);
+            log.error("Message Filter error, " + realFilterData + ", " + context, e);
         }
 
-        log.debug("Pull eval result: {}, {}, {}", ret, realFilterData, tempProperties);
+        log.debug("Pull eval result: {}, {}, {}", ret, realFilterData, context);
 
         if (ret == null || !(ret instanceof Boolean)) {
             return false;
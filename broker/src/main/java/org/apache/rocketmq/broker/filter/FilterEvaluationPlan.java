@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.filter.expression.CompiledExpression;
+import org.apache.rocketmq.filter.expression.Expression;
+import org.apache.rocketmq.filter.expression.ExpressionPlan;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+
+/**
+ * Filter data of all consumers of a topic, grouped by canonical expression.
+ * <p>
+ * Consumers whose expressions only differ in the way they are written share one entry of the {@link ExpressionPlan},
+ * and sub-expressions common to several entries are evaluated once per message, so calculating the bit map costs in
+ * distinct predicates instead of in consumer groups.
+ * </p>
+ */
+public class FilterEvaluationPlan {
+
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.FILTER_LOGGER_NAME);
+
+    private final ConsumerFilterData[] members;
+    private final ExpressionPlan expressionPlan;
+    private final ConsumerFilterData[][] consumersByExpression;
+    private final long version;
+
+    private FilterEvaluationPlan(ConsumerFilterData[] members, ExpressionPlan expressionPlan,
+        ConsumerFilterData[][] consumersByExpression, long version) {
+        this.members = members;
+        this.expressionPlan = expressionPlan;
+        this.consumersByExpression = consumersByExpression;
+        this.version = version;
+    }
+
+    /**
+     * @param version Version of the filter data of the topic the plan is built from.
+     */
+    public static FilterEvaluationPlan build(Collection<ConsumerFilterData> filterDatas, long version) {
+        List<ConsumerFilterData> members = new ArrayList<ConsumerFilterData>(filterDatas.size());
+        Map<String, List<ConsumerFilterData>> consumersByKey = new LinkedHashMap<String, List<ConsumerFilterData>>();
+        Map<String, Expression> expressionByKey = new LinkedHashMap<String, Expression>();
+
+        for (ConsumerFilterData filterData : filterDatas) {
+            members.add(filterData);
+            if (filterData.getCompiledExpression() == null) {
+                log.error("[BUG] Consumer in filter manager has no compiled expression! {}", filterData);
+                continue;
+            }
+
+            String key = CompiledExpression.canonicalKey(filterData.getCompiledExpression());
+            key = key == null ? "#" + filterData.getConsumerGroup() : filterData.getExpressionType() + ":" + key;
+
+            List<ConsumerFilterData> consumers = consumersByKey.get(key);
+            if (consumers == null) {
+                consumers = new ArrayList<ConsumerFilterData>(4);
+                consumersByKey.put(key, consumers);
+                expressionByKey.put(key, filterData.getCompiledExpression());
+            }
+            consumers.add(filterData);
+        }
+
+        ConsumerFilterData[][] consumersByExpression = new ConsumerFilterData[consumersByKey.size()][];
+        int index = 0;
+        for (List<ConsumerFilterData> consumers : consumersByKey.values()) {
+            consumersByExpression[index++] = consumers.toArray(new ConsumerFilterData[0]);
+        }
+        return new FilterEvaluationPlan(members.toArray(new ConsumerFilterData[0]),
+            ExpressionPlan.build(new ArrayList<Expression>(expressionByKey.values())), consumersByExpression, version);
+    }
+
+    public ExpressionPlan getExpressionPlan() {
+        return expressionPlan;
+    }
+
+    public int getExpressionNum() {
+        return consumersByExpression.length;
+    }
+
+    public int getConsumerNum() {
+        return members.length;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public ConsumerFilterData[] getConsumers(int expressionIndex) {
+        return consumersByExpression[expressionIndex];
+    }
+}
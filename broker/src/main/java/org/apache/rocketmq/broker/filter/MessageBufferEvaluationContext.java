@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.filter;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.filter.expression.EvaluationContext;
+
+/**
+ * Evaluation context reading properties straight from a stored message.
+ * <p>
+ * Instead of decoding all properties into a map, each lookup scans the properties area of the buffer for the
+ * requested name and only decodes the matched value. Values already looked up are kept, so a property referenced
+ * twice, e.g. by BETWEEN, is decoded once. The buffer position is never changed.
+ * </p>
+ */
+public class MessageBufferEvaluationContext implements EvaluationContext {
+
+    private static final byte NAME_VALUE_SEPARATOR = (byte) MessageDecoder.NAME_VALUE_SEPARATOR;
+    private static final byte PROPERTY_SEPARATOR = (byte) MessageDecoder.PROPERTY_SEPARATOR;
+
+    private final ByteBuffer msgBuffer;
+    private final int propertiesStart;
+    private final int propertiesEnd;
+
+    private String[] names = new String[4];
+    private String[] values = new String[4];
+    private int size;
+
+    public MessageBufferEvaluationContext(ByteBuffer msgBuffer) {
+        this.msgBuffer = msgBuffer;
+        int topicLengthPosition = MessageDecoder.BODY_SIZE_POSITION + 4 + msgBuffer.getInt(MessageDecoder.BODY_SIZE_POSITION);
+        int topicLength = msgBuffer.get(topicLengthPosition);
+        short propertiesLength = msgBuffer.getShort(topicLengthPosition + 1 + topicLength);
+        this.propertiesStart = topicLengthPosition + 1 + topicLength + 2;
+        this.propertiesEnd = this.propertiesStart + Math.max(0, (int) propertiesLength);
+    }
+
+    @Override
+    public Object get(final String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                return values[i];
+            }
+        }
+        String value = find(name);
+        if (size == names.length) {
+            String[] newNames = new String[size * 2];
+            String[] newValues = new String[size * 2];
+            System.arraycopy(names, 0, newNames, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            names = newNames;
+            values = newValues;
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+        return value;
+    }
+
+    @Override
+    public Map<String, Object> keyValues() {
+        if (propertiesEnd == propertiesStart) {
+            return null;
+        }
+        Map<String, Object> copy = new HashMap<String, Object>();
+        copy.putAll(MessageDecoder.string2messageProperties(decode(propertiesStart, propertiesEnd)));
+        return copy;
+    }
+
+    /**
+     * Same result as {@link MessageDecoder#string2messageProperties}: an entry needs exactly one non empty value
+     * (trailing separators are ignored) and the last entry of a repeated name wins.
+     */
+    private String find(final String name) {
+        String found = null;
+        int itemStart = propertiesStart;
+        while (itemStart < propertiesEnd) {
+            int itemEnd = indexOf(PROPERTY_SEPARATOR, itemStart, propertiesEnd);
+            int nameEnd = indexOf(NAME_VALUE_SEPARATOR, itemStart, itemEnd);
+            if (nameEnd < itemEnd && nameMatches(name, itemStart, nameEnd)) {
+                int valueStart = nameEnd + 1;
+                int valueEnd = indexOf(NAME_VALUE_SEPARATOR, valueStart, itemEnd);
+                if (valueEnd > valueStart && onlySeparators(valueEnd, itemEnd)) {
+                    found = decode(valueStart, valueEnd);
+                }
+            }
+            itemStart = itemEnd + 1;
+        }
+        return found;
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (msgBuffer.get(i) == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private boolean onlySeparators(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (msgBuffer.get(i) != NAME_VALUE_SEPARATOR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean nameMatches(final String name, int from, int to) {
+        int length = to - from;
+        for (int i = 0; i < length; i++) {
+            if (msgBuffer.get(from + i) < 0) {
+                // not ascii, compare the decoded name
+                return name.equals(decode(from, to));
+            }
+        }
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (msgBuffer.get(from + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = msgBuffer.get(from + i);
+        }
+        return new String(bytes, MessageDecoder.CHARSET_UTF8);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(keyValues());
+    }
+}
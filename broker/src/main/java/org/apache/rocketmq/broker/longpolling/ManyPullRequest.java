@@ -18,6 +18,7 @@ package org.apache.rocketmq.broker.longpolling;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 public class ManyPullRequest {
     private final ArrayList<PullRequest> pullRequestList = new ArrayList<>();
@@ -39,4 +40,32 @@ public class ManyPullRequest {
 
         return null;
     }
+
+    /**
+     * @return Whether the request was still held here.
+     */
+    public synchronized boolean removePullRequest(final PullRequest pullRequest) {
+        return this.pullRequestList.remove(pullRequest);
+    }
+
+    /**
+     * Remove the requests accepted by the filter in a single pass.
+     *
+     * @return Removed requests, empty if none.
+     */
+    public synchronized List<PullRequest> removePullRequests(final Predicate<PullRequest> filter) {
+        final List<PullRequest> removed = new ArrayList<>();
+        this.pullRequestList.removeIf(pullRequest -> {
+            if (filter.test(pullRequest)) {
+                removed.add(pullRequest);
+                return true;
+            }
+            return false;
+        });
+        return removed;
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.pullRequestList.isEmpty();
+    }
 }
@@ -17,6 +17,7 @@
 package org.apache.rocketmq.broker.longpolling;
 
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.store.MessageFilter;
@@ -30,6 +31,7 @@ public class PullRequest {
     private final SubscriptionData subscriptionData;
     private final MessageFilter messageFilter;
     private final boolean snodeRequest;
+    private volatile Timeout timeout;
 
     public PullRequest(RemotingCommand requestCommand, Channel clientChannel, long timeoutMillis, long suspendTimestamp,
         long pullFromThisOffset, SubscriptionData subscriptionData,
@@ -88,4 +90,12 @@ public class PullRequest {
     public boolean isSnodeRequest() {
         return snodeRequest;
     }
+
+    Timeout getTimeout() {
+        return timeout;
+    }
+
+    void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
+    }
 }
@@ -16,33 +16,55 @@
  */
 package org.apache.rocketmq.broker.longpolling;
 
-import java.util.ArrayList;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.SystemClock;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.store.ConsumeQueueExt;
+import org.apache.rocketmq.store.config.BrokerRole;
 
+/**
+ * Holds pull requests finding no message until a message arrives in their queue or they time out.
+ * <p>
+ * Requests are woken by {@link NotifyMessageArrivingListener} events and expired by a timer wheel, held queues are
+ * not swept. Every queue belongs to one of several wakeup threads which does all the adding, matching and removing
+ * of its requests, so a hot queue only delays the queues sharing its thread. A slave gets no arriving events, it
+ * still checks its held queues every few seconds.
+ */
 public class PullRequestHoldService extends ServiceThread {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.BROKER_LOGGER_NAME);
-    private static final String TOPIC_QUEUEID_SEPARATOR = "@";
+    private static final long SLAVE_CHECK_INTERVAL = 5 * 1000;
     private final BrokerController brokerController;
     private final SystemClock systemClock = new SystemClock();
-    private ConcurrentMap<String/* topic@queueId */, ManyPullRequest> pullRequestTable =
-        new ConcurrentHashMap<String, ManyPullRequest>(1024);
+    private ConcurrentMap<QueueKey, ManyPullRequest> pullRequestTable =
+        new ConcurrentHashMap<QueueKey, ManyPullRequest>(1024);
+    private final HashedWheelTimer timeoutTimer;
+    private final ExecutorService[] wakeupExecutors;
 
     public PullRequestHoldService(final BrokerController brokerController) {
         this.brokerController = brokerController;
+        this.timeoutTimer = new HashedWheelTimer(new ThreadFactoryImpl("PullRequestHoldTimer_", true),
+            brokerController.getBrokerConfig().getPullRequestHoldTimerTickMills(), TimeUnit.MILLISECONDS);
+        this.wakeupExecutors = new ExecutorService[Math.max(1, brokerController.getBrokerConfig().getPullRequestHoldThreadNums())];
+        for (int i = 0; i < this.wakeupExecutors.length; i++) {
+            this.wakeupExecutors[i] = Executors.newSingleThreadExecutor(new ThreadFactoryImpl("PullRequestHoldWakeup_" + i + "_"));
+        }
     }
 
     public void suspendPullRequest(final String topic, final int queueId, final PullRequest pullRequest) {
-        String key = this.buildKey(topic, queueId);
+        final QueueKey key = new QueueKey(topic, queueId);
         ManyPullRequest mpr = this.pullRequestTable.get(key);
         if (null == mpr) {
             mpr = new ManyPullRequest();
@@ -52,15 +74,23 @@ public class PullRequestHoldService extends ServiceThread {
             }
         }
 
-        mpr.addPullRequest(pullRequest);
+        final ManyPullRequest held = mpr;
+        this.getWakeupExecutor(key).execute(() -> {
+            held.addPullRequest(pullRequest);
+            long delay = pullRequest.getSuspendTimestamp() + pullRequest.getTimeoutMillis() - this.brokerController.getMessageStore().now();
+            pullRequest.setTimeout(this.timeoutTimer.newTimeout(timeout -> this.expirePullRequest(key, held, pullRequest),
+                Math.max(0, delay), TimeUnit.MILLISECONDS));
+
+            // A message may have arrived between the pull finding nothing and now
+            long maxOffset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
+            if (maxOffset > pullRequest.getPullFromThisOffset()) {
+                this.wakeupMatched(key, held, maxOffset, null, 0, null, null);
+            }
+        });
     }
 
-    private String buildKey(final String topic, final int queueId) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(topic);
-        sb.append(TOPIC_QUEUEID_SEPARATOR);
-        sb.append(queueId);
-        return sb.toString();
+    private ExecutorService getWakeupExecutor(final QueueKey key) {
+        return this.wakeupExecutors[(key.hashCode() & Integer.MAX_VALUE) % this.wakeupExecutors.length];
     }
 
     @Override
@@ -68,10 +98,9 @@ public class PullRequestHoldService extends ServiceThread {
         log.info("{} service started", this.getServiceName());
         while (!this.isStopped()) {
             try {
-                if (this.brokerController.getBrokerConfig().isLongPollingEnable()) {
-                    this.waitForRunning(5 * 1000);
-                } else {
-                    this.waitForRunning(this.brokerController.getBrokerConfig().getShortPollingTimeMills());
+                this.waitForRunning(SLAVE_CHECK_INTERVAL);
+                if (BrokerRole.SLAVE != this.brokerController.getMessageStoreConfig().getBrokerRole()) {
+                    continue;
                 }
 
                 long beginLockTimestamp = this.systemClock.now();
@@ -88,24 +117,28 @@ public class PullRequestHoldService extends ServiceThread {
         log.info("{} service end", this.getServiceName());
     }
 
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        this.timeoutTimer.stop();
+        for (ExecutorService executor : this.wakeupExecutors) {
+            executor.shutdown();
+        }
+    }
+
     @Override
     public String getServiceName() {
         return PullRequestHoldService.class.getSimpleName();
     }
 
     private void checkHoldRequest() {
-        for (String key : this.pullRequestTable.keySet()) {
-            String[] kArray = key.split(TOPIC_QUEUEID_SEPARATOR);
-            if (2 == kArray.length) {
-                String topic = kArray[0];
-                int queueId = Integer.parseInt(kArray[1]);
-                final long offset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
-                try {
-                    this.notifyMessageArriving(topic, queueId, offset);
-                } catch (Throwable e) {
-                    log.error("check hold request failed. topic={}, queueId={}", topic, queueId, e);
-                }
+        for (Map.Entry<QueueKey, ManyPullRequest> entry : this.pullRequestTable.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
             }
+            final QueueKey key = entry.getKey();
+            final long offset = this.brokerController.getMessageStore().getMaxOffsetInQueue(key.topic, key.queueId);
+            this.notifyMessageArriving(key.topic, key.queueId, offset);
         }
     }
 
@@ -115,68 +148,110 @@ public class PullRequestHoldService extends ServiceThread {
 
     public void notifyMessageArriving(final String topic, final int queueId, final long maxOffset, final Long tagsCode,
         long msgStoreTime, byte[] filterBitMap, Map<String, String> properties) {
-        String key = this.buildKey(topic, queueId);
-        ManyPullRequest mpr = this.pullRequestTable.get(key);
-        if (mpr != null) {
-            List<PullRequest> requestList = mpr.cloneListAndClear();
-            if (requestList != null) {
-                List<PullRequest> replayList = new ArrayList<PullRequest>();
-
-                for (PullRequest request : requestList) {
-                    long newestOffset = maxOffset;
-                    if (newestOffset <= request.getPullFromThisOffset()) {
-                        newestOffset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
-                    }
-                    try {
-                        if (newestOffset > request.getPullFromThisOffset()) {
-                            boolean match = request.getMessageFilter().isMatchedByConsumeQueue(tagsCode,
-                                new ConsumeQueueExt.CqExtUnit(tagsCode, msgStoreTime, filterBitMap));
-                            // match by bit map, need eval again when properties is not null.
-                            if (match && properties != null) {
-                                match = request.getMessageFilter().isMatchedByCommitLog(null, properties);
-                            }
-
-                            if (match) {
-                                try {
-                                    if (request.isSnodeRequest()) {
-                                        this.brokerController.getSnodePullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
-                                            request.getRequestCommand());
-                                    } else {
-                                        this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
-                                            request.getRequestCommand());
-                                    }
-                                } catch (Throwable e) {
-                                    log.error("execute request when wakeup failed.", e);
-                                }
-                                continue;
-                            }
-                        }
-                    } catch (Exception ex) {
-                        log.error("Error occurred:{}", ex);
-                    }
+        final QueueKey key = new QueueKey(topic, queueId);
+        final ManyPullRequest mpr = this.pullRequestTable.get(key);
+        if (mpr == null || mpr.isEmpty()) {
+            return;
+        }
 
-                    if (System.currentTimeMillis() >= (request.getSuspendTimestamp() + request.getTimeoutMillis())) {
-                        try {
-                            if (request.isSnodeRequest()) {
-                                this.brokerController.getSnodePullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
-                                    request.getRequestCommand());
-                            } else {
-                                this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
-                                    request.getRequestCommand());
-                            }
-                        } catch (Throwable e) {
-                            log.error("execute request when wakeup failed.", e);
-                        }
-                        continue;
+        this.getWakeupExecutor(key).execute(() -> {
+            try {
+                this.wakeupMatched(key, mpr, maxOffset, tagsCode, msgStoreTime, filterBitMap, properties);
+            } catch (Throwable e) {
+                log.error("notify message arriving failed. topic={}, queueId={}", topic, queueId, e);
+            }
+        });
+    }
+
+    private void wakeupMatched(final QueueKey key, final ManyPullRequest mpr, final long maxOffset, final Long tagsCode,
+        long msgStoreTime, byte[] filterBitMap, Map<String, String> properties) {
+        final long[] queueMaxOffset = {-1};
+        List<PullRequest> matched = mpr.removePullRequests(request -> {
+            long newestOffset = maxOffset;
+            if (newestOffset <= request.getPullFromThisOffset()) {
+                if (queueMaxOffset[0] < 0) {
+                    queueMaxOffset[0] = this.brokerController.getMessageStore().getMaxOffsetInQueue(key.topic, key.queueId);
+                }
+                newestOffset = queueMaxOffset[0];
+            }
+            try {
+                if (newestOffset > request.getPullFromThisOffset()) {
+                    boolean match = request.getMessageFilter().isMatchedByConsumeQueue(tagsCode,
+                        new ConsumeQueueExt.CqExtUnit(tagsCode, msgStoreTime, filterBitMap));
+                    // match by bit map, need eval again when properties is not null.
+                    if (match && properties != null) {
+                        match = request.getMessageFilter().isMatchedByCommitLog(null, properties);
                     }
-                    replayList.add(request);
+                    return match;
                 }
+            } catch (Exception ex) {
+                log.error("Error occurred:{}", ex);
+            }
+            return false;
+        });
 
-                if (!replayList.isEmpty()) {
-                    mpr.addPullRequest(replayList);
-                }
+        for (PullRequest request : matched) {
+            Timeout timeout = request.getTimeout();
+            if (timeout != null) {
+                timeout.cancel();
             }
+            this.executeRequestWhenWakeup(request);
         }
     }
-}
 
+    private void expirePullRequest(final QueueKey key, final ManyPullRequest mpr, final PullRequest request) {
+        this.getWakeupExecutor(key).execute(() -> {
+            if (mpr.removePullRequest(request)) {
+                this.executeRequestWhenWakeup(request);
+            }
+        });
+    }
+
+    private void executeRequestWhenWakeup(final PullRequest request) {
+        try {
+            if (request.isSnodeRequest()) {
+                this.brokerController.getSnodePullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
+                    request.getRequestCommand());
+            } else {
+                this.brokerController.getPullMessageProcessor().executeRequestWhenWakeup(request.getClientChannel(),
+                    request.getRequestCommand());
+            }
+        } catch (Throwable e) {
+            log.error("execute request when wakeup failed.", e);
+        }
+    }
+
+    static final class QueueKey {
+        private final String topic;
+        private final int queueId;
+        private final int hash;
+
+        QueueKey(final String topic, final int queueId) {
+            this.topic = topic;
+            this.queueId = queueId;
+            this.hash = 31 * topic.hashCode() + queueId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof QueueKey)) {
+                return false;
+            }
+            QueueKey other = (QueueKey) o;
+            return queueId == other.queueId && topic.equals(other.topic);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return topic + "@" + queueId;
+        }
+    }
+}
@@ -20,6 +20,7 @@ package org.apache.rocketmq.broker.plugin;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.store.CommitLogDispatcher;
 import org.apache.rocketmq.store.ConsumeQueue;
@@ -86,6 +87,11 @@ public abstract class AbstractPluginMessageStore implements MessageStore {
         return next.putMessage(msg);
     }
 
+    @Override
+    public CompletableFuture<PutMessageResult> asyncPutMessage(MessageExtBrokerInner msg) {
+        return next.asyncPutMessage(msg);
+    }
+
     @Override
     public GetMessageResult getMessage(String group, String topic, int queueId, long offset,
         int maxMsgNums, final MessageFilter messageFilter) {
@@ -20,6 +20,7 @@ import io.netty.channel.ChannelHandlerContext;
 import java.net.SocketAddress;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.apache.rocketmq.broker.BrokerController;
 import org.apache.rocketmq.broker.mqtrace.ConsumeMessageContext;
 import org.apache.rocketmq.broker.mqtrace.ConsumeMessageHook;
@@ -81,7 +82,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
                 mqtraceContext = buildMsgContext(ctx, requestHeader);
                 this.executeSendMessageHookBefore(ctx, request, mqtraceContext);
 
-                RemotingCommand response;
+                CompletableFuture<RemotingCommand> responseFuture;
                 SocketAddress bornHost = null;
                 if (requestHeader.getBornHost() != null) {
                     bornHost = RemotingHelper.string2SocketAddress(requestHeader.getBornHost());
@@ -90,13 +91,35 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
                 }
 
                 if (requestHeader.isBatch()) {
-                    response = this.sendBatchMessage(bornHost, request, mqtraceContext, requestHeader);
+                    responseFuture = this.sendBatchMessage(bornHost, request, mqtraceContext, requestHeader);
                 } else {
-                    response = this.sendMessage(bornHost, request, mqtraceContext, requestHeader);
+                    responseFuture = this.sendMessage(bornHost, request, mqtraceContext, requestHeader);
                 }
 
-                this.executeSendMessageHookAfter(response, mqtraceContext);
-                return response;
+                // Nothing to wait for, e.g. under ASYNC_FLUSH, answer from this thread as before
+                if (responseFuture.isDone()) {
+                    RemotingCommand response = responseFuture.join();
+                    this.executeSendMessageHookAfter(response, mqtraceContext);
+                    return response;
+                }
+
+                // Otherwise answer once the flush or the slave acknowledgment completes, without holding this thread.
+                // The hooks and the response run on the completing flush or HA thread: handing them to the bounded
+                // send executor could be rejected, and the response would then never be written.
+                responseFuture.whenComplete((response, throwable) -> {
+                    if (throwable != null) {
+                        log.error("send message failed, " + request, throwable);
+                        response = RemotingCommand.createResponseCommand(ResponseCode.SYSTEM_ERROR,
+                            RemotingHelper.exceptionSimpleDesc(throwable));
+                        response.setOpaque(request.getOpaque());
+                    }
+                    this.executeSendMessageHookAfter(response, mqtraceContext);
+                    if (response != null) {
+                        response.markResponseType();
+                        this.doResponse(ctx, request, response);
+                    }
+                });
+                return null;
         }
     }
 
@@ -303,7 +326,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         return true;
     }
 
-    private RemotingCommand sendMessage(final SocketAddress remoteAddress,
+    private CompletableFuture<RemotingCommand> sendMessage(final SocketAddress remoteAddress,
         final RemotingCommand request,
         final SendMessageContext sendMessageContext,
         final SendMessageRequestHeader requestHeader) throws RemotingCommandException {
@@ -322,13 +345,13 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         if (this.brokerController.getMessageStore().now() < startTimstamp) {
             response.setCode(ResponseCode.SYSTEM_ERROR);
             response.setRemark(String.format("broker unable to service, until %s", UtilAll.timeMillisToHumanString2(startTimstamp)));
-            return response;
+            return CompletableFuture.completedFuture(response);
         }
 
         response.setCode(-1);
         super.msgCheck(RemotingHelper.parseChannelRemoteAddr(remoteAddress), requestHeader, response);
         if (response.getCode() != -1) {
-            return response;
+            return CompletableFuture.completedFuture(response);
         }
 
         final byte[] body = request.getBody();
@@ -345,7 +368,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         msgInner.setQueueId(queueIdInt);
 
         if (!handleRetryAndDLQ(requestHeader, response, request, msgInner, topicConfig)) {
-            return response;
+            return CompletableFuture.completedFuture(response);
         }
 
         msgInner.setBody(body);
@@ -357,7 +380,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         msgInner.setStoreHost(this.getStoreHost());
         msgInner.setReconsumeTimes(requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes());
         msgInner.setBornHost(remoteAddress);
-        PutMessageResult putMessageResult = null;
+        CompletableFuture<PutMessageResult> putMessageResultFuture;
         Map<String, String> oriProps = MessageDecoder.string2messageProperties(requestHeader.getProperties());
         String traFlag = oriProps.get(MessageConst.PROPERTY_TRANSACTION_PREPARED);
         if (traFlag != null && Boolean.parseBoolean(traFlag)) {
@@ -366,14 +389,17 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
                 response.setRemark(
                     "the broker[" + this.brokerController.getBrokerConfig().getBrokerIP1()
                         + "] sending transaction message is forbidden");
-                return response;
+                return CompletableFuture.completedFuture(response);
             }
-            putMessageResult = this.brokerController.getTransactionalMessageService().prepareMessage(msgInner);
+            putMessageResultFuture = CompletableFuture.completedFuture(
+                this.brokerController.getTransactionalMessageService().prepareMessage(msgInner));
         } else {
-            putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
+            putMessageResultFuture = this.brokerController.getMessageStore().asyncPutMessage(msgInner);
         }
 
-        return handlePutMessageResult(putMessageResult, response, request, msgInner, responseHeader, sendMessageContext, queueIdInt, remoteAddress);
+        final int queueId = queueIdInt;
+        return putMessageResultFuture.thenApply(putMessageResult ->
+            handlePutMessageResult(putMessageResult, response, request, msgInner, responseHeader, sendMessageContext, queueId, remoteAddress));
 
     }
 
@@ -489,7 +515,7 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         return response;
     }
 
-    private RemotingCommand sendBatchMessage(final SocketAddress remoteAddress,
+    private CompletableFuture<RemotingCommand> sendBatchMessage(final SocketAddress remoteAddress,
         final RemotingCommand request,
         final SendMessageContext sendMessageContext,
         final SendMessageRequestHeader requestHeader) throws RemotingCommandException {
@@ -508,13 +534,13 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         if (this.brokerController.getMessageStore().now() < startTimstamp) {
             response.setCode(ResponseCode.SYSTEM_ERROR);
             response.setRemark(String.format("broker unable to service, until %s", UtilAll.timeMillisToHumanString2(startTimstamp)));
-            return response;
+            return CompletableFuture.completedFuture(response);
         }
 
         response.setCode(-1);
         super.msgCheck(RemotingHelper.parseChannelRemoteAddr(remoteAddress), requestHeader, response);
         if (response.getCode() != -1) {
-            return response;
+            return CompletableFuture.completedFuture(response);
         }
 
         int queueIdInt = requestHeader.getQueueId();
@@ -527,13 +553,13 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         if (requestHeader.getTopic().length() > Byte.MAX_VALUE) {
             response.setCode(ResponseCode.MESSAGE_ILLEGAL);
             response.setRemark("message topic length too long " + requestHeader.getTopic().length());
-            return response;
+            return CompletableFuture.completedFuture(response);
         }
 
         if (requestHeader.getTopic() != null && requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
             response.setCode(ResponseCode.MESSAGE_ILLEGAL);
             response.setRemark("batch request does not support retry group " + requestHeader.getTopic());
-            return response;
+            return CompletableFuture.completedFuture(response);
         }
         MessageExtBatch messageExtBatch = new MessageExtBatch();
         messageExtBatch.setTopic(requestHeader.getTopic());
@@ -554,9 +580,11 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
 
         messageExtBatch.setReconsumeTimes(requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes());
 
-        PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessages(messageExtBatch);
+        CompletableFuture<PutMessageResult> putMessageResultFuture = this.brokerController.getMessageStore().asyncPutMessages(messageExtBatch);
 
-        return handlePutMessageResult(putMessageResult, response, request, messageExtBatch, responseHeader, sendMessageContext, queueIdInt, storeHost);
+        final int queueId = queueIdInt;
+        return putMessageResultFuture.thenApply(putMessageResult ->
+            handlePutMessageResult(putMessageResult, response, request, messageExtBatch, responseHeader, sendMessageContext, queueId, storeHost));
     }
 
     public boolean hasConsumeMessageHook() {
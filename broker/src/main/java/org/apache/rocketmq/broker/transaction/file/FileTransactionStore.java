@@ -0,0 +1,407 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.transaction.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.broker.transaction.TransactionRecord;
+import org.apache.rocketmq.broker.transaction.TransactionStore;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.MappedFileQueue;
+
+/**
+ * Transaction store kept in append-only record files on a {@link MappedFileQueue}, with no external database.
+ * <p>
+ * A put appends one record per transaction and a removal one record per live transaction, then the live ones are kept
+ * in a {@link TransactionRecordIndex} rebuilt from the files on open. With {@code syncFlush}, concurrent puts wait for
+ * the same flush, like the group commit of the commit log. A background compaction copies the live records of the
+ * oldest file to the end of the log, then deletes the file.
+ * </p>
+ * Record layout: total size, magic, commit log offset, then for a put the length and bytes of the producer group. The
+ * last 8 bytes of every file hold the offset of its last byte, so that {@link MappedFileQueue#deleteExpiredFileByOffset}
+ * can delete the files before a compacted one.
+ */
+public class FileTransactionStore implements TransactionStore {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.TRANSACTION_LOGGER_NAME);
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int PUT_MAGIC = 0xA1B2C3D4;
+    private static final int REMOVE_MAGIC = 0xA1B2C3D5;
+    private static final int BLANK_MAGIC = 0xCBD43194;
+
+    private static final int PUT_HEADER_SIZE = 4 + 4 + 8 + 2;
+    private static final int REMOVE_RECORD_SIZE = 4 + 4 + 8;
+    // File at the end of the minimum fixed length empty
+    private static final int END_FILE_MIN_BLANK_LENGTH = 4 + 4;
+    private static final int TRAILER_SIZE = 8;
+
+    private final FileTransactionStoreConfig transactionStoreConfig;
+    private final MappedFileQueue recordLog;
+    private final int fileSize;
+
+    private final TransactionRecordIndex index = new TransactionRecordIndex(1024);
+    private final HashMap<String, Integer> groupIds = new HashMap<String, Integer>();
+    private final List<String> groupNames = new ArrayList<String>();
+    private final List<byte[]> groupBytes = new ArrayList<byte[]>();
+
+    private long writeOffset;
+    private MappedFile writeFile;
+    private ByteBuffer writeBuffer;
+
+    private final GroupCommitService groupCommitService = new GroupCommitService();
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryImpl("FileTransactionStoreScheduledThread"));
+
+    public FileTransactionStore(FileTransactionStoreConfig transactionStoreConfig) {
+        this.transactionStoreConfig = transactionStoreConfig;
+        this.fileSize = transactionStoreConfig.getMappedFileSize();
+        this.recordLog = new MappedFileQueue(transactionStoreConfig.getStorePath(), this.fileSize, null);
+    }
+
+    @Override
+    public boolean open() {
+        if (!this.recordLog.load()) {
+            return false;
+        }
+        this.writeOffset = recover();
+        this.recordLog.setFlushedWhere(this.writeOffset);
+        this.recordLog.setCommittedWhere(this.writeOffset);
+        this.recordLog.truncateDirtyFiles(this.writeOffset);
+
+        this.groupCommitService.start();
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Throwable e) {
+                    log.error("Compact transaction records error", e);
+                }
+            }
+        }, this.transactionStoreConfig.getCompactionInterval(), this.transactionStoreConfig.getCompactionInterval(),
+            TimeUnit.MILLISECONDS);
+        log.info("Open transaction store {}, records={}, writeOffset={}", this.transactionStoreConfig.getStorePath(),
+            this.index.size(), this.writeOffset);
+        return true;
+    }
+
+    private long recover() {
+        List<MappedFile> mappedFiles = this.recordLog.getMappedFiles();
+        if (mappedFiles.isEmpty()) {
+            return 0;
+        }
+        for (MappedFile mappedFile : mappedFiles) {
+            ByteBuffer buffer = mappedFile.getMappedByteBuffer().slice();
+            int pos = 0;
+            while (true) {
+                if (pos + END_FILE_MIN_BLANK_LENGTH > this.fileSize - TRAILER_SIZE) {
+                    return mappedFile.getFileFromOffset() + pos;
+                }
+                int size = buffer.getInt(pos);
+                int magic = buffer.getInt(pos + 4);
+                if (magic == BLANK_MAGIC) {
+                    // the trailer may be missing if the broker went down while rolling to the next file
+                    buffer.putLong(this.fileSize - TRAILER_SIZE, trailer(mappedFile));
+                    break;
+                }
+                if (size <= 0 || pos + size > this.fileSize - TRAILER_SIZE) {
+                    return mappedFile.getFileFromOffset() + pos;
+                }
+                long offset = buffer.getLong(pos + 8);
+                if (magic == PUT_MAGIC && size >= PUT_HEADER_SIZE
+                    && buffer.getShort(pos + 16) == size - PUT_HEADER_SIZE) {
+                    byte[] group = new byte[size - PUT_HEADER_SIZE];
+                    ByteBuffer slice = buffer.duplicate();
+                    slice.position(pos + PUT_HEADER_SIZE);
+                    slice.get(group);
+                    this.index.put(offset, groupId(new String(group, CHARSET)), mappedFile.getFileFromOffset() + pos);
+                } else if (magic == REMOVE_MAGIC && size == REMOVE_RECORD_SIZE) {
+                    this.index.remove(offset);
+                } else {
+                    return mappedFile.getFileFromOffset() + pos;
+                }
+                pos += size;
+            }
+        }
+        MappedFile last = mappedFiles.get(mappedFiles.size() - 1);
+        return last.getFileFromOffset() + this.fileSize;
+    }
+
+    @Override
+    public void close() {
+        this.scheduledExecutorService.shutdown();
+        try {
+            this.scheduledExecutorService.awaitTermination(3, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+        this.groupCommitService.shutdown();
+        this.recordLog.flush(0);
+        this.recordLog.shutdown(1000 * 3);
+    }
+
+    @Override
+    public boolean put(List<TransactionRecord> trs) {
+        long nextOffset;
+        synchronized (this) {
+            for (TransactionRecord tr : trs) {
+                int group = groupId(tr.getProducerGroup() == null ? "" : tr.getProducerGroup());
+                long position = append(PUT_MAGIC, tr.getOffset(), this.groupBytes.get(group));
+                if (position < 0) {
+                    return false;
+                }
+                this.index.put(tr.getOffset(), group, position);
+            }
+            nextOffset = this.writeOffset;
+        }
+        if (this.transactionStoreConfig.isSyncFlush()) {
+            return waitForFlush(nextOffset);
+        }
+        return true;
+    }
+
+    @Override
+    public void remove(List<Long> pks) {
+        synchronized (this) {
+            for (long pk : pks) {
+                if (this.index.remove(pk) && append(REMOVE_MAGIC, pk, null) < 0) {
+                    log.warn("Append remove record failed, offset={}, it is removed from memory only", pk);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return at most nums records whose offset is not less than pk, in ascending order of offset.
+     */
+    @Override
+    public synchronized List<TransactionRecord> traverse(long pk, int nums) {
+        List<TransactionRecord> records = new ArrayList<TransactionRecord>(Math.max(0, Math.min(nums, this.index.size())));
+        for (int i = this.index.ceiling(pk); i >= 0 && records.size() < nums; i = this.index.next(i + 1)) {
+            TransactionRecord record = new TransactionRecord();
+            record.setOffset(this.index.offsetAt(i));
+            record.setProducerGroup(this.groupNames.get(this.index.groupAt(i)));
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized long totalRecords() {
+        return this.index.size();
+    }
+
+    @Override
+    public synchronized long minPK() {
+        return this.index.minOffset();
+    }
+
+    @Override
+    public synchronized long maxPK() {
+        return this.index.maxOffset();
+    }
+
+    /**
+     * Copy the live records of the oldest files to the end of the log and delete the files, leaving the last one.
+     */
+    public void compact() {
+        int files = this.recordLog.getMappedFiles().size();
+        for (int n = 0; n < files - 1; n++) {
+            MappedFile first = this.recordLog.getFirstMappedFile();
+            if (first == null || first == this.recordLog.getLastMappedFile()) {
+                return;
+            }
+            long end = first.getFileFromOffset() + this.fileSize;
+            int moved = 0;
+            long nextOffset;
+            synchronized (this) {
+                for (int i = this.index.next(this.index.head()); i >= 0; i = this.index.next(i + 1)) {
+                    if (this.index.positionAt(i) < end) {
+                        long position = append(PUT_MAGIC, this.index.offsetAt(i), this.groupBytes.get(this.index.groupAt(i)));
+                        if (position < 0) {
+                            return;
+                        }
+                        this.index.setPositionAt(i, position);
+                        moved++;
+                    }
+                }
+                nextOffset = this.writeOffset;
+            }
+            // the copies must be on disk before the file is deleted
+            if (!waitForFlush(nextOffset)) {
+                return;
+            }
+            int deleted = this.recordLog.deleteExpiredFileByOffset(end, TRAILER_SIZE);
+            log.info("Compact transaction records before {}, moved={}, deletedFiles={}", end, moved, deleted);
+            if (deleted == 0) {
+                return;
+            }
+        }
+    }
+
+    private int groupId(String producerGroup) {
+        Integer id = this.groupIds.get(producerGroup);
+        if (id == null) {
+            id = this.groupNames.size();
+            this.groupIds.put(producerGroup, id);
+            this.groupNames.add(producerGroup);
+            this.groupBytes.add(producerGroup.getBytes(CHARSET));
+        }
+        return id;
+    }
+
+    /**
+     * @return the log position of the record, or -1 if it could not be appended.
+     */
+    private long append(int magic, long offset, byte[] group) {
+        int size = magic == PUT_MAGIC ? PUT_HEADER_SIZE + group.length : REMOVE_RECORD_SIZE;
+        if (size + END_FILE_MIN_BLANK_LENGTH + TRAILER_SIZE > this.fileSize || size - PUT_HEADER_SIZE > Short.MAX_VALUE) {
+            log.error("Transaction record too large, offset={}, size={}", offset, size);
+            return -1;
+        }
+        MappedFile mappedFile = this.recordLog.getLastMappedFile(this.writeOffset);
+        if (mappedFile == null) {
+            log.error("Create transaction record file failed, writeOffset={}", this.writeOffset);
+            return -1;
+        }
+        if (mappedFile != this.writeFile) {
+            this.writeFile = mappedFile;
+            this.writeBuffer = mappedFile.getMappedByteBuffer().slice();
+        }
+        int pos = mappedFile.getWrotePosition();
+        if (pos + size + END_FILE_MIN_BLANK_LENGTH > this.fileSize - TRAILER_SIZE) {
+            // not enough room, mark the rest of the file blank and go on with the next one
+            this.writeBuffer.putInt(pos, this.fileSize - TRAILER_SIZE - pos);
+            this.writeBuffer.putInt(pos + 4, BLANK_MAGIC);
+            this.writeBuffer.putLong(this.fileSize - TRAILER_SIZE, trailer(mappedFile));
+            mappedFile.setWrotePosition(this.fileSize);
+            this.writeOffset = mappedFile.getFileFromOffset() + this.fileSize;
+            return append(magic, offset, group);
+        }
+
+        this.writeBuffer.position(pos + 4);
+        this.writeBuffer.putInt(magic);
+        this.writeBuffer.putLong(offset);
+        if (magic == PUT_MAGIC) {
+            this.writeBuffer.putShort((short) group.length);
+            this.writeBuffer.put(group);
+        }
+        // size goes last, a record cut short by a crash reads as the end of the log
+        this.writeBuffer.putInt(pos, size);
+        mappedFile.setWrotePosition(pos + size);
+        long position = this.writeOffset;
+        this.writeOffset += size;
+        return position;
+    }
+
+    private long trailer(MappedFile mappedFile) {
+        return mappedFile.getFileFromOffset() + this.fileSize - 1;
+    }
+
+    private boolean waitForFlush(long nextOffset) {
+        GroupCommitRequest request = new GroupCommitRequest(nextOffset);
+        this.groupCommitService.putRequest(request);
+        try {
+            return request.future().get(this.transactionStoreConfig.getSyncFlushTimeout(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.warn("Wait for transaction records flush error, nextOffset={}", nextOffset, e);
+            return false;
+        }
+    }
+
+    static class GroupCommitRequest {
+        private final long nextOffset;
+        private final CompletableFuture<Boolean> flushOKFuture = new CompletableFuture<Boolean>();
+
+        GroupCommitRequest(long nextOffset) {
+            this.nextOffset = nextOffset;
+        }
+
+        CompletableFuture<Boolean> future() {
+            return flushOKFuture;
+        }
+    }
+
+    /**
+     * Flushes the record files, at once for all the waiting requests.
+     */
+    class GroupCommitService extends ServiceThread {
+        private final ConcurrentLinkedQueue<GroupCommitRequest> requests = new ConcurrentLinkedQueue<GroupCommitRequest>();
+
+        public void putRequest(final GroupCommitRequest request) {
+            this.requests.offer(request);
+            this.wakeup();
+        }
+
+        private void doCommit() {
+            GroupCommitRequest req = this.requests.poll();
+            if (req == null) {
+                FileTransactionStore.this.recordLog.flush(0);
+                return;
+            }
+            for (; req != null; req = this.requests.poll()) {
+                // the records may span several files, each flush covers one of them
+                long flushedWhere;
+                do {
+                    flushedWhere = FileTransactionStore.this.recordLog.getFlushedWhere();
+                    if (flushedWhere >= req.nextOffset) {
+                        break;
+                    }
+                    FileTransactionStore.this.recordLog.flush(0);
+                }
+                while (FileTransactionStore.this.recordLog.getFlushedWhere() > flushedWhere);
+                req.future().complete(FileTransactionStore.this.recordLog.getFlushedWhere() >= req.nextOffset);
+            }
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    this.waitForRunning(10);
+                    this.doCommit();
+                } catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            this.doCommit();
+            log.info(this.getServiceName() + " service end");
+        }
+
+        @Override
+        public String getServiceName() {
+            return GroupCommitService.class.getSimpleName();
+        }
+    }
+}
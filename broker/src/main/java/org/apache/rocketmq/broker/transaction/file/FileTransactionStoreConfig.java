@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.transaction.file;
+
+import java.io.File;
+
+public class FileTransactionStoreConfig {
+    private String storePath = System.getProperty("user.home") + File.separator + "store"
+        + File.separator + "transaction" + File.separator + "records";
+
+    private int mappedFileSize = 1024 * 1024 * 64;
+
+    /**
+     * Wait until the records are flushed before {@code put} returns. Concurrent puts are flushed together.
+     */
+    private boolean syncFlush = true;
+
+    private long syncFlushTimeout = 5 * 1000;
+
+    /**
+     * Interval of the compaction, which copies the records still alive in the oldest file to the end of the log and
+     * deletes the file.
+     */
+    private long compactionInterval = 60 * 1000;
+
+    public String getStorePath() {
+        return storePath;
+    }
+
+    public void setStorePath(String storePath) {
+        this.storePath = storePath;
+    }
+
+    public int getMappedFileSize() {
+        return mappedFileSize;
+    }
+
+    public void setMappedFileSize(int mappedFileSize) {
+        this.mappedFileSize = mappedFileSize;
+    }
+
+    public boolean isSyncFlush() {
+        return syncFlush;
+    }
+
+    public void setSyncFlush(boolean syncFlush) {
+        this.syncFlush = syncFlush;
+    }
+
+    public long getSyncFlushTimeout() {
+        return syncFlushTimeout;
+    }
+
+    public void setSyncFlushTimeout(long syncFlushTimeout) {
+        this.syncFlushTimeout = syncFlushTimeout;
+    }
+
+    public long getCompactionInterval() {
+        return compactionInterval;
+    }
+
+    public void setCompactionInterval(long compactionInterval) {
+        this.compactionInterval = compactionInterval;
+    }
+}
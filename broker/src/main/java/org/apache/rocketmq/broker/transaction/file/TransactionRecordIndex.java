@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.transaction.file;
+
+import java.util.Arrays;
+
+/**
+ * Sorted index of the live transaction records on primitive arrays: commit log offset, producer group id and the log
+ * position of the record. Offsets mostly arrive in ascending order, so a put is usually an append. A removal leaves a
+ * tombstone, which is dropped when the arrays are full, before growing them.
+ * <p>
+ * Not thread safe, guarded by {@link FileTransactionStore}.
+ * </p>
+ */
+class TransactionRecordIndex {
+    private static final int REMOVED = -1;
+
+    private long[] offsets;
+    private int[] groups;
+    private long[] positions;
+    private int head;
+    private int tail;
+    private int live;
+
+    TransactionRecordIndex(int initialCapacity) {
+        this.offsets = new long[initialCapacity];
+        this.groups = new int[initialCapacity];
+        this.positions = new long[initialCapacity];
+    }
+
+    /**
+     * @return true if the offset was not in the index.
+     */
+    boolean put(long offset, int group, long position) {
+        if (tail == head || offset > offsets[tail - 1]) {
+            ensureCapacity();
+            offsets[tail] = offset;
+            groups[tail] = group;
+            positions[tail] = position;
+            tail++;
+            live++;
+            return true;
+        }
+
+        int i = Arrays.binarySearch(offsets, head, tail, offset);
+        if (i >= 0) {
+            boolean added = groups[i] == REMOVED;
+            groups[i] = group;
+            positions[i] = position;
+            if (added) {
+                live++;
+            }
+            return added;
+        }
+
+        if (tail == offsets.length) {
+            // Dropping the tombstones moves the entries, the insertion point has to be searched again
+            ensureCapacity();
+            i = Arrays.binarySearch(offsets, head, tail, offset);
+        }
+        i = -i - 1;
+        System.arraycopy(offsets, i, offsets, i + 1, tail - i);
+        System.arraycopy(groups, i, groups, i + 1, tail - i);
+        System.arraycopy(positions, i, positions, i + 1, tail - i);
+        offsets[i] = offset;
+        groups[i] = group;
+        positions[i] = position;
+        tail++;
+        live++;
+        return true;
+    }
+
+    /**
+     * @return true if the offset was live.
+     */
+    boolean remove(long offset) {
+        int i = Arrays.binarySearch(offsets, head, tail, offset);
+        if (i < 0 || groups[i] == REMOVED) {
+            return false;
+        }
+        groups[i] = REMOVED;
+        live--;
+        while (head < tail && groups[head] == REMOVED) {
+            head++;
+        }
+        while (tail > head && groups[tail - 1] == REMOVED) {
+            tail--;
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the first live entry whose offset is not less than the given one, or -1.
+     */
+    int ceiling(long offset) {
+        int i = Arrays.binarySearch(offsets, head, tail, offset);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return next(i);
+    }
+
+    /**
+     * @return the index of the first live entry at or after i, or -1.
+     */
+    int next(int i) {
+        for (; i < tail; i++) {
+            if (groups[i] != REMOVED) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    long offsetAt(int i) {
+        return offsets[i];
+    }
+
+    int groupAt(int i) {
+        return groups[i];
+    }
+
+    long positionAt(int i) {
+        return positions[i];
+    }
+
+    void setPositionAt(int i, long position) {
+        positions[i] = position;
+    }
+
+    int head() {
+        return head;
+    }
+
+    int size() {
+        return live;
+    }
+
+    long minOffset() {
+        return live == 0 ? 0 : offsets[head];
+    }
+
+    long maxOffset() {
+        return live == 0 ? 0 : offsets[tail - 1];
+    }
+
+    private void ensureCapacity() {
+        if (tail < offsets.length) {
+            return;
+        }
+        int n = 0;
+        for (int i = head; i < tail; i++) {
+            if (groups[i] != REMOVED) {
+                offsets[n] = offsets[i];
+                groups[n] = groups[i];
+                positions[n] = positions[i];
+                n++;
+            }
+        }
+        head = 0;
+        tail = n;
+        if (live * 2 > offsets.length) {
+            int capacity = Math.max(16, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, capacity);
+            groups = Arrays.copyOf(groups, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+    }
+}
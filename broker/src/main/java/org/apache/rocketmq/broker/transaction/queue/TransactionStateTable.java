@@ -0,0 +1,466 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.transaction.queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.MappedFileQueue;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+
+/**
+ * State of the open transactions of this broker, keyed by the commit log offset of their half message.
+ * <p>
+ * Every change is appended as a fixed size record to a state log kept in mapped files, and the open transactions are
+ * indexed in memory: a map for O(1) commit and rollback, and a queue ordered by next check time so that the checker
+ * only visits timed out transactions. A periodic checkpoint writes a snapshot of the open transactions, after which
+ * the state log files before the snapshot are deleted. Loading reads the snapshot and replays the log after it.
+ * </p>
+ * Record layout: log offset of the record itself, commit log offset, half queue offset, next check timestamp, check
+ * times, type. The first field tells a written record from garbage when replaying, and lets
+ * {@link MappedFileQueue#deleteExpiredFileByOffset} delete the files before a snapshot.
+ */
+public class TransactionStateTable {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.TRANSACTION_LOGGER_NAME);
+
+    public static final int RECORD_SIZE = 40;
+
+    private static final int TYPE_PREPARE = 1;
+    private static final int TYPE_CHECK = 2;
+    private static final int TYPE_END = 3;
+
+    private static final int SNAPSHOT_MAGIC = 0x5453540A;
+
+    private final MappedFileQueue stateLog;
+    private final String snapshotPath;
+
+    private final HashMap<Long/* commit log offset */, Entry> entries = new HashMap<Long, Entry>(1024);
+    private final PriorityQueue<Entry> checkQueue = new PriorityQueue<Entry>(1024, new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return Long.compare(o1.nextCheckTimestamp, o2.nextCheckTimestamp);
+        }
+    });
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private long writeOffset;
+    private long maxQueueOffset = -1;
+    private Set<Long> endedWhileRecovering;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryImpl("TransactionStateTableScheduledThread"));
+
+    public TransactionStateTable(final String storePath, final int fileSize) {
+        this.stateLog = new MappedFileQueue(storePath + File.separator + "statelog",
+            Math.max(1, fileSize / RECORD_SIZE) * RECORD_SIZE, null);
+        this.snapshotPath = storePath + File.separator + "snapshot";
+    }
+
+    public boolean load() {
+        if (!this.stateLog.load()) {
+            return false;
+        }
+        long replayFrom = this.stateLog.getMappedFiles().isEmpty() ? 0 : this.stateLog.getMinOffset();
+        try {
+            File snapshot = new File(this.snapshotPath);
+            if (snapshot.exists()) {
+                replayFrom = Math.max(replayFrom, loadSnapshot(snapshot));
+            }
+        } catch (IOException e) {
+            log.error("Load transaction state snapshot error", e);
+            return false;
+        }
+
+        this.writeOffset = replay(replayFrom);
+        this.stateLog.setFlushedWhere(this.writeOffset);
+        this.stateLog.setCommittedWhere(this.writeOffset);
+        this.stateLog.truncateDirtyFiles(this.writeOffset);
+        this.checkQueue.addAll(this.entries.values());
+        log.info("Load transaction state table, open={}, maxQueueOffset={}, replayFrom={}, writeOffset={}",
+            this.entries.size(), this.maxQueueOffset, replayFrom, this.writeOffset);
+        return true;
+    }
+
+    private long loadSnapshot(File snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Illegal transaction state snapshot " + snapshot);
+            }
+            long logOffset = in.readLong();
+            this.maxQueueOffset = in.readLong();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong(), in.readInt());
+                this.entries.put(entry.commitLogOffset, entry);
+            }
+            return logOffset;
+        } finally {
+            in.close();
+        }
+    }
+
+    private long replay(final long from) {
+        long offset = from;
+        MappedFile mappedFile = this.stateLog.findMappedFileByOffset(offset, false);
+        while (mappedFile != null) {
+            int pos = (int) (offset % this.stateLog.getMappedFileSize());
+            SelectMappedBufferResult result = mappedFile.selectMappedBuffer(pos);
+            if (result == null) {
+                break;
+            }
+            try {
+                ByteBuffer buffer = result.getByteBuffer();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    long recordOffset = buffer.getLong();
+                    long commitLogOffset = buffer.getLong();
+                    long queueOffset = buffer.getLong();
+                    long nextCheckTimestamp = buffer.getLong();
+                    int checkTimes = buffer.getInt();
+                    int type = buffer.getInt();
+                    if (recordOffset != offset || type < TYPE_PREPARE || type > TYPE_END) {
+                        return offset;
+                    }
+                    apply(type, commitLogOffset, queueOffset, nextCheckTimestamp, checkTimes);
+                    offset += RECORD_SIZE;
+                }
+            } finally {
+                result.release();
+            }
+            mappedFile = this.stateLog.findMappedFileByOffset(offset, false);
+        }
+        return offset;
+    }
+
+    private void apply(int type, long commitLogOffset, long queueOffset, long nextCheckTimestamp, int checkTimes) {
+        switch (type) {
+            case TYPE_PREPARE:
+            case TYPE_CHECK:
+                Entry entry = this.entries.get(commitLogOffset);
+                if (entry == null) {
+                    this.entries.put(commitLogOffset, new Entry(commitLogOffset, queueOffset, nextCheckTimestamp, checkTimes));
+                } else {
+                    entry.nextCheckTimestamp = nextCheckTimestamp;
+                    entry.checkTimes = checkTimes;
+                }
+                this.maxQueueOffset = Math.max(this.maxQueueOffset, queueOffset);
+                break;
+            default:
+                this.entries.remove(commitLogOffset);
+                break;
+        }
+    }
+
+    public void start(final long flushInterval, final long checkpointInterval) {
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable e) {
+                    log.error("Flush transaction state log error", e);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkpoint();
+                } catch (Throwable e) {
+                    log.error("Checkpoint transaction state table error", e);
+                }
+            }
+        }, checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        this.scheduledExecutorService.shutdown();
+        try {
+            this.scheduledExecutorService.awaitTermination(3, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+        flush();
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            log.error("Checkpoint transaction state table error when shutdown", e);
+        }
+        this.stateLog.shutdown(1000 * 3);
+    }
+
+    /**
+     * Add a half message just stored. Adding an open transaction again does nothing.
+     */
+    public synchronized boolean prepare(final long commitLogOffset, final long queueOffset,
+        final long nextCheckTimestamp) {
+        if (this.entries.containsKey(commitLogOffset)) {
+            return true;
+        }
+        Entry entry = new Entry(commitLogOffset, queueOffset, nextCheckTimestamp, 0);
+        if (!append(TYPE_PREPARE, entry)) {
+            return false;
+        }
+        this.entries.put(commitLogOffset, entry);
+        this.checkQueue.add(entry);
+        this.maxQueueOffset = Math.max(this.maxQueueOffset, queueOffset);
+        return true;
+    }
+
+    /**
+     * Add a half message found when recovering the table from the half queue, unless it is known already or has
+     * been ended since the recovery began.
+     *
+     * @return true if the half message has been added.
+     */
+    public synchronized boolean prepareRecovered(final long commitLogOffset, final long queueOffset,
+        final long nextCheckTimestamp) {
+        if (this.entries.containsKey(commitLogOffset)
+            || this.endedWhileRecovering != null && this.endedWhileRecovering.contains(commitLogOffset)) {
+            return false;
+        }
+        return prepare(commitLogOffset, queueOffset, nextCheckTimestamp);
+    }
+
+    public synchronized void beginRecover() {
+        this.endedWhileRecovering = new HashSet<Long>();
+    }
+
+    public synchronized void endRecover() {
+        this.endedWhileRecovering = null;
+    }
+
+    /**
+     * Remove a transaction committed, rolled back or discarded. The entry left in the check queue is skipped when
+     * polled.
+     */
+    public synchronized boolean end(final long commitLogOffset) {
+        if (this.endedWhileRecovering != null) {
+            this.endedWhileRecovering.add(commitLogOffset);
+        }
+        Entry entry = this.entries.remove(commitLogOffset);
+        if (entry == null) {
+            return false;
+        }
+        entry.ended = true;
+        if (!append(TYPE_END, entry)) {
+            log.warn("Append end record failed, commitLogOffset={}, it may be checked again after restart", commitLogOffset);
+        }
+        return true;
+    }
+
+    /**
+     * End the open transactions of the given half queue offsets, the key op messages are written with.
+     */
+    public synchronized int endByQueueOffsets(final Set<Long> queueOffsets) {
+        if (queueOffsets.isEmpty()) {
+            return 0;
+        }
+        List<Long> ended = new ArrayList<Long>();
+        for (Entry entry : this.entries.values()) {
+            if (queueOffsets.contains(entry.queueOffset)) {
+                ended.add(entry.commitLogOffset);
+            }
+        }
+        for (Long commitLogOffset : ended) {
+            end(commitLogOffset);
+        }
+        return ended.size();
+    }
+
+    /**
+     * Take at most max open transactions whose next check time is reached. Each of them must then be either
+     * {@link #end ended} or {@link #reschedule rescheduled}.
+     */
+    public synchronized List<Entry> pollTimeout(final long now, final int max) {
+        List<Entry> timeout = new ArrayList<Entry>(Math.min(max, 32));
+        while (timeout.size() < max) {
+            Entry entry = this.checkQueue.peek();
+            if (entry == null || entry.nextCheckTimestamp > now) {
+                break;
+            }
+            this.checkQueue.poll();
+            if (!entry.ended) {
+                timeout.add(entry);
+            }
+        }
+        return timeout;
+    }
+
+    public synchronized void reschedule(final Entry entry, final long nextCheckTimestamp, final boolean checked) {
+        if (entry.ended) {
+            return;
+        }
+        entry.nextCheckTimestamp = nextCheckTimestamp;
+        if (checked) {
+            entry.checkTimes++;
+        }
+        append(TYPE_CHECK, entry);
+        this.checkQueue.add(entry);
+    }
+
+    private boolean append(int type, Entry entry) {
+        MappedFile mappedFile = this.stateLog.getLastMappedFile(this.writeOffset);
+        if (mappedFile == null) {
+            log.error("Create transaction state log file failed, writeOffset={}", this.writeOffset);
+            return false;
+        }
+        this.record.clear();
+        this.record.putLong(this.writeOffset);
+        this.record.putLong(entry.commitLogOffset);
+        this.record.putLong(entry.queueOffset);
+        this.record.putLong(entry.nextCheckTimestamp);
+        this.record.putInt(entry.checkTimes);
+        this.record.putInt(type);
+        if (!mappedFile.appendMessage(this.record.array())) {
+            log.error("Append transaction state record failed, writeOffset={}", this.writeOffset);
+            return false;
+        }
+        this.writeOffset += RECORD_SIZE;
+        return true;
+    }
+
+    public void flush() {
+        this.stateLog.flush(0);
+    }
+
+    /**
+     * Write a snapshot of the open transactions, then delete the state log files before it.
+     */
+    public void checkpoint() throws IOException {
+        long logOffset;
+        long queueOffset;
+        Entry[] snapshot;
+        synchronized (this) {
+            logOffset = this.writeOffset;
+            queueOffset = this.maxQueueOffset;
+            snapshot = this.entries.values().toArray(new Entry[0]);
+        }
+
+        File tmp = new File(this.snapshotPath + ".tmp");
+        tmp.getParentFile().mkdirs();
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(logOffset);
+            out.writeLong(queueOffset);
+            out.writeInt(snapshot.length);
+            for (Entry entry : snapshot) {
+                // entries are only read here, a field changed concurrently is also in a record after logOffset
+                out.writeLong(entry.commitLogOffset);
+                out.writeLong(entry.queueOffset);
+                out.writeLong(entry.nextCheckTimestamp);
+                out.writeInt(entry.checkTimes);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        // The old snapshot stays in place until the new one replaces it, a crash in between keeps either of them
+        Files.move(tmp.toPath(), new File(this.snapshotPath).toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+
+        int deleted = this.stateLog.deleteExpiredFileByOffset(logOffset, RECORD_SIZE);
+        log.info("Checkpoint transaction state table, open={}, logOffset={}, deletedFiles={}", snapshot.length,
+            logOffset, deleted);
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getMaxQueueOffset() {
+        return this.maxQueueOffset;
+    }
+
+    /**
+     * @return the smallest half queue offset still open, or the next offset after all the known ones.
+     */
+    public synchronized long getMinOpenQueueOffset() {
+        long min = this.maxQueueOffset + 1;
+        for (Entry entry : this.entries.values()) {
+            min = Math.min(min, entry.queueOffset);
+        }
+        return min;
+    }
+
+    public synchronized Entry get(final long commitLogOffset) {
+        return this.entries.get(commitLogOffset);
+    }
+
+    public static class Entry {
+        private final long commitLogOffset;
+        private final long queueOffset;
+        private volatile long nextCheckTimestamp;
+        private volatile int checkTimes;
+        private volatile boolean ended;
+
+        Entry(long commitLogOffset, long queueOffset, long nextCheckTimestamp, int checkTimes) {
+            this.commitLogOffset = commitLogOffset;
+            this.queueOffset = queueOffset;
+            this.nextCheckTimestamp = nextCheckTimestamp;
+            this.checkTimes = checkTimes;
+        }
+
+        public long getCommitLogOffset() {
+            return commitLogOffset;
+        }
+
+        public long getQueueOffset() {
+            return queueOffset;
+        }
+
+        public long getNextCheckTimestamp() {
+            return nextCheckTimestamp;
+        }
+
+        public int getCheckTimes() {
+            return checkTimes;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{commitLogOffset=" + commitLogOffset + ", queueOffset=" + queueOffset
+                + ", nextCheckTimestamp=" + nextCheckTimestamp + ", checkTimes=" + checkTimes + '}';
+        }
+    }
+}
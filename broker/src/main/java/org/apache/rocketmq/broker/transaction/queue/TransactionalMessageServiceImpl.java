@@ -21,6 +21,7 @@ import org.apache.rocketmq.broker.transaction.OperationResult;
 import org.apache.rocketmq.broker.transaction.TransactionalMessageService;
 import org.apache.rocketmq.client.consumer.PullResult;
 import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.message.MessageConst;
@@ -34,10 +35,12 @@ import org.apache.rocketmq.store.MessageExtBrokerInner;
 import org.apache.rocketmq.store.PutMessageResult;
 import org.apache.rocketmq.store.PutMessageStatus;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -53,6 +56,15 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
 
     private static final int MAX_RETRY_COUNT_WHEN_HALF_NULL = 1;
 
+    private static final int STATE_TABLE_CHECK_BATCH = 32;
+
+    private TransactionStateTable transactionStateTable;
+
+    /**
+     * The half queue offset from which half messages unknown to the state table are looked for, or -1 once done.
+     */
+    private volatile long recoverFromQueueOffset = -1;
+
     public TransactionalMessageServiceImpl(TransactionalMessageBridge transactionBridge) {
         this.transactionalMessageBridge = transactionBridge;
     }
@@ -61,7 +73,23 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
 
     @Override
     public PutMessageResult prepareMessage(MessageExtBrokerInner messageInner) {
-        return transactionalMessageBridge.putHalfMessage(messageInner);
+        PutMessageResult putMessageResult = transactionalMessageBridge.putHalfMessage(messageInner);
+        // a flush or slave timeout still leaves the half message stored, the producer will end it or wait for a check
+        if (transactionStateTable != null && putMessageResult != null && putMessageResult.isOk()) {
+            transactionStateTable.prepare(putMessageResult.getAppendMessageResult().getWroteOffset(),
+                putMessageResult.getAppendMessageResult().getLogicsOffset(),
+                messageInner.getBornTimestamp() + getCheckImmunityTime(messageInner));
+        }
+        return putMessageResult;
+    }
+
+    private long getCheckImmunityTime(MessageExt msgExt) {
+        long transactionTimeout = transactionalMessageBridge.getBrokerController().getBrokerConfig().getTransactionTimeOut();
+        String checkImmunityTimeStr = msgExt.getUserProperty(MessageConst.PROPERTY_CHECK_IMMUNITY_TIME_IN_SECONDS);
+        if (null != checkImmunityTimeStr) {
+            return getImmunityTime(checkImmunityTimeStr, transactionTimeout);
+        }
+        return transactionTimeout;
     }
 
     private boolean needDiscard(MessageExt msgExt, int transactionCheckMax) {
@@ -120,6 +148,10 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
     @Override
     public void check(long transactionTimeout, int transactionCheckMax,
         AbstractTransactionalMessageCheckListener listener) {
+        if (transactionStateTable != null) {
+            checkByStateTable(transactionCheckMax, listener);
+            return;
+        }
         try {
             String topic = MixAll.RMQ_SYS_TRANS_HALF_TOPIC;
             Set<MessageQueue> msgQueues = transactionalMessageBridge.fetchMessageQueues(topic);
@@ -246,6 +278,122 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
 
     }
 
+    /**
+     * Check the timed out transactions of the state table. Unlike the queue scan, half messages are not put back to
+     * the half queue, the check times and the next check time are kept in the table instead.
+     */
+    private void checkByStateTable(int transactionCheckMax, AbstractTransactionalMessageCheckListener listener) {
+        try {
+            MessageQueue messageQueue = new MessageQueue(MixAll.RMQ_SYS_TRANS_HALF_TOPIC,
+                transactionalMessageBridge.getBrokerController().getBrokerConfig().getBrokerName(), 0);
+            if (recoverFromQueueOffset >= 0 && !recoverStateTable(messageQueue)) {
+                return;
+            }
+
+            long startTime = System.currentTimeMillis();
+            long checkInterval = transactionalMessageBridge.getBrokerController().getBrokerConfig().getTransactionCheckInterval();
+            int checked = 0;
+            List<TransactionStateTable.Entry> timeout;
+            while (!(timeout = transactionStateTable.pollTimeout(System.currentTimeMillis(), STATE_TABLE_CHECK_BATCH)).isEmpty()) {
+                for (TransactionStateTable.Entry entry : timeout) {
+                    MessageExt msgExt = transactionalMessageBridge.lookMessageByOffset(entry.getCommitLogOffset());
+                    if (msgExt == null) {
+                        log.warn("Half message not found, remove it from the state table, {}", entry);
+                        transactionStateTable.end(entry.getCommitLogOffset());
+                    } else if (entry.getCheckTimes() >= transactionCheckMax || needSkip(msgExt)) {
+                        listener.resolveDiscardMsg(msgExt);
+                        transactionStateTable.end(entry.getCommitLogOffset());
+                    } else {
+                        msgExt.putUserProperty(MessageConst.PROPERTY_TRANSACTION_CHECK_TIMES,
+                            String.valueOf(entry.getCheckTimes() + 1));
+                        transactionStateTable.reschedule(entry, System.currentTimeMillis() + checkInterval, true);
+                        listener.resolveHalfMsg(msgExt);
+                        checked++;
+                    }
+                }
+                if (System.currentTimeMillis() - startTime > MAX_PROCESS_TIME_LIMIT) {
+                    log.info("State table check process time reach max={}", MAX_PROCESS_TIME_LIMIT);
+                    break;
+                }
+            }
+
+            long newOffset = transactionStateTable.getMinOpenQueueOffset();
+            if (newOffset > transactionalMessageBridge.fetchConsumeOffset(messageQueue)) {
+                transactionalMessageBridge.updateConsumeOffset(messageQueue, newOffset);
+            }
+            log.info("State table check done, checked={}, open={}, halfOffset={}", checked,
+                transactionStateTable.size(), newOffset);
+        } catch (Exception e) {
+            log.error("Check by state table error", e);
+        }
+    }
+
+    /**
+     * Bring the state table up to date with the half and op queues, which are ahead of the state log when the broker
+     * was not shut down cleanly, or when the table has just been enabled.
+     */
+    private boolean recoverStateTable(MessageQueue messageQueue) {
+        MessageQueue opQueue = getOpQueue(messageQueue);
+        long halfOffset = Math.max(recoverFromQueueOffset, transactionalMessageBridge.fetchConsumeOffset(messageQueue));
+        long opOffset = transactionalMessageBridge.fetchConsumeOffset(opQueue);
+        if (opOffset < 0) {
+            log.error("Recover state table failed, illegal op offset {}", opOffset);
+            return false;
+        }
+
+        transactionStateTable.beginRecover();
+        try {
+            Set<Long> removed = new HashSet<>();
+            while (true) {
+                PullResult pullResult = pullOpMsg(opQueue, opOffset, STATE_TABLE_CHECK_BATCH);
+                if (pullResult == null) {
+                    break;
+                }
+                if (pullResult.getMsgFoundList() != null) {
+                    for (MessageExt opMessageExt : pullResult.getMsgFoundList()) {
+                        if (TransactionalMessageUtil.REMOVETAG.equals(opMessageExt.getTags())) {
+                            removed.add(getLong(new String(opMessageExt.getBody(), TransactionalMessageUtil.charset)));
+                        }
+                    }
+                }
+                if (pullResult.getNextBeginOffset() <= opOffset) {
+                    break;
+                }
+                opOffset = pullResult.getNextBeginOffset();
+            }
+            int ended = transactionStateTable.endByQueueOffsets(removed);
+
+            int prepared = 0;
+            while (true) {
+                PullResult pullResult = pullHalfMsg(messageQueue, halfOffset, STATE_TABLE_CHECK_BATCH);
+                if (pullResult == null) {
+                    break;
+                }
+                if (pullResult.getMsgFoundList() != null) {
+                    for (MessageExt msgExt : pullResult.getMsgFoundList()) {
+                        if (!removed.contains(msgExt.getQueueOffset())
+                            && transactionStateTable.prepareRecovered(msgExt.getCommitLogOffset(),
+                            msgExt.getQueueOffset(), msgExt.getBornTimestamp() + getCheckImmunityTime(msgExt))) {
+                            prepared++;
+                        }
+                    }
+                }
+                if (pullResult.getNextBeginOffset() <= halfOffset) {
+                    break;
+                }
+                halfOffset = pullResult.getNextBeginOffset();
+            }
+            transactionStateTable.flush();
+            transactionalMessageBridge.updateConsumeOffset(opQueue, opOffset);
+            recoverFromQueueOffset = -1;
+            log.info("Recover state table done, ended={}, prepared={}, open={}, halfOffset={}, opOffset={}", ended,
+                prepared, transactionStateTable.size(), halfOffset, opOffset);
+            return true;
+        } finally {
+            transactionStateTable.endRecover();
+        }
+    }
+
     private long getImmunityTime(String checkImmunityTimeStr, long transactionTimeout) {
         long checkImmunityTime;
 
@@ -459,6 +607,9 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
 
     @Override
     public boolean deletePrepareMessage(MessageExt msgExt) {
+        if (this.transactionStateTable != null) {
+            this.transactionStateTable.end(msgExt.getCommitLogOffset());
+        }
         if (this.transactionalMessageBridge.putOpMessage(msgExt, TransactionalMessageUtil.REMOVETAG)) {
             log.info("Transaction op message write successfully. messageId={}, queueId={} msgExt:{}", msgExt.getMsgId(), msgExt.getQueueId(), msgExt);
             return true;
@@ -480,12 +631,32 @@ public class TransactionalMessageServiceImpl implements TransactionalMessageServ
 
     @Override
     public boolean open() {
+        BrokerConfig brokerConfig = transactionalMessageBridge.getBrokerController().getBrokerConfig();
+        if (!brokerConfig.isTransactionStateTableEnable()) {
+            return true;
+        }
+        TransactionStateTable stateTable = new TransactionStateTable(
+            transactionalMessageBridge.getBrokerController().getMessageStoreConfig().getStorePathRootDir()
+                + File.separator + "transaction", brokerConfig.getTransactionStateLogFileSize());
+        if (!stateTable.load()) {
+            return false;
+        }
+        stateTable.start(transactionalMessageBridge.getBrokerController().getMessageStoreConfig().getFlushIntervalConsumeQueue(),
+            brokerConfig.getTransactionStateCheckpointInterval());
+        this.recoverFromQueueOffset = stateTable.getMaxQueueOffset() + 1;
+        this.transactionStateTable = stateTable;
         return true;
     }
 
     @Override
     public void close() {
+        if (this.transactionStateTable != null) {
+            this.transactionStateTable.shutdown();
+        }
+    }
 
+    public TransactionStateTable getTransactionStateTable() {
+        return transactionStateTable;
     }
 
 }
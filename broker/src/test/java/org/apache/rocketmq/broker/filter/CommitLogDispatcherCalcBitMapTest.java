@@ -23,8 +23,10 @@ import org.apache.rocketmq.filter.util.BitsArray;
 import org.apache.rocketmq.store.DispatchRequest;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -188,4 +190,75 @@ public class CommitLogDispatcherCalcBitMapTest {
             }
         }
     }
+
+    @Test
+    public void testDispatch_sharedExpressions() throws Exception {
+        BrokerConfig brokerConfig = new BrokerConfig();
+        brokerConfig.setEnableCalcFilterBitMap(true);
+
+        ConsumerFilterManager filterManager = new ConsumerFilterManager();
+        String[] expressions = {
+            "a > 5 AND b IN ('x', 'y')",
+            "(a>5) and b in ('y','x')",
+            "a > 5 OR b = 'z'",
+            "a <= 5"
+        };
+        for (int i = 0; i < 8; i++) {
+            filterManager.register("topic", "CID_" + i, expressions[i % expressions.length],
+                ExpressionType.SQL92, System.currentTimeMillis());
+        }
+
+        FilterEvaluationPlan plan = filterManager.getEvaluationPlan("topic");
+        assertThat(plan.getConsumerNum()).isEqualTo(8);
+        assertThat(plan.getExpressionNum()).isEqualTo(3);
+        assertThat(plan.getExpressionPlan().getSharedNum()).isEqualTo(1);
+        assertThat(filterManager.getEvaluationPlan("topic")).isSameAs(plan);
+        assertThat(filterManager.encode()).doesNotContain("evaluationPlan");
+
+        CommitLogDispatcherCalcBitMap calcBitMap = new CommitLogDispatcherCalcBitMap(brokerConfig, filterManager);
+        String[][] messages = {{"7", "x"}, {"7", "w"}, {"3", "x"}, {"3", "z"}, {null, "y"}};
+        for (String[] message : messages) {
+            Map<String, String> properties = new HashMap<String, String>(4);
+            if (message[0] != null) {
+                properties.put("a", message[0]);
+            }
+            properties.put("b", message[1]);
+
+            DispatchRequest dispatchRequest = new DispatchRequest("topic", 0, 123, 100, 0L,
+                System.currentTimeMillis(), 0, null, UUID.randomUUID().toString(), 0, 0, properties);
+            calcBitMap.dispatch(dispatchRequest);
+
+            BitsArray bits = BitsArray.create(dispatchRequest.getBitMap());
+            for (ConsumerFilterData filterData : filterManager.get("topic")) {
+                boolean expected = Boolean.TRUE.equals(
+                    filterData.getCompiledExpression().evaluate(new MessageEvaluationContext(properties)));
+                if (expected) {
+                    assertThat(filterManager.getBloomFilter().isHit(filterData.getBloomFilterData(), bits)).isTrue();
+                }
+            }
+        }
+
+        filterManager.register("topic", "CID_8", "b = 'z'", ExpressionType.SQL92, System.currentTimeMillis());
+        FilterEvaluationPlan rebuilt = filterManager.getEvaluationPlan("topic");
+        assertThat(rebuilt).isNotSameAs(plan);
+        assertThat(rebuilt.getExpressionNum()).isEqualTo(4);
+        assertThat(rebuilt.getExpressionPlan().getSharedNum()).isEqualTo(2);
+        assertThat(filterManager.getEvaluationPlan("topic")).isSameAs(rebuilt);
+
+        filterManager.register("topic", "CID_0", "a <= 5", ExpressionType.SQL92, System.currentTimeMillis() + 1000);
+        FilterEvaluationPlan changed = filterManager.getEvaluationPlan("topic");
+        assertThat(changed).isNotSameAs(rebuilt);
+        for (int i = 0; i < changed.getExpressionNum(); i++) {
+            List<String> groups = new ArrayList<String>();
+            for (ConsumerFilterData filterData : changed.getConsumers(i)) {
+                groups.add(filterData.getConsumerGroup());
+            }
+            if (groups.contains("CID_0")) {
+                assertThat(groups).containsOnly("CID_0", "CID_3", "CID_7");
+            }
+        }
+
+        filterManager.unRegister("CID_8");
+        assertThat(filterManager.getEvaluationPlan("topic")).isNotSameAs(changed);
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.filter;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.filter.FilterAPI;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MessageBufferEvaluationContextTest {
+
+    @Test
+    public void testGetSameAsDecodedProperties() throws Exception {
+        MessageExt msg = buildMessage();
+        msg.putUserProperty("a", "7");
+        msg.putUserProperty("ab", "short");
+        msg.putUserProperty("区域", "华东");
+        ByteBuffer buffer = ByteBuffer.wrap(MessageDecoder.encode(msg, false));
+        Map<String, String> decoded = MessageDecoder.decodeProperties(buffer.duplicate());
+
+        MessageBufferEvaluationContext context = new MessageBufferEvaluationContext(buffer);
+        for (Map.Entry<String, String> entry : decoded.entrySet()) {
+            assertThat(context.get(entry.getKey())).isEqualTo(entry.getValue());
+        }
+        assertThat(context.get("a")).isEqualTo("7");
+        assertThat(context.get("区域")).isEqualTo("华东");
+        assertThat(context.get("missing")).isNull();
+        assertThat(context.keyValues()).isEqualTo((Map) decoded);
+        assertThat(buffer.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void testMatchedByCommitLog() throws Exception {
+        String sql = "a > 5 AND b IN ('x', 'y')";
+        ConsumerFilterData filterData = ConsumerFilterManager.build("topic", "group", sql, ExpressionType.SQL92, System.currentTimeMillis());
+        ExpressionMessageFilter filter = new ExpressionMessageFilter(FilterAPI.build("topic", sql, ExpressionType.SQL92),
+            filterData, new ConsumerFilterManager());
+
+        MessageExt msg = buildMessage();
+        msg.putUserProperty("a", "6");
+        msg.putUserProperty("b", "y");
+        assertThat(filter.isMatchedByCommitLog(ByteBuffer.wrap(MessageDecoder.encode(msg, false)), null)).isTrue();
+
+        msg.putUserProperty("b", "z");
+        assertThat(filter.isMatchedByCommitLog(ByteBuffer.wrap(MessageDecoder.encode(msg, false)), null)).isFalse();
+
+        msg.putUserProperty("a", "not a number");
+        assertThat(filter.isMatchedByCommitLog(ByteBuffer.wrap(MessageDecoder.encode(msg, false)), null)).isFalse();
+    }
+
+    private MessageExt buildMessage() {
+        MessageExt msg = new MessageExt();
+        msg.setTopic("topic");
+        msg.setTags("TagA");
+        msg.setKeys("key");
+        msg.setBody(new byte[16]);
+        msg.setBornHost(new InetSocketAddress("127.0.0.1", 53214));
+        msg.setStoreHost(new InetSocketAddress("127.0.0.1", 10911));
+        return msg;
+    }
+}
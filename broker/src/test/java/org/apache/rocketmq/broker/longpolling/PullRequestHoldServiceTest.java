@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.broker.longpolling;
+
+import io.netty.channel.Channel;
+import org.apache.rocketmq.broker.BrokerController;
+import org.apache.rocketmq.broker.filter.ExpressionMessageFilter;
+import org.apache.rocketmq.broker.processor.PullMessageProcessor;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.store.MessageStore;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PullRequestHoldServiceTest {
+
+    private static final String TOPIC = "FooBar";
+
+    private final MessageStore messageStore = mock(MessageStore.class);
+
+    private final PullMessageProcessor pullMessageProcessor = mock(PullMessageProcessor.class);
+
+    private PullRequestHoldService pullRequestHoldService;
+
+    @Before
+    public void init() {
+        BrokerController brokerController = mock(BrokerController.class);
+        when(brokerController.getBrokerConfig()).thenReturn(new BrokerConfig());
+        when(brokerController.getMessageStoreConfig()).thenReturn(new MessageStoreConfig());
+        when(brokerController.getMessageStore()).thenReturn(messageStore);
+        when(brokerController.getPullMessageProcessor()).thenReturn(pullMessageProcessor);
+        when(messageStore.now()).thenAnswer(invocation -> System.currentTimeMillis());
+        pullRequestHoldService = new PullRequestHoldService(brokerController);
+        pullRequestHoldService.start();
+    }
+
+    @After
+    public void shutdown() {
+        pullRequestHoldService.shutdown();
+    }
+
+    @Test
+    public void testWakeupOnMatchedArrival() throws Exception {
+        when(messageStore.getMaxOffsetInQueue(TOPIC, 0)).thenReturn(10L);
+        RemotingCommand request = RemotingCommand.createRequestCommand(0, null);
+        pullRequestHoldService.suspendPullRequest(TOPIC, 0, createPullRequest(request, 10, 60 * 1000));
+
+        pullRequestHoldService.notifyMessageArriving(TOPIC, 0, 11, (long) "TagB".hashCode(), 0, null, null);
+        pullRequestHoldService.notifyMessageArriving(TOPIC, 1, 11, (long) "TagA".hashCode(), 0, null, null);
+        verify(pullMessageProcessor, after(500).never()).executeRequestWhenWakeup(any(Channel.class), any(RemotingCommand.class));
+
+        pullRequestHoldService.notifyMessageArriving(TOPIC, 0, 12, (long) "TagA".hashCode(), 0, null, null);
+        verify(pullMessageProcessor, timeout(3000)).executeRequestWhenWakeup(any(Channel.class), any(RemotingCommand.class));
+
+        pullRequestHoldService.notifyMessageArriving(TOPIC, 0, 13, (long) "TagA".hashCode(), 0, null, null);
+        verify(pullMessageProcessor, after(500).times(1)).executeRequestWhenWakeup(any(Channel.class), any(RemotingCommand.class));
+    }
+
+    @Test
+    public void testWakeupOnTimeout() throws Exception {
+        when(messageStore.getMaxOffsetInQueue(TOPIC, 0)).thenReturn(10L);
+        pullRequestHoldService.suspendPullRequest(TOPIC, 0, createPullRequest(RemotingCommand.createRequestCommand(0, null), 10, 200));
+
+        verify(pullMessageProcessor, never()).executeRequestWhenWakeup(any(Channel.class), any(RemotingCommand.class));
+        verify(pullMessageProcessor, timeout(3000)).executeRequestWhenWakeup(any(Channel.class), any(RemotingCommand.class));
+        verify(pullMessageProcessor, after(500).times(1)).executeRequestWhenWakeup(any(Channel.class), any(RemotingCommand.class));
+    }
+
+    @Test
+    public void testWakeupOnArrivalBeforeSuspend() throws Exception {
+        when(messageStore.getMaxOffsetInQueue(TOPIC, 0)).thenReturn(11L);
+        pullRequestHoldService.suspendPullRequest(TOPIC, 0, createPullRequest(RemotingCommand.createRequestCommand(0, null), 10, 60 * 1000));
+
+        verify(pullMessageProcessor, timeout(3000)).executeRequestWhenWakeup(any(Channel.class), any(RemotingCommand.class));
+    }
+
+    private PullRequest createPullRequest(RemotingCommand request, long offset, long timeoutMillis) {
+        SubscriptionData subscriptionData = new SubscriptionData(TOPIC, "TagA");
+        subscriptionData.getTagsSet().add("TagA");
+        subscriptionData.getCodeSet().add("TagA".hashCode());
+        return new PullRequest(request, mock(Channel.class), timeoutMillis, System.currentTimeMillis(), offset, subscriptionData,
+            new ExpressionMessageFilter(subscriptionData, null, null));
+    }
+}
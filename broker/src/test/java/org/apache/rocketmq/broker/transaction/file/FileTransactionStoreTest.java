@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.transaction.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.broker.transaction.TransactionRecord;
+import org.apache.rocketmq.common.UtilAll;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileTransactionStoreTest {
+    private final String storePath = System.getProperty("user.home") + File.separator + "unitteststore-transaction-records-" + System.currentTimeMillis();
+
+    private FileTransactionStore store;
+
+    @Before
+    public void init() {
+        store = newStore(1024 * 1024);
+    }
+
+    @After
+    public void destroy() {
+        store.close();
+        UtilAll.deleteFile(new File(storePath));
+    }
+
+    private FileTransactionStore newStore(int mappedFileSize) {
+        FileTransactionStoreConfig config = new FileTransactionStoreConfig();
+        config.setStorePath(storePath);
+        config.setMappedFileSize(mappedFileSize);
+        config.setCompactionInterval(1000 * 60 * 60);
+        FileTransactionStore transactionStore = new FileTransactionStore(config);
+        assertThat(transactionStore.open()).isTrue();
+        return transactionStore;
+    }
+
+    private static List<TransactionRecord> records(String producerGroup, long... offsets) {
+        List<TransactionRecord> records = new ArrayList<TransactionRecord>();
+        for (long offset : offsets) {
+            TransactionRecord record = new TransactionRecord();
+            record.setOffset(offset);
+            record.setProducerGroup(producerGroup);
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static List<Long> offsets(List<TransactionRecord> records) {
+        List<Long> offsets = new ArrayList<Long>();
+        for (TransactionRecord record : records) {
+            offsets.add(record.getOffset());
+        }
+        return offsets;
+    }
+
+    @Test
+    public void testPutRemoveAndTraverse() {
+        assertThat(store.put(records("PG_A", 100, 200, 300))).isTrue();
+        assertThat(store.put(records("PG_B", 250, 50, 400))).isTrue();
+        assertThat(store.totalRecords()).isEqualTo(6);
+        assertThat(store.minPK()).isEqualTo(50);
+        assertThat(store.maxPK()).isEqualTo(400);
+
+        store.remove(Arrays.asList(50L, 300L, 400L, 999L));
+        assertThat(store.totalRecords()).isEqualTo(3);
+        assertThat(store.minPK()).isEqualTo(100);
+        assertThat(store.maxPK()).isEqualTo(250);
+
+        List<TransactionRecord> traversed = store.traverse(150, 10);
+        assertThat(offsets(traversed)).containsExactly(200L, 250L);
+        assertThat(traversed.get(0).getProducerGroup()).isEqualTo("PG_A");
+        assertThat(traversed.get(1).getProducerGroup()).isEqualTo("PG_B");
+        assertThat(offsets(store.traverse(0, 2))).containsExactly(100L, 200L);
+        assertThat(store.traverse(251, 10)).isEmpty();
+
+        store.remove(Arrays.asList(100L, 200L, 250L));
+        assertThat(store.totalRecords()).isEqualTo(0);
+        assertThat(store.minPK()).isEqualTo(0);
+        assertThat(store.maxPK()).isEqualTo(0);
+    }
+
+    @Test
+    public void testManyRecords() {
+        for (int i = 0; i < 10000; i++) {
+            store.put(records("PG", i * 10L));
+            if (i % 3 != 0) {
+                store.remove(Collections.singletonList(i * 10L));
+            }
+        }
+        assertThat(store.totalRecords()).isEqualTo(3334);
+        assertThat(store.minPK()).isEqualTo(0);
+        assertThat(store.maxPK()).isEqualTo(99990);
+        assertThat(offsets(store.traverse(1, 3))).containsExactly(30L, 60L, 90L);
+    }
+
+    @Test
+    public void testRecoverAfterReopen() {
+        store.put(records("PG_A", 100, 200, 300));
+        store.put(records("PG_B", 150));
+        store.remove(Collections.singletonList(200L));
+        store.close();
+
+        store = newStore(1024 * 1024);
+        assertThat(store.totalRecords()).isEqualTo(3);
+        List<TransactionRecord> traversed = store.traverse(0, 10);
+        assertThat(offsets(traversed)).containsExactly(100L, 150L, 300L);
+        assertThat(traversed.get(1).getProducerGroup()).isEqualTo("PG_B");
+
+        store.put(records("PG_A", 500));
+        store.close();
+        store = newStore(1024 * 1024);
+        assertThat(store.maxPK()).isEqualTo(500);
+        assertThat(store.totalRecords()).isEqualTo(4);
+    }
+
+    @Test
+    public void testCompact() {
+        store.close();
+        store = newStore(256);
+        for (int i = 0; i < 100; i++) {
+            store.put(records("PG", i));
+            if (i != 3 && i != 42) {
+                store.remove(Collections.singletonList((long) i));
+            }
+        }
+        store.compact();
+        store.put(records("PG", 1000));
+        assertThat(store.totalRecords()).isEqualTo(3);
+        assertThat(offsets(store.traverse(0, 10))).containsExactly(3L, 42L, 1000L);
+        store.close();
+
+        store = newStore(256);
+        assertThat(new File(storePath).list()).hasSize(1);
+        assertThat(offsets(store.traverse(0, 10))).containsExactly(3L, 42L, 1000L);
+    }
+
+    @Test
+    public void testConcurrentPut() throws Exception {
+        final int threads = 8;
+        final int perThread = 500;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        final AtomicBoolean failed = new AtomicBoolean();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        if (!store.put(records("PG_" + thread, (long) i * threads + thread))) {
+                            failed.set(true);
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        assertThat(failed.get()).isFalse();
+        assertThat(store.totalRecords()).isEqualTo(threads * perThread);
+        assertThat(offsets(store.traverse(0, threads * perThread))).isSorted();
+    }
+}
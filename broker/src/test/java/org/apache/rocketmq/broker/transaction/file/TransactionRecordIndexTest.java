@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.transaction.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionRecordIndexTest {
+
+    @Test
+    public void testPutOutOfOrderIntoFullIndexWithTombstone() {
+        TransactionRecordIndex index = new TransactionRecordIndex(4);
+        for (long offset = 10; offset <= 40; offset += 10) {
+            assertThat(index.put(offset, (int) offset, offset * 2)).isTrue();
+        }
+        assertThat(index.remove(10)).isTrue();
+
+        assertThat(index.put(25, 25, 50)).isTrue();
+
+        assertThat(index.size()).isEqualTo(4);
+        List<Long> offsets = new ArrayList<>();
+        for (int i = index.next(index.head()); i >= 0; i = index.next(i + 1)) {
+            offsets.add(index.offsetAt(i));
+            assertThat(index.groupAt(i)).isEqualTo((int) index.offsetAt(i));
+            assertThat(index.positionAt(i)).isEqualTo(index.offsetAt(i) * 2);
+        }
+        assertThat(offsets).containsExactly(20L, 25L, 30L, 40L);
+        assertThat(index.minOffset()).isEqualTo(20);
+        assertThat(index.maxOffset()).isEqualTo(40);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.broker.transaction.queue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import org.apache.rocketmq.common.UtilAll;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionStateTableTest {
+    private final String storePath = System.getProperty("user.home") + File.separator + "unitteststore-transaction-state-" + System.currentTimeMillis();
+
+    private TransactionStateTable table;
+
+    @Before
+    public void init() {
+        table = newTable();
+    }
+
+    @After
+    public void destroy() {
+        table.shutdown();
+        UtilAll.deleteFile(new File(storePath));
+    }
+
+    private TransactionStateTable newTable() {
+        TransactionStateTable stateTable = new TransactionStateTable(storePath, TransactionStateTable.RECORD_SIZE * 4);
+        assertThat(stateTable.load()).isTrue();
+        return stateTable;
+    }
+
+    @Test
+    public void testPrepareEndAndPollTimeout() {
+        assertThat(table.prepare(1000, 0, 100)).isTrue();
+        assertThat(table.prepare(2000, 1, 300)).isTrue();
+        assertThat(table.prepare(3000, 2, 200)).isTrue();
+        assertThat(table.prepare(3000, 2, 200)).isTrue();
+        assertThat(table.size()).isEqualTo(3);
+        assertThat(table.getMaxQueueOffset()).isEqualTo(2);
+
+        assertThat(table.end(1000)).isTrue();
+        assertThat(table.end(1000)).isFalse();
+        assertThat(table.getMinOpenQueueOffset()).isEqualTo(1);
+
+        List<TransactionStateTable.Entry> timeout = table.pollTimeout(250, 10);
+        assertThat(timeout).hasSize(1);
+        assertThat(timeout.get(0).getCommitLogOffset()).isEqualTo(3000);
+        assertThat(table.pollTimeout(250, 10)).isEmpty();
+
+        table.reschedule(timeout.get(0), 400, true);
+        assertThat(table.get(3000).getCheckTimes()).isEqualTo(1);
+
+        timeout = table.pollTimeout(500, 1);
+        assertThat(timeout).hasSize(1);
+        assertThat(timeout.get(0).getCommitLogOffset()).isEqualTo(2000);
+        table.end(2000);
+        timeout = table.pollTimeout(500, 10);
+        assertThat(timeout).hasSize(1);
+        assertThat(timeout.get(0).getCommitLogOffset()).isEqualTo(3000);
+    }
+
+    @Test
+    public void testEndByQueueOffsets() {
+        table.prepare(1000, 0, 100);
+        table.prepare(2000, 1, 100);
+        table.prepare(3000, 2, 100);
+        assertThat(table.endByQueueOffsets(Collections.singleton(1L))).isEqualTo(1);
+        assertThat(table.get(2000)).isNull();
+        assertThat(table.pollTimeout(100, 10)).hasSize(2);
+    }
+
+    @Test
+    public void testPrepareRecovered() {
+        table.prepare(1000, 0, 100);
+        table.beginRecover();
+        table.end(2000);
+        assertThat(table.prepareRecovered(1000, 0, 100)).isFalse();
+        assertThat(table.prepareRecovered(2000, 1, 100)).isFalse();
+        assertThat(table.prepareRecovered(3000, 2, 100)).isTrue();
+        table.endRecover();
+        assertThat(table.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLoadFromStateLog() {
+        for (int i = 0; i < 10; i++) {
+            table.prepare(1000 * i, i, 100 + i);
+        }
+        table.end(0);
+        table.end(5000);
+        table.reschedule(table.pollTimeout(101, 1).get(0), 500, true);
+        table.flush();
+
+        TransactionStateTable loaded = newTable();
+        try {
+            assertThat(loaded.size()).isEqualTo(8);
+            assertThat(loaded.getMaxQueueOffset()).isEqualTo(9);
+            assertThat(loaded.get(5000)).isNull();
+            assertThat(loaded.get(1000).getCheckTimes()).isEqualTo(1);
+            assertThat(loaded.get(1000).getNextCheckTimestamp()).isEqualTo(500);
+            assertThat(loaded.pollTimeout(200, 10)).hasSize(7);
+        } finally {
+            loaded.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadFromSnapshotAndStateLog() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            table.prepare(1000 * i, i, 100 + i);
+        }
+        for (int i = 0; i < 8; i++) {
+            table.end(1000 * i);
+        }
+        table.checkpoint();
+        table.prepare(10000, 10, 110);
+        table.end(8000);
+        table.flush();
+
+        TransactionStateTable loaded = newTable();
+        try {
+            assertThat(loaded.size()).isEqualTo(2);
+            assertThat(loaded.get(9000).getQueueOffset()).isEqualTo(9);
+            assertThat(loaded.get(10000).getQueueOffset()).isEqualTo(10);
+            assertThat(loaded.getMinOpenQueueOffset()).isEqualTo(9);
+            loaded.prepare(11000, 11, 111);
+            assertThat(loaded.size()).isEqualTo(3);
+        } finally {
+            loaded.shutdown();
+        }
+    }
+}
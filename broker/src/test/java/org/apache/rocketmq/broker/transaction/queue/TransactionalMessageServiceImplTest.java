@@ -24,6 +24,7 @@ import org.apache.rocketmq.client.consumer.PullResult;
 import org.apache.rocketmq.client.consumer.PullStatus;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageQueue;
@@ -47,6 +48,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -157,8 +159,88 @@ public class TransactionalMessageServiceImplTest {
         assertThat(res).isTrue();
     }
 
+    @Test
+    public void testCheck_withStateTable() {
+        String storePath = System.getProperty("user.home") + File.separator + "unitteststore-transaction-" + System.currentTimeMillis();
+        brokerController.getBrokerConfig().setTransactionStateTableEnable(true);
+        brokerController.getMessageStoreConfig().setStorePathRootDir(storePath);
+        when(bridge.getBrokerController()).thenReturn(this.brokerController);
+        try {
+            assertThat(queueTransactionMsgService.open()).isTrue();
+            MessageExtBrokerInner inner = createMessageBrokerInner();
+            when(bridge.putHalfMessage(any(MessageExtBrokerInner.class))).thenReturn(new PutMessageResult(PutMessageStatus.PUT_OK,
+                new AppendMessageResult(AppendMessageStatus.PUT_OK, 1000, 100, "", inner.getBornTimestamp(), 1, 0)));
+            assertThat(queueTransactionMsgService.prepareMessage(inner).isOk()).isTrue();
+
+            when(bridge.getOpMessage(anyInt(), anyLong(), anyInt())).thenReturn(createPullResult(MixAll.RMQ_SYS_TRANS_OP_HALF_TOPIC, 1, "5", 0));
+            when(bridge.getHalfMessage(anyInt(), anyLong(), anyInt())).thenReturn(createPullResult(MixAll.RMQ_SYS_TRANS_HALF_TOPIC, 1, "hello", 0));
+            when(bridge.lookMessageByOffset(1000)).thenReturn(inner);
+            long timeOut = this.brokerController.getBrokerConfig().getTransactionTimeOut();
+            int checkMax = this.brokerController.getBrokerConfig().getTransactionCheckMax();
+            final AtomicInteger checkMessage = new AtomicInteger(0);
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocation) {
+                    checkMessage.addAndGet(1);
+                    return checkMessage;
+                }
+            }).when(listener).resolveHalfMsg(any(MessageExt.class));
+
+            queueTransactionMsgService.check(timeOut, checkMax, listener);
+            assertThat(checkMessage.get()).isEqualTo(1);
+            assertThat(inner.getProperty(MessageConst.PROPERTY_TRANSACTION_CHECK_TIMES)).isEqualTo("1");
+            queueTransactionMsgService.check(timeOut, checkMax, listener);
+            assertThat(checkMessage.get()).isEqualTo(1);
+
+            TransactionStateTable stateTable = ((TransactionalMessageServiceImpl) queueTransactionMsgService).getTransactionStateTable();
+            assertThat(stateTable.size()).isEqualTo(1);
+            MessageExt halfMessage = createMessageBrokerInner();
+            halfMessage.setCommitLogOffset(1000);
+            queueTransactionMsgService.deletePrepareMessage(halfMessage);
+            assertThat(stateTable.size()).isEqualTo(0);
+        } finally {
+            queueTransactionMsgService.close();
+            UtilAll.deleteFile(new File(storePath));
+        }
+    }
+
+    @Test
+    public void testCheck_withStateTableFlushTimeout() {
+        String storePath = System.getProperty("user.home") + File.separator + "unitteststore-transaction-" + System.currentTimeMillis();
+        brokerController.getBrokerConfig().setTransactionStateTableEnable(true);
+        brokerController.getMessageStoreConfig().setStorePathRootDir(storePath);
+        when(bridge.getBrokerController()).thenReturn(this.brokerController);
+        try {
+            assertThat(queueTransactionMsgService.open()).isTrue();
+            MessageExtBrokerInner inner = createMessageBrokerInner();
+            when(bridge.putHalfMessage(any(MessageExtBrokerInner.class))).thenReturn(new PutMessageResult(PutMessageStatus.FLUSH_DISK_TIMEOUT,
+                new AppendMessageResult(AppendMessageStatus.PUT_OK, 1000, 100, "", inner.getBornTimestamp(), 1, 0)));
+            queueTransactionMsgService.prepareMessage(inner);
+
+            when(bridge.getOpMessage(anyInt(), anyLong(), anyInt())).thenReturn(createPullResult(MixAll.RMQ_SYS_TRANS_OP_HALF_TOPIC, 1, "5", 0));
+            when(bridge.getHalfMessage(anyInt(), anyLong(), anyInt())).thenReturn(createPullResult(MixAll.RMQ_SYS_TRANS_HALF_TOPIC, 1, "hello", 0));
+            when(bridge.lookMessageByOffset(1000)).thenReturn(inner);
+            final AtomicInteger checkMessage = new AtomicInteger(0);
+            doAnswer(new Answer() {
+                @Override
+                public Object answer(InvocationOnMock invocation) {
+                    checkMessage.addAndGet(1);
+                    return checkMessage;
+                }
+            }).when(listener).resolveHalfMsg(any(MessageExt.class));
+
+            queueTransactionMsgService.check(this.brokerController.getBrokerConfig().getTransactionTimeOut(),
+                this.brokerController.getBrokerConfig().getTransactionCheckMax(), listener);
+            assertThat(checkMessage.get()).isEqualTo(1);
+        } finally {
+            queueTransactionMsgService.close();
+            UtilAll.deleteFile(new File(storePath));
+        }
+    }
+
     @Test
     public void testOpen() {
+        when(bridge.getBrokerController()).thenReturn(this.brokerController);
         boolean isOpen = queueTransactionMsgService.open();
         assertThat(isOpen).isTrue();
     }
@@ -97,6 +97,16 @@ public class BrokerConfig {
 
     private long shortPollingTimeMills = 1000;
 
+    /**
+     * Threads waking up suspended pull requests, each one owns the requests of a share of the queues.
+     */
+    private int pullRequestHoldThreadNums = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Tick of the timer wheel expiring suspended pull requests.
+     */
+    private long pullRequestHoldTimerTickMills = 10;
+
     private boolean notifyConsumerIdsChangedEnable = true;
 
     private boolean highSpeedMode = false;
@@ -176,6 +186,19 @@ public class BrokerConfig {
     @ImportantField
     private long transactionCheckInterval = 60 * 1000;
 
+    /**
+     * Keep the open transactions in a memory indexed state table backed by a state log, so that ending a transaction
+     * is O(1) and the checker only visits timed out half messages instead of re-putting them every round.
+     */
+    private boolean transactionStateTableEnable = false;
+
+    private int transactionStateLogFileSize = 40 * 200000;
+
+    /**
+     * Interval of the state table snapshots, the state log before the last snapshot is deleted.
+     */
+    private long transactionStateCheckpointInterval = 10 * 1000;
+
     @ImportantField
     private boolean transactionEnable = true;
 
@@ -777,4 +800,44 @@ public class BrokerConfig {
     public void setAclEnable(boolean aclEnable) {
         this.aclEnable = aclEnable;
     }
+
+    public int getPullRequestHoldThreadNums() {
+        return pullRequestHoldThreadNums;
+    }
+
+    public void setPullRequestHoldThreadNums(int pullRequestHoldThreadNums) {
+        this.pullRequestHoldThreadNums = pullRequestHoldThreadNums;
+    }
+
+    public long getPullRequestHoldTimerTickMills() {
+        return pullRequestHoldTimerTickMills;
+    }
+
+    public void setPullRequestHoldTimerTickMills(long pullRequestHoldTimerTickMills) {
+        this.pullRequestHoldTimerTickMills = pullRequestHoldTimerTickMills;
+    }
+
+    public boolean isTransactionStateTableEnable() {
+        return transactionStateTableEnable;
+    }
+
+    public void setTransactionStateTableEnable(boolean transactionStateTableEnable) {
+        this.transactionStateTableEnable = transactionStateTableEnable;
+    }
+
+    public int getTransactionStateLogFileSize() {
+        return transactionStateLogFileSize;
+    }
+
+    public void setTransactionStateLogFileSize(int transactionStateLogFileSize) {
+        this.transactionStateLogFileSize = transactionStateLogFileSize;
+    }
+
+    public long getTransactionStateCheckpointInterval() {
+        return transactionStateCheckpointInterval;
+    }
+
+    public void setTransactionStateCheckpointInterval(long transactionStateCheckpointInterval) {
+        this.transactionStateCheckpointInterval = transactionStateCheckpointInterval;
+    }
 }
@@ -54,8 +54,38 @@ public class MqttConfig {
 
     private long persistOffsetInterval = 2 * 1000;
 
+    /**
+     * Tick duration of the timer redelivering not acknowledged QoS1 messages
+     */
     private long scanAckTimeoutInterval = 1000;
 
+    /**
+     * Max QoS1 messages in flight per session, from 1 to 65535
+     */
+    private int maxInflightMessages = 10;
+
+    /**
+     * Max messages pulled from an enode at once when delivering QoS1 messages
+     */
+    private int pullBatchSize = 32;
+
+    /**
+     * How long an enode holds a QoS1 delivery pull when no new message is available
+     */
+    private long pullSuspendTimeoutMillis = 15 * 1000;
+
+    /**
+     * Max messages forwarded to another snode in one request
+     */
+    private int transferBatchSize = 128;
+
+    /**
+     * How long messages forwarded to another snode are gathered before being flushed as one request
+     */
+    private long transferFlushIntervalMillis = 2;
+
+    private long transferTimeoutMillis = 3 * 1000;
+
     public int getListenPort() {
         return listenPort;
     }
@@ -159,4 +189,52 @@ public class MqttConfig {
     public void setScanAckTimeoutInterval(long scanAckTimeoutInterval) {
         this.scanAckTimeoutInterval = scanAckTimeoutInterval;
     }
+
+    public int getMaxInflightMessages() {
+        return maxInflightMessages;
+    }
+
+    public void setMaxInflightMessages(int maxInflightMessages) {
+        this.maxInflightMessages = maxInflightMessages;
+    }
+
+    public int getPullBatchSize() {
+        return pullBatchSize;
+    }
+
+    public void setPullBatchSize(int pullBatchSize) {
+        this.pullBatchSize = pullBatchSize;
+    }
+
+    public long getPullSuspendTimeoutMillis() {
+        return pullSuspendTimeoutMillis;
+    }
+
+    public void setPullSuspendTimeoutMillis(long pullSuspendTimeoutMillis) {
+        this.pullSuspendTimeoutMillis = pullSuspendTimeoutMillis;
+    }
+
+    public int getTransferBatchSize() {
+        return transferBatchSize;
+    }
+
+    public void setTransferBatchSize(int transferBatchSize) {
+        this.transferBatchSize = transferBatchSize;
+    }
+
+    public long getTransferFlushIntervalMillis() {
+        return transferFlushIntervalMillis;
+    }
+
+    public void setTransferFlushIntervalMillis(long transferFlushIntervalMillis) {
+        this.transferFlushIntervalMillis = transferFlushIntervalMillis;
+    }
+
+    public long getTransferTimeoutMillis() {
+        return transferTimeoutMillis;
+    }
+
+    public void setTransferTimeoutMillis(long transferTimeoutMillis) {
+        this.transferTimeoutMillis = transferTimeoutMillis;
+    }
 }
@@ -84,6 +84,10 @@ public class SnodeConfig {
 
     private int slowConsumerThreshold = 1024;
 
+    private int snodePushWriteBufferLowWaterMark = 32 * 1024;
+
+    private int snodePushWriteBufferHighWaterMark = 64 * 1024;
+
     private final String sendMessageInterceptorPath = "META-INF/service/org.apache.rocketmq.snode.interceptor.SendMessageInterceptor";
 
     private final String consumeMessageInterceptorPath = "META-INF/service/org.apache.rocketmq.snode.interceptor.ConsumeMessageInterceptor";
@@ -100,6 +104,12 @@ public class SnodeConfig {
     private boolean enablePropertyFilter = true;
 
     private int loadOffsetInterval = 3000;
+
+    private int persistOffsetInterval = 1000 * 2;
+
+    private int snodeOffsetRefreshMaxPoolSize = 4;
+
+    private int snodeOffsetRefreshThreadPoolQueueCapacity = 10000;
     /**
      * Acl feature switch
      */
@@ -349,6 +359,22 @@ public class SnodeConfig {
         this.slowConsumerThreshold = slowConsumerThreshold;
     }
 
+    public int getSnodePushWriteBufferLowWaterMark() {
+        return snodePushWriteBufferLowWaterMark;
+    }
+
+    public void setSnodePushWriteBufferLowWaterMark(int snodePushWriteBufferLowWaterMark) {
+        this.snodePushWriteBufferLowWaterMark = snodePushWriteBufferLowWaterMark;
+    }
+
+    public int getSnodePushWriteBufferHighWaterMark() {
+        return snodePushWriteBufferHighWaterMark;
+    }
+
+    public void setSnodePushWriteBufferHighWaterMark(int snodePushWriteBufferHighWaterMark) {
+        this.snodePushWriteBufferHighWaterMark = snodePushWriteBufferHighWaterMark;
+    }
+
     public boolean isEnablePropertyFilter() {
         return enablePropertyFilter;
     }
@@ -389,6 +415,30 @@ public class SnodeConfig {
         this.loadOffsetInterval = loadOffsetInterval;
     }
 
+    public int getPersistOffsetInterval() {
+        return persistOffsetInterval;
+    }
+
+    public void setPersistOffsetInterval(int persistOffsetInterval) {
+        this.persistOffsetInterval = persistOffsetInterval;
+    }
+
+    public int getSnodeOffsetRefreshMaxPoolSize() {
+        return snodeOffsetRefreshMaxPoolSize;
+    }
+
+    public void setSnodeOffsetRefreshMaxPoolSize(int snodeOffsetRefreshMaxPoolSize) {
+        this.snodeOffsetRefreshMaxPoolSize = snodeOffsetRefreshMaxPoolSize;
+    }
+
+    public int getSnodeOffsetRefreshThreadPoolQueueCapacity() {
+        return snodeOffsetRefreshThreadPoolQueueCapacity;
+    }
+
+    public void setSnodeOffsetRefreshThreadPoolQueueCapacity(int snodeOffsetRefreshThreadPoolQueueCapacity) {
+        this.snodeOffsetRefreshThreadPoolQueueCapacity = snodeOffsetRefreshThreadPoolQueueCapacity;
+    }
+
     public boolean isEmbeddedModeEnable() {
         return embeddedModeEnable;
     }
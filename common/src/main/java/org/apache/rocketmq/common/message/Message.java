@@ -149,6 +149,23 @@ public class Message implements Serializable {
         this.putProperty(MessageConst.PROPERTY_DELAY_TIME_LEVEL, String.valueOf(level));
     }
 
+    public long getDeliverTimeMs() {
+        String t = this.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+        if (t != null) {
+            return Long.parseLong(t);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Deliver the message at an absolute time instead of one of the fixed delay levels, needs timerWheelEnable on the
+     * broker.
+     */
+    public void setDeliverTimeMs(long deliverTimeMs) {
+        this.putProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS, String.valueOf(deliverTimeMs));
+    }
+
     public boolean isWaitStoreMsgOK() {
         String result = this.getProperty(MessageConst.PROPERTY_WAIT_STORE_MSG_OK);
         if (null == result)
@@ -181,4 +181,6 @@ public class RequestCode {
     public static final int CREATE_RETRY_TOPIC = 355;
 
     public static final int MQTT_MESSAGE = 1000;
+
+    public static final int MQTT_TRANSFER_MESSAGE = 1001;
 }
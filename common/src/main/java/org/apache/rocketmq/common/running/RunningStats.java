@@ -22,4 +22,12 @@ public enum RunningStats {
     commitLogDiskRatio,
     consumeQueueDiskRatio,
     scheduleMessageOffset,
+    dispatchReputBehindBytes,
+    dispatchConsumeQueueBehindBytes,
+    dispatchIndexBehindBytes,
+    timerMessageOffset,
+    timerReadBehindMs,
+    haQuorumAckOffset,
+    haSlaveAckOffset,
+    indexRebuildBehindBytes,
 }
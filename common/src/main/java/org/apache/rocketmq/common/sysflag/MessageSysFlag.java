@@ -23,6 +23,7 @@ public class MessageSysFlag {
     public final static int TRANSACTION_PREPARED_TYPE = 0x1 << 2;
     public final static int TRANSACTION_COMMIT_TYPE = 0x2 << 2;
     public final static int TRANSACTION_ROLLBACK_TYPE = 0x3 << 2;
+    public final static int COMPRESSED_BATCH_FLAG = 0x1 << 4;
 
     public static int getTransactionValue(final int flag) {
         return flag & TRANSACTION_ROLLBACK_TYPE;
@@ -32,6 +33,10 @@ public class MessageSysFlag {
         return (flag & (~TRANSACTION_ROLLBACK_TYPE)) | type;
     }
 
+    public static boolean isCompressedBatch(final int flag) {
+        return (flag & COMPRESSED_BATCH_FLAG) == COMPRESSED_BATCH_FLAG;
+    }
+
     public static int clearCompressedFlag(final int flag) {
         return flag & (~COMPRESSED_FLAG);
     }
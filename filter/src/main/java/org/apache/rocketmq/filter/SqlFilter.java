@@ -18,12 +18,14 @@
 package org.apache.rocketmq.filter;
 
 import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.filter.expression.CompiledExpression;
 import org.apache.rocketmq.filter.expression.Expression;
 import org.apache.rocketmq.filter.expression.MQFilterException;
 import org.apache.rocketmq.filter.parser.SelectorParser;
 
 /**
- * SQL92 Filter, just a wrapper of {@link org.apache.rocketmq.filter.parser.SelectorParser}.
+ * SQL92 Filter, parses by {@link org.apache.rocketmq.filter.parser.SelectorParser} and compiles the tree
+ * by {@link CompiledExpression}.
  * <p/>
  * <p>
  * Do not use this filter directly.Use {@link FilterFactory#get} to select a filter.
@@ -33,7 +35,7 @@ public class SqlFilter implements FilterSpi {
 
     @Override
     public Expression compile(final String expr) throws MQFilterException {
-        return SelectorParser.parse(expr);
+        return CompiledExpression.compile(SelectorParser.parse(expr));
     }
 
     @Override
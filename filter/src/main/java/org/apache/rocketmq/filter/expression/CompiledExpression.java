@@ -0,0 +1,567 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.filter.expression;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.rocketmq.filter.constant.UnaryType;
+
+/**
+ * A boolean expression compiled from the tree built by {@link org.apache.rocketmq.filter.parser.SelectorParser}.
+ * <p>
+ * The interpreted tree boxes every intermediate value and converts the string property on each comparison. Here
+ * logic operators work on a primitive three-valued result, numeric constants are unboxed once, IN lists are hashed
+ * and a property is only fetched from the context by the node that needs it, so a lazy context only decodes what
+ * the expression actually references. Shapes that are not specialized keep their interpreted node, and the results
+ * stay the same as evaluating the source expression, nulls and errors included.
+ * </p>
+ */
+public final class CompiledExpression implements BooleanExpression {
+
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+    static final int UNKNOWN = -1;
+
+    private static final Object NOT_CONSTANT = new Object();
+
+    private final BooleanExpression source;
+    private final Node root;
+
+    private CompiledExpression(BooleanExpression source, Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    public static Expression compile(Expression expression) {
+        if (expression instanceof BooleanExpression && !(expression instanceof CompiledExpression)) {
+            return new CompiledExpression((BooleanExpression) expression, compileNode((BooleanExpression) expression, null));
+        }
+        return expression;
+    }
+
+    @Override
+    public Object evaluate(EvaluationContext context) throws Exception {
+        int ret = root.eval(context);
+        if (ret == UNKNOWN) {
+            return null;
+        }
+        return ret == TRUE ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    @Override
+    public boolean matches(EvaluationContext context) throws Exception {
+        return root.eval(context) == TRUE;
+    }
+
+    public BooleanExpression getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || this.getClass() != o.getClass()) {
+            return false;
+        }
+        return source.equals(((CompiledExpression) o).source);
+    }
+
+    /**
+     * Canonical text of an expression: two expressions with the same key always evaluate to the same result, no
+     * matter how the selector was written, e.g. keyword case, spaces, redundant parentheses or IN list order.
+     *
+     * @return null if the expression can not be shared, e.g. it depends on the current time.
+     */
+    public static String canonicalKey(Expression expression) {
+        if (expression instanceof CompiledExpression) {
+            return canonicalKey(((CompiledExpression) expression).source);
+        }
+        if (expression instanceof BinaryExpression) {
+            BinaryExpression binary = (BinaryExpression) expression;
+            String left = canonicalKey(binary.getLeft());
+            String right = canonicalKey(binary.getRight());
+            if (left == null || right == null) {
+                return null;
+            }
+            String prefix = expression instanceof ComparisonExpression
+                && !((ComparisonExpression) expression).convertStringExpressions ? "(raw " : "(";
+            return prefix + left + " " + binary.getExpressionSymbol() + " " + right + ")";
+        }
+        if (expression instanceof UnaryInExpression) {
+            UnaryInExpression in = (UnaryInExpression) expression;
+            String right = canonicalKey(in.getRight());
+            if (right == null) {
+                return null;
+            }
+            List<String> elements = new ArrayList<String>();
+            if (in.getInList() != null) {
+                for (Object element : in.getInList()) {
+                    elements.add(new ConstantExpression(element).toString());
+                }
+            }
+            Collections.sort(elements);
+            return "(" + right + " " + in.getExpressionSymbol() + " " + elements + ")";
+        }
+        if (expression instanceof UnaryExpression) {
+            UnaryExpression unary = (UnaryExpression) expression;
+            String right = canonicalKey(unary.getRight());
+            return right == null ? null : "(" + unary.getUnaryType() + " " + right + ")";
+        }
+        if (expression instanceof NowExpression) {
+            return null;
+        }
+        if (expression instanceof ConstantExpression || expression instanceof PropertyExpression) {
+            return expression.toString();
+        }
+        return null;
+    }
+
+    static Node compileNode(BooleanExpression expression, SharedNodes shared) {
+        String key = shared == null ? null : canonicalKey(expression);
+        if (key != null) {
+            Node node = shared.nodes.get(key);
+            if (node != null) {
+                return node;
+            }
+        }
+        Node node = doCompileNode(expression, shared);
+        if (key != null && shared.isShared(key)) {
+            node = new MemoNode(shared.slotNum++, node);
+            shared.nodes.put(key, node);
+        }
+        return node;
+    }
+
+    private static Node doCompileNode(BooleanExpression expression, SharedNodes shared) {
+        if (expression instanceof LogicExpression) {
+            LogicExpression logic = (LogicExpression) expression;
+            Node left = compileNode((BooleanExpression) logic.getLeft(), shared);
+            Node right = compileNode((BooleanExpression) logic.getRight(), shared);
+            return "&&".equals(logic.getExpressionSymbol()) ? new AndNode(left, right) : new OrNode(left, right);
+        }
+        if (expression instanceof UnaryInExpression) {
+            UnaryInExpression in = (UnaryInExpression) expression;
+            if (in.getRight() instanceof PropertyExpression) {
+                return new InNode(((PropertyExpression) in.getRight()).getName(), in.getInList(), in.isNot());
+            }
+        } else if (expression instanceof UnaryExpression) {
+            UnaryExpression unary = (UnaryExpression) expression;
+            if (unary.getUnaryType() == UnaryType.NOT) {
+                return new NotNode(compileNode((BooleanExpression) unary.getRight(), shared));
+            }
+        } else if (expression instanceof ComparisonExpression) {
+            Node node = compileComparison((ComparisonExpression) expression);
+            if (node != null) {
+                return node;
+            }
+        } else if (expression instanceof ConstantExpression && !(expression instanceof NowExpression)) {
+            Object value = ((ConstantExpression) expression).getValue();
+            if (value == null || value instanceof Boolean) {
+                return new ConstantNode(toTriState(value));
+            }
+        }
+        return new InterpretedNode(expression);
+    }
+
+    private static Node compileComparison(ComparisonExpression comparison) {
+        String symbol = comparison.getExpressionSymbol();
+        Expression left = comparison.getLeft();
+        Expression right = comparison.getRight();
+
+        boolean constantOnLeft = !(left instanceof PropertyExpression);
+        if (constantOnLeft && !(right instanceof PropertyExpression)) {
+            return null;
+        }
+        PropertyExpression property = (PropertyExpression) (constantOnLeft ? right : left);
+        Object value = constantValue(constantOnLeft ? left : right);
+        if (value == NOT_CONSTANT) {
+            return null;
+        }
+        boolean equal = "==".equals(symbol);
+
+        if (value == null) {
+            // IS NULL, the only way a null literal gets into a comparison
+            return equal && !constantOnLeft ? new IsNullNode(property.getName()) : null;
+        }
+        if (value instanceof String) {
+            return equal ? new StringEqualNode(property.getName(), (String) value, constantOnLeft, comparison) : null;
+        }
+        int op = operatorOf(symbol);
+        if (op < 0) {
+            return null;
+        }
+        // without string conversion the interpreted comparison never matches a string value, keep it
+        if (comparison.convertStringExpressions
+            && (value instanceof Integer || value instanceof Long || value instanceof Double)) {
+            return new NumericCompareNode(property.getName(), (Number) value, op, constantOnLeft, comparison);
+        }
+        return null;
+    }
+
+    private static Object constantValue(Expression expression) {
+        if (expression instanceof ConstantExpression && !(expression instanceof NowExpression)) {
+            return ((ConstantExpression) expression).getValue();
+        }
+        if (expression instanceof UnaryExpression
+            && ((UnaryExpression) expression).getUnaryType() == UnaryType.NEGATE
+            && constantValue(((UnaryExpression) expression).getRight()) != NOT_CONSTANT) {
+            try {
+                return expression.evaluate(new EmptyEvaluationContext());
+            } catch (Exception e) {
+                return NOT_CONSTANT;
+            }
+        }
+        return NOT_CONSTANT;
+    }
+
+    private static int operatorOf(String symbol) {
+        if ("==".equals(symbol)) {
+            return NumericCompareNode.EQ;
+        } else if (">".equals(symbol)) {
+            return NumericCompareNode.GT;
+        } else if (">=".equals(symbol)) {
+            return NumericCompareNode.GE;
+        } else if ("<".equals(symbol)) {
+            return NumericCompareNode.LT;
+        } else if ("<=".equals(symbol)) {
+            return NumericCompareNode.LE;
+        }
+        return -1;
+    }
+
+    static int toTriState(Object value) {
+        if (value == null) {
+            return UNKNOWN;
+        }
+        return ((Boolean) value).booleanValue() ? TRUE : FALSE;
+    }
+
+    abstract static class Node {
+        abstract int eval(EvaluationContext context) throws Exception;
+    }
+
+    /**
+     * Boolean sub-expressions of a set of expressions compiled together, by canonical key. A sub-expression met more
+     * than once gets a memo slot, so it is evaluated once per message whichever expression reaches it first.
+     */
+    static final class SharedNodes {
+        private final Map<String, Integer> counts = new HashMap<String, Integer>();
+        private final Map<String, Node> nodes = new HashMap<String, Node>();
+        private int slotNum;
+
+        void count(Expression expression) {
+            String key = canonicalKey(expression);
+            if (key != null) {
+                Integer count = counts.get(key);
+                counts.put(key, count == null ? 1 : count + 1);
+                if (count != null) {
+                    // children are already counted, and will be reached through the memo anyway
+                    return;
+                }
+            }
+            if (expression instanceof LogicExpression) {
+                count(((LogicExpression) expression).getLeft());
+                count(((LogicExpression) expression).getRight());
+            } else if (expression instanceof UnaryExpression
+                && ((UnaryExpression) expression).getUnaryType() == UnaryType.NOT) {
+                count(((UnaryExpression) expression).getRight());
+            }
+        }
+
+        boolean isShared(String key) {
+            Integer count = counts.get(key);
+            return count != null && count > 1;
+        }
+
+        int getSlotNum() {
+            return slotNum;
+        }
+    }
+
+    /**
+     * Keeps the result of a shared sub-expression in the memo of an {@link ExpressionPlan.Evaluation}, stored as
+     * result + 2 so that zero means not evaluated yet. An exception is not kept, the next caller evaluates again.
+     */
+    static final class MemoNode extends Node {
+        private final int slot;
+        private final Node child;
+
+        MemoNode(int slot, Node child) {
+            this.slot = slot;
+            this.child = child;
+        }
+
+        @Override
+        int eval(EvaluationContext context) throws Exception {
+            if (!(context instanceof ExpressionPlan.Evaluation)) {
+                return child.eval(context);
+            }
+            int[] memo = ((ExpressionPlan.Evaluation) context).memo;
+            int value = memo[slot];
+            if (value != 0) {
+                return value - 2;
+            }
+            value = child.eval(context);
+            memo[slot] = value + 2;
+            return value;
+        }
+    }
+
+    static final class ConstantNode extends Node {
+        private final int value;
+
+        ConstantNode(int value) {
+            this.value = value;
+        }
+
+        @Override
+        int eval(EvaluationContext context) {
+            return value;
+        }
+    }
+
+    static final class InterpretedNode extends Node {
+        private final Expression expression;
+
+        InterpretedNode(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        int eval(EvaluationContext context) throws Exception {
+            return toTriState(expression.evaluate(context));
+        }
+    }
+
+    static final class AndNode extends Node {
+        private final Node left;
+        private final Node right;
+
+        AndNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int eval(EvaluationContext context) throws Exception {
+            int lv = left.eval(context);
+            if (lv == FALSE) {
+                return FALSE;
+            }
+            int rv = right.eval(context);
+            if (rv == FALSE) {
+                return FALSE;
+            }
+            return lv == UNKNOWN || rv == UNKNOWN ? UNKNOWN : TRUE;
+        }
+    }
+
+    static final class OrNode extends Node {
+        private final Node left;
+        private final Node right;
+
+        OrNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int eval(EvaluationContext context) throws Exception {
+            int lv = left.eval(context);
+            if (lv == TRUE) {
+                return TRUE;
+            }
+            int rv = right.eval(context);
+            if (rv == TRUE) {
+                return TRUE;
+            }
+            return lv == UNKNOWN || rv == UNKNOWN ? UNKNOWN : FALSE;
+        }
+    }
+
+    static final class NotNode extends Node {
+        private final Node child;
+
+        NotNode(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        int eval(EvaluationContext context) throws Exception {
+            int value = child.eval(context);
+            return value == UNKNOWN ? UNKNOWN : TRUE - value;
+        }
+    }
+
+    static final class IsNullNode extends Node {
+        private final String name;
+
+        IsNullNode(String name) {
+            this.name = name;
+        }
+
+        @Override
+        int eval(EvaluationContext context) {
+            return context.get(name) == null ? TRUE : FALSE;
+        }
+    }
+
+    static final class InNode extends Node {
+        private final String name;
+        private final Set<Object> values;
+        private final boolean not;
+
+        @SuppressWarnings("unchecked")
+        InNode(String name, Collection inList, boolean not) {
+            this.name = name;
+            this.values = inList == null ? new HashSet<Object>() : new HashSet<Object>(inList);
+            this.not = not;
+        }
+
+        @Override
+        int eval(EvaluationContext context) {
+            Object value = context.get(name);
+            if (value == null || value.getClass() != String.class) {
+                return UNKNOWN;
+            }
+            return values.contains(value) ^ not ? TRUE : FALSE;
+        }
+    }
+
+    /**
+     * Equality between a property and a string literal. Values which are not strings keep the interpreted path.
+     */
+    static final class StringEqualNode extends Node {
+        private final String name;
+        private final String constant;
+        private final int nullResult;
+        private final Expression fallback;
+
+        StringEqualNode(String name, String constant, boolean constantOnLeft, Expression fallback) {
+            this.name = name;
+            this.constant = constant;
+            this.nullResult = constantOnLeft ? FALSE : UNKNOWN;
+            this.fallback = fallback;
+        }
+
+        @Override
+        int eval(EvaluationContext context) throws Exception {
+            Object value = context.get(name);
+            if (value == null) {
+                return nullResult;
+            }
+            if (value.getClass() != String.class) {
+                return toTriState(fallback.evaluate(context));
+            }
+            return constant.equals(value) ? TRUE : FALSE;
+        }
+    }
+
+    /**
+     * Comparison between a property and a numeric literal. The string value is parsed into the primitive type of
+     * the literal, just like the interpreted comparison converts it before {@code compareTo}.
+     */
+    static final class NumericCompareNode extends Node {
+        static final int EQ = 0;
+        static final int GT = 1;
+        static final int GE = 2;
+        static final int LT = 3;
+        static final int LE = 4;
+
+        private static final int INT = 0;
+        private static final int LONG = 1;
+        private static final int DOUBLE = 2;
+
+        private final String name;
+        private final int op;
+        private final int type;
+        private final long longConstant;
+        private final double doubleConstant;
+        private final boolean constantOnLeft;
+        private final int nullResult;
+        private final Expression fallback;
+
+        NumericCompareNode(String name, Number constant, int op, boolean constantOnLeft, Expression fallback) {
+            this.name = name;
+            this.op = op;
+            this.type = constant instanceof Integer ? INT : constant instanceof Long ? LONG : DOUBLE;
+            this.longConstant = constant.longValue();
+            this.doubleConstant = constant.doubleValue();
+            this.constantOnLeft = constantOnLeft;
+            this.nullResult = op == EQ && constantOnLeft ? FALSE : UNKNOWN;
+            this.fallback = fallback;
+        }
+
+        @Override
+        int eval(EvaluationContext context) throws Exception {
+            Object value = context.get(name);
+            if (value == null) {
+                return nullResult;
+            }
+            if (value.getClass() != String.class) {
+                return toTriState(fallback.evaluate(context));
+            }
+            int answer;
+            try {
+                switch (type) {
+                    case INT:
+                        answer = Integer.compare(Integer.parseInt((String) value), (int) longConstant);
+                        break;
+                    case LONG:
+                        answer = Long.compare(Long.parseLong((String) value), longConstant);
+                        break;
+                    default:
+                        answer = Double.compare(Double.parseDouble((String) value), doubleConstant);
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                throw new RuntimeException(e);
+            }
+            if (constantOnLeft) {
+                answer = -answer;
+            }
+            switch (op) {
+                case EQ:
+                    return answer == 0 ? TRUE : FALSE;
+                case GT:
+                    return answer > 0 ? TRUE : FALSE;
+                case GE:
+                    return answer >= 0 ? TRUE : FALSE;
+                case LT:
+                    return answer < 0 ? TRUE : FALSE;
+                default:
+                    return answer <= 0 ? TRUE : FALSE;
+            }
+        }
+    }
+}
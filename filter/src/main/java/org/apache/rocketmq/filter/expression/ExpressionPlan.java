@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.filter.expression;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expressions compiled together so that the boolean sub-expressions they have in common are evaluated only once per
+ * message.
+ * <p>
+ * Each expression is compiled like {@link CompiledExpression}, and every sub-expression whose canonical key is met
+ * more than once across the plan shares a single node with a memo slot. Evaluating a message is done through an
+ * {@link Evaluation}, which holds the memo of that message.
+ * </p>
+ */
+public final class ExpressionPlan {
+
+    private final CompiledExpression.Node[] roots;
+    private final int slotNum;
+
+    private ExpressionPlan(CompiledExpression.Node[] roots, int slotNum) {
+        this.roots = roots;
+        this.slotNum = slotNum;
+    }
+
+    public static ExpressionPlan build(List<? extends Expression> expressions) {
+        CompiledExpression.SharedNodes shared = new CompiledExpression.SharedNodes();
+        for (Expression expression : expressions) {
+            shared.count(unwrap(expression));
+        }
+
+        CompiledExpression.Node[] roots = new CompiledExpression.Node[expressions.size()];
+        for (int i = 0; i < roots.length; i++) {
+            Expression expression = unwrap(expressions.get(i));
+            if (expression instanceof BooleanExpression) {
+                roots[i] = CompiledExpression.compileNode((BooleanExpression) expression, shared);
+            } else {
+                roots[i] = new AnyNode(expression);
+            }
+        }
+        return new ExpressionPlan(roots, shared.getSlotNum());
+    }
+
+    private static Expression unwrap(Expression expression) {
+        if (expression instanceof CompiledExpression) {
+            return ((CompiledExpression) expression).getSource();
+        }
+        return expression;
+    }
+
+    public Evaluation newEvaluation(EvaluationContext context) {
+        return new Evaluation(context, slotNum);
+    }
+
+    public int getExpressionNum() {
+        return roots.length;
+    }
+
+    /**
+     * @return number of sub-expressions evaluated once for all expressions referencing them.
+     */
+    public int getSharedNum() {
+        return slotNum;
+    }
+
+    /**
+     * Evaluation of one message, property lookups are delegated to the context of the message.
+     */
+    public final class Evaluation implements EvaluationContext {
+
+        private final EvaluationContext context;
+        final int[] memo;
+
+        private Evaluation(EvaluationContext context, int slotNum) {
+            this.context = context;
+            this.memo = new int[slotNum];
+        }
+
+        /**
+         * @return true if the expression at the index evaluates to true, same as {@link BooleanExpression#matches}.
+         */
+        public boolean matches(int index) throws Exception {
+            return roots[index].eval(this) == CompiledExpression.TRUE;
+        }
+
+        @Override
+        public Object get(String name) {
+            return context.get(name);
+        }
+
+        @Override
+        public Map<String, Object> keyValues() {
+            return context.keyValues();
+        }
+    }
+
+    /**
+     * Expression which is not boolean, matched only if it evaluates to {@link Boolean#TRUE}.
+     */
+    static final class AnyNode extends CompiledExpression.Node {
+        private final Expression expression;
+
+        AnyNode(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        int eval(EvaluationContext context) throws Exception {
+            Object value = expression.evaluate(context);
+            if (value == null) {
+                return CompiledExpression.UNKNOWN;
+            }
+            return Boolean.TRUE.equals(value) ? CompiledExpression.TRUE : CompiledExpression.FALSE;
+        }
+    }
+}
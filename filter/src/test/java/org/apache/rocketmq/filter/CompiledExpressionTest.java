@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.filter.expression.BooleanExpression;
+import org.apache.rocketmq.filter.expression.CompiledExpression;
+import org.apache.rocketmq.filter.expression.EvaluationContext;
+import org.apache.rocketmq.filter.expression.Expression;
+import org.apache.rocketmq.filter.parser.SelectorParser;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompiledExpressionTest {
+
+    private static final String[] EXPRESSIONS = {
+        "a > 5 AND b IN ('x', 'y', 'z', 'u', 'v', 'w')",
+        "a > 5 OR b NOT IN ('x', 'y')",
+        "a >= -5 and a <= 3000000000",
+        "5 < a",
+        "5 = a",
+        "a = 5",
+        "a <> 5",
+        "a > 5.5",
+        "a between 2 and 10",
+        "a not between 2 and 10",
+        "a is null",
+        "a is not null and b = 'x'",
+        "'x' = b",
+        "b <> 'x'",
+        "a = TRUE OR b = FALSE",
+        "NOT (a > 5) AND b IN ('x')",
+        "a = b",
+        "TRUE AND a < 10",
+        "a > 5 OR b IN ('x')"
+    };
+
+    private static final Object[] VALUES = {null, "7", "3", "5", "5.5", "-5", "3000000000", "x", "y", "TRUE", 7, 5.5D, 7L};
+
+    @Test
+    public void testSameResultAsInterpreted() throws Exception {
+        for (String sql : EXPRESSIONS) {
+            BooleanExpression interpreted = SelectorParser.parse(sql);
+            Expression compiled = CompiledExpression.compile(interpreted);
+            assertThat(compiled).isInstanceOf(CompiledExpression.class);
+            assertThat(compiled.toString()).isEqualTo(interpreted.toString());
+
+            for (Object a : VALUES) {
+                for (Object b : VALUES) {
+                    MapContext context = new MapContext();
+                    context.properties.put("a", a);
+                    context.properties.put("b", b);
+                    assertThat(evaluate(compiled, context)).as("%s with a=%s, b=%s", sql, a, b)
+                        .isEqualTo(evaluate(interpreted, context));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyReferencedPropertiesAreRead() throws Exception {
+        Expression compiled = FilterFactory.INSTANCE.get(ExpressionType.SQL92).compile("a > 5 AND b IN ('x', 'y')");
+        MapContext context = new MapContext();
+        context.properties.put("a", "3");
+        context.properties.put("b", "x");
+
+        assertThat(compiled.evaluate(context)).isEqualTo(Boolean.FALSE);
+        assertThat(context.reads).containsExactly("a");
+
+        context.properties.put("a", "6");
+        context.reads.clear();
+        assertThat(((BooleanExpression) compiled).matches(context)).isTrue();
+        assertThat(context.reads).containsExactly("a", "b");
+    }
+
+    private static Object evaluate(Expression expression, EvaluationContext context) {
+        try {
+            return expression.evaluate(context);
+        } catch (Exception e) {
+            return e.getClass();
+        }
+    }
+
+    static class MapContext implements EvaluationContext {
+
+        Map<String, Object> properties = new HashMap<String, Object>(4);
+
+        List<String> reads = new ArrayList<String>();
+
+        @Override
+        public Object get(String name) {
+            reads.add(name);
+            return properties.get(name);
+        }
+
+        @Override
+        public Map<String, Object> keyValues() {
+            return properties;
+        }
+    }
+}
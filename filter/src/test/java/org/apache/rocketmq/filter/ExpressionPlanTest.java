@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.rocketmq.filter.expression.BooleanExpression;
+import org.apache.rocketmq.filter.expression.ComparisonExpression;
+import org.apache.rocketmq.filter.expression.CompiledExpression;
+import org.apache.rocketmq.filter.expression.ConstantExpression;
+import org.apache.rocketmq.filter.expression.Expression;
+import org.apache.rocketmq.filter.expression.ExpressionPlan;
+import org.apache.rocketmq.filter.expression.PropertyExpression;
+import org.apache.rocketmq.filter.parser.SelectorParser;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpressionPlanTest {
+
+    @Test
+    public void testCanonicalKey() throws Exception {
+        assertThat(CompiledExpression.canonicalKey(SelectorParser.parse("a > 5 AND b IN ('x', 'y')")))
+            .isEqualTo(CompiledExpression.canonicalKey(SelectorParser.parse("(a>5) and b in ('y','x')")));
+        assertThat(CompiledExpression.canonicalKey(SelectorParser.parse("a = 5")))
+            .isNotEqualTo(CompiledExpression.canonicalKey(SelectorParser.parse("a = '5'")));
+        assertThat(CompiledExpression.canonicalKey(
+            ComparisonExpression.createLessThan(new PropertyExpression("a"), ConstantExpression.createNow()))).isNull();
+    }
+
+    @Test
+    public void testSharedSubExpressionsEvaluatedOnce() throws Exception {
+        List<String> sqls = Arrays.asList(
+            "region IN ('eu', 'us') AND a > 5",
+            "region IN ('us', 'eu') AND a > 10",
+            "NOT (region IN ('eu', 'us')) OR b = 'x'",
+            "a > 5 OR b = 'x'");
+        List<Expression> expressions = new ArrayList<Expression>();
+        for (String sql : sqls) {
+            expressions.add(FilterFactory.INSTANCE.get("SQL92").compile(sql));
+        }
+        ExpressionPlan plan = ExpressionPlan.build(expressions);
+        assertThat(plan.getExpressionNum()).isEqualTo(4);
+        // region IN (...), a > 5 and b = 'x'
+        assertThat(plan.getSharedNum()).isEqualTo(3);
+
+        Object[] regions = {null, "eu", "cn"};
+        Object[] as = {null, "3", "7", "11"};
+        Object[] bs = {null, "x", "y"};
+        for (Object region : regions) {
+            for (Object a : as) {
+                for (Object b : bs) {
+                    CompiledExpressionTest.MapContext context = new CompiledExpressionTest.MapContext();
+                    context.properties.put("region", region);
+                    context.properties.put("a", a);
+                    context.properties.put("b", b);
+
+                    ExpressionPlan.Evaluation evaluation = plan.newEvaluation(context);
+                    for (int i = 0; i < expressions.size(); i++) {
+                        assertThat(evaluation.matches(i)).as("%s with %s", sqls.get(i), context.properties)
+                            .isEqualTo(((BooleanExpression) expressions.get(i)).matches(context));
+                    }
+                }
+            }
+        }
+
+        CompiledExpressionTest.MapContext context = new CompiledExpressionTest.MapContext();
+        context.properties.put("region", "eu");
+        context.properties.put("a", "7");
+        context.properties.put("b", "y");
+        ExpressionPlan.Evaluation evaluation = plan.newEvaluation(context);
+        for (int i = 0; i < expressions.size(); i++) {
+            evaluation.matches(i);
+        }
+        assertThat(context.reads).containsExactly("region", "a", "a", "b");
+    }
+}
@@ -16,23 +16,24 @@
  */
 package org.apache.rocketmq.mqtt.client;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.MqttConfig;
 import org.apache.rocketmq.common.client.Client;
 import org.apache.rocketmq.common.client.ClientManagerImpl;
 import org.apache.rocketmq.common.client.Subscription;
 import org.apache.rocketmq.common.constant.LoggerName;
-import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.RemotingChannel;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 
 public class IOTClientManagerImpl extends ClientManagerImpl {
 
@@ -43,12 +44,14 @@ public class IOTClientManagerImpl extends ClientManagerImpl {
     private final ConcurrentHashMap<String/*root topic*/, Set<Client>> topic2Clients = new ConcurrentHashMap<>(
         1024);
     private final ConcurrentHashMap<String/*clientId*/, Subscription> clientId2Subscription = new ConcurrentHashMap<>(1024);
-    private final Map<String/*snode ip*/, MqttClient> snode2MqttClient = new HashMap<>();
-    private final ConcurrentHashMap<String /*broker*/, ConcurrentHashMap<String /*rootTopic@clientId*/, TreeMap<Long/*queueOffset*/, MessageExt>>> processTable = new ConcurrentHashMap<>();
+    private final SubscriptionTrie subscriptionTrie = new SubscriptionTrie();
+    private final ConcurrentHashMap<String /*broker*/, ConcurrentHashMap<String /*clientId*/, ConcurrentHashMap<String /*rootTopic*/, InFlightOffsets>>> processTable = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String /*rootTopic@clientId*/, Integer> consumeOffsetTable = new ConcurrentHashMap<>();
-    private final DelayQueue<InFlightPacket> inflightTimeouts = new DelayQueue<>();
+    private final Timer inflightTimer;
 
-    public IOTClientManagerImpl() {
+    public IOTClientManagerImpl(MqttConfig mqttConfig) {
+        this.inflightTimer = new HashedWheelTimer(new DefaultThreadFactory("MqttInflightTimer", true),
+            mqttConfig.getScanAckTimeoutInterval(), TimeUnit.MILLISECONDS);
     }
 
     @Override public void onClose(Set<String> groups, RemotingChannel remotingChannel) {
@@ -85,7 +88,8 @@ public class IOTClientManagerImpl extends ClientManagerImpl {
     }
 
     public void cleanSessionState(String clientId) {
-        if (clientId2Subscription.remove(clientId) == null) {
+        Subscription subscription = clientId2Subscription.remove(clientId);
+        if (subscription == null) {
             return;
         }
         Map<String, Set<Client>> toBeRemoveFromPersistentStore = new HashMap<>();
@@ -96,6 +100,9 @@ public class IOTClientManagerImpl extends ClientManagerImpl {
                 Client client = iterator1.next();
                 if (client.getClientId().equals(clientId)) {
                     iterator1.remove();
+                    for (String topicFilter : subscription.getSubscriptionTable().keySet()) {
+                        subscriptionTrie.unsubscribe(topicFilter, client);
+                    }
                     Set<Client> clients = toBeRemoveFromPersistentStore.getOrDefault((next.getKey()), new HashSet<>());
                     clients.add(client);
                     toBeRemoveFromPersistentStore.put(next.getKey(), clients);
@@ -116,6 +123,10 @@ public class IOTClientManagerImpl extends ClientManagerImpl {
         return topic2Clients;
     }
 
+    public SubscriptionTrie getSubscriptionTrie() {
+        return subscriptionTrie;
+    }
+
     public ConcurrentHashMap<String, Subscription> getClientId2Subscription() {
         return clientId2Subscription;
     }
@@ -124,15 +135,57 @@ public class IOTClientManagerImpl extends ClientManagerImpl {
         clientId2Subscription.put(clientId, subscription);
     }
 
-    public Map<String, MqttClient> getSnode2MqttClient() {
-        return snode2MqttClient;
+    public ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, InFlightOffsets>>> getProcessTable() {
+        return processTable;
     }
 
-    public ConcurrentHashMap<String, ConcurrentHashMap<String, TreeMap<Long, MessageExt>>> getProcessTable() {
-        return processTable;
+    /**
+     * Find the in-flight offsets of a root topic on an enode for the given client.
+     *
+     * @return The in-flight offsets, or null if no message has been pushed yet.
+     */
+    public InFlightOffsets getInFlightOffsets(String brokerName, String clientId, String rootTopic) {
+        ConcurrentHashMap<String, ConcurrentHashMap<String, InFlightOffsets>> clientTable = processTable.get(brokerName);
+        if (clientTable == null) {
+            return null;
+        }
+        ConcurrentHashMap<String, InFlightOffsets> topicTable = clientTable.get(clientId);
+        return topicTable == null ? null : topicTable.get(rootTopic);
     }
 
-    public DelayQueue<InFlightPacket> getInflightTimeouts() {
-        return inflightTimeouts;
+    public InFlightOffsets getOrCreateInFlightOffsets(String brokerName, String clientId, String rootTopic) {
+        InFlightOffsets inFlightOffsets = getInFlightOffsets(brokerName, clientId, rootTopic);
+        if (inFlightOffsets != null) {
+            return inFlightOffsets;
+        }
+        ConcurrentHashMap<String, ConcurrentHashMap<String, InFlightOffsets>> clientTable = processTable.get(brokerName);
+        if (clientTable == null) {
+            clientTable = new ConcurrentHashMap<>();
+            ConcurrentHashMap<String, ConcurrentHashMap<String, InFlightOffsets>> old = processTable.putIfAbsent(brokerName, clientTable);
+            if (old != null) {
+                clientTable = old;
+            }
+        }
+        ConcurrentHashMap<String, InFlightOffsets> topicTable = clientTable.get(clientId);
+        if (topicTable == null) {
+            topicTable = new ConcurrentHashMap<>(4);
+            ConcurrentHashMap<String, InFlightOffsets> old = clientTable.putIfAbsent(clientId, topicTable);
+            if (old != null) {
+                topicTable = old;
+            }
+        }
+        inFlightOffsets = new InFlightOffsets();
+        InFlightOffsets old = topicTable.putIfAbsent(rootTopic, inFlightOffsets);
+        return old != null ? old : inFlightOffsets;
+    }
+
+    public Timer getInflightTimer() {
+        return inflightTimer;
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        this.inflightTimer.stop();
     }
 }
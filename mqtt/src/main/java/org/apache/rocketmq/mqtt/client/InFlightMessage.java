@@ -22,13 +22,11 @@ public class InFlightMessage {
     private final String topic;
     private final Integer pushQos;
     private final BrokerData brokerData;
-    private final byte[] body;
     private final long queueOffset;
 
-    public InFlightMessage(String topic, Integer pushQos, byte[] body, BrokerData brokerData, long queueOffset) {
+    public InFlightMessage(String topic, Integer pushQos, BrokerData brokerData, long queueOffset) {
         this.topic = topic;
         this.pushQos = pushQos;
-        this.body = body;
         this.brokerData = brokerData;
         this.queueOffset = queueOffset;
     }
@@ -48,8 +46,4 @@ public class InFlightMessage {
     public Integer getPushQos() {
         return pushQos;
     }
-
-    public byte[] getBody() {
-        return body;
-    }
 }
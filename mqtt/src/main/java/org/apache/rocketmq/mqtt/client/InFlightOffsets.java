@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.client;
+
+import java.util.Arrays;
+
+/**
+ * Queue offsets of the QoS1 messages of one root topic in flight to one client, kept as a sorted primitive array. Only
+ * offsets are tracked, the messages themselves are pulled again from the enode when they need to be redelivered.
+ * <p>
+ * The array never holds more entries than the in-flight window of the client, and messages are pushed in queue order,
+ * so adding is usually an append and the lowest in-flight offset, the low water mark up to which the client has
+ * consumed, is always the first entry. Offsets the puller passed over without pushing them, e.g. messages no
+ * subscription of the client matches, are recorded by {@link #skipTo(long)} so that the low water mark does not stall
+ * below them.
+ */
+public class InFlightOffsets {
+
+    private static final long[] EMPTY = new long[0];
+
+    private long[] offsets = EMPTY;
+
+    private int size;
+
+    private long maxOffset = -1;
+
+    private long skippedOffset = -1;
+
+    /**
+     * @return false if the offset was already in flight.
+     */
+    public synchronized boolean add(long offset) {
+        int index = Arrays.binarySearch(offsets, 0, size, offset);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(4, size << 1));
+        }
+        System.arraycopy(offsets, index, offsets, index + 1, size - index);
+        offsets[index] = offset;
+        size++;
+        maxOffset = Math.max(maxOffset, offset);
+        return true;
+    }
+
+    /**
+     * @return false if the offset was not in flight.
+     */
+    public synchronized boolean remove(long offset) {
+        int index = Arrays.binarySearch(offsets, 0, size, offset);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(offsets, index + 1, offsets, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Record that every offset below the given one which is not in flight has been passed over by the puller, either
+     * pushed already or not to be pushed to this client at all.
+     */
+    public synchronized void skipTo(long offset) {
+        skippedOffset = Math.max(skippedOffset, offset);
+    }
+
+    public synchronized boolean contains(long offset) {
+        return Arrays.binarySearch(offsets, 0, size, offset) >= 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The lowest in-flight offset, or the one after the highest offset ever added or skipped to if nothing is in
+     * flight, or -1 if nothing has been added or skipped yet.
+     */
+    public synchronized long getLowWaterMark() {
+        if (size > 0) {
+            return offsets[0];
+        }
+        return Math.max(maxOffset < 0 ? -1 : maxOffset + 1, skippedOffset);
+    }
+}
@@ -14,40 +14,37 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.apache.rocketmq.mqtt.client;
 
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 
-public class InFlightPacket implements Delayed {
+/**
+ * A QoS1 message pushed to a session and not acknowledged yet. It is also the redelivery task scheduled on the
+ * in-flight timer, which is cancelled once the acknowledgement arrives.
+ */
+public class InFlightPacket implements TimerTask {
 
     private final MQTTSession client;
-    private final int packetId;
-    private long startTime;
-    private int resendTime = 0;
+    private final InFlightMessage message;
+    private volatile int packetId;
+    private volatile int resendTime = 0;
+    private volatile Timeout timeout;
 
-    InFlightPacket(MQTTSession client, int packetId, long delayInMilliseconds) {
+    InFlightPacket(MQTTSession client, InFlightMessage message) {
         this.client = client;
-        this.packetId = packetId;
-        this.startTime = System.currentTimeMillis() + delayInMilliseconds;
+        this.message = message;
     }
 
     @Override
-    public long getDelay(TimeUnit unit) {
-        long diff = startTime - System.currentTimeMillis();
-        return unit.convert(diff, TimeUnit.MILLISECONDS);
+    public void run(Timeout timeout) {
+        client.redeliver(this);
     }
 
-    @Override
-    public int compareTo(Delayed o) {
-        if ((this.startTime - ((InFlightPacket) o).startTime) == 0) {
-            return 0;
-        }
-        if ((this.startTime - ((InFlightPacket) o).startTime) > 0) {
-            return 1;
-        } else {
-            return -1;
+    public void cancel() {
+        Timeout timeout = this.timeout;
+        if (timeout != null) {
+            timeout.cancel();
         }
     }
 
@@ -55,16 +52,16 @@ public class InFlightPacket implements Delayed {
         return client;
     }
 
-    public int getPacketId() {
-        return packetId;
+    public InFlightMessage getMessage() {
+        return message;
     }
 
-    public long getStartTime() {
-        return startTime;
+    public int getPacketId() {
+        return packetId;
     }
 
-    public void setStartTime(long startTime) {
-        this.startTime = startTime;
+    void setPacketId(int packetId) {
+        this.packetId = packetId;
     }
 
     public int getResendTime() {
@@ -75,15 +72,11 @@ public class InFlightPacket implements Delayed {
         this.resendTime = resendTime;
     }
 
-    @Override public boolean equals(Object obj) {
-        if (obj == this) {
-            return true;
-        }
-        if (!(obj instanceof InFlightPacket)) {
-            return false;
-        }
-        InFlightPacket packet = (InFlightPacket) obj;
-        return packet.getClient().equals(this.getClient()) &&
-            packet.getPacketId() == this.getPacketId();
+    public Timeout getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Timeout timeout) {
+        this.timeout = timeout;
     }
-}
\ No newline at end of file
+}
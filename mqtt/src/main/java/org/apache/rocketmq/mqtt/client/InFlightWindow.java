@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.client;
+
+/**
+ * Fixed size QoS1 in-flight window of a session, a ring of slots indexed by packet id.
+ * <p>
+ * Packet ids are handed out in increasing order and always land on a free slot, so a lookup on acknowledgement is a
+ * single array access and no id is ever boxed. Access is guarded by the window itself since pushes run on the ordered
+ * executor while acknowledgements and redeliveries arrive on other threads.
+ */
+public class InFlightWindow {
+
+    public static final int MAX_PACKET_ID = 65535;
+
+    private final InFlightPacket[] slots;
+
+    private int size;
+
+    private int lastPacketId;
+
+    public InFlightWindow(int capacity) {
+        if (capacity <= 0 || capacity > MAX_PACKET_ID) {
+            throw new IllegalArgumentException("In-flight window size must be in [1, " + MAX_PACKET_ID + "], but was " + capacity);
+        }
+        this.slots = new InFlightPacket[capacity];
+    }
+
+    /**
+     * Assign a packet id to the given packet and put it into the window.
+     *
+     * @return The assigned packet id, or 0 if the window is full.
+     */
+    public synchronized int put(InFlightPacket packet) {
+        if (size == slots.length) {
+            return 0;
+        }
+        int packetId = lastPacketId;
+        do {
+            packetId = packetId == MAX_PACKET_ID ? 1 : packetId + 1;
+        }
+        while (slots[indexOf(packetId)] != null);
+        packet.setPacketId(packetId);
+        slots[indexOf(packetId)] = packet;
+        size++;
+        lastPacketId = packetId;
+        return packetId;
+    }
+
+    public synchronized InFlightPacket get(int packetId) {
+        InFlightPacket packet = slots[indexOf(packetId)];
+        return packet != null && packet.getPacketId() == packetId ? packet : null;
+    }
+
+    public synchronized InFlightPacket remove(int packetId) {
+        int index = indexOf(packetId);
+        InFlightPacket packet = slots[index];
+        if (packet == null || packet.getPacketId() != packetId) {
+            return null;
+        }
+        slots[index] = null;
+        size--;
+        return packet;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isFull() {
+        return size == slots.length;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    private int indexOf(int packetId) {
+        return (packetId - 1) % slots.length;
+    }
+}
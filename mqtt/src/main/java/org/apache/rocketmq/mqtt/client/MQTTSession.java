@@ -16,14 +16,10 @@
  */
 package org.apache.rocketmq.mqtt.client;
 
-import java.util.HashMap;
-import java.util.Hashtable;
-import java.util.Map;
+import io.netty.handler.codec.mqtt.MqttMessageType;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.common.client.Client;
 import org.apache.rocketmq.common.client.ClientRole;
 import org.apache.rocketmq.common.constant.LoggerName;
@@ -33,9 +29,10 @@ import org.apache.rocketmq.common.protocol.route.BrokerData;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.mqtt.constant.MqttConstant;
-import org.apache.rocketmq.mqtt.exception.MqttRuntimeException;
 import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
+import org.apache.rocketmq.mqtt.task.MqttRedeliverTask;
 import org.apache.rocketmq.mqtt.util.MqttUtil;
+import org.apache.rocketmq.mqtt.util.orderedexecutor.SafeRunnable;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.netty.NettyChannelHandlerContextImpl;
 import org.apache.rocketmq.remoting.netty.NettyChannelImpl;
@@ -43,7 +40,7 @@ import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
 
 import static org.apache.rocketmq.mqtt.constant.MqttConstant.FLIGHT_BEFORE_RESEND_MS;
-import static org.apache.rocketmq.mqtt.constant.MqttConstant.TOPIC_CLIENTID_SEPARATOR;
+import static org.apache.rocketmq.mqtt.constant.MqttConstant.MAX_RESEND_TIMES;
 
 public class MQTTSession extends Client {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.MQTT_LOGGER_NAME);
@@ -53,10 +50,7 @@ public class MQTTSession extends Client {
     private boolean willFlag;
 
     private final DefaultMqttMessageProcessor defaultMqttMessageProcessor;
-    private final AtomicInteger inflightSlots = new AtomicInteger(10);
-    private final Map<Integer, InFlightMessage> inflightWindow = new HashMap<>();
-    private Hashtable inUsePacketIds = new Hashtable();
-    private int nextPacketId = 0;
+    private final InFlightWindow inflightWindow;
 
     public MQTTSession(String clientId, ClientRole clientRole, Set<String> groups, boolean isConnected,
         boolean cleanSession, RemotingChannel remotingChannel, long lastUpdateTimestamp,
@@ -65,6 +59,8 @@ public class MQTTSession extends Client {
         this.isConnected = isConnected;
         this.cleanSession = cleanSession;
         this.defaultMqttMessageProcessor = defaultMqttMessageProcessor;
+        this.inflightWindow = new InFlightWindow(defaultMqttMessageProcessor != null ?
+            defaultMqttMessageProcessor.getMqttConfig().getMaxInflightMessages() : MqttConstant.DEFAULT_MAX_INFLIGHT_MESSAGES);
     }
 
     @Override
@@ -112,35 +108,84 @@ public class MQTTSession extends Client {
         pushMessage2Client(mqttHeader, body);
     }
 
-    public void pushMessageQos1(MqttHeader mqttHeader, MessageExt messageExt, BrokerData brokerData) {
-        if (inflightSlots.get() > 0) {
-            inflightSlots.decrementAndGet();
-            mqttHeader.setPacketId(getNextPacketId());
-            inflightWindow.put(mqttHeader.getPacketId(), new InFlightMessage(mqttHeader.getTopicName(), mqttHeader.getQosLevel(), messageExt.getBody(), brokerData, messageExt.getQueueOffset()));
-            IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) this.defaultMqttMessageProcessor.getIotClientManager();
-            iotClientManager.getInflightTimeouts().add(new InFlightPacket(this, mqttHeader.getPacketId(), FLIGHT_BEFORE_RESEND_MS));
-            put2processTable(iotClientManager.getProcessTable(), brokerData.getBrokerName(), MqttUtil.getRootTopic(mqttHeader.getTopicName()), messageExt);
-            pushMessage2Client(mqttHeader, messageExt.getBody());
+    /**
+     * @return false if the in-flight window is full and the message has not been pushed.
+     */
+    public boolean pushMessageQos1(MqttHeader mqttHeader, MessageExt messageExt, BrokerData brokerData) {
+        if (inflightWindow.isFull()) {
+            return false;
         }
-    }
-
+        InFlightPacket packet = new InFlightPacket(this, new InFlightMessage(mqttHeader.getTopicName(), mqttHeader.getQosLevel(), brokerData, messageExt.getQueueOffset()));
+        int packetId = inflightWindow.put(packet);
+        if (packetId == 0) {
+            return false;
+        }
+        mqttHeader.setPacketId(packetId);
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) this.defaultMqttMessageProcessor.getIotClientManager();
+        packet.setTimeout(iotClientManager.getInflightTimer().newTimeout(packet, FLIGHT_BEFORE_RESEND_MS, TimeUnit.MILLISECONDS));
+        iotClientManager.getOrCreateInFlightOffsets(brokerData.getBrokerName(), this.getClientId(), MqttUtil.getRootTopic(mqttHeader.getTopicName())).add(messageExt.getQueueOffset());
+        pushMessage2Client(mqttHeader, messageExt.getBody());
+        return true;
+    }
+
+    /**
+     * Release the in-flight slot of an acknowledged packet.
+     *
+     * @return The acknowledged message, or null if the packet id is not in flight, e.g. a duplicated PUBACK.
+     */
     public InFlightMessage pubAckReceived(int ackPacketId) {
-        InFlightMessage remove = inflightWindow.remove(ackPacketId);
-        String rootTopic = MqttUtil.getRootTopic(remove.getTopic());
-        ConcurrentHashMap<String, ConcurrentHashMap<String, TreeMap<Long, MessageExt>>> processTable = ((IOTClientManagerImpl) this.defaultMqttMessageProcessor.getIotClientManager()).getProcessTable();
-        ConcurrentHashMap<String, TreeMap<Long, MessageExt>> map = processTable.get(remove.getBrokerData().getBrokerName());
-        if (map != null) {
-            TreeMap<Long, MessageExt> treeMap = map.get(rootTopic + TOPIC_CLIENTID_SEPARATOR + this.getClientId());
-            if (treeMap != null) {
-                treeMap.remove(remove.getQueueOffset());
-            }
+        InFlightPacket packet = inflightWindow.remove(ackPacketId);
+        if (packet == null) {
+            return null;
+        }
+        packet.cancel();
+        InFlightMessage remove = packet.getMessage();
+        InFlightOffsets inFlightOffsets = ((IOTClientManagerImpl) this.defaultMqttMessageProcessor.getIotClientManager())
+            .getInFlightOffsets(remove.getBrokerData().getBrokerName(), this.getClientId(), MqttUtil.getRootTopic(remove.getTopic()));
+        if (inFlightOffsets != null) {
+            inFlightOffsets.remove(remove.getQueueOffset());
         }
-        inflightSlots.incrementAndGet();
-        ((IOTClientManagerImpl) this.defaultMqttMessageProcessor.getIotClientManager()).getInflightTimeouts().remove(new InFlightPacket(this, ackPacketId, 0));
-        releasePacketId(ackPacketId);
         return remove;
     }
 
+    /**
+     * Push a not acknowledged packet again with the DUP flag set, called by the in-flight timer. The message body is
+     * pulled again from the enode on the ordered executor of the client. The connection is closed once the packet has
+     * been resent {@link MqttConstant#MAX_RESEND_TIMES} times.
+     */
+    void redeliver(InFlightPacket packet) {
+        if (!isConnected() || inflightWindow.get(packet.getPacketId()) != packet) {
+            return;
+        }
+        if (packet.getResendTime() >= MAX_RESEND_TIMES) {
+            this.getRemotingChannel().close();
+            return;
+        }
+        packet.setResendTime(packet.getResendTime() + 1);
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) this.defaultMqttMessageProcessor.getIotClientManager();
+        packet.setTimeout(iotClientManager.getInflightTimer().newTimeout(packet, FLIGHT_BEFORE_RESEND_MS, TimeUnit.MILLISECONDS));
+        this.defaultMqttMessageProcessor.getOrderedExecutor().executeOrdered(this.getClientId(),
+            SafeRunnable.safeRun(new MqttRedeliverTask(this.defaultMqttMessageProcessor, this, packet)));
+    }
+
+    /**
+     * Push the re-fetched message of an in-flight packet, unless it has been acknowledged in the meantime.
+     */
+    public void resend(InFlightPacket packet, byte[] body) {
+        if (inflightWindow.get(packet.getPacketId()) != packet) {
+            return;
+        }
+        InFlightMessage inFlightMessage = packet.getMessage();
+        MqttHeader mqttHeader = new MqttHeader();
+        mqttHeader.setTopicName(inFlightMessage.getTopic());
+        mqttHeader.setQosLevel(inFlightMessage.getPushQos());
+        mqttHeader.setPacketId(packet.getPacketId());
+        mqttHeader.setRetain(false);
+        mqttHeader.setDup(true);
+        mqttHeader.setMessageType(MqttMessageType.PUBLISH.value());
+        pushMessage2Client(mqttHeader, body);
+    }
+
     public void pushMessage2Client(MqttHeader mqttHeader, byte[] body) {
         try {
             //set remaining length
@@ -162,73 +207,7 @@ public class MQTTSession extends Client {
         }
     }
 
-    private void put2processTable(
-        ConcurrentHashMap<String, ConcurrentHashMap<String, TreeMap<Long, MessageExt>>> processTable,
-        String brokerName,
-        String rootTopic,
-        MessageExt messageExt) {
-        ConcurrentHashMap<String, TreeMap<Long, MessageExt>> map;
-        TreeMap<Long, MessageExt> treeMap;
-        String offsetKey = rootTopic + TOPIC_CLIENTID_SEPARATOR + this.getClientId();
-        if (processTable.containsKey(brokerName)) {
-            map = processTable.get(brokerName);
-            if (map.containsKey(offsetKey)) {
-                treeMap = map.get(offsetKey);
-                treeMap.putIfAbsent(messageExt.getQueueOffset(), messageExt);
-            } else {
-                treeMap = new TreeMap<>();
-                treeMap.put(messageExt.getQueueOffset(), messageExt);
-                map.putIfAbsent(offsetKey, treeMap);
-            }
-        } else {
-            map = new ConcurrentHashMap<>();
-            treeMap = new TreeMap<>();
-            treeMap.put(messageExt.getQueueOffset(), messageExt);
-            map.put(offsetKey, treeMap);
-            ConcurrentHashMap<String, TreeMap<Long, MessageExt>> old = processTable.putIfAbsent(brokerName, map);
-            if (old != null) {
-                old.putIfAbsent(offsetKey, treeMap);
-            }
-        }
-    }
-
-    private synchronized void releasePacketId(int msgId) {
-        this.inUsePacketIds.remove(new Integer(msgId));
-    }
-
-    private synchronized int getNextPacketId() {
-        int startingMessageId = this.nextPacketId;
-        int loopCount = 0;
-
-        do {
-            ++this.nextPacketId;
-            if (this.nextPacketId > 65535) {
-                this.nextPacketId = 1;
-            }
-
-            if (this.nextPacketId == startingMessageId) {
-                ++loopCount;
-                if (loopCount == 2) {
-                    throw new MqttRuntimeException("Could not get available packetId.");
-                }
-            }
-        }
-        while (this.inUsePacketIds.containsKey(new Integer(this.nextPacketId)));
-
-        Integer id = new Integer(this.nextPacketId);
-        this.inUsePacketIds.put(id, id);
-        return this.nextPacketId;
-    }
-
-    public AtomicInteger getInflightSlots() {
-        return inflightSlots;
-    }
-
-    public Map<Integer, InFlightMessage> getInflightWindow() {
+    public InFlightWindow getInflightWindow() {
         return inflightWindow;
     }
-
-    public Hashtable getInUsePacketIds() {
-        return inUsePacketIds;
-    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.client;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.common.client.Client;
+import org.apache.rocketmq.mqtt.constant.MqttConstant;
+
+/**
+ * Topic filter trie of all subscriptions on this node, one level per topic level.
+ * <p>
+ * Reads never lock: nodes are kept in {@link ConcurrentHashMap}s, so {@link #match(String)} only walks the levels of
+ * the published topic plus the {@code +} and {@code #} branches met on the way. Subscribe and unsubscribe are
+ * serialized with each other, which lets unsubscribe prune empty nodes safely.
+ */
+public class SubscriptionTrie {
+
+    private final Node root = new Node(null, null);
+
+    private final Object writeLock = new Object();
+
+    public void subscribe(String topicFilter, Client client) {
+        synchronized (writeLock) {
+            Node node = root;
+            for (String level : topicFilter.split(MqttConstant.SUBSCRIPTION_SEPARATOR, -1)) {
+                Node child = node.children.get(level);
+                if (child == null) {
+                    child = new Node(node, level);
+                    node.children.put(level, child);
+                }
+                node = child;
+            }
+            node.subscribers.put(client, Boolean.TRUE);
+        }
+    }
+
+    public void unsubscribe(String topicFilter, Client client) {
+        synchronized (writeLock) {
+            Node node = root;
+            for (String level : topicFilter.split(MqttConstant.SUBSCRIPTION_SEPARATOR, -1)) {
+                node = node.children.get(level);
+                if (node == null) {
+                    return;
+                }
+            }
+            node.subscribers.remove(client);
+            while (node != root && node.subscribers.isEmpty() && node.children.isEmpty()) {
+                node.parent.children.remove(node.level);
+                node = node.parent;
+            }
+        }
+    }
+
+    /**
+     * Find all clients owning at least one topic filter matching the given topic name.
+     *
+     * @param topic Topic name of a published message, must not contain wildcards.
+     * @return Matched clients, empty if none.
+     */
+    public Set<Client> match(String topic) {
+        Set<Client> result = new HashSet<>();
+        match(root, topic, 0, result);
+        return result;
+    }
+
+    private void match(Node node, String topic, int levelStart, Set<Client> result) {
+        Node multiLevel = node.children.get(MqttConstant.SUBSCRIPTION_FLAG_SHARP);
+        if (multiLevel != null) {
+            result.addAll(multiLevel.subscribers.keySet());
+        }
+        if (levelStart > topic.length()) {
+            result.addAll(node.subscribers.keySet());
+            return;
+        }
+        int levelEnd = topic.indexOf('/', levelStart);
+        if (levelEnd < 0) {
+            levelEnd = topic.length();
+        }
+        Node child = node.children.get(topic.substring(levelStart, levelEnd));
+        if (child != null) {
+            match(child, topic, levelEnd + 1, result);
+        }
+        Node singleLevel = node.children.get(MqttConstant.SUBSCRIPTION_FLAG_PLUS);
+        if (singleLevel != null) {
+            match(singleLevel, topic, levelEnd + 1, result);
+        }
+    }
+
+    public boolean isEmpty() {
+        return root.children.isEmpty();
+    }
+
+    private static class Node {
+        private final Node parent;
+        private final String level;
+        private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>(4);
+        private final ConcurrentHashMap<Client, Boolean> subscribers = new ConcurrentHashMap<>(4);
+
+        Node(Node parent, String level) {
+            this.parent = parent;
+            this.level = level;
+        }
+    }
+}
@@ -28,6 +28,10 @@ public class MqttConstant {
     public static final String TOPIC_CLIENTID_SEPARATOR = "@";
     public static final long DEFAULT_TIMEOUT_MILLS = 3000L;
     public static final int FLIGHT_BEFORE_RESEND_MS = 5_000;
+    public static final int MAX_RESEND_TIMES = 4;
+    public static final int DEFAULT_MAX_INFLIGHT_MESSAGES = 10;
     public static final String PROPERTY_MQTT_QOS = "PROPERTY_MQTT_QOS";
+    public static final String SHARED_PULL_CONSUMER_GROUP = "MQTT_SHARED_PULL_GROUP";
+    public static final long PULL_RETRY_DELAY_MILLS = 1000L;
     public static final AttributeKey<Client> MQTT_CLIENT_ATTRIBUTE_KEY = AttributeKey.valueOf("mqtt.client");
 }
@@ -22,16 +22,12 @@ import io.netty.handler.codec.mqtt.MqttMessage;
 import io.netty.handler.codec.mqtt.MqttMessageType;
 import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
 import io.netty.handler.codec.mqtt.MqttQoS;
-import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import org.apache.rocketmq.common.client.Client;
-import org.apache.rocketmq.common.client.Subscription;
 import org.apache.rocketmq.common.exception.MQClientException;
 import org.apache.rocketmq.mqtt.client.IOTClientManagerImpl;
 import org.apache.rocketmq.mqtt.client.MQTTSession;
-import org.apache.rocketmq.mqtt.util.MqttUtil;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.exception.RemotingConnectException;
 import org.apache.rocketmq.remoting.exception.RemotingSendRequestException;
@@ -51,22 +47,10 @@ public interface MessageHandler {
 
     default Set<Client> findCurrentNodeClientsTobePublish(String topic, IOTClientManagerImpl iotClientManager) {
         //find those clients publishing the message to
-        ConcurrentHashMap<String, Set<Client>> topic2Clients = iotClientManager.getTopic2Clients();
-        ConcurrentHashMap<String, Subscription> clientId2Subscription = iotClientManager.getClientId2Subscription();
-        Set<Client> clientsTobePush = new HashSet<>();
-        if (topic2Clients.containsKey(MqttUtil.getRootTopic(topic))) {
-            Set<Client> clients = topic2Clients.get(MqttUtil.getRootTopic(topic));
-            for (Client client : clients) {
-                if (((MQTTSession) client).isConnected()) {
-                    Subscription subscription = clientId2Subscription.get(client.getClientId());
-                    Enumeration<String> keys = subscription.getSubscriptionTable().keys();
-                    while (keys.hasMoreElements()) {
-                        String topicFilter = keys.nextElement();
-                        if (MqttUtil.isMatch(topicFilter, topic)) {
-                            clientsTobePush.add(client);
-                        }
-                    }
-                }
+        Set<Client> clientsTobePush = iotClientManager.getSubscriptionTrie().match(topic);
+        for (Iterator<Client> iterator = clientsTobePush.iterator(); iterator.hasNext(); ) {
+            if (!((MQTTSession) iterator.next()).isConnected()) {
+                iterator.remove();
             }
         }
         return clientsTobePush;
@@ -46,7 +46,6 @@ import org.apache.rocketmq.mqtt.exception.MqttRuntimeException;
 import org.apache.rocketmq.mqtt.exception.WrongMessageTypeException;
 import org.apache.rocketmq.mqtt.mqtthandler.MessageHandler;
 import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
-import org.apache.rocketmq.mqtt.task.MqttPushTask;
 import org.apache.rocketmq.mqtt.util.MqttUtil;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
@@ -184,16 +183,10 @@ public class MqttConnectMessageHandler implements MessageHandler {
                 log.error("Exception was thrown when get topicRouteData. topic={}", rootTopic);
                 throw new MqttRuntimeException("Exception was thrown when get topicRouteData.");
             }
-            MqttHeader mqttHeader = new MqttHeader();
-            mqttHeader.setMessageType(MqttMessageType.PUBLISH.value());
-            mqttHeader.setRetain(false); //TODO set to false temporarily, need to be implemented later.
             List<BrokerData> brokerDatas = topicRouteData.getBrokerDatas();
             for (BrokerData brokerData : brokerDatas) {
-                MqttPushTask mqttPushTask = new MqttPushTask(this.defaultMqttMessageProcessor, mqttHeader, rootTopic, client, brokerData);
-                //add task to orderedExecutor
-                this.defaultMqttMessageProcessor.getOrderedExecutor().submit(mqttPushTask);
+                this.defaultMqttMessageProcessor.getMqttPushService().attach((MQTTSession) client, rootTopic, brokerData);
             }
-
         }
 
     }
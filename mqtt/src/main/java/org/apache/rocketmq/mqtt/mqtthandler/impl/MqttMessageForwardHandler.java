@@ -24,8 +24,6 @@ import io.netty.handler.codec.mqtt.MqttMessageType;
 import io.netty.handler.codec.mqtt.MqttPublishMessage;
 import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
 import io.netty.handler.codec.mqtt.MqttQoS;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Set;
 import org.apache.rocketmq.common.client.Client;
 import org.apache.rocketmq.common.constant.LoggerName;
@@ -36,10 +34,8 @@ import org.apache.rocketmq.mqtt.client.MQTTSession;
 import org.apache.rocketmq.mqtt.mqtthandler.MessageHandler;
 import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
 import org.apache.rocketmq.mqtt.processor.InnerMqttMessageProcessor;
-import org.apache.rocketmq.mqtt.task.MqttPushTask;
 import org.apache.rocketmq.mqtt.transfer.TransferDataQos1;
 import org.apache.rocketmq.mqtt.util.MqttUtil;
-import org.apache.rocketmq.mqtt.util.orderedexecutor.SafeRunnable;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
@@ -79,17 +75,9 @@ public class MqttMessageForwardHandler implements MessageHandler {
             }
         } else if (fixedHeader.qosLevel().equals(MqttQoS.AT_LEAST_ONCE)) {
             TransferDataQos1 transferDataQos1 = TransferDataQos1.decode(body, TransferDataQos1.class);
-            //TODO : find clients that subscribed this topic from current node
-            List<Client> clientsTobePublished = new ArrayList<>();
-            for (Client client : clientsTobePublished) {
-                //For each client, wrap a task:
-                //Pull message one by one, and push them if current client match.
-                MqttHeader mqttHeaderQos1 = new MqttHeader();
-                mqttHeaderQos1.setMessageType(MqttMessageType.PUBLISH.value());
-                mqttHeaderQos1.setRetain(false); //TODO set to false temporarily, need to be implemented later.
-                MqttPushTask mqttPushTask = new MqttPushTask(this.defaultMqttMessageProcessor, mqttHeaderQos1, MqttUtil.getRootTopic(variableHeader.topicName()), client, transferDataQos1.getBrokerData());
-                //add task to orderedExecutor
-                this.defaultMqttMessageProcessor.getOrderedExecutor().executeOrdered(client.getClientId(), SafeRunnable.safeRun(mqttPushTask));
+            Set<Client> clientsTobePublish = findCurrentNodeClientsTobePublish(variableHeader.topicName(), (IOTClientManagerImpl) this.defaultMqttMessageProcessor.getIotClientManager());
+            for (Client client : clientsTobePublish) {
+                this.defaultMqttMessageProcessor.getMqttPushService().attach((MQTTSession) client, MqttUtil.getRootTopic(variableHeader.topicName()), transferDataQos1.getBrokerData());
             }
             return doResponse(fixedHeader, variableHeader);
         }
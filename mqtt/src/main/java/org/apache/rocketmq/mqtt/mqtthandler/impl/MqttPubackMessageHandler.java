@@ -19,7 +19,6 @@ package org.apache.rocketmq.mqtt.mqtthandler.impl;
 
 import io.netty.handler.codec.mqtt.MqttMessage;
 import io.netty.handler.codec.mqtt.MqttMessageIdVariableHeader;
-import io.netty.handler.codec.mqtt.MqttMessageType;
 import io.netty.handler.codec.mqtt.MqttPubAckMessage;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
@@ -30,12 +29,8 @@ import org.apache.rocketmq.mqtt.client.MQTTSession;
 import org.apache.rocketmq.mqtt.exception.WrongMessageTypeException;
 import org.apache.rocketmq.mqtt.mqtthandler.MessageHandler;
 import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
-import org.apache.rocketmq.mqtt.task.MqttPushTask;
-import org.apache.rocketmq.mqtt.util.MqttUtil;
-import org.apache.rocketmq.mqtt.util.orderedexecutor.SafeRunnable;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
-import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
 
 public class MqttPubackMessageHandler implements MessageHandler {
 
@@ -64,13 +59,12 @@ public class MqttPubackMessageHandler implements MessageHandler {
         MQTTSession client = (MQTTSession) iotClientManager.getClient(IOTClientManagerImpl.IOT_GROUP, remotingChannel);
 
         InFlightMessage removedMessage = client.pubAckReceived(variableHeader.messageId());
-        MqttHeader mqttHeader = new MqttHeader();
-        mqttHeader.setMessageType(MqttMessageType.PUBLISH.value());
-        mqttHeader.setDup(false);
-        mqttHeader.setRetain(false); //TODO set to false temporarily, need to be implemented.
-        MqttPushTask task = new MqttPushTask(defaultMqttMessageProcessor, mqttHeader, MqttUtil.getRootTopic(removedMessage.getTopic()), client, removedMessage.getBrokerData());
-        //add task to orderedExecutor
-        this.defaultMqttMessageProcessor.getOrderedExecutor().executeOrdered(client.getClientId(), SafeRunnable.safeRun(task));
+        if (removedMessage == null) {
+            log.info("Packet is not in flight, ignore the PUBACK. ClientId={}, packetId={}", client.getClientId(), variableHeader.messageId());
+            return null;
+        }
+        // A slot of the in-flight window is free again, let the client go on consuming
+        defaultMqttMessageProcessor.getMqttPushService().resume(client);
         return null;
     }
 }
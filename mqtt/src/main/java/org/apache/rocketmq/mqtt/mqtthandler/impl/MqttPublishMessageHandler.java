@@ -25,15 +25,11 @@ import io.netty.handler.codec.mqtt.MqttPublishMessage;
 import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
 import io.netty.handler.codec.mqtt.MqttQoS;
 import io.netty.util.ReferenceCountUtil;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import org.apache.rocketmq.common.MqttConfig;
-import org.apache.rocketmq.common.SnodeConfig;
 import org.apache.rocketmq.common.client.Client;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.exception.MQClientException;
@@ -55,20 +51,14 @@ import org.apache.rocketmq.mqtt.exception.MqttRuntimeException;
 import org.apache.rocketmq.mqtt.exception.WrongMessageTypeException;
 import org.apache.rocketmq.mqtt.mqtthandler.MessageHandler;
 import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
-import org.apache.rocketmq.mqtt.task.MqttPushTask;
 import org.apache.rocketmq.mqtt.transfer.TransferDataQos1;
 import org.apache.rocketmq.mqtt.util.MqttUtil;
-import org.apache.rocketmq.mqtt.util.orderedexecutor.SafeRunnable;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.exception.RemotingConnectException;
 import org.apache.rocketmq.remoting.exception.RemotingSendRequestException;
 import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 public class MqttPublishMessageHandler implements MessageHandler {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.MQTT_LOGGER_NAME);
@@ -122,9 +112,7 @@ public class MqttPublishMessageHandler implements MessageHandler {
                 //step2. get snode ips by clients in step2.
                 Set<String> snodeIpsTobeTransfer = new HashSet<>();
                 try {
-                    transferMessage(snodeIpsTobeTransfer, variableHeader.topicName(), body);
-                } catch (MqttException e) {
-                    log.error("Transfer message failed: {}", e.getMessage());
+                    transferMessage(snodeIpsTobeTransfer, variableHeader.topicName(), MqttQoS.AT_MOST_ONCE.value(), body);
                 } finally {
                     ReferenceCountUtil.release(message);
                 }
@@ -150,21 +138,10 @@ public class MqttPublishMessageHandler implements MessageHandler {
                 CompletableFuture<RemotingCommand> responseFuture = this.defaultMqttMessageProcessor.getEnodeService().sendMessage(null, brokerData.getBrokerName(), request);
                 responseFuture.whenComplete((data, ex) -> {
                     if (ex == null) {
-                        //publish msg to subscribers
-                        //TODO find clients that subscribed this topic from all snodes and put it to map.
-                        Map<String, List<Client>> snodeAddr2Clients = new HashMap<>();
-
-                        //for clientIds connected to current snode, trigger the logic of push message
-                        List<Client> clients = snodeAddr2Clients.get(this.defaultMqttMessageProcessor.getSnodeConfig().getSnodeIP1());
-                        for (Client client : clients) {
-                            //For each client, wrap a task:
-                            //Pull message one by one, and push them if current client match.
-                            MqttHeader mqttHeaderQos1 = new MqttHeader();
-                            mqttHeaderQos1.setMessageType(MqttMessageType.PUBLISH.value());
-                            mqttHeaderQos1.setRetain(false); //TODO set to false temporarily, need to be implemented later.
-                            MqttPushTask mqttPushTask = new MqttPushTask(defaultMqttMessageProcessor, mqttHeaderQos1, MqttUtil.getRootTopic(variableHeader.topicName()), client, brokerData);
-                            //add task to orderedExecutor
-                            this.defaultMqttMessageProcessor.getOrderedExecutor().executeOrdered(client.getClientId(), SafeRunnable.safeRun(mqttPushTask));
+                        //publish msg to subscribers connected to current snode, pullers shared by the root topic deliver it
+                        Set<Client> subscribedClients = findCurrentNodeClientsTobePublish(variableHeader.topicName(), this.iotClientManager);
+                        for (Client client : subscribedClients) {
+                            this.defaultMqttMessageProcessor.getMqttPushService().attach((MQTTSession) client, rootTopic, brokerData);
                         }
                         //for clients connected to other snodes, forward msg
                         Set<String> snodesTobeTransfered = new HashSet<>();
@@ -173,9 +150,7 @@ public class MqttPublishMessageHandler implements MessageHandler {
                         transferDataQos1.setTopic(variableHeader.topicName());
                         byte[] encode = TransferDataQos1.encode(transferDataQos1);
                         try {
-                            transferMessage(snodesTobeTransfered, variableHeader.topicName(), encode);
-                        } catch (MqttException e) {
-                            log.error("Transfer message failed: {}", e.getMessage());
+                            transferMessage(snodesTobeTransfered, variableHeader.topicName(), MqttQoS.AT_LEAST_ONCE.value(), encode);
                         } finally {
                             ReferenceCountUtil.release(message);
                         }
@@ -190,27 +165,13 @@ public class MqttPublishMessageHandler implements MessageHandler {
         return doResponse(fixedHeader, variableHeader);
     }
 
-    private void transferMessage(Set<String> snodeAddresses, String topic, byte[] body) throws MqttException {
-        SnodeConfig snodeConfig = defaultMqttMessageProcessor.getSnodeConfig();
-        MqttConfig mqttConfig = defaultMqttMessageProcessor.getMqttConfig();
-        String url = "tcp://" + snodeConfig.getSnodeIP1() + ":" + (mqttConfig.getListenPort() - 1);
-        String clientId = defaultMqttMessageProcessor.getSnodeConfig().getSnodeIP1();
-
-        for (String snodeAddress : snodeAddresses) {
-            final Map<String, MqttClient> snode2MqttClient = iotClientManager.getSnode2MqttClient();
-            MqttClient client;
-            if (snode2MqttClient.containsKey(snodeAddresses)) {
-                client = snode2MqttClient.get(snodeAddress);
-            } else {
-                MemoryPersistence persistence = new MemoryPersistence();
-                client = new MqttClient(url, clientId, persistence);
-                MqttConnectOptions connOpts = new MqttConnectOptions();
-                client.connect(connOpts);
-                snode2MqttClient.put(snodeAddress, client);
-            }
-            org.eclipse.paho.client.mqttv3.MqttMessage message = new org.eclipse.paho.client.mqttv3.MqttMessage(body);
-            message.setQos(0);
-            client.publish(topic, message);
+    private void transferMessage(Set<String> snodeAddresses, final String topic, int qos, byte[] body) {
+        for (final String snodeAddress : snodeAddresses) {
+            this.defaultMqttMessageProcessor.getMqttTransferService().transfer(snodeAddress, topic, qos, body).whenComplete((v, ex) -> {
+                if (ex != null) {
+                    log.error("Transfer message failed. snodeAddress={}, topic={}", snodeAddress, topic, ex);
+                }
+            });
         }
     }
 
@@ -108,7 +108,7 @@ public class MqttSubscribeMessageHandler implements MessageHandler {
         List<Integer> grantQoss = doSubscribe(client, payload.topicSubscriptions(), iotClientManager);
         //Publish retained messages to subscribers.
         MqttSubAckPayload mqttSubAckPayload = new MqttSubAckPayload(grantQoss);
-        command.setBody(MqttEncodeDecodeUtil.encode(mqttSubAckPayload));
+        command.setBody(MqttEncodeDecodeUtil.encode(MqttMessageType.SUBACK, mqttSubAckPayload));
         mqttHeader.setRemainingLength(0x02 + mqttSubAckPayload.grantedQoSLevels().size());
         command.setRemark(null);
         command.setCode(ResponseCode.SUCCESS);
@@ -135,6 +135,7 @@ public class MqttSubscribeMessageHandler implements MessageHandler {
             grantQoss.add(actualQos);
             SubscriptionData subscriptionData = new MqttSubscriptionData(mqttTopicSubscription.qualityOfService().value(), client.getClientId(), mqttTopicSubscription.topicName());
             subscriptionDatas.put(mqttTopicSubscription.topicName(), subscriptionData);
+            iotClientManager.getSubscriptionTrie().subscribe(mqttTopicSubscription.topicName(), client);
             //2.update topic2ClientIds
             String rootTopic = MqttUtil.getRootTopic(mqttTopicSubscription.topicName());
             if (topic2Clients.contains(rootTopic)) {
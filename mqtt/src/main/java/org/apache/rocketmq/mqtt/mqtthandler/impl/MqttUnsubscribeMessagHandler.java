@@ -108,6 +108,7 @@ public class MqttUnsubscribeMessagHandler implements MessageHandler {
         if (clientId2Subscription.containsKey(client.getClientId())) {
             for (String topicFilter : topics) {
                 subscription.getSubscriptionTable().remove(topicFilter);
+                iotClientManager.getSubscriptionTrie().unsubscribe(topicFilter, client);
             }
         }
 
@@ -55,7 +55,10 @@ import org.apache.rocketmq.mqtt.mqtthandler.impl.MqttPubrecMessageHandler;
 import org.apache.rocketmq.mqtt.mqtthandler.impl.MqttPubrelMessageHandler;
 import org.apache.rocketmq.mqtt.mqtthandler.impl.MqttSubscribeMessageHandler;
 import org.apache.rocketmq.mqtt.mqtthandler.impl.MqttUnsubscribeMessagHandler;
+import org.apache.rocketmq.mqtt.service.MqttPushService;
+import org.apache.rocketmq.mqtt.service.MqttTransferService;
 import org.apache.rocketmq.mqtt.service.WillMessageService;
+import org.apache.rocketmq.mqtt.service.impl.MqttPushServiceImpl;
 import org.apache.rocketmq.mqtt.service.impl.MqttScheduledServiceImpl;
 import org.apache.rocketmq.mqtt.service.impl.WillMessageServiceImpl;
 import org.apache.rocketmq.mqtt.util.orderedexecutor.OrderedExecutor;
@@ -87,13 +90,17 @@ public class DefaultMqttMessageProcessor implements RequestProcessor {
 
     private final OrderedExecutor orderedExecutor;
 
+    private final MqttPushService mqttPushService;
+
+    private MqttTransferService mqttTransferService;
+
     public DefaultMqttMessageProcessor(MqttConfig mqttConfig, SnodeConfig snodeConfig,
         RemotingServer mqttRemotingServer,
         EnodeService enodeService, NnodeService nnodeService) {
         this.mqttConfig = mqttConfig;
         this.snodeConfig = snodeConfig;
         this.willMessageService = new WillMessageServiceImpl();
-        this.iotClientManager = new IOTClientManagerImpl();
+        this.iotClientManager = new IOTClientManagerImpl(mqttConfig);
         this.mqttRemotingServer = mqttRemotingServer;
         this.enodeService = enodeService;
         this.nnodeService = nnodeService;
@@ -101,6 +108,7 @@ public class DefaultMqttMessageProcessor implements RequestProcessor {
         this.mqttClientHousekeepingService.start(mqttConfig.getHouseKeepingInterval());
 
         this.orderedExecutor = OrderedExecutor.newBuilder().name("PushMessageToConsumerThreads").numThreads(mqttConfig.getPushMqttMessageMaxPoolSize()).build();
+        this.mqttPushService = new MqttPushServiceImpl(this);
         this.mqttScheduledService = new MqttScheduledServiceImpl(this);
         mqttScheduledService.startScheduleTask();
 
@@ -138,7 +146,7 @@ public class DefaultMqttMessageProcessor implements RequestProcessor {
                     mqttHeader.isHasPassword(), mqttHeader.isWillRetain(),
                     mqttHeader.getWillQos(), mqttHeader.isWillFlag(),
                     mqttHeader.isCleanSession(), mqttHeader.getKeepAliveTimeSeconds());
-                MqttConnectPayload mqttConnectPayload = (MqttConnectPayload) MqttEncodeDecodeUtil.decode(message.getBody(), MqttConnectPayload.class);
+                MqttConnectPayload mqttConnectPayload = MqttEncodeDecodeUtil.decode(MqttMessageType.CONNECT, message.getBody());
                 mqttMessage = new MqttConnectMessage(fixedHeader, mqttConnectVariableHeader, mqttConnectPayload);
                 break;
             case PUBLISH:
@@ -147,7 +155,7 @@ public class DefaultMqttMessageProcessor implements RequestProcessor {
                 break;
             case SUBSCRIBE:
                 MqttMessageIdVariableHeader mqttMessageIdVariableHeader = MqttMessageIdVariableHeader.from(mqttHeader.getMessageId());
-                MqttSubscribePayload mqttSubscribePayload = (MqttSubscribePayload) MqttEncodeDecodeUtil.decode(message.getBody(), MqttSubscribePayload.class);
+                MqttSubscribePayload mqttSubscribePayload = MqttEncodeDecodeUtil.decode(MqttMessageType.SUBSCRIBE, message.getBody());
                 mqttMessage = new MqttSubscribeMessage(fixedHeader, mqttMessageIdVariableHeader, mqttSubscribePayload);
                 break;
             case UNSUBSCRIBE:
@@ -214,4 +222,16 @@ public class DefaultMqttMessageProcessor implements RequestProcessor {
     public OrderedExecutor getOrderedExecutor() {
         return orderedExecutor;
     }
+
+    public MqttPushService getMqttPushService() {
+        return mqttPushService;
+    }
+
+    public MqttTransferService getMqttTransferService() {
+        return mqttTransferService;
+    }
+
+    public void setMqttTransferService(MqttTransferService mqttTransferService) {
+        this.mqttTransferService = mqttTransferService;
+    }
 }
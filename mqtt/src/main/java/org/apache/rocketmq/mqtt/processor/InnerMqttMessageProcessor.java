@@ -29,12 +29,15 @@ import org.apache.rocketmq.common.SnodeConfig;
 import org.apache.rocketmq.common.client.ClientManager;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.exception.MQClientException;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.ResponseCode;
 import org.apache.rocketmq.common.service.EnodeService;
 import org.apache.rocketmq.common.service.NnodeService;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.mqtt.mqtthandler.impl.MqttMessageForwardHandler;
 import org.apache.rocketmq.mqtt.service.WillMessageService;
+import org.apache.rocketmq.mqtt.transfer.TransferMessage;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.RemotingServer;
 import org.apache.rocketmq.remoting.RequestProcessor;
@@ -73,6 +76,9 @@ public class InnerMqttMessageProcessor implements RequestProcessor {
     @Override
     public RemotingCommand processRequest(RemotingChannel remotingChannel, RemotingCommand message)
         throws InterruptedException, RemotingTimeoutException, MQClientException, RemotingSendRequestException, RemotingConnectException {
+        if (message.getCode() == RequestCode.MQTT_TRANSFER_MESSAGE) {
+            return processTransferMessage(remotingChannel, message);
+        }
         MqttHeader mqttHeader = (MqttHeader) message.readCustomHeader();
         if (mqttHeader.getMessageType().equals(PUBLISH)) {
             MqttFixedHeader fixedHeader = new MqttFixedHeader(MqttMessageType.valueOf(mqttHeader.getMessageType()),
@@ -87,6 +93,26 @@ public class InnerMqttMessageProcessor implements RequestProcessor {
 
     }
 
+    /**
+     * Publish a batch of messages forwarded by another snode to the clients connected to this one.
+     */
+    private RemotingCommand processTransferMessage(RemotingChannel remotingChannel, RemotingCommand request) {
+        if (request.getBody() != null) {
+            for (TransferMessage transferMessage : TransferMessage.decodeBatch(request.getBody())) {
+                MqttFixedHeader fixedHeader = new MqttFixedHeader(PUBLISH, false, MqttQoS.valueOf(transferMessage.getQos()), false,
+                    transferMessage.getBody().length);
+                MqttPublishVariableHeader mqttPublishVariableHeader = new MqttPublishVariableHeader(transferMessage.getTopic(), 0);
+                MqttMessage mqttMessage = new MqttPublishMessage(fixedHeader, mqttPublishVariableHeader, Unpooled.wrappedBuffer(transferMessage.getBody()));
+                try {
+                    mqttMessageForwardHandler.handleMessage(mqttMessage, remotingChannel);
+                } catch (Exception ex) {
+                    log.error("Publish transferred message failed. topic={}", transferMessage.getTopic(), ex);
+                }
+            }
+        }
+        return RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null);
+    }
+
     @Override
     public boolean rejectRequest() {
         return false;
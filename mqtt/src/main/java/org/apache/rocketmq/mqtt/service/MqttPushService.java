@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.service;
+
+import org.apache.rocketmq.common.protocol.route.BrokerData;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+
+public interface MqttPushService {
+
+    /**
+     * Start delivering QoS1 messages of a root topic stored on an enode to a client, from the consume offset of the
+     * client. Does nothing but wake up the delivery if the client is already attached.
+     *
+     * @param client The session to deliver to.
+     * @param rootTopic Root topic of the subscribed topic filters.
+     * @param brokerData The enode storing the messages.
+     */
+    void attach(MQTTSession client, String rootTopic, BrokerData brokerData);
+
+    /**
+     * Resume delivering to a client stopped by a full in-flight window, called once in-flight slots are released.
+     *
+     * @param client The session to deliver to.
+     */
+    void resume(MQTTSession client);
+}
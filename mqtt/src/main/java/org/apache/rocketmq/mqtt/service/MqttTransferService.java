@@ -0,0 +1,33 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.service;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface MqttTransferService {
+
+    /**
+     * Forward a publish to the clients connected to another snode. Never blocks: the message is queued and sent
+     * with the other messages to the same snode on the next flush.
+     *
+     * @param snodeAddress Address of the snode server of the target snode.
+     * @return Completed once the target snode has accepted the batch containing the message.
+     */
+    CompletableFuture<Void> transfer(String snodeAddress, String topic, int qos, byte[] body);
+
+    void shutdown();
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.service.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.protocol.route.BrokerData;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
+import org.apache.rocketmq.mqtt.service.MqttPushService;
+import org.apache.rocketmq.mqtt.util.orderedexecutor.SafeRunnable;
+
+/**
+ * Asynchronous QoS1 delivery. All local clients consuming the same root topic on the same enode share one
+ * {@link QueuePuller}, which long polls the enode and dispatches the pulled messages to every client, so the cost of
+ * pulling follows the number of messages rather than the number of clients.
+ */
+public class MqttPushServiceImpl implements MqttPushService {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.MQTT_LOGGER_NAME);
+
+    private final DefaultMqttMessageProcessor defaultMqttMessageProcessor;
+
+    private final ConcurrentHashMap<String /*broker*/, ConcurrentHashMap<String /*rootTopic*/, QueuePuller>> pullerTable = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String /*clientId*/, Set<QueuePuller>> clientPullers = new ConcurrentHashMap<>(1024);
+
+    public MqttPushServiceImpl(DefaultMqttMessageProcessor defaultMqttMessageProcessor) {
+        this.defaultMqttMessageProcessor = defaultMqttMessageProcessor;
+    }
+
+    @Override
+    public void attach(final MQTTSession client, final String rootTopic, final BrokerData brokerData) {
+        QueuePuller queuePuller = getQueuePuller(brokerData.getBrokerName(), rootTopic);
+        if (queuePuller != null && queuePuller.isAttached(client)) {
+            queuePuller.pullIfIdle();
+            return;
+        }
+        // Query the consume offset on the ordered executor of the client, never on the caller's thread
+        this.defaultMqttMessageProcessor.getOrderedExecutor().executeOrdered(client.getClientId(), SafeRunnable.safeRun(new Runnable() {
+            @Override
+            public void run() {
+                long offset;
+                try {
+                    offset = defaultMqttMessageProcessor.getEnodeService().queryOffset(brokerData.getBrokerName(), client.getClientId(), rootTopic, 0);
+                } catch (Exception ex) {
+                    log.error("Query consume offset failed, skip delivering. ClientId={}, rootTopic={}, enode={}", client.getClientId(), rootTopic, brokerData.getBrokerName(), ex);
+                    return;
+                }
+                while (true) {
+                    QueuePuller queuePuller = getOrCreateQueuePuller(brokerData, rootTopic);
+                    if (queuePuller.attach(client, Math.max(offset, 0))) {
+                        addClientPuller(client.getClientId(), queuePuller);
+                        return;
+                    }
+                    // The puller was closed concurrently as its last client left, retry with a new one
+                }
+            }
+        }));
+    }
+
+    @Override
+    public void resume(MQTTSession client) {
+        Set<QueuePuller> pullers = clientPullers.get(client.getClientId());
+        if (pullers == null) {
+            return;
+        }
+        QueuePuller[] snapshot;
+        synchronized (pullers) {
+            snapshot = pullers.toArray(new QueuePuller[0]);
+        }
+        for (QueuePuller queuePuller : snapshot) {
+            queuePuller.resume(client.getClientId());
+        }
+    }
+
+    public QueuePuller getQueuePuller(String brokerName, String rootTopic) {
+        ConcurrentHashMap<String, QueuePuller> topicTable = pullerTable.get(brokerName);
+        return topicTable == null ? null : topicTable.get(rootTopic);
+    }
+
+    private QueuePuller getOrCreateQueuePuller(BrokerData brokerData, String rootTopic) {
+        QueuePuller queuePuller = getQueuePuller(brokerData.getBrokerName(), rootTopic);
+        if (queuePuller != null) {
+            return queuePuller;
+        }
+        ConcurrentHashMap<String, QueuePuller> topicTable = pullerTable.get(brokerData.getBrokerName());
+        if (topicTable == null) {
+            topicTable = new ConcurrentHashMap<>();
+            ConcurrentHashMap<String, QueuePuller> old = pullerTable.putIfAbsent(brokerData.getBrokerName(), topicTable);
+            if (old != null) {
+                topicTable = old;
+            }
+        }
+        queuePuller = new QueuePuller(this, defaultMqttMessageProcessor, brokerData, rootTopic);
+        QueuePuller old = topicTable.putIfAbsent(rootTopic, queuePuller);
+        return old != null ? old : queuePuller;
+    }
+
+    private void addClientPuller(String clientId, QueuePuller queuePuller) {
+        while (true) {
+            Set<QueuePuller> pullers = clientPullers.get(clientId);
+            if (pullers == null) {
+                pullers = new HashSet<>(4);
+                Set<QueuePuller> old = clientPullers.putIfAbsent(clientId, pullers);
+                if (old != null) {
+                    pullers = old;
+                }
+            }
+            synchronized (pullers) {
+                // Retry if the set has just been dropped as empty
+                if (clientPullers.get(clientId) == pullers) {
+                    pullers.add(queuePuller);
+                    return;
+                }
+            }
+        }
+    }
+
+    void onDetached(QueuePuller queuePuller, String clientId) {
+        Set<QueuePuller> pullers = clientPullers.get(clientId);
+        if (pullers != null) {
+            synchronized (pullers) {
+                pullers.remove(queuePuller);
+                if (pullers.isEmpty()) {
+                    clientPullers.remove(clientId, pullers);
+                }
+            }
+        }
+    }
+
+    void onClosed(QueuePuller queuePuller) {
+        ConcurrentHashMap<String, QueuePuller> topicTable = pullerTable.get(queuePuller.getBrokerData().getBrokerName());
+        if (topicTable != null) {
+            topicTable.remove(queuePuller.getRootTopic(), queuePuller);
+        }
+    }
+}
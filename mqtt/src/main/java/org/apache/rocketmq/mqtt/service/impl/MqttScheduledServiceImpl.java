@@ -16,28 +16,19 @@
  */
 package org.apache.rocketmq.mqtt.service.impl;
 
-import io.netty.handler.codec.mqtt.MqttMessageType;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import org.apache.rocketmq.common.constant.LoggerName;
-import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.service.ScheduledService;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.mqtt.client.IOTClientManagerImpl;
-import org.apache.rocketmq.mqtt.client.InFlightMessage;
-import org.apache.rocketmq.mqtt.client.InFlightPacket;
-import org.apache.rocketmq.mqtt.client.MQTTSession;
-import org.apache.rocketmq.mqtt.constant.MqttConstant;
+import org.apache.rocketmq.mqtt.client.InFlightOffsets;
 import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
-import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
 
 public class MqttScheduledServiceImpl implements ScheduledService {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.MQTT_LOGGER_NAME);
@@ -62,49 +53,26 @@ public class MqttScheduledServiceImpl implements ScheduledService {
             @Override
             public void run() {
                 IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
-                ConcurrentHashMap<String, ConcurrentHashMap<String, TreeMap<Long, MessageExt>>> processTable = iotClientManager.getProcessTable();
-                for (Map.Entry<String, ConcurrentHashMap<String, TreeMap<Long, MessageExt>>> entry : processTable.entrySet()) {
+                ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, InFlightOffsets>>> processTable = iotClientManager.getProcessTable();
+                for (Map.Entry<String, ConcurrentHashMap<String, ConcurrentHashMap<String, InFlightOffsets>>> entry : processTable.entrySet()) {
                     String brokerName = entry.getKey();
-                    ConcurrentHashMap<String, TreeMap<Long, MessageExt>> map = entry.getValue();
-                    for (Map.Entry<String, TreeMap<Long, MessageExt>> innerEntry : map.entrySet()) {
-                        String topicClient = innerEntry.getKey();
-                        TreeMap<Long, MessageExt> inflightMessages = innerEntry.getValue();
-                        Long offset = inflightMessages.firstKey();
-                        defaultMqttMessageProcessor.getEnodeService().persistOffset(null, brokerName, topicClient.split("@")[1], topicClient.split("@")[0], 0, offset);
+                    for (Map.Entry<String, ConcurrentHashMap<String, InFlightOffsets>> clientEntry : entry.getValue().entrySet()) {
+                        String clientId = clientEntry.getKey();
+                        for (Map.Entry<String, InFlightOffsets> topicEntry : clientEntry.getValue().entrySet()) {
+                            long offset = topicEntry.getValue().getLowWaterMark();
+                            if (offset < 0) {
+                                continue;
+                            }
+                            try {
+                                defaultMqttMessageProcessor.getEnodeService().persistOffset(null, brokerName, clientId, topicEntry.getKey(), 0, offset);
+                            } catch (Exception ex) {
+                                log.warn("Persist consume offset failed. ClientId={}, rootTopic={}, enode={}", clientId, topicEntry.getKey(), brokerName, ex);
+                            }
+                        }
                     }
                 }
             }
         }, 0, defaultMqttMessageProcessor.getMqttConfig().getPersistOffsetInterval(), TimeUnit.MILLISECONDS);
-        this.mqttScheduledExecutorService.scheduleAtFixedRate(new Runnable() {
-            @Override public void run() {
-                IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
-                Collection<InFlightPacket> expired = new ArrayList<>();
-                iotClientManager.getInflightTimeouts().drainTo(expired);
-                for (InFlightPacket notAcked : expired) {
-                    MQTTSession client = notAcked.getClient();
-                    if (!client.isConnected()) {
-                        continue;
-                    }
-                    if (notAcked.getResendTime() > 3) {
-                        client.getRemotingChannel().close();
-                        continue;
-                    }
-                    if (client.getInflightWindow().containsKey(notAcked.getPacketId())) {
-                        InFlightMessage inFlightMessage = client.getInflightWindow().get(notAcked.getPacketId());
-                        MqttHeader mqttHeader = new MqttHeader();
-                        mqttHeader.setTopicName(inFlightMessage.getTopic());
-                        mqttHeader.setQosLevel(inFlightMessage.getPushQos());
-                        mqttHeader.setRetain(false);
-                        mqttHeader.setDup(true);
-                        mqttHeader.setMessageType(MqttMessageType.PUBLISH.value());
-                        notAcked.setStartTime(System.currentTimeMillis() + MqttConstant.FLIGHT_BEFORE_RESEND_MS);
-                        notAcked.setResendTime(notAcked.getResendTime() + 1);
-                        iotClientManager.getInflightTimeouts().add(notAcked);
-                        client.pushMessage2Client(mqttHeader, inFlightMessage.getBody());
-                    }
-                }
-            }
-        }, 10000, defaultMqttMessageProcessor.getMqttConfig().getScanAckTimeoutInterval(), TimeUnit.MILLISECONDS);
     }
 
     @Override
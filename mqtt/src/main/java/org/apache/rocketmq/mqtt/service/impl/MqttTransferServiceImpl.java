@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.common.MqttConfig;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.exception.MQBrokerException;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.mqtt.service.MqttTransferService;
+import org.apache.rocketmq.mqtt.transfer.TransferMessage;
+import org.apache.rocketmq.remoting.RemotingClient;
+import org.apache.rocketmq.remoting.exception.RemotingSendRequestException;
+import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+
+/**
+ * Forwards publishes to other snodes over the snode {@link RemotingClient}, which keeps one persistent connection per
+ * snode. Messages to the same snode are gathered for {@code transferFlushIntervalMillis} and sent as a single
+ * asynchronous request, so neither connection setup nor the round trip is paid on the publish path.
+ */
+public class MqttTransferServiceImpl implements MqttTransferService {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.MQTT_LOGGER_NAME);
+
+    private final MqttConfig mqttConfig;
+
+    private final RemotingClient remotingClient;
+
+    private final ConcurrentHashMap<String /*snode address*/, PeerQueue> peerQueues = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flushExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryImpl("MqttTransferFlushThread"));
+
+    private volatile boolean stopped = false;
+
+    public MqttTransferServiceImpl(MqttConfig mqttConfig, RemotingClient remotingClient) {
+        this.mqttConfig = mqttConfig;
+        this.remotingClient = remotingClient;
+    }
+
+    @Override
+    public CompletableFuture<Void> transfer(String snodeAddress, String topic, int qos, byte[] body) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (stopped) {
+            future.completeExceptionally(new RemotingSendRequestException(snodeAddress));
+            return future;
+        }
+        PeerQueue peerQueue = peerQueues.get(snodeAddress);
+        if (peerQueue == null) {
+            peerQueue = new PeerQueue(snodeAddress);
+            PeerQueue old = peerQueues.putIfAbsent(snodeAddress, peerQueue);
+            if (old != null) {
+                peerQueue = old;
+            }
+        }
+        peerQueue.pendings.offer(new PendingTransfer(new TransferMessage(topic, qos, body), future));
+        scheduleFlush(peerQueue, mqttConfig.getTransferFlushIntervalMillis());
+        return future;
+    }
+
+    private void scheduleFlush(final PeerQueue peerQueue, long delayMillis) {
+        if (!peerQueue.flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            flushExecutorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush(peerQueue);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception ex) {
+            peerQueue.flushScheduled.set(false);
+            log.warn("Schedule transfer flush failed. snodeAddress={}", peerQueue.snodeAddress, ex);
+        }
+    }
+
+    private void flush(PeerQueue peerQueue) {
+        List<PendingTransfer> batch = new ArrayList<>();
+        PendingTransfer pending;
+        while (batch.size() < mqttConfig.getTransferBatchSize() && (pending = peerQueue.pendings.poll()) != null) {
+            batch.add(pending);
+        }
+        // A message queued after the poll loop either sees the flag still set and is picked up here, or schedules the
+        // next flush itself
+        peerQueue.flushScheduled.set(false);
+        if (!peerQueue.pendings.isEmpty()) {
+            scheduleFlush(peerQueue, 0);
+        }
+        if (!batch.isEmpty()) {
+            send(peerQueue.snodeAddress, batch);
+        }
+    }
+
+    private void send(final String snodeAddress, final List<PendingTransfer> batch) {
+        List<TransferMessage> messages = new ArrayList<>(batch.size());
+        for (PendingTransfer pending : batch) {
+            messages.add(pending.message);
+        }
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.MQTT_TRANSFER_MESSAGE, null);
+        request.setBody(TransferMessage.encodeBatch(messages));
+        try {
+            remotingClient.invokeAsync(snodeAddress, request, mqttConfig.getTransferTimeoutMillis(), responseFuture -> {
+                RemotingCommand response = responseFuture.getResponseCommand();
+                if (response != null && response.getCode() == ResponseCode.SUCCESS) {
+                    complete(batch, null);
+                } else if (response != null) {
+                    complete(batch, new MQBrokerException(response.getCode(), response.getRemark()));
+                } else if (responseFuture.isTimeout()) {
+                    complete(batch, new RemotingTimeoutException(snodeAddress, responseFuture.getTimeoutMillis(), responseFuture.getCause()));
+                } else {
+                    complete(batch, new RemotingSendRequestException(snodeAddress, responseFuture.getCause()));
+                }
+            });
+        } catch (Exception ex) {
+            log.warn("Transfer {} messages to snode {} failed", batch.size(), snodeAddress, ex);
+            complete(batch, ex);
+        }
+    }
+
+    private void complete(List<PendingTransfer> batch, Throwable cause) {
+        for (PendingTransfer pending : batch) {
+            if (cause == null) {
+                pending.future.complete(null);
+            } else {
+                pending.future.completeExceptionally(cause);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.stopped = true;
+        this.flushExecutorService.shutdown();
+        for (PeerQueue peerQueue : peerQueues.values()) {
+            List<PendingTransfer> pendings = new ArrayList<>(peerQueue.pendings);
+            peerQueue.pendings.removeAll(pendings);
+            complete(pendings, new RemotingSendRequestException(peerQueue.snodeAddress));
+        }
+    }
+
+    private static class PeerQueue {
+        private final String snodeAddress;
+        private final Queue<PendingTransfer> pendings = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+        PeerQueue(String snodeAddress) {
+            this.snodeAddress = snodeAddress;
+        }
+    }
+
+    private static class PendingTransfer {
+        private final TransferMessage message;
+        private final CompletableFuture<Void> future;
+
+        PendingTransfer(TransferMessage message, CompletableFuture<Void> future) {
+            this.message = message;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.service.impl;
+
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.MqttConfig;
+import org.apache.rocketmq.common.client.Subscription;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.PullMessageResponseHeader;
+import org.apache.rocketmq.common.protocol.route.BrokerData;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.mqtt.client.IOTClientManagerImpl;
+import org.apache.rocketmq.mqtt.client.InFlightOffsets;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+import org.apache.rocketmq.mqtt.constant.MqttConstant;
+import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
+import org.apache.rocketmq.mqtt.util.MqttUtil;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
+
+/**
+ * Delivers the QoS1 messages of one root topic stored on one enode to all local clients consuming it.
+ * <p>
+ * One long polling pull is kept outstanding from the shared pull offset, and each response is dispatched to every
+ * client following the head of the queue. Each client has its own cursor: a client whose in-flight window fills up
+ * falls behind and, once slots are released, catches up with its own non-suspending pulls until it reaches the shared
+ * pull offset again. No thread is ever blocked waiting for the enode, all pulls are asynchronous.
+ */
+public class QueuePuller {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.MQTT_LOGGER_NAME);
+
+    private final MqttPushServiceImpl mqttPushService;
+    private final DefaultMqttMessageProcessor defaultMqttMessageProcessor;
+    private final BrokerData brokerData;
+    private final String rootTopic;
+
+    private final Map<String /*clientId*/, Cursor> cursors = new HashMap<>();
+    private long pullOffset = -1;
+    private boolean pulling;
+    private boolean closed;
+
+    QueuePuller(MqttPushServiceImpl mqttPushService, DefaultMqttMessageProcessor defaultMqttMessageProcessor,
+        BrokerData brokerData, String rootTopic) {
+        this.mqttPushService = mqttPushService;
+        this.defaultMqttMessageProcessor = defaultMqttMessageProcessor;
+        this.brokerData = brokerData;
+        this.rootTopic = rootTopic;
+    }
+
+    public synchronized boolean isAttached(MQTTSession client) {
+        Cursor cursor = cursors.get(client.getClientId());
+        return cursor != null && cursor.client == client;
+    }
+
+    /**
+     * @return false if this puller has been closed and must not be used any more.
+     */
+    boolean attach(MQTTSession client, long offset) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            Cursor cursor = cursors.get(client.getClientId());
+            if (cursor == null || cursor.client != client) {
+                cursor = new Cursor(client, offset);
+                cursors.put(client.getClientId(), cursor);
+            }
+            if (pullOffset < 0) {
+                pullOffset = offset;
+            }
+            cursor.catchingUp = cursor.nextOffset < pullOffset;
+        }
+        resume(client.getClientId());
+        pullIfIdle();
+        return true;
+    }
+
+    /**
+     * Keep one long polling pull outstanding as long as some client follows the head of the queue.
+     */
+    public void pullIfIdle() {
+        long offset;
+        synchronized (this) {
+            if (pulling || closed || !hasHeadFollower()) {
+                return;
+            }
+            pulling = true;
+            offset = pullOffset;
+        }
+        MqttConfig mqttConfig = defaultMqttMessageProcessor.getMqttConfig();
+        pull(MqttConstant.SHARED_PULL_CONSUMER_GROUP, offset, mqttConfig.getPullBatchSize(), mqttConfig.getPullSuspendTimeoutMillis())
+            .whenComplete((response, ex) -> onSharedPullComplete(response, ex));
+    }
+
+    private void onSharedPullComplete(RemotingCommand response, Throwable ex) {
+        PullMessageResponseHeader responseHeader = ex == null ? decodeResponseHeader(response) : null;
+        if (responseHeader == null) {
+            log.warn("Pull message failed, retry later. RootTopic={}, enode={}, offset={}", rootTopic, brokerData.getBrokerName(), pullOffset, ex);
+            synchronized (this) {
+                pulling = false;
+            }
+            retryLater(null);
+            return;
+        }
+        List<PendingPush> pushes = new ArrayList<>();
+        synchronized (this) {
+            if (response.getCode() == ResponseCode.SUCCESS) {
+                List<MessageExt> messages = MessageDecoder.decodes(ByteBuffer.wrap(response.getBody()));
+                for (Iterator<Cursor> iterator = cursors.values().iterator(); iterator.hasNext(); ) {
+                    Cursor cursor = iterator.next();
+                    if (cursor.catchingUp) {
+                        continue;
+                    }
+                    if (!deliver(cursor, messages, responseHeader.getNextBeginOffset(), pushes)) {
+                        iterator.remove();
+                        mqttPushService.onDetached(this, cursor.client.getClientId());
+                    }
+                }
+            }
+            pullOffset = responseHeader.getNextBeginOffset();
+            pulling = false;
+            closeIfEmpty();
+        }
+        push(pushes);
+        pullIfIdle();
+    }
+
+    /**
+     * Let a client behind the shared pull offset catch up once its in-flight window has free slots.
+     */
+    void resume(String clientId) {
+        Cursor cursor;
+        long offset;
+        synchronized (this) {
+            cursor = cursors.get(clientId);
+            if (cursor == null || !cursor.catchingUp || cursor.pulling || cursor.client.getInflightWindow().isFull()) {
+                return;
+            }
+            if (cursor.nextOffset >= pullOffset) {
+                cursor.catchingUp = false;
+                offset = -1;
+            } else {
+                cursor.pulling = true;
+                offset = cursor.nextOffset;
+            }
+        }
+        if (offset < 0) {
+            pullIfIdle();
+            return;
+        }
+        final Cursor catchingUp = cursor;
+        pull(clientId, offset, defaultMqttMessageProcessor.getMqttConfig().getPullBatchSize(), 0)
+            .whenComplete((response, ex) -> onCatchUpPullComplete(catchingUp, response, ex));
+    }
+
+    private void onCatchUpPullComplete(Cursor cursor, RemotingCommand response, Throwable ex) {
+        String clientId = cursor.client.getClientId();
+        PullMessageResponseHeader responseHeader = ex == null ? decodeResponseHeader(response) : null;
+        if (responseHeader == null) {
+            log.warn("Pull message failed, retry later. ClientId={}, rootTopic={}, enode={}, offset={}", clientId, rootTopic, brokerData.getBrokerName(), cursor.nextOffset, ex);
+            synchronized (this) {
+                cursor.pulling = false;
+            }
+            retryLater(clientId);
+            return;
+        }
+        List<PendingPush> pushes = new ArrayList<>();
+        synchronized (this) {
+            cursor.pulling = false;
+            if (cursors.get(clientId) != cursor) {
+                return;
+            }
+            switch (response.getCode()) {
+                case ResponseCode.SUCCESS:
+                    List<MessageExt> messages = MessageDecoder.decodes(ByteBuffer.wrap(response.getBody()));
+                    if (!deliver(cursor, messages, responseHeader.getNextBeginOffset(), pushes)) {
+                        cursors.remove(clientId);
+                        mqttPushService.onDetached(this, clientId);
+                        closeIfEmpty();
+                        return;
+                    }
+                    break;
+                case ResponseCode.PULL_NOT_FOUND:
+                    // Nothing more in the queue, follow the head again
+                    cursor.nextOffset = Math.max(cursor.nextOffset, responseHeader.getNextBeginOffset());
+                    cursor.catchingUp = false;
+                    skipTo(cursor, cursor.nextOffset);
+                    break;
+                default:
+                    cursor.nextOffset = Math.max(cursor.nextOffset, responseHeader.getNextBeginOffset());
+                    skipTo(cursor, cursor.nextOffset);
+                    break;
+            }
+        }
+        push(pushes);
+        resume(clientId);
+        pullIfIdle();
+    }
+
+    /**
+     * Select the messages to push to a client from its cursor on, as many as its in-flight window has free slots. The
+     * cursor is moved past the selected messages, which are written by {@link #push(List)} once the monitor of this
+     * puller has been released. The offsets passed over are recorded as skipped in the {@link InFlightOffsets} of the
+     * client, so that its consume offset moves past the messages it does not subscribe to: up to the cursor right away
+     * if nothing is selected, else up to the first selected message, and up to the cursor once the last one is written.
+     *
+     * @return false if the client is gone and its cursor must be dropped.
+     */
+    private boolean deliver(Cursor cursor, List<MessageExt> messages, long nextBeginOffset,
+        List<PendingPush> pushes) {
+        MQTTSession client = cursor.client;
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
+        Subscription subscription = iotClientManager.getSubscriptionByClientId(client.getClientId());
+        if (!client.isConnected() || subscription == null) {
+            return false;
+        }
+        InFlightOffsets inFlightOffsets = iotClientManager.getInFlightOffsets(brokerData.getBrokerName(), client.getClientId(), rootTopic);
+        int freeSlots = client.getInflightWindow().capacity() - client.getInflightWindow().size();
+        PendingPush firstPush = null;
+        PendingPush lastPush = null;
+        for (MessageExt messageExt : messages) {
+            if (messageExt.getQueueOffset() < cursor.nextOffset) {
+                continue;
+            }
+            String realTopic = messageExt.getProperty(MessageConst.PROPERTY_REAL_TOPIC);
+            int pushQos = realTopic == null ? -1 : MqttUtil.pushQos(subscription.getSubscriptionTable(), realTopic, publishQos(messageExt));
+            if (pushQos < 0 || inFlightOffsets != null && inFlightOffsets.contains(messageExt.getQueueOffset())) {
+                cursor.nextOffset = messageExt.getQueueOffset() + 1;
+                continue;
+            }
+            if (freeSlots <= 0) {
+                cursor.catchingUp = true;
+                markSkipped(cursor, firstPush, lastPush);
+                return true;
+            }
+            MqttHeader mqttHeader = new MqttHeader();
+            mqttHeader.setMessageType(MqttMessageType.PUBLISH.value());
+            mqttHeader.setRetain(false);
+            mqttHeader.setQosLevel(pushQos);
+            mqttHeader.setTopicName(realTopic);
+            lastPush = new PendingPush(cursor, mqttHeader, messageExt);
+            if (firstPush == null) {
+                firstPush = lastPush;
+            }
+            pushes.add(lastPush);
+            freeSlots--;
+            cursor.nextOffset = messageExt.getQueueOffset() + 1;
+        }
+        cursor.nextOffset = Math.max(cursor.nextOffset, nextBeginOffset);
+        markSkipped(cursor, firstPush, lastPush);
+        return true;
+    }
+
+    private void markSkipped(Cursor cursor, PendingPush firstPush, PendingPush lastPush) {
+        if (lastPush == null) {
+            skipTo(cursor, cursor.nextOffset);
+        } else {
+            skipTo(cursor, firstPush.messageExt.getQueueOffset());
+            lastPush.skipOffset = cursor.nextOffset;
+        }
+    }
+
+    private void skipTo(Cursor cursor, long offset) {
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
+        iotClientManager.getOrCreateInFlightOffsets(brokerData.getBrokerName(), cursor.client.getClientId(), rootTopic).skipTo(offset);
+    }
+
+    /**
+     * Write the messages selected by {@link #deliver}, outside of the monitor of this puller. If the in-flight window of
+     * a client has been filled meanwhile, e.g. by the puller of another queue, its cursor is moved back to the first
+     * message not pushed and the client catches up from there once slots are released. Otherwise, once the last message
+     * selected for a client is in flight, the offsets passed over up to its cursor are recorded as skipped.
+     */
+    private void push(List<PendingPush> pushes) {
+        Cursor rewound = null;
+        for (PendingPush push : pushes) {
+            if (push.cursor == rewound) {
+                continue;
+            }
+            if (!push.cursor.client.pushMessageQos1(push.mqttHeader, push.messageExt, brokerData)) {
+                rewound = push.cursor;
+                synchronized (this) {
+                    rewound.nextOffset = Math.min(rewound.nextOffset, push.messageExt.getQueueOffset());
+                    rewound.catchingUp = true;
+                }
+            } else if (push.skipOffset >= 0) {
+                skipTo(push.cursor, push.skipOffset);
+            }
+        }
+    }
+
+    private CompletableFuture<RemotingCommand> pull(String consumerGroup, long offset, int maxMsgNums,
+        long suspendTimeoutMillis) {
+        PullMessageRequestHeader requestHeader = MqttUtil.buildPullMessageRequestHeader(consumerGroup, rootTopic, offset,
+            maxMsgNums, suspendTimeoutMillis, brokerData.getBrokerName());
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, requestHeader);
+        try {
+            return defaultMqttMessageProcessor.getEnodeService().pullMessage(null, brokerData.getBrokerName(), request);
+        } catch (Exception ex) {
+            CompletableFuture<RemotingCommand> future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+            return future;
+        }
+    }
+
+    private void retryLater(final String clientId) {
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
+        iotClientManager.getInflightTimer().newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                if (clientId != null) {
+                    resume(clientId);
+                }
+                pullIfIdle();
+            }
+        }, MqttConstant.PULL_RETRY_DELAY_MILLS, TimeUnit.MILLISECONDS);
+    }
+
+    private PullMessageResponseHeader decodeResponseHeader(RemotingCommand response) {
+        switch (response.getCode()) {
+            case ResponseCode.SUCCESS:
+            case ResponseCode.PULL_NOT_FOUND:
+            case ResponseCode.PULL_RETRY_IMMEDIATELY:
+            case ResponseCode.PULL_OFFSET_MOVED:
+                try {
+                    return (PullMessageResponseHeader) response.decodeCommandCustomHeader(PullMessageResponseHeader.class);
+                } catch (Exception ex) {
+                    log.warn("Decode pull response header failed. RootTopic={}, enode={}", rootTopic, brokerData.getBrokerName(), ex);
+                    return null;
+                }
+            default:
+                log.warn("Pull message failed. RootTopic={}, enode={}, code={}, remark={}", rootTopic, brokerData.getBrokerName(), response.getCode(), response.getRemark());
+                return null;
+        }
+    }
+
+    private static int publishQos(MessageExt messageExt) {
+        String qos = messageExt.getProperty(MqttConstant.PROPERTY_MQTT_QOS);
+        return qos == null ? MqttQoS.AT_LEAST_ONCE.value() : MqttQoS.valueOf(qos).value();
+    }
+
+    private boolean hasHeadFollower() {
+        for (Cursor cursor : cursors.values()) {
+            if (!cursor.catchingUp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeIfEmpty() {
+        if (cursors.isEmpty() && !closed) {
+            closed = true;
+            mqttPushService.onClosed(this);
+        }
+    }
+
+    public BrokerData getBrokerData() {
+        return brokerData;
+    }
+
+    public String getRootTopic() {
+        return rootTopic;
+    }
+
+    private static class PendingPush {
+        private final Cursor cursor;
+        private final MqttHeader mqttHeader;
+        private final MessageExt messageExt;
+        private long skipOffset = -1;
+
+        PendingPush(Cursor cursor, MqttHeader mqttHeader, MessageExt messageExt) {
+            this.cursor = cursor;
+            this.mqttHeader = mqttHeader;
+            this.messageExt = messageExt;
+        }
+    }
+
+    private static class Cursor {
+        private final MQTTSession client;
+        private long nextOffset;
+        private boolean catchingUp;
+        private boolean pulling;
+
+        Cursor(MQTTSession client, long nextOffset) {
+            this.client = client;
+            this.nextOffset = nextOffset;
+        }
+    }
+}
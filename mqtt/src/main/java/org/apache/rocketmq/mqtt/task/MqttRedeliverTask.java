@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.task;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.mqtt.client.InFlightMessage;
+import org.apache.rocketmq.mqtt.client.InFlightPacket;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
+import org.apache.rocketmq.mqtt.util.MqttUtil;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+
+/**
+ * Pull the message of a not acknowledged in-flight packet again from its enode and resend it to the client.
+ */
+public class MqttRedeliverTask implements Runnable {
+
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.MQTT_LOGGER_NAME);
+    private final DefaultMqttMessageProcessor defaultMqttMessageProcessor;
+    private final MQTTSession client;
+    private final InFlightPacket packet;
+
+    public MqttRedeliverTask(DefaultMqttMessageProcessor processor, MQTTSession client, InFlightPacket packet) {
+        this.defaultMqttMessageProcessor = processor;
+        this.client = client;
+        this.packet = packet;
+    }
+
+    @Override
+    public void run() {
+        InFlightMessage inFlightMessage = packet.getMessage();
+        String brokerName = inFlightMessage.getBrokerData().getBrokerName();
+        try {
+            PullMessageRequestHeader requestHeader = MqttUtil.buildPullMessageRequestHeader(client.getClientId(),
+                MqttUtil.getRootTopic(inFlightMessage.getTopic()), inFlightMessage.getQueueOffset(), 1, 0, brokerName);
+            RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, requestHeader);
+            RemotingCommand response = this.defaultMqttMessageProcessor.getEnodeService().pullMessageSync(null, brokerName, request);
+            if (response.getCode() == ResponseCode.SUCCESS) {
+                List<MessageExt> msgList = MessageDecoder.decodes(ByteBuffer.wrap(response.getBody()));
+                for (MessageExt messageExt : msgList) {
+                    if (messageExt.getQueueOffset() == inFlightMessage.getQueueOffset()) {
+                        client.resend(packet, messageExt.getBody());
+                        return;
+                    }
+                }
+            } else if (response.getCode() != ResponseCode.PULL_OFFSET_MOVED) {
+                log.warn("Pull in-flight message failed, retry on next redelivery. ClientId={}, topic={}, queueOffset={}, responseCode={}",
+                    client.getClientId(), inFlightMessage.getTopic(), inFlightMessage.getQueueOffset(), response.getCode());
+                return;
+            }
+            log.warn("The in-flight message is no longer available on enode, give up redelivering. ClientId={}, topic={}, queueOffset={}",
+                client.getClientId(), inFlightMessage.getTopic(), inFlightMessage.getQueueOffset());
+            if (client.getInflightWindow().get(packet.getPacketId()) == packet
+                && client.pubAckReceived(packet.getPacketId()) != null) {
+                // A slot of the in-flight window is free again, let the client go on consuming
+                defaultMqttMessageProcessor.getMqttPushService().resume(client);
+            }
+        } catch (Exception ex) {
+            log.error("Exception was thrown when redelivering message to consumer. ClientId={}, topic={}, queueOffset={}",
+                client.getClientId(), inFlightMessage.getTopic(), inFlightMessage.getQueueOffset(), ex);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.message.MessageDecoder;
+
+/**
+ * A publish forwarded to another snode. Messages to the same snode are batched into the body of one
+ * {@code MQTT_TRANSFER_MESSAGE} request, each encoded as: qos(1) topicLength(2) topic bodyLength(4) body.
+ */
+public class TransferMessage {
+
+    private final String topic;
+    private final int qos;
+    private final byte[] body;
+
+    public TransferMessage(String topic, int qos, byte[] body) {
+        this.topic = topic;
+        this.qos = qos;
+        this.body = body;
+    }
+
+    public static byte[] encodeBatch(List<TransferMessage> messages) {
+        int length = 0;
+        byte[][] topics = new byte[messages.size()][];
+        for (int i = 0; i < messages.size(); i++) {
+            topics[i] = messages.get(i).topic.getBytes(MessageDecoder.CHARSET_UTF8);
+            length += 1 + 2 + topics[i].length + 4 + messages.get(i).body.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < messages.size(); i++) {
+            TransferMessage message = messages.get(i);
+            buffer.put((byte) message.qos);
+            buffer.putShort((short) topics[i].length);
+            buffer.put(topics[i]);
+            buffer.putInt(message.body.length);
+            buffer.put(message.body);
+        }
+        return buffer.array();
+    }
+
+    public static List<TransferMessage> decodeBatch(byte[] data) {
+        List<TransferMessage> messages = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            int qos = buffer.get();
+            byte[] topic = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(topic);
+            byte[] body = new byte[buffer.getInt()];
+            buffer.get(body);
+            messages.add(new TransferMessage(new String(topic, MessageDecoder.CHARSET_UTF8), qos, body));
+        }
+        return messages;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+}
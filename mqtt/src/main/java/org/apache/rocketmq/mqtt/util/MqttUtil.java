@@ -18,7 +18,13 @@
 package org.apache.rocketmq.mqtt.util;
 
 import io.netty.handler.codec.mqtt.MqttQoS;
+import java.util.Map;
 import java.util.UUID;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.heartbeat.MqttSubscriptionData;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.common.sysflag.PullSysFlag;
 import org.apache.rocketmq.mqtt.constant.MqttConstant;
 
 public class MqttUtil {
@@ -43,24 +49,69 @@ public class MqttUtil {
     }
 
     public static boolean isMatch(String topicFiter, String topic) {
-        if (!topicFiter.contains(MqttConstant.SUBSCRIPTION_FLAG_PLUS) && !topicFiter.contains(MqttConstant.SUBSCRIPTION_FLAG_SHARP)) {
+        if (topicFiter.indexOf('+') < 0 && topicFiter.indexOf('#') < 0) {
             return topicFiter.equals(topic);
         }
-        String[] filterTopics = topicFiter.split(MqttConstant.SUBSCRIPTION_SEPARATOR);
-        String[] actualTopics = topic.split(MqttConstant.SUBSCRIPTION_SEPARATOR);
-
-        int i = 0;
-        for (; i < filterTopics.length && i < actualTopics.length; i++) {
-            if (MqttConstant.SUBSCRIPTION_FLAG_PLUS.equals(filterTopics[i])) {
-                continue;
+        int filterPos = 0;
+        int topicPos = 0;
+        while (filterPos <= topicFiter.length()) {
+            int filterEnd = topicFiter.indexOf('/', filterPos);
+            if (filterEnd < 0) {
+                filterEnd = topicFiter.length();
             }
-            if (MqttConstant.SUBSCRIPTION_FLAG_SHARP.equals(filterTopics[i])) {
+            int filterLevelLength = filterEnd - filterPos;
+            if (filterLevelLength == 1 && topicFiter.charAt(filterPos) == '#') {
                 return true;
             }
-            if (!filterTopics[i].equals(actualTopics[i])) {
+            if (topicPos > topic.length()) {
                 return false;
             }
+            int topicEnd = topic.indexOf('/', topicPos);
+            if (topicEnd < 0) {
+                topicEnd = topic.length();
+            }
+            boolean singleLevel = filterLevelLength == 1 && topicFiter.charAt(filterPos) == '+';
+            if (!singleLevel && (filterLevelLength != topicEnd - topicPos
+                || !topicFiter.regionMatches(filterPos, topic, topicPos, filterLevelLength))) {
+                return false;
+            }
+            filterPos = filterEnd + 1;
+            topicPos = topicEnd + 1;
+        }
+        return topicPos > topic.length();
+    }
+
+    /**
+     * Find the QoS a message published to the given topic is pushed with, the lower one of the publishing QoS and the
+     * highest QoS among the matching topic filters.
+     *
+     * @return The QoS to push with, or -1 if no topic filter matches.
+     */
+    public static int pushQos(Map<String, SubscriptionData> subscriptionTable, String topic, int publishQos) {
+        int maxRequestedQos = -1;
+        for (Map.Entry<String, SubscriptionData> entry : subscriptionTable.entrySet()) {
+            if (isMatch(entry.getKey(), topic)) {
+                maxRequestedQos = Math.max(maxRequestedQos, ((MqttSubscriptionData) entry.getValue()).getQos());
+            }
         }
-        return i == actualTopics.length;
+        return maxRequestedQos < 0 ? -1 : Math.min(publishQos, maxRequestedQos);
+    }
+
+    public static PullMessageRequestHeader buildPullMessageRequestHeader(String consumerGroup, String rootTopic,
+        long offset, int maxMsgNums, long suspendTimeoutMillis, String enodeName) {
+        PullMessageRequestHeader requestHeader = new PullMessageRequestHeader();
+        requestHeader.setConsumerGroup(consumerGroup);
+        requestHeader.setTopic(rootTopic);
+        requestHeader.setQueueId(0);
+        requestHeader.setQueueOffset(offset);
+        requestHeader.setMaxMsgNums(maxMsgNums);
+        requestHeader.setSysFlag(PullSysFlag.buildSysFlag(false, suspendTimeoutMillis > 0, true, false));
+        requestHeader.setCommitOffset(0L);
+        requestHeader.setSuspendTimeoutMillis(suspendTimeoutMillis);
+        requestHeader.setSubscription(rootTopic);
+        requestHeader.setSubVersion(0L);
+        requestHeader.setExpressionType(ExpressionType.TAG);
+        requestHeader.setEnodeName(enodeName);
+        return requestHeader;
     }
 }
@@ -89,7 +89,7 @@ public class DefaultMqttMessageProcessorTest {
         MqttHeader mqttHeader = createMqttConnectMesssageHeader();
         RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.MQTT_MESSAGE, mqttHeader);
         MqttConnectPayload payload = new MqttConnectPayload("1234567", "testTopic", "willMessage".getBytes(), null, "1234567".getBytes());
-        request.setBody(MqttEncodeDecodeUtil.encode(payload));
+        request.setBody(MqttEncodeDecodeUtil.encode(MqttMessageType.CONNECT, payload));
         return request;
     }
 }
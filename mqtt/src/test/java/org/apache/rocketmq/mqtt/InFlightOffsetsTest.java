@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt;
+
+import org.apache.rocketmq.mqtt.client.InFlightOffsets;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InFlightOffsetsTest {
+
+    @Test
+    public void test_lowWaterMark() {
+        InFlightOffsets inFlightOffsets = new InFlightOffsets();
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(-1);
+
+        for (long offset = 100; offset < 110; offset++) {
+            assertThat(inFlightOffsets.add(offset)).isTrue();
+        }
+        assertThat(inFlightOffsets.add(105)).isFalse();
+        assertThat(inFlightOffsets.size()).isEqualTo(10);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(100);
+
+        assertThat(inFlightOffsets.remove(101)).isTrue();
+        assertThat(inFlightOffsets.remove(101)).isFalse();
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(100);
+        assertThat(inFlightOffsets.remove(100)).isTrue();
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(102);
+
+        for (long offset = 102; offset < 110; offset++) {
+            inFlightOffsets.remove(offset);
+        }
+        assertThat(inFlightOffsets.size()).isEqualTo(0);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(110);
+    }
+
+    @Test
+    public void test_outOfOrder() {
+        InFlightOffsets inFlightOffsets = new InFlightOffsets();
+        inFlightOffsets.add(1000);
+        inFlightOffsets.add(3);
+        inFlightOffsets.add(500);
+        inFlightOffsets.add(7);
+        assertThat(inFlightOffsets.contains(500)).isTrue();
+        assertThat(inFlightOffsets.contains(501)).isFalse();
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(3);
+        inFlightOffsets.remove(3);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(7);
+        inFlightOffsets.remove(7);
+        inFlightOffsets.remove(500);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(1000);
+    }
+
+    @Test
+    public void test_skipTo() {
+        InFlightOffsets inFlightOffsets = new InFlightOffsets();
+        inFlightOffsets.skipTo(5);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(5);
+
+        inFlightOffsets.add(7);
+        inFlightOffsets.skipTo(10);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(7);
+        inFlightOffsets.remove(7);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(10);
+
+        inFlightOffsets.skipTo(8);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(10);
+        inFlightOffsets.add(20);
+        inFlightOffsets.remove(20);
+        assertThat(inFlightOffsets.getLowWaterMark()).isEqualTo(21);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt;
+
+import java.lang.reflect.Constructor;
+import org.apache.rocketmq.mqtt.client.InFlightMessage;
+import org.apache.rocketmq.mqtt.client.InFlightPacket;
+import org.apache.rocketmq.mqtt.client.InFlightWindow;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InFlightWindowTest {
+
+    @Test
+    public void test_putAndRemove() throws Exception {
+        InFlightWindow window = new InFlightWindow(4);
+        InFlightPacket[] packets = new InFlightPacket[4];
+        for (int i = 0; i < 4; i++) {
+            packets[i] = createPacket();
+            assertThat(window.put(packets[i])).isEqualTo(i + 1);
+        }
+        assertThat(window.isFull()).isTrue();
+        assertThat(window.put(createPacket())).isEqualTo(0);
+
+        assertThat(window.remove(2)).isSameAs(packets[1]);
+        assertThat(window.remove(2)).isNull();
+        assertThat(window.get(2)).isNull();
+        assertThat(window.get(3)).isSameAs(packets[2]);
+
+        // Packet id 5 maps to the slot of the still in-flight packet 1, so the next free id is 6
+        InFlightPacket packet = createPacket();
+        assertThat(window.put(packet)).isEqualTo(6);
+        assertThat(packet.getPacketId()).isEqualTo(6);
+        assertThat(window.get(2)).isNull();
+        assertThat(window.get(6)).isSameAs(packet);
+        assertThat(window.size()).isEqualTo(4);
+    }
+
+    @Test
+    public void test_packetIdWrapAround() throws Exception {
+        InFlightWindow window = new InFlightWindow(3);
+        int lastPacketId = 0;
+        for (int i = 0; i < InFlightWindow.MAX_PACKET_ID; i++) {
+            lastPacketId = window.put(createPacket());
+            window.remove(lastPacketId);
+        }
+        assertThat(lastPacketId).isEqualTo(InFlightWindow.MAX_PACKET_ID);
+        assertThat(window.put(createPacket())).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_illegalCapacity() {
+        new InFlightWindow(0);
+    }
+
+    private InFlightPacket createPacket() throws Exception {
+        Constructor<InFlightPacket> constructor = InFlightPacket.class.getDeclaredConstructor(MQTTSession.class, InFlightMessage.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(null, new InFlightMessage("topicTest", 1, null, 0));
+    }
+}
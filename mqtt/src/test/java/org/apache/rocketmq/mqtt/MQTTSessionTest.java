@@ -16,16 +16,15 @@
  */
 package org.apache.rocketmq.mqtt;
 
-import java.lang.reflect.Method;
 import java.util.HashSet;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
 import org.apache.rocketmq.common.MqttConfig;
 import org.apache.rocketmq.common.SnodeConfig;
 import org.apache.rocketmq.common.client.ClientRole;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.protocol.route.BrokerData;
+import org.apache.rocketmq.mqtt.client.IOTClientManagerImpl;
 import org.apache.rocketmq.mqtt.client.InFlightMessage;
+import org.apache.rocketmq.mqtt.client.InFlightOffsets;
 import org.apache.rocketmq.mqtt.client.MQTTSession;
 import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
 import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
@@ -34,6 +33,7 @@ import org.junit.runner.RunWith;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 @RunWith(MockitoJUnitRunner.class)
 public class MQTTSessionTest {
@@ -45,28 +45,39 @@ public class MQTTSessionTest {
         }
     }, true, true, null, System.currentTimeMillis(), defaultMqttMessageProcessor);
 
-    private ConcurrentHashMap<String, ConcurrentHashMap<String, TreeMap<Long, MessageExt>>> processTable = new ConcurrentHashMap<>();
-
     @Test
-    public void test_put2processTable() throws Exception {
-        Method method = MQTTSession.class.getDeclaredMethod("put2processTable", ConcurrentHashMap.class, String.class, String.class, MessageExt.class);
+    public void test_inFlightOffsets() {
+        BrokerData brokerData1 = new BrokerData("DefaultCluster", "broker1", null);
+        BrokerData brokerData2 = new BrokerData("DefaultCluster", "broker2", null);
         for (int i = 0; i < 5; i++) {
-            MessageExt messageExt = new MessageExt(0, System.currentTimeMillis(), null, System.currentTimeMillis(), null, null);
-            messageExt.setQueueOffset(i);
-            method.setAccessible(true);
-            method.invoke(mqttSession, processTable, "broker1", "topic" + i, messageExt);
+            pushMessageQos1("topic" + i + "/a", i, brokerData1);
         }
-        MessageExt messageExt_0 = new MessageExt(0, System.currentTimeMillis(), null, System.currentTimeMillis(), null, null);
-        messageExt_0.setQueueOffset(10);
-        method.invoke(mqttSession, processTable, "broker2", "topic0", messageExt_0);
+        pushMessageQos1("topic0/a", 10, brokerData2);
+        pushMessageQos1("topic0/b", 11, brokerData2);
+
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
+        assertEquals(2, iotClientManager.getProcessTable().size());
+        assertEquals(5, iotClientManager.getProcessTable().get("broker1").get("testClient").size());
+        InFlightOffsets inFlightOffsets = iotClientManager.getInFlightOffsets("broker2", "testClient", "topic0");
+        assertEquals(2, inFlightOffsets.size());
+        assertEquals(10, inFlightOffsets.getLowWaterMark());
 
-        MessageExt messageExt_1 = new MessageExt(0, System.currentTimeMillis(), null, System.currentTimeMillis(), null, null);
-        messageExt_1.setQueueOffset(11);
-        method.invoke(mqttSession, processTable, "broker2", "topic0", messageExt_1);
+        mqttSession.pubAckReceived(6);
+        assertEquals(false, inFlightOffsets.contains(10));
+        assertEquals(11, inFlightOffsets.getLowWaterMark());
+        mqttSession.pubAckReceived(7);
+        assertEquals(12, inFlightOffsets.getLowWaterMark());
+    }
 
-        assertEquals(2, processTable.size());
-        assertEquals(5, processTable.get("broker1").size());
-        assertEquals(2, processTable.get("broker2").get("topic0@testClient").size());
+    private void pushMessageQos1(String topic, long queueOffset, BrokerData brokerData) {
+        MqttHeader mqttHeader = new MqttHeader();
+        mqttHeader.setTopicName(topic);
+        mqttHeader.setQosLevel(1);
+        MessageExt messageExt = new MessageExt(0, System.currentTimeMillis(), null, System.currentTimeMillis(), null, null);
+        messageExt.setTopic(topic);
+        messageExt.setBody("Hello".getBytes());
+        messageExt.setQueueOffset(queueOffset);
+        mqttSession.pushMessageQos1(mqttHeader, messageExt, brokerData);
     }
 
     @Test
@@ -84,13 +95,13 @@ public class MQTTSessionTest {
             assertEquals(i + 1, mqttHeader.getPacketId().intValue());
             System.out.println(mqttHeader.getPacketId());
         }
-        assertEquals(0, mqttSession.getInflightSlots().get());
+        assertEquals(true, mqttSession.getInflightWindow().isFull());
         assertEquals(10, mqttSession.getInflightWindow().size());
     //  assertEquals(10, mqttSession.getInflightTimeouts().size());
 
         mqttSession.pushMessageQos1(mqttHeader, messageExt, brokerData);
 
-        assertEquals(0, mqttSession.getInflightSlots().get());
+        assertEquals(true, mqttSession.getInflightWindow().isFull());
         assertEquals(10, mqttSession.getInflightWindow().size());
      //   assertEquals(10, mqttSession.getInflightTimeouts().size());
     }
@@ -109,8 +120,9 @@ public class MQTTSessionTest {
             mqttSession.pushMessageQos1(mqttHeader, messageExt, brokerData);
         }
         InFlightMessage inFlightMessage = mqttSession.pubAckReceived(1);
-        assertEquals(9, mqttSession.getInflightSlots().intValue());
+        assertEquals("topicTest", inFlightMessage.getTopic());
         assertEquals(1, mqttSession.getInflightWindow().size());
-        assertEquals(false, mqttSession.getInUsePacketIds().containsKey(1));
+        assertNull(mqttSession.getInflightWindow().get(1));
+        assertNull(mqttSession.pubAckReceived(1));
     }
 }
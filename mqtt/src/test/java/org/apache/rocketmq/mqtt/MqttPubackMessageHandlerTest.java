@@ -84,7 +84,7 @@ public class MqttPubackMessageHandlerTest {
 
         MQTTSession mqttSession = Mockito.spy(new MQTTSession("client1", ClientRole.IOTCLIENT, null, true, true, remotingChannel, System.currentTimeMillis(), defaultMqttMessageProcessor));
         Mockito.when(iotClientManager.getClient(anyString(), any(RemotingChannel.class))).thenReturn(mqttSession);
-        InFlightMessage inFlightMessage = Mockito.spy(new InFlightMessage("topicTest", 0, "Hello".getBytes(), null, 0));
+        InFlightMessage inFlightMessage = Mockito.spy(new InFlightMessage("topicTest", 0, null, 0));
         doReturn(inFlightMessage).when(mqttSession).pubAckReceived(anyInt());
         RemotingCommand remotingCommand = mqttPubackMessageHandler.handleMessage(mqttMessage, remotingChannel);
         assert remotingCommand == null;
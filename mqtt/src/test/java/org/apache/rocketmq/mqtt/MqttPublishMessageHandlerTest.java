@@ -184,5 +184,11 @@ public class MqttPublishMessageHandlerTest {
         topic2Clients.put("topic", clients_1);
         topic2Clients.put("test", clients_2);
 
+        for (Client client : clients_1) {
+            for (String topicFilter : subscriptions.get(client.getClientId()).getSubscriptionTable().keySet()) {
+                manager.getSubscriptionTrie().subscribe(topicFilter, client);
+            }
+        }
+
     }
 }
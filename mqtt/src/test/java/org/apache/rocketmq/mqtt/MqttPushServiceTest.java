@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.rocketmq.common.MqttConfig;
+import org.apache.rocketmq.common.SnodeConfig;
+import org.apache.rocketmq.common.client.ClientRole;
+import org.apache.rocketmq.common.client.Subscription;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.PullMessageResponseHeader;
+import org.apache.rocketmq.common.protocol.heartbeat.MqttSubscriptionData;
+import org.apache.rocketmq.common.protocol.route.BrokerData;
+import org.apache.rocketmq.common.service.EnodeService;
+import org.apache.rocketmq.mqtt.client.IOTClientManagerImpl;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+import org.apache.rocketmq.mqtt.constant.MqttConstant;
+import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
+import org.apache.rocketmq.mqtt.service.impl.MqttPushServiceImpl;
+import org.apache.rocketmq.remoting.RemotingServer;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MqttPushServiceTest {
+
+    private final String rootTopic = "topic";
+
+    private final BrokerData brokerData = new BrokerData("DefaultCluster", "broker1", null);
+
+    private EnodeService enodeService;
+
+    private RemotingServer mqttRemotingServer;
+
+    private MqttConfig mqttConfig;
+
+    private DefaultMqttMessageProcessor defaultMqttMessageProcessor;
+
+    private final List<MessageExt> storedMessages = new ArrayList<>();
+
+    @Before
+    public void before() throws Exception {
+        enodeService = mock(EnodeService.class);
+        mqttRemotingServer = mock(RemotingServer.class);
+        mqttConfig = new MqttConfig();
+        defaultMqttMessageProcessor = new DefaultMqttMessageProcessor(mqttConfig, new SnodeConfig(), mqttRemotingServer, enodeService, null);
+        when(enodeService.pullMessage(any(), anyString(), any(RemotingCommand.class))).thenAnswer(invocation -> {
+            PullMessageRequestHeader requestHeader = (PullMessageRequestHeader) ((RemotingCommand) invocation.getArgument(2)).readCustomHeader();
+            if (requestHeader.getQueueOffset() >= storedMessages.size()) {
+                // Hold the long polling pull, as the enode does until a new message arrives
+                return new CompletableFuture<RemotingCommand>();
+            }
+            return CompletableFuture.completedFuture(pull(requestHeader.getQueueOffset()));
+        });
+        storedMessages.add(createMessage("topic/a", 0));
+        storedMessages.add(createMessage("topic/b", 1));
+        storedMessages.add(createMessage("topic/a", 2));
+    }
+
+    @After
+    public void after() {
+        defaultMqttMessageProcessor.getIotClientManager().shutdown();
+    }
+
+    @Test
+    public void test_sharedPullDispatchedToAllClients() throws Exception {
+        MQTTSession client1 = createSession("client1", "topic/a");
+        MQTTSession client2 = createSession("client2", "topic/#");
+
+        defaultMqttMessageProcessor.getMqttPushService().attach(client1, rootTopic, brokerData);
+        defaultMqttMessageProcessor.getMqttPushService().attach(client2, rootTopic, brokerData);
+
+        verify(mqttRemotingServer, timeout(3000).times(5)).push(any(), any(RemotingCommand.class), anyLong());
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
+        assertThat(iotClientManager.getInFlightOffsets("broker1", "client1", rootTopic).size()).isEqualTo(2);
+        assertThat(iotClientManager.getInFlightOffsets("broker1", "client2", rootTopic).size()).isEqualTo(3);
+        assertThat(client1.getInflightWindow().size()).isEqualTo(2);
+        assertThat(client2.getInflightWindow().size()).isEqualTo(3);
+    }
+
+    @Test
+    public void test_resumeAfterPubAck() throws Exception {
+        mqttConfig.setMaxInflightMessages(1);
+        MQTTSession client = createSession("client1", "topic/#");
+        defaultMqttMessageProcessor.getMqttPushService().attach(client, rootTopic, brokerData);
+        verify(mqttRemotingServer, timeout(3000).times(1)).push(any(), any(RemotingCommand.class), anyLong());
+        assertThat(client.getInflightWindow().isFull()).isTrue();
+
+        for (int i = 0; i < 2; i++) {
+            client.pubAckReceived(i + 1);
+            defaultMqttMessageProcessor.getMqttPushService().resume(client);
+            verify(mqttRemotingServer, timeout(3000).times(i + 2)).push(any(), any(RemotingCommand.class), anyLong());
+        }
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
+        assertThat(iotClientManager.getInFlightOffsets("broker1", "client1", rootTopic).getLowWaterMark()).isEqualTo(2);
+        assertThat(((MqttPushServiceImpl) defaultMqttMessageProcessor.getMqttPushService()).getQueuePuller("broker1", rootTopic)).isNotNull();
+    }
+
+    @Test
+    public void test_lowWaterMarkPassesFilteredMessages() throws Exception {
+        MQTTSession client1 = createSession("client1", "topic/b");
+        MQTTSession client2 = createSession("client2", "topic/c");
+        defaultMqttMessageProcessor.getMqttPushService().attach(client1, rootTopic, brokerData);
+        defaultMqttMessageProcessor.getMqttPushService().attach(client2, rootTopic, brokerData);
+        verify(mqttRemotingServer, timeout(3000).times(1)).push(any(), any(RemotingCommand.class), anyLong());
+
+        IOTClientManagerImpl iotClientManager = (IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager();
+        assertThat(iotClientManager.getInFlightOffsets("broker1", "client1", rootTopic).getLowWaterMark()).isEqualTo(1);
+        client1.pubAckReceived(1);
+        assertThat(iotClientManager.getInFlightOffsets("broker1", "client1", rootTopic).getLowWaterMark()).isEqualTo(3);
+        assertThat(iotClientManager.getInFlightOffsets("broker1", "client2", rootTopic).getLowWaterMark()).isEqualTo(3);
+    }
+
+    private RemotingCommand pull(long offset) throws Exception {
+        RemotingCommand response = RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
+        List<byte[]> encoded = new ArrayList<>();
+        int size = 0;
+        for (MessageExt messageExt : storedMessages.subList((int) offset, storedMessages.size())) {
+            byte[] data = MessageDecoder.encode(messageExt, false);
+            encoded.add(data);
+            size += data.length;
+        }
+        byte[] body = new byte[size];
+        int pos = 0;
+        for (byte[] data : encoded) {
+            System.arraycopy(data, 0, body, pos, data.length);
+            pos += data.length;
+        }
+        response.setCode(ResponseCode.SUCCESS);
+        response.setBody(body);
+        response.addExtField("nextBeginOffset", String.valueOf(storedMessages.size()));
+        response.addExtField("minOffset", "0");
+        response.addExtField("maxOffset", String.valueOf(storedMessages.size()));
+        response.addExtField("suggestWhichBrokerId", "0");
+        return response;
+    }
+
+    private MessageExt createMessage(String topic, long queueOffset) {
+        MessageExt messageExt = new MessageExt(0, System.currentTimeMillis(), new InetSocketAddress("127.0.0.1", 1883),
+            System.currentTimeMillis(), new InetSocketAddress("127.0.0.1", 10911), null);
+        messageExt.setTopic(rootTopic);
+        messageExt.setBody("Hello".getBytes());
+        messageExt.setQueueOffset(queueOffset);
+        MessageAccessor.putProperty(messageExt, MessageConst.PROPERTY_REAL_TOPIC, topic);
+        MessageAccessor.putProperty(messageExt, MqttConstant.PROPERTY_MQTT_QOS, MqttQoS.AT_LEAST_ONCE.name());
+        return messageExt;
+    }
+
+    private MQTTSession createSession(String clientId, String topicFilter) {
+        MQTTSession session = new MQTTSession(clientId, ClientRole.IOTCLIENT, Collections.singleton(IOTClientManagerImpl.IOT_GROUP),
+            true, true, null, System.currentTimeMillis(), defaultMqttMessageProcessor);
+        Subscription subscription = new Subscription();
+        subscription.getSubscriptionTable().put(topicFilter, new MqttSubscriptionData(1, clientId, topicFilter));
+        ((IOTClientManagerImpl) defaultMqttMessageProcessor.getIotClientManager()).initSubscription(clientId, subscription);
+        return session;
+    }
+}
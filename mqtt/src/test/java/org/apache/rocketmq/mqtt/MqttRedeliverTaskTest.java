@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.mqtt;
+
+import java.util.HashSet;
+import org.apache.rocketmq.common.MqttConfig;
+import org.apache.rocketmq.common.SnodeConfig;
+import org.apache.rocketmq.common.client.ClientRole;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.protocol.route.BrokerData;
+import org.apache.rocketmq.common.service.EnodeService;
+import org.apache.rocketmq.mqtt.client.InFlightPacket;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
+import org.apache.rocketmq.mqtt.service.MqttPushService;
+import org.apache.rocketmq.mqtt.task.MqttRedeliverTask;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MqttRedeliverTaskTest {
+
+    private DefaultMqttMessageProcessor defaultMqttMessageProcessor;
+    private MQTTSession mqttSession;
+
+    @Mock
+    private EnodeService enodeService;
+
+    @Mock
+    private MqttPushService mqttPushService;
+
+    @Before
+    public void before() {
+        defaultMqttMessageProcessor = Mockito.spy(new DefaultMqttMessageProcessor(new MqttConfig(), new SnodeConfig(), null, enodeService, null));
+        doReturn(mqttPushService).when(defaultMqttMessageProcessor).getMqttPushService();
+        mqttSession = new MQTTSession("testClient", ClientRole.IOTCLIENT, new HashSet<String>() {
+            {
+                add("IOT_GROUP");
+            }
+        }, true, true, null, System.currentTimeMillis(), defaultMqttMessageProcessor);
+    }
+
+    @Test
+    public void test_run_messageGone() {
+        MqttHeader mqttHeader = new MqttHeader();
+        mqttHeader.setTopicName("topicTest");
+        mqttHeader.setQosLevel(1);
+        MessageExt messageExt = new MessageExt(0, System.currentTimeMillis(), null, System.currentTimeMillis(), null, null);
+        messageExt.setTopic("topicTest");
+        messageExt.setBody("Hello".getBytes());
+        messageExt.setQueueOffset(5);
+        mqttSession.pushMessageQos1(mqttHeader, messageExt, new BrokerData("DefaultCluster", "broker1", null));
+        InFlightPacket packet = mqttSession.getInflightWindow().get(mqttHeader.getPacketId());
+
+        when(enodeService.pullMessageSync(any(), anyString(), any(RemotingCommand.class)))
+            .thenReturn(RemotingCommand.createResponseCommand(ResponseCode.PULL_OFFSET_MOVED, null));
+        new MqttRedeliverTask(defaultMqttMessageProcessor, mqttSession, packet).run();
+
+        assertEquals(0, mqttSession.getInflightWindow().size());
+        Mockito.verify(mqttPushService).resume(mqttSession);
+    }
+}
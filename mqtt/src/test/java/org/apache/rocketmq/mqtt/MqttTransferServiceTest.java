@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.MqttConfig;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.mqtt.service.impl.MqttTransferServiceImpl;
+import org.apache.rocketmq.mqtt.transfer.TransferMessage;
+import org.apache.rocketmq.remoting.InvokeCallback;
+import org.apache.rocketmq.remoting.RemotingClient;
+import org.apache.rocketmq.remoting.netty.ResponseFuture;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class MqttTransferServiceTest {
+
+    private RemotingClient remotingClient;
+
+    private MqttConfig mqttConfig;
+
+    private MqttTransferServiceImpl mqttTransferService;
+
+    @Before
+    public void before() {
+        remotingClient = mock(RemotingClient.class);
+        mqttConfig = new MqttConfig();
+        mqttConfig.setTransferFlushIntervalMillis(50);
+        mqttTransferService = new MqttTransferServiceImpl(mqttConfig, remotingClient);
+    }
+
+    @After
+    public void after() {
+        mqttTransferService.shutdown();
+    }
+
+    @Test
+    public void test_encodeDecodeBatch() {
+        List<TransferMessage> messages = new ArrayList<>();
+        messages.add(new TransferMessage("topic/a", 0, "Hello".getBytes()));
+        messages.add(new TransferMessage("topic/\u4e2d\u6587", 1, new byte[0]));
+        List<TransferMessage> decoded = TransferMessage.decodeBatch(TransferMessage.encodeBatch(messages));
+        assertThat(decoded).hasSize(2);
+        assertThat(decoded.get(0).getTopic()).isEqualTo("topic/a");
+        assertThat(decoded.get(0).getQos()).isEqualTo(0);
+        assertThat(decoded.get(0).getBody()).isEqualTo("Hello".getBytes());
+        assertThat(decoded.get(1).getTopic()).isEqualTo("topic/\u4e2d\u6587");
+        assertThat(decoded.get(1).getQos()).isEqualTo(1);
+        assertThat(decoded.get(1).getBody()).isEmpty();
+    }
+
+    @Test
+    public void test_batchPerSnode() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(mqttTransferService.transfer("snode1:8888", "topic/" + i, 0, "Hello".getBytes()));
+        }
+        CompletableFuture<Void> otherSnode = mqttTransferService.transfer("snode2:8888", "topic/a", 1, "Hello".getBytes());
+
+        ArgumentCaptor<RemotingCommand> request = ArgumentCaptor.forClass(RemotingCommand.class);
+        ArgumentCaptor<InvokeCallback> callback = ArgumentCaptor.forClass(InvokeCallback.class);
+        verify(remotingClient, timeout(3000)).invokeAsync(eq("snode1:8888"), request.capture(), anyLong(), callback.capture());
+        assertThat(request.getValue().getCode()).isEqualTo(RequestCode.MQTT_TRANSFER_MESSAGE);
+        assertThat(TransferMessage.decodeBatch(request.getValue().getBody())).hasSize(3);
+        for (CompletableFuture<Void> future : futures) {
+            assertThat(future.isDone()).isFalse();
+        }
+
+        ResponseFuture responseFuture = new ResponseFuture(null, 0, 3000, null, null);
+        responseFuture.setResponseCommand(RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null));
+        callback.getValue().operationComplete(responseFuture);
+        for (CompletableFuture<Void> future : futures) {
+            future.get(1, TimeUnit.SECONDS);
+        }
+
+        verify(remotingClient, timeout(3000)).invokeAsync(eq("snode2:8888"), request.capture(), anyLong(), callback.capture());
+        assertThat(TransferMessage.decodeBatch(request.getValue().getBody())).hasSize(1);
+        responseFuture = new ResponseFuture(null, 0, 3000, null, null);
+        responseFuture.setSendRequestOK(false);
+        callback.getValue().operationComplete(responseFuture);
+        assertThat(otherSnode.isCompletedExceptionally()).isTrue();
+    }
+
+    @Test
+    public void test_splitByBatchSize() throws Exception {
+        mqttConfig.setTransferBatchSize(2);
+        for (int i = 0; i < 5; i++) {
+            mqttTransferService.transfer("snode1:8888", "topic/" + i, 0, "Hello".getBytes());
+        }
+        ArgumentCaptor<RemotingCommand> request = ArgumentCaptor.forClass(RemotingCommand.class);
+        verify(remotingClient, timeout(3000).times(3)).invokeAsync(eq("snode1:8888"), request.capture(), anyLong(), any(InvokeCallback.class));
+        int total = 0;
+        for (RemotingCommand command : request.getAllValues()) {
+            int size = TransferMessage.decodeBatch(command.getBody()).size();
+            assertThat(size).isLessThanOrEqualTo(2);
+            total += size;
+        }
+        assertThat(total).isEqualTo(5);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.mqtt;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.rocketmq.common.client.Client;
+import org.apache.rocketmq.common.client.ClientRole;
+import org.apache.rocketmq.mqtt.client.MQTTSession;
+import org.apache.rocketmq.mqtt.client.SubscriptionTrie;
+import org.apache.rocketmq.mqtt.util.MqttUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubscriptionTrieTest {
+
+    private SubscriptionTrie subscriptionTrie;
+
+    private MQTTSession client1;
+    private MQTTSession client2;
+    private MQTTSession client3;
+
+    @Before
+    public void before() {
+        subscriptionTrie = new SubscriptionTrie();
+        client1 = createSession("client1");
+        client2 = createSession("client2");
+        client3 = createSession("client3");
+    }
+
+    @Test
+    public void test_match() {
+        subscriptionTrie.subscribe("topic/a", client1);
+        subscriptionTrie.subscribe("topic/+", client2);
+        subscriptionTrie.subscribe("topic/#", client3);
+        subscriptionTrie.subscribe("topic/+/c", client1);
+
+        assertThat(subscriptionTrie.match("topic/a")).containsOnly(client1, client2, client3);
+        assertThat(subscriptionTrie.match("topic/b")).containsOnly(client2, client3);
+        assertThat(subscriptionTrie.match("topic/b/c")).containsOnly(client1, client3);
+        assertThat(subscriptionTrie.match("topic/b/d")).containsOnly(client3);
+        assertThat(subscriptionTrie.match("topic")).containsOnly(client3);
+        assertThat(subscriptionTrie.match("test/a")).isEmpty();
+    }
+
+    @Test
+    public void test_unsubscribe() {
+        subscriptionTrie.subscribe("topic/a", client1);
+        subscriptionTrie.subscribe("topic/+", client1);
+        subscriptionTrie.subscribe("topic/a", client2);
+
+        subscriptionTrie.unsubscribe("topic/a", client1);
+        assertThat(subscriptionTrie.match("topic/a")).containsOnly(client1, client2);
+
+        subscriptionTrie.unsubscribe("topic/+", client1);
+        assertThat(subscriptionTrie.match("topic/a")).containsOnly(client2);
+
+        subscriptionTrie.unsubscribe("topic/a", client2);
+        subscriptionTrie.unsubscribe("not/subscribed", client2);
+        assertThat(subscriptionTrie.match("topic/a")).isEmpty();
+        assertThat(subscriptionTrie.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void test_matchConsistentWithIsMatch() {
+        String[] topicFilters = {"a", "a/b", "a/+", "a/#", "+/b", "+/+", "#", "a/+/c", "a/b/c/#", "+", "a/"};
+        String[] topics = {"a", "a/b", "a/c", "a/b/c", "b/b", "a/b/c/d", "a/", "b"};
+        for (String topic : topics) {
+            Set<Client> expected = new HashSet<>();
+            SubscriptionTrie trie = new SubscriptionTrie();
+            for (int i = 0; i < topicFilters.length; i++) {
+                MQTTSession session = createSession("client" + i);
+                trie.subscribe(topicFilters[i], session);
+                if (MqttUtil.isMatch(topicFilters[i], topic)) {
+                    expected.add(session);
+                }
+            }
+            assertThat(trie.match(topic)).as("topic %s", topic).isEqualTo(expected);
+        }
+    }
+
+    private MQTTSession createSession(String clientId) {
+        return new MQTTSession(clientId, ClientRole.IOTCLIENT, Collections.singleton("IOT_GROUP"), true, true, null,
+            System.currentTimeMillis(), null);
+    }
+}
@@ -16,14 +16,12 @@
  */
 package org.apache.rocketmq.remoting.netty;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import io.netty.buffer.ByteBuf;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.rocketmq.remoting.CommandCustomHeader;
-import org.apache.rocketmq.remoting.annotation.CFNotNull;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.remoting.serialize.SerializeType;
@@ -32,19 +30,8 @@ import org.apache.rocketmq.remoting.serialize.SerializerFactory;
 
 public class CodecHelper {
     public static final String REMOTING_VERSION_KEY = "rocketmq.remoting.version";
-    protected static final Map<Class<? extends CommandCustomHeader>, Field[]> CLASS_HASH_MAP =
-        new HashMap<Class<? extends CommandCustomHeader>, Field[]>();
-    protected static final Map<Class, String> CANONICAL_NAME_CACHE = new HashMap<Class, String>();
-    private static final Map<Field, Boolean> NULLABLE_FIELD_CACHE = new HashMap<Field, Boolean>();
-    private static final String STRING_CANONICAL_NAME = String.class.getCanonicalName();
-    private static final String DOUBLE_CANONICAL_NAME_1 = Double.class.getCanonicalName();
-    private static final String DOUBLE_CANONICAL_NAME_2 = double.class.getCanonicalName();
-    private static final String INTEGER_CANONICAL_NAME_1 = Integer.class.getCanonicalName();
-    private static final String INTEGER_CANONICAL_NAME_2 = int.class.getCanonicalName();
-    private static final String LONG_CANONICAL_NAME_1 = Long.class.getCanonicalName();
-    private static final String LONG_CANONICAL_NAME_2 = long.class.getCanonicalName();
-    private static final String BOOLEAN_CANONICAL_NAME_1 = Boolean.class.getCanonicalName();
-    private static final String BOOLEAN_CANONICAL_NAME_2 = boolean.class.getCanonicalName();
+    private static final ConcurrentMap<Class<? extends CommandCustomHeader>, CommandCustomHeaderCodec> HEADER_CODEC_TABLE =
+        new ConcurrentHashMap<Class<? extends CommandCustomHeader>, CommandCustomHeaderCodec>();
 
     public static RemotingCommand decode(final byte[] array) {
         ByteBuffer byteBuffer = ByteBuffer.wrap(array);
@@ -69,6 +56,31 @@ public class CodecHelper {
         return cmd;
     }
 
+    /**
+     * Decode a frame without its length field. In zero-copy mode the body of a request is kept as a retained slice of
+     * the frame instead of being copied out, see {@link RemotingCommand#getBodyBuffer()}.
+     */
+    public static RemotingCommand decode(final ByteBuf frame, final boolean zeroCopyBody) {
+        int length = frame.readableBytes();
+        int oriHeaderLen = frame.readInt();
+        int headerLength = getHeaderLength(oriHeaderLen);
+
+        byte[] headerData = new byte[headerLength];
+        frame.readBytes(headerData);
+        RemotingCommand cmd = headerDecode(headerData, getProtocolType(oriHeaderLen));
+        int bodyLength = length - 4 - headerLength;
+        if (bodyLength > 0) {
+            if (zeroCopyBody && !cmd.isResponseType()) {
+                cmd.setBodyBuffer(frame.readRetainedSlice(bodyLength));
+            } else {
+                byte[] bodyData = new byte[bodyLength];
+                frame.readBytes(bodyData);
+                cmd.setBody(bodyData);
+            }
+        }
+        return cmd;
+    }
+
     public static int getHeaderLength(int length) {
         return length & 0xFFFFFF;
     }
@@ -98,94 +110,19 @@ public class CodecHelper {
 
     public static CommandCustomHeader decodeCommandCustomHeader(RemotingCommand remotingCommand,
         Class<? extends CommandCustomHeader> classHeader) throws RemotingCommandException {
-        CommandCustomHeader objectHeader;
-        try {
-            objectHeader = classHeader.newInstance();
-        } catch (InstantiationException e) {
-            return null;
-        } catch (IllegalAccessException e) {
-            return null;
-        }
-
-        if (remotingCommand.getExtFields() != null) {
-            Field[] fields = getClazzFields(classHeader);
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String fieldName = field.getName();
-                    if (!fieldName.startsWith("this")) {
-                        try {
-                            String value = remotingCommand.getExtFields().get(fieldName);
-                            if (null == value) {
-                                if (!isFieldNullable(field)) {
-                                    throw new RemotingCommandException("the custom field <" + fieldName + "> is null");
-                                }
-                                continue;
-                            }
-
-                            field.setAccessible(true);
-                            String type = getCanonicalName(field.getType());
-                            Object valueParsed;
-
-                            if (type.equals(STRING_CANONICAL_NAME)) {
-                                valueParsed = value;
-                            } else if (type.equals(INTEGER_CANONICAL_NAME_1) || type.equals(INTEGER_CANONICAL_NAME_2)) {
-                                valueParsed = Integer.parseInt(value);
-                            } else if (type.equals(LONG_CANONICAL_NAME_1) || type.equals(LONG_CANONICAL_NAME_2)) {
-                                valueParsed = Long.parseLong(value);
-                            } else if (type.equals(BOOLEAN_CANONICAL_NAME_1) || type.equals(BOOLEAN_CANONICAL_NAME_2)) {
-                                valueParsed = Boolean.parseBoolean(value);
-                            } else if (type.equals(DOUBLE_CANONICAL_NAME_1) || type.equals(DOUBLE_CANONICAL_NAME_2)) {
-                                valueParsed = Double.parseDouble(value);
-                            } else {
-                                throw new RemotingCommandException("the custom field <" + fieldName + "> type is not supported");
-                            }
-
-                            field.set(objectHeader, valueParsed);
-
-                        } catch (Throwable e) {
-                        }
-                    }
-                }
-            }
-
-            objectHeader.checkFields();
-        }
-
-        return objectHeader;
-    }
-
-    private static Field[] getClazzFields(Class<? extends CommandCustomHeader> classHeader) {
-        Field[] field = CLASS_HASH_MAP.get(classHeader);
-
-        if (field == null) {
-            field = classHeader.getDeclaredFields();
-            synchronized (CLASS_HASH_MAP) {
-                CLASS_HASH_MAP.put(classHeader, field);
-            }
-        }
-        return field;
+        return getHeaderCodec(classHeader).decode(remotingCommand.getExtFields());
     }
 
-    private static boolean isFieldNullable(Field field) {
-        if (!NULLABLE_FIELD_CACHE.containsKey(field)) {
-            Annotation annotation = field.getAnnotation(CFNotNull.class);
-            synchronized (NULLABLE_FIELD_CACHE) {
-                NULLABLE_FIELD_CACHE.put(field, annotation == null);
+    private static CommandCustomHeaderCodec getHeaderCodec(Class<? extends CommandCustomHeader> classHeader) {
+        CommandCustomHeaderCodec codec = HEADER_CODEC_TABLE.get(classHeader);
+        if (codec == null) {
+            codec = CommandCustomHeaderCodec.create(classHeader);
+            CommandCustomHeaderCodec prev = HEADER_CODEC_TABLE.putIfAbsent(classHeader, codec);
+            if (prev != null) {
+                codec = prev;
             }
         }
-        return NULLABLE_FIELD_CACHE.get(field);
-    }
-
-    private static String getCanonicalName(Class clazz) {
-        String name = CANONICAL_NAME_CACHE.get(clazz);
-
-        if (name == null) {
-            name = clazz.getCanonicalName();
-            synchronized (CANONICAL_NAME_CACHE) {
-                CANONICAL_NAME_CACHE.put(clazz, name);
-            }
-        }
-        return name;
+        return codec;
     }
 
     public static ByteBuffer encode(RemotingCommand remotingCommand) {
@@ -232,36 +169,17 @@ public class CodecHelper {
     }
 
     public static void makeCustomHeaderToNet(RemotingCommand remotingCommand) {
-        if (remotingCommand.getCustomHeader() != null) {
-            Field[] fields = getClazzFields(remotingCommand.getCustomHeader().getClass());
-            HashMap extFields = remotingCommand.getExtFields();
-
-            if (null == extFields) {
+        CommandCustomHeader customHeader = remotingCommand.getCustomHeader();
+        if (customHeader != null) {
+            if (null == remotingCommand.getExtFields()) {
                 remotingCommand.setExtFields(new HashMap<String, String>());
             }
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String name = field.getName();
-                    if (!name.startsWith("this")) {
-                        Object value = null;
-                        try {
-                            field.setAccessible(true);
-                            value = field.get(remotingCommand.getCustomHeader());
-                        } catch (Exception e) {
-                        }
-
-                        if (value != null) {
-                            remotingCommand.getExtFields().put(name, value.toString());
-                        }
-                    }
-                }
-            }
+            getHeaderCodec(customHeader.getClass()).encode(customHeader, remotingCommand.getExtFields());
         }
     }
 
     public static ByteBuffer encodeHeader(RemotingCommand remotingCommand) {
-        int bodyLength = remotingCommand.getBody() != null ? remotingCommand.getBody().length : 0;
-        return encodeHeader(bodyLength, remotingCommand);
+        return encodeHeader(remotingCommand.getBodyLength(), remotingCommand);
     }
 
     public static ByteBuffer encodeHeader(final int bodyLength, RemotingCommand remotingCommand) {
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+
+/**
+ * Codec between one {@link CommandCustomHeader} class and the ext fields of a remoting command.
+ * <p>
+ * Field scanning, access checks and type resolution all happen once when the codec is
+ * built. Afterwards every field is read and written through a pre-adapted {@link MethodHandle} and parsed by a switch
+ * on its resolved type, so no reflection or class-name comparison is left on the request path.
+ */
+class CommandCustomHeaderCodec {
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(CommandCustomHeader.class);
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, CommandCustomHeader.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, CommandCustomHeader.class, Object.class);
+
+    private enum FieldType {
+        STRING, INTEGER, LONG, BOOLEAN, DOUBLE, UNSUPPORTED
+    }
+
+    /**
+     * Null if the header class cannot be instantiated, decoding then yields null like {@code Class.newInstance} did.
+     */
+    private final MethodHandle constructor;
+
+    private final FieldCodec[] fields;
+
+    private CommandCustomHeaderCodec(MethodHandle constructor, FieldCodec[] fields) {
+        this.constructor = constructor;
+        this.fields = fields;
+    }
+
+    static CommandCustomHeaderCodec create(Class<? extends CommandCustomHeader> classHeader) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle constructor = null;
+        try {
+            Constructor<? extends CommandCustomHeader> declared = classHeader.getDeclaredConstructor();
+            declared.setAccessible(true);
+            constructor = lookup.unreflectConstructor(declared).asType(CONSTRUCTOR_TYPE);
+        } catch (Exception e) {
+            // Interfaces, abstract classes and classes without a no-arg constructor are not decodable
+        }
+
+        List<FieldCodec> fieldCodecs = new ArrayList<FieldCodec>();
+        for (Field field : classHeader.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getName().startsWith("this")) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                MethodHandle setter = Modifier.isFinal(field.getModifiers()) ? null : lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                fieldCodecs.add(new FieldCodec(field.getName(), resolveType(field.getType()), getter, setter));
+            } catch (IllegalAccessException e) {
+                // Unreachable once the field is accessible, skip it like the reflective codec skipped failures
+            }
+        }
+        return new CommandCustomHeaderCodec(constructor, fieldCodecs.toArray(new FieldCodec[0]));
+    }
+
+    private static FieldType resolveType(Class<?> type) {
+        if (type == String.class) {
+            return FieldType.STRING;
+        } else if (type == Integer.class || type == int.class) {
+            return FieldType.INTEGER;
+        } else if (type == Long.class || type == long.class) {
+            return FieldType.LONG;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return FieldType.BOOLEAN;
+        } else if (type == Double.class || type == double.class) {
+            return FieldType.DOUBLE;
+        }
+        return FieldType.UNSUPPORTED;
+    }
+
+    /**
+     * Create a header from the given ext fields. Absent, unparsable or unsupported fields are left at their defaults;
+     * validation is up to {@link CommandCustomHeader#checkFields()}, which runs whenever ext fields are present.
+     */
+    CommandCustomHeader decode(Map<String, String> extFields) throws RemotingCommandException {
+        if (constructor == null) {
+            return null;
+        }
+        CommandCustomHeader header;
+        try {
+            header = (CommandCustomHeader) constructor.invokeExact();
+        } catch (Throwable e) {
+            return null;
+        }
+
+        if (extFields != null) {
+            for (FieldCodec field : fields) {
+                String value = extFields.get(field.name);
+                if (value == null || field.setter == null) {
+                    continue;
+                }
+                try {
+                    Object valueParsed = field.parse(value);
+                    if (valueParsed != null) {
+                        field.setter.invokeExact(header, valueParsed);
+                    }
+                } catch (Throwable e) {
+                }
+            }
+
+            header.checkFields();
+        }
+        return header;
+    }
+
+    /**
+     * Write every non-null field of the header into the ext fields as its string form.
+     */
+    void encode(CommandCustomHeader header, HashMap<String, String> extFields) {
+        for (FieldCodec field : fields) {
+            Object value;
+            try {
+                value = field.getter.invokeExact(header);
+            } catch (Throwable e) {
+                continue;
+            }
+            if (value != null) {
+                extFields.put(field.name, value.toString());
+            }
+        }
+    }
+
+    private static class FieldCodec {
+        private final String name;
+        private final FieldType type;
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        FieldCodec(String name, FieldType type, MethodHandle getter, MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        Object parse(String value) {
+            switch (type) {
+                case STRING:
+                    return value;
+                case INTEGER:
+                    return Integer.valueOf(value);
+                case LONG:
+                    return Long.valueOf(value);
+                case BOOLEAN:
+                    return Boolean.valueOf(value);
+                case DOUBLE:
+                    return Double.valueOf(value);
+                default:
+                    return null;
+            }
+        }
+    }
+}
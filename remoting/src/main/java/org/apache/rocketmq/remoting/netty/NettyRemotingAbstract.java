@@ -188,7 +188,8 @@ public abstract class NettyRemotingAbstract {
 
 
     /**
-     * Process incoming request command issued by remote peer.
+     * Process incoming request command issued by remote peer. A body buffer carried by the request is released once
+     * the processor returns.
      *
      * @param remotingChannel channel handler context.
      * @param cmd request command.
@@ -239,11 +240,14 @@ public abstract class NettyRemotingAbstract {
                             response.setOpaque(opaque);
                             ctx.writeAndFlush(response);
                         }
+                    } finally {
+                        cmd.releaseBody();
                     }
                 }
             };
 
             if (pair.getObject1().rejectRequest()) {
+                cmd.releaseBody();
                 final RemotingCommand response = RemotingCommand.createResponseCommand(RemotingSysResponseCode.SYSTEM_BUSY,
                     "[REJECTREQUEST]system busy, start flow control for a while");
                 response.setOpaque(opaque);
@@ -255,6 +259,7 @@ public abstract class NettyRemotingAbstract {
                 final RequestTask requestTask = new RequestTask(run, ctx.channel(), cmd);
                 pair.getObject2().submit(requestTask);
             } catch (RejectedExecutionException e) {
+                cmd.releaseBody();
                 if ((System.currentTimeMillis() % 10000) == 0) {
                     log.warn(RemotingHelper.parseChannelRemoteAddr(ctx.channel())
                         + ", too many requests and system thread pool busy, RejectedExecutionException "
@@ -270,6 +275,7 @@ public abstract class NettyRemotingAbstract {
                 }
             }
         } else {
+            cmd.releaseBody();
             String error = " request type " + cmd.getCode() + " not supported";
             final RemotingCommand response =
                 RemotingCommand.createResponseCommand(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED, error);
@@ -17,6 +17,8 @@
 package org.apache.rocketmq.remoting.protocol;
 
 import com.alibaba.fastjson.annotation.JSONField;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -80,6 +82,13 @@ public class RemotingCommand {
 
     private transient byte[] body;
 
+    /**
+     * Body still held in the inbound frame, set by a decoder running in zero-copy mode. The command owns one reference
+     * which the remoting layer releases once the processor returns; a processor handing the command on asynchronously
+     * must {@link #retainBody()} and {@link #releaseBody()} around it. When present it is what gets written on encode.
+     */
+    private transient ByteBuf bodyBuffer;
+
     public RemotingCommand() {
     }
 
@@ -252,9 +261,40 @@ public class RemotingCommand {
     }
 
     public byte[] getBody() {
+        if (body == null && bodyBuffer != null) {
+            body = ByteBufUtil.getBytes(bodyBuffer);
+        }
         return body;
     }
 
+    @JSONField(serialize = false)
+    public int getBodyLength() {
+        if (bodyBuffer != null) {
+            return bodyBuffer.readableBytes();
+        }
+        return body != null ? body.length : 0;
+    }
+
+    public ByteBuf getBodyBuffer() {
+        return bodyBuffer;
+    }
+
+    public void setBodyBuffer(ByteBuf bodyBuffer) {
+        this.bodyBuffer = bodyBuffer;
+    }
+
+    public void retainBody() {
+        if (bodyBuffer != null) {
+            bodyBuffer.retain();
+        }
+    }
+
+    public void releaseBody() {
+        if (bodyBuffer != null) {
+            bodyBuffer.release();
+        }
+    }
+
     public void setBody(byte[] body) {
         this.body = body;
     }
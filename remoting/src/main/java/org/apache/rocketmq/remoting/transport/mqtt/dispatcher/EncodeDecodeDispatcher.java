@@ -25,6 +25,8 @@ public class EncodeDecodeDispatcher {
 
     private static Map<MqttMessageType, Message2MessageEncodeDecode> encodeDecodeDispatcher = new HashMap<>();
 
+    private static Map<MqttMessageType, PayloadEncodeDecode<?>> payloadEncodeDecodeDispatcher = new HashMap<>();
+
     static {
         encodeDecodeDispatcher.put(MqttMessageType.CONNECT, new MqttConnectEncodeDecode());
         encodeDecodeDispatcher.put(MqttMessageType.CONNACK, new MqttConnectackEncodeDecode());
@@ -40,9 +42,18 @@ public class EncodeDecodeDispatcher {
         encodeDecodeDispatcher.put(MqttMessageType.UNSUBACK, new MqttUnSubackEncodeDecode());
         encodeDecodeDispatcher.put(MqttMessageType.PINGREQ, new MqttPingReqEncodeDecode());
         encodeDecodeDispatcher.put(MqttMessageType.PINGRESP, new MqttPingRespEncodeDecode());
+
+        payloadEncodeDecodeDispatcher.put(MqttMessageType.CONNECT, new MqttConnectPayloadEncodeDecode());
+        payloadEncodeDecodeDispatcher.put(MqttMessageType.SUBSCRIBE, new MqttSubscribePayloadEncodeDecode());
+        payloadEncodeDecodeDispatcher.put(MqttMessageType.SUBACK, new MqttSubAckPayloadEncodeDecode());
+        payloadEncodeDecodeDispatcher.put(MqttMessageType.UNSUBSCRIBE, new MqttUnsubscribePayloadEncodeDecode());
     }
 
     public static Map<MqttMessageType, Message2MessageEncodeDecode> getEncodeDecodeDispatcher() {
         return encodeDecodeDispatcher;
     }
+
+    public static Map<MqttMessageType, PayloadEncodeDecode<?>> getPayloadEncodeDecodeDispatcher() {
+        return payloadEncodeDecodeDispatcher;
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.transport.mqtt.dispatcher;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.mqtt.MqttConnectPayload;
+import org.apache.rocketmq.remoting.util.MqttEncodeDecodeUtil;
+
+public class MqttConnectPayloadEncodeDecode implements PayloadEncodeDecode<MqttConnectPayload> {
+
+    @Override
+    public int encodedLength(MqttConnectPayload payload) {
+        return MqttEncodeDecodeUtil.stringLength(payload.clientIdentifier())
+            + MqttEncodeDecodeUtil.stringLength(payload.willTopic())
+            + MqttEncodeDecodeUtil.bytesLength(payload.willMessageInBytes())
+            + MqttEncodeDecodeUtil.stringLength(payload.userName())
+            + MqttEncodeDecodeUtil.bytesLength(payload.passwordInBytes());
+    }
+
+    @Override
+    public void encode(MqttConnectPayload payload, ByteBuf out) {
+        MqttEncodeDecodeUtil.writeString(out, payload.clientIdentifier());
+        MqttEncodeDecodeUtil.writeString(out, payload.willTopic());
+        MqttEncodeDecodeUtil.writeBytes(out, payload.willMessageInBytes());
+        MqttEncodeDecodeUtil.writeString(out, payload.userName());
+        MqttEncodeDecodeUtil.writeBytes(out, payload.passwordInBytes());
+    }
+
+    @Override
+    public MqttConnectPayload decode(ByteBuf in) {
+        String clientIdentifier = MqttEncodeDecodeUtil.readString(in);
+        String willTopic = MqttEncodeDecodeUtil.readString(in);
+        byte[] willMessage = MqttEncodeDecodeUtil.readBytes(in);
+        String userName = MqttEncodeDecodeUtil.readString(in);
+        byte[] password = MqttEncodeDecodeUtil.readBytes(in);
+        return new MqttConnectPayload(clientIdentifier, willTopic, willMessage, userName, password);
+    }
+}
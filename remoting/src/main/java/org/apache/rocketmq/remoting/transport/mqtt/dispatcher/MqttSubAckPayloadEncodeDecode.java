@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.transport.mqtt.dispatcher;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.mqtt.MqttSubAckPayload;
+
+public class MqttSubAckPayloadEncodeDecode implements PayloadEncodeDecode<MqttSubAckPayload> {
+
+    @Override
+    public int encodedLength(MqttSubAckPayload payload) {
+        return 4 + payload.grantedQoSLevels().size();
+    }
+
+    @Override
+    public void encode(MqttSubAckPayload payload, ByteBuf out) {
+        out.writeInt(payload.grantedQoSLevels().size());
+        for (Integer qos : payload.grantedQoSLevels()) {
+            out.writeByte(qos);
+        }
+    }
+
+    @Override
+    public MqttSubAckPayload decode(ByteBuf in) {
+        int[] grantedQoSLevels = new int[in.readInt()];
+        for (int i = 0; i < grantedQoSLevels.length; i++) {
+            grantedQoSLevels[i] = in.readUnsignedByte();
+        }
+        return new MqttSubAckPayload(grantedQoSLevels);
+    }
+}
@@ -44,6 +44,6 @@ public class MqttSubackEncodeDecode implements Message2MessageEncodeDecode {
             new MqttFixedHeader(MqttMessageType.SUBACK, mqttHeader.isDup(),
                 MqttQoS.valueOf(mqttHeader.getQosLevel()), mqttHeader.isRetain(),
                 mqttHeader.getRemainingLength()),
-            MqttMessageIdVariableHeader.from(mqttHeader.getMessageId()), (MqttSubAckPayload) MqttEncodeDecodeUtil.decode(remotingCommand.getBody(),MqttSubAckPayload.class));
+            MqttMessageIdVariableHeader.from(mqttHeader.getMessageId()), MqttEncodeDecodeUtil.<MqttSubAckPayload>decode(MqttMessageType.SUBACK, remotingCommand.getBody()));
     }
 }
@@ -20,6 +20,7 @@ package org.apache.rocketmq.remoting.transport.mqtt.dispatcher;
 import io.netty.handler.codec.mqtt.MqttFixedHeader;
 import io.netty.handler.codec.mqtt.MqttMessage;
 import io.netty.handler.codec.mqtt.MqttMessageIdVariableHeader;
+import io.netty.handler.codec.mqtt.MqttMessageType;
 import io.netty.handler.codec.mqtt.MqttUnsubscribeMessage;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.remoting.transport.mqtt.MqttHeader;
@@ -43,7 +44,7 @@ public class MqttUnSubscribeEncodeDecode implements Message2MessageEncodeDecode
         mqttHeader.setMessageId(variableHeader.messageId());
 
         requestCommand = RemotingCommand.createRequestCommand(1000, mqttHeader);
-        requestCommand.setBody(MqttEncodeDecodeUtil.encode(((MqttUnsubscribeMessage) mqttMessage).payload()));
+        requestCommand.setBody(MqttEncodeDecodeUtil.encode(MqttMessageType.UNSUBSCRIBE, ((MqttUnsubscribeMessage) mqttMessage).payload()));
         return requestCommand;
     }
 
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.transport.mqtt.dispatcher;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.mqtt.MqttUnsubscribePayload;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.remoting.util.MqttEncodeDecodeUtil;
+
+public class MqttUnsubscribePayloadEncodeDecode implements PayloadEncodeDecode<MqttUnsubscribePayload> {
+
+    @Override
+    public int encodedLength(MqttUnsubscribePayload payload) {
+        int length = 4;
+        for (String topic : payload.topics()) {
+            length += MqttEncodeDecodeUtil.stringLength(topic);
+        }
+        return length;
+    }
+
+    @Override
+    public void encode(MqttUnsubscribePayload payload, ByteBuf out) {
+        out.writeInt(payload.topics().size());
+        for (String topic : payload.topics()) {
+            MqttEncodeDecodeUtil.writeString(out, topic);
+        }
+    }
+
+    @Override
+    public MqttUnsubscribePayload decode(ByteBuf in) {
+        int size = in.readInt();
+        List<String> topics = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            topics.add(MqttEncodeDecodeUtil.readString(in));
+        }
+        return new MqttUnsubscribePayload(topics);
+    }
+}
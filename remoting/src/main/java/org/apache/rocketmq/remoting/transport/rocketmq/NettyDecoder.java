@@ -19,12 +19,12 @@ package org.apache.rocketmq.remoting.transport.rocketmq;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import java.nio.ByteBuffer;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
 import org.apache.rocketmq.remoting.netty.CodecHelper;
+import org.apache.rocketmq.remoting.netty.NettySystemConfig;
 
 public class NettyDecoder extends LengthFieldBasedFrameDecoder {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
@@ -32,8 +32,18 @@ public class NettyDecoder extends LengthFieldBasedFrameDecoder {
     private static final int FRAME_MAX_LENGTH =
         Integer.parseInt(System.getProperty("com.rocketmq.remoting.frameMaxLength", "16777216"));
 
+    private final boolean zeroCopyBody;
+
     public NettyDecoder() {
+        this(NettySystemConfig.ZERO_COPY_BODY_ENABLE);
+    }
+
+    /**
+     * @param zeroCopyBody Keep request bodies as retained slices of the inbound frame instead of copying them out.
+     */
+    public NettyDecoder(boolean zeroCopyBody) {
         super(FRAME_MAX_LENGTH, 0, 4, 0, 4);
+        this.zeroCopyBody = zeroCopyBody;
     }
 
     @Override
@@ -45,8 +55,7 @@ public class NettyDecoder extends LengthFieldBasedFrameDecoder {
                 return null;
             }
 
-            ByteBuffer byteBuffer = frame.nioBuffer();
-            return CodecHelper.decode(byteBuffer);
+            return CodecHelper.decode(frame, zeroCopyBody);
         } catch (Exception e) {
             log.error("decode exception, " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
             RemotingUtil.closeChannel(ctx.channel());
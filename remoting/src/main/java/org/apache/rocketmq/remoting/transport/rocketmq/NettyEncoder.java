@@ -18,8 +18,9 @@ package org.apache.rocketmq.remoting.transport.rocketmq;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 import java.nio.ByteBuffer;
+import java.util.List;
 import org.apache.rocketmq.remoting.common.RemotingHelper;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
 import org.apache.rocketmq.logging.InternalLogger;
@@ -27,17 +28,27 @@ import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.netty.CodecHelper;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 
-public class NettyEncoder extends MessageToByteEncoder<RemotingCommand> {
+public class NettyEncoder extends MessageToMessageEncoder<RemotingCommand> {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(RemotingHelper.ROCKETMQ_REMOTING);
 
     @Override
-    public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, ByteBuf out) {
+    public void encode(ChannelHandlerContext ctx, RemotingCommand remotingCommand, List<Object> out) {
         try {
             ByteBuffer byteBuffer = CodecHelper.encodeHeader(remotingCommand);
-            out.writeBytes(byteBuffer);
-            byte[] body = remotingCommand.getBody();
-            if (body != null) {
-                out.writeBytes(body);
+            ByteBuf bodyBuffer = remotingCommand.getBodyBuffer();
+            if (bodyBuffer != null) {
+                // Chain the body buffer behind the header instead of copying it, the duplicate is released once written
+                ByteBuf header = ctx.alloc().ioBuffer(byteBuffer.remaining());
+                header.writeBytes(byteBuffer);
+                out.add(ctx.alloc().compositeDirectBuffer(2).addComponents(true, header, bodyBuffer.retainedDuplicate()));
+            } else {
+                byte[] body = remotingCommand.getBody();
+                ByteBuf frame = ctx.alloc().ioBuffer(byteBuffer.remaining() + (body != null ? body.length : 0));
+                frame.writeBytes(byteBuffer);
+                if (body != null) {
+                    frame.writeBytes(body);
+                }
+                out.add(frame);
             }
         } catch (Exception e) {
             log.error("encode exception, " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
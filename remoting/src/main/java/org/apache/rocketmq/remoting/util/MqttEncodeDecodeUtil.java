@@ -14,25 +14,98 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.apache.rocketmq.remoting.util;
 
-import com.google.gson.Gson;
-import java.nio.charset.Charset;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.util.CharsetUtil;
+import org.apache.rocketmq.remoting.transport.mqtt.dispatcher.EncodeDecodeDispatcher;
+import org.apache.rocketmq.remoting.transport.mqtt.dispatcher.PayloadEncodeDecode;
 
+/**
+ * Encodes MQTT payloads to the body of a {@code RemotingCommand} and back with the binary {@link PayloadEncodeDecode}
+ * registered for the message type in {@link EncodeDecodeDispatcher}.
+ * <p>
+ * Strings are written as an int UTF-8 length followed by the bytes, byte arrays as an int length followed by the
+ * bytes, a length of -1 standing for null.
+ */
 public class MqttEncodeDecodeUtil {
-    private static final Gson GSON = new Gson();
 
-    public static byte[] encode(Object object) {
-        final String json = GSON.toJson(object);
-        if (json != null) {
-            return json.getBytes(Charset.forName("UTF-8"));
+    @SuppressWarnings("unchecked")
+    public static byte[] encode(MqttMessageType messageType, Object payload) {
+        if (payload == null) {
+            return null;
+        }
+        PayloadEncodeDecode<Object> payloadEncodeDecode = (PayloadEncodeDecode<Object>) getPayloadEncodeDecode(messageType);
+        byte[] body = new byte[payloadEncodeDecode.encodedLength(payload)];
+        ByteBuf out = Unpooled.wrappedBuffer(body);
+        out.writerIndex(0);
+        payloadEncodeDecode.encode(payload, out);
+        return body;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T decode(MqttMessageType messageType, byte[] body) {
+        if (body == null) {
+            return null;
+        }
+        return (T) getPayloadEncodeDecode(messageType).decode(Unpooled.wrappedBuffer(body));
+    }
+
+    private static PayloadEncodeDecode<?> getPayloadEncodeDecode(MqttMessageType messageType) {
+        PayloadEncodeDecode<?> payloadEncodeDecode = EncodeDecodeDispatcher.getPayloadEncodeDecodeDispatcher().get(messageType);
+        if (payloadEncodeDecode == null) {
+            throw new IllegalArgumentException("No payload codec registered for MQTT message type " + messageType);
+        }
+        return payloadEncodeDecode;
+    }
+
+    public static int stringLength(String value) {
+        return 4 + (value == null ? 0 : ByteBufUtil.utf8Bytes(value));
+    }
+
+    public static void writeString(ByteBuf out, String value) {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        int length = ByteBufUtil.utf8Bytes(value);
+        out.writeInt(length);
+        ByteBufUtil.reserveAndWriteUtf8(out, value, length);
+    }
+
+    public static String readString(ByteBuf in) {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
         }
-        return null;
+        String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+        in.skipBytes(length);
+        return value;
     }
 
-    public static <T> Object decode(byte[] body, Class<T> classOfT) {
-        final String json = new String(body, Charset.forName("UTF-8"));
-        return GSON.fromJson(json, classOfT);
+    public static int bytesLength(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    public static void writeBytes(ByteBuf out, byte[] value) {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.writeBytes(value);
+    }
+
+    public static byte[] readBytes(ByteBuf in) {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readBytes(value);
+        return value;
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.netty;
+
+import java.nio.ByteBuffer;
+import org.apache.rocketmq.remoting.CommandCustomHeader;
+import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CodecHelperTest {
+
+    @Test
+    public void testEncodeDecodeCustomHeader() throws Exception {
+        SampleHeader header = new SampleHeader();
+        header.stringValue = "topic";
+        header.intValue = 7;
+        header.integerValue = 8;
+        header.longValue = Long.MAX_VALUE;
+        header.boxedLongValue = -1L;
+        header.booleanValue = true;
+        header.doubleValue = 0.618;
+
+        RemotingCommand request = RemotingCommand.createRequestCommand(10, header);
+        request.setBody(new byte[] {1, 2, 3});
+        ByteBuffer frame = CodecHelper.encode(request);
+        frame.getInt();
+        RemotingCommand decoded = CodecHelper.decode(frame.slice());
+
+        assertThat(decoded.getExtFields()).containsEntry("stringValue", "topic").containsEntry("longValue",
+            String.valueOf(Long.MAX_VALUE)).doesNotContainKey("nullValue").doesNotContainKey("CONSTANT");
+        SampleHeader decodedHeader = (SampleHeader) decoded.decodeCommandCustomHeader(SampleHeader.class);
+        assertThat(decodedHeader.stringValue).isEqualTo("topic");
+        assertThat(decodedHeader.intValue).isEqualTo(7);
+        assertThat(decodedHeader.integerValue).isEqualTo(8);
+        assertThat(decodedHeader.longValue).isEqualTo(Long.MAX_VALUE);
+        assertThat(decodedHeader.boxedLongValue).isEqualTo(-1L);
+        assertThat(decodedHeader.booleanValue).isTrue();
+        assertThat(decodedHeader.doubleValue).isEqualTo(0.618);
+        assertThat(decodedHeader.nullValue).isNull();
+        assertThat(decodedHeader.checked).isTrue();
+    }
+
+    @Test
+    public void testDecodeSkipsAbsentAndMalformedFields() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(10, null);
+        request.addExtField("intValue", "not a number");
+        request.addExtField("stringValue", "topic");
+
+        SampleHeader header = (SampleHeader) request.decodeCommandCustomHeader(SampleHeader.class);
+        assertThat(header.stringValue).isEqualTo("topic");
+        assertThat(header.intValue).isEqualTo(0);
+        assertThat(header.integerValue).isNull();
+    }
+
+    @Test
+    public void testDecodeWithoutExtFields() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(10, null);
+        SampleHeader header = (SampleHeader) request.decodeCommandCustomHeader(SampleHeader.class);
+        assertThat(header).isNotNull();
+        assertThat(header.checked).isFalse();
+    }
+
+    @Test
+    public void testDecodeNotInstantiableHeader() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(10, null);
+        request.addExtField("stringValue", "topic");
+        assertThat(request.decodeCommandCustomHeader(CommandCustomHeader.class)).isNull();
+    }
+
+    static class SampleHeader implements CommandCustomHeader {
+        static final String CONSTANT = "constant";
+
+        private String stringValue;
+        private int intValue;
+        private Integer integerValue;
+        private long longValue;
+        private Long boxedLongValue;
+        private boolean booleanValue;
+        private double doubleValue;
+        private String nullValue;
+        private transient boolean checked;
+
+        @Override
+        public void checkFields() throws RemotingCommandException {
+            checked = true;
+        }
+    }
+}
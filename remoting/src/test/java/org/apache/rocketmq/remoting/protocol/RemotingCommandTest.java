@@ -16,10 +16,7 @@
  */
 package org.apache.rocketmq.remoting.protocol;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import org.apache.rocketmq.remoting.CommandCustomHeader;
-import org.apache.rocketmq.remoting.annotation.CFNotNull;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.netty.CodecHelper;
 import org.apache.rocketmq.remoting.serialize.SerializeType;
@@ -102,35 +99,6 @@ public class RemotingCommandTest {
         assertThat(cmd.getRemark()).contains("not set any response code");
         assertThat(cmd.getFlag() & 0x01).isEqualTo(1); //flag bit 0: 1 presents response
     }
-
-
-
-
-    @Test
-    public void testNotNullField() throws Exception {
-        RemotingCommand remotingCommand = new RemotingCommand();
-        Method method = CodecHelper.class.getDeclaredMethod("isFieldNullable", Field.class);
-        method.setAccessible(true);
-
-        Field nullString = FieldTestClass.class.getDeclaredField("nullString");
-        assertThat(method.invoke(remotingCommand, nullString)).isEqualTo(false);
-
-        Field nullableString = FieldTestClass.class.getDeclaredField("nullable");
-        assertThat(method.invoke(remotingCommand, nullableString)).isEqualTo(true);
-
-        Field value = FieldTestClass.class.getDeclaredField("value");
-        assertThat(method.invoke(remotingCommand, value)).isEqualTo(false);
-    }
-}
-
-class FieldTestClass {
-    @CFNotNull
-    String nullString = null;
-
-    String nullable = null;
-
-    @CFNotNull
-    String value = "NotNull";
 }
 
 class SampleCommandCustomHeader implements CommandCustomHeader {
@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.transport.rocketmq;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ResourceLeakDetector;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NettyCodecTest {
+
+    private static ResourceLeakDetector.Level leakDetectionLevel;
+
+    @BeforeClass
+    public static void enableLeakDetection() {
+        leakDetectionLevel = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    }
+
+    @AfterClass
+    public static void restoreLeakDetection() {
+        ResourceLeakDetector.setLevel(leakDetectionLevel);
+    }
+
+    @Test
+    public void testZeroCopyDecodeKeepsRequestBodyInFrame() {
+        ByteBuf frame = encode(createRequest(new byte[] {1, 2, 3}));
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyDecoder(true));
+        channel.writeInbound(frame);
+        RemotingCommand request = channel.readInbound();
+
+        ByteBuf bodyBuffer = request.getBodyBuffer();
+        assertThat(bodyBuffer).isNotNull();
+        assertThat(bodyBuffer.refCnt()).isEqualTo(1);
+        assertThat(request.getBodyLength()).isEqualTo(3);
+        assertThat(request.getBody()).containsExactly(1, 2, 3);
+
+        request.releaseBody();
+        assertThat(frame.refCnt()).isEqualTo(0);
+        assertThat(channel.finish()).isFalse();
+    }
+
+    @Test
+    public void testZeroCopyDecodeCopiesResponseBody() {
+        RemotingCommand response = RemotingCommand.createResponseCommand(0, null);
+        response.setBody(new byte[] {4, 5});
+        ByteBuf frame = encode(response);
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyDecoder(true));
+        channel.writeInbound(frame);
+        RemotingCommand decoded = channel.readInbound();
+
+        assertThat(decoded.getBodyBuffer()).isNull();
+        assertThat(decoded.getBody()).containsExactly(4, 5);
+        assertThat(frame.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void testDefaultDecodeCopiesRequestBody() {
+        ByteBuf frame = encode(createRequest(new byte[] {1, 2, 3}));
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyDecoder(false));
+        channel.writeInbound(frame);
+        RemotingCommand request = channel.readInbound();
+
+        assertThat(request.getBodyBuffer()).isNull();
+        assertThat(request.getBody()).containsExactly(1, 2, 3);
+        assertThat(frame.refCnt()).isEqualTo(0);
+    }
+
+    @Test
+    public void testEncodeChainsBodyBufferWithoutCopy() {
+        ByteBuf body = PooledByteBufAllocator.DEFAULT.directBuffer(3).writeBytes(new byte[] {7, 8, 9});
+        RemotingCommand request = createRequest(null);
+        request.setBodyBuffer(body);
+
+        ByteBuf out = encode(request);
+        assertThat(out).isInstanceOf(CompositeByteBuf.class);
+        assertThat(((CompositeByteBuf) out).numComponents()).isEqualTo(2);
+        assertThat(out.isDirect()).isTrue();
+        assertThat(body.refCnt()).isEqualTo(2);
+        assertThat(body.readableBytes()).isEqualTo(3);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyDecoder(false));
+        channel.writeInbound(out);
+        RemotingCommand decoded = channel.readInbound();
+        assertThat(decoded.getBody()).containsExactly(7, 8, 9);
+        assertThat(decoded.getCode()).isEqualTo(request.getCode());
+
+        assertThat(body.refCnt()).isEqualTo(1);
+        request.releaseBody();
+        assertThat(body.refCnt()).isEqualTo(0);
+    }
+
+    private static RemotingCommand createRequest(byte[] body) {
+        RemotingCommand request = RemotingCommand.createRequestCommand(310, null);
+        request.addExtField("topic", "TopicTest");
+        request.setBody(body);
+        return request;
+    }
+
+    private static ByteBuf encode(RemotingCommand command) {
+        EmbeddedChannel channel = new EmbeddedChannel(new NettyEncoder());
+        channel.writeOutbound(command);
+        ByteBuf out = channel.readOutbound();
+        assertThat(channel.finish()).isFalse();
+        return out;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.remoting.util;
+
+import io.netty.handler.codec.mqtt.MqttConnectPayload;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.handler.codec.mqtt.MqttSubAckPayload;
+import io.netty.handler.codec.mqtt.MqttSubscribePayload;
+import io.netty.handler.codec.mqtt.MqttTopicSubscription;
+import io.netty.handler.codec.mqtt.MqttUnsubscribePayload;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MqttEncodeDecodeUtilTest {
+
+    @Test
+    public void testConnectPayload() {
+        MqttConnectPayload payload = new MqttConnectPayload("client\u4e2d", "will/topic", "bye".getBytes(), "user", "secret".getBytes());
+        MqttConnectPayload decoded = MqttEncodeDecodeUtil.decode(MqttMessageType.CONNECT, MqttEncodeDecodeUtil.encode(MqttMessageType.CONNECT, payload));
+        assertThat(decoded.clientIdentifier()).isEqualTo("client\u4e2d");
+        assertThat(decoded.willTopic()).isEqualTo("will/topic");
+        assertThat(decoded.willMessageInBytes()).isEqualTo("bye".getBytes());
+        assertThat(decoded.userName()).isEqualTo("user");
+        assertThat(decoded.passwordInBytes()).isEqualTo("secret".getBytes());
+
+        payload = new MqttConnectPayload("client", null, (byte[]) null, null, (byte[]) null);
+        decoded = MqttEncodeDecodeUtil.decode(MqttMessageType.CONNECT, MqttEncodeDecodeUtil.encode(MqttMessageType.CONNECT, payload));
+        assertThat(decoded.clientIdentifier()).isEqualTo("client");
+        assertThat(decoded.willTopic()).isNull();
+        assertThat(decoded.willMessageInBytes()).isNull();
+        assertThat(decoded.userName()).isNull();
+        assertThat(decoded.passwordInBytes()).isNull();
+    }
+
+    @Test
+    public void testSubscribePayload() {
+        MqttSubscribePayload payload = new MqttSubscribePayload(Arrays.asList(new MqttTopicSubscription("topic/a", MqttQoS.AT_MOST_ONCE),
+            new MqttTopicSubscription("topic/#", MqttQoS.AT_LEAST_ONCE)));
+        MqttSubscribePayload decoded = MqttEncodeDecodeUtil.decode(MqttMessageType.SUBSCRIBE, MqttEncodeDecodeUtil.encode(MqttMessageType.SUBSCRIBE, payload));
+        assertThat(decoded.topicSubscriptions()).hasSize(2);
+        assertThat(decoded.topicSubscriptions().get(0).topicName()).isEqualTo("topic/a");
+        assertThat(decoded.topicSubscriptions().get(0).qualityOfService()).isEqualTo(MqttQoS.AT_MOST_ONCE);
+        assertThat(decoded.topicSubscriptions().get(1).topicName()).isEqualTo("topic/#");
+        assertThat(decoded.topicSubscriptions().get(1).qualityOfService()).isEqualTo(MqttQoS.AT_LEAST_ONCE);
+    }
+
+    @Test
+    public void testSubAckAndUnsubscribePayload() {
+        MqttSubAckPayload subAckPayload = new MqttSubAckPayload(0, 1, MqttQoS.FAILURE.value());
+        MqttSubAckPayload decodedSubAck = MqttEncodeDecodeUtil.decode(MqttMessageType.SUBACK, MqttEncodeDecodeUtil.encode(MqttMessageType.SUBACK, subAckPayload));
+        assertThat(decodedSubAck.grantedQoSLevels()).containsExactly(0, 1, MqttQoS.FAILURE.value());
+
+        MqttUnsubscribePayload unsubscribePayload = new MqttUnsubscribePayload(Arrays.asList("topic/a", "topic/+"));
+        MqttUnsubscribePayload decodedUnsubscribe = MqttEncodeDecodeUtil.decode(MqttMessageType.UNSUBSCRIBE, MqttEncodeDecodeUtil.encode(MqttMessageType.UNSUBSCRIBE, unsubscribePayload));
+        assertThat(decodedUnsubscribe.topics()).containsExactly("topic/a", "topic/+");
+    }
+
+    @Test
+    public void testNull() {
+        assertThat(MqttEncodeDecodeUtil.encode(MqttMessageType.CONNECT, null)).isNull();
+        assertThat((Object) MqttEncodeDecodeUtil.decode(MqttMessageType.CONNECT, null)).isNull();
+    }
+}
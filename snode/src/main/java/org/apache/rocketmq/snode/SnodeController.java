@@ -41,6 +41,8 @@ import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.mqtt.processor.DefaultMqttMessageProcessor;
 import org.apache.rocketmq.mqtt.processor.InnerMqttMessageProcessor;
+import org.apache.rocketmq.mqtt.service.MqttTransferService;
+import org.apache.rocketmq.mqtt.service.impl.MqttTransferServiceImpl;
 import org.apache.rocketmq.remoting.ClientConfig;
 import org.apache.rocketmq.remoting.RemotingClient;
 import org.apache.rocketmq.remoting.RemotingClientFactory;
@@ -113,6 +115,7 @@ public class SnodeController {
     private HeartbeatProcessor heartbeatProcessor;
     private DefaultMqttMessageProcessor defaultMqttMessageProcessor;
     private InnerMqttMessageProcessor innerMqttMessageProcessor;
+    private MqttTransferService mqttTransferService;
     private InterceptorGroup remotingServerInterceptorGroup;
     private InterceptorGroup consumeMessageInterceptorGroup;
     private InterceptorGroup sendMessageInterceptorGroup;
@@ -221,6 +224,8 @@ public class SnodeController {
         this.heartbeatProcessor = new HeartbeatProcessor(this);
         this.pullMessageProcessor = new PullMessageProcessor(this);
         this.defaultMqttMessageProcessor = new DefaultMqttMessageProcessor(this.mqttConfig, this.snodeConfig, mqttRemotingServer, enodeService, nnodeService);
+        this.mqttTransferService = new MqttTransferServiceImpl(this.mqttConfig, this.remotingClient);
+        this.defaultMqttMessageProcessor.setMqttTransferService(this.mqttTransferService);
         this.innerMqttMessageProcessor = new InnerMqttMessageProcessor(this.defaultMqttMessageProcessor, innerMqttRemotingServer);
         this.pushService = new PushServiceImpl(this);
         this.clientService = new ClientServiceImpl(this);
@@ -357,6 +362,7 @@ public class SnodeController {
             this.snodeServer.registerProcessor(RequestCode.CREATE_RETRY_TOPIC, consumerManageProcessor, this.consumerManageExecutor);
             this.snodeServer.registerProcessor(RequestCode.LOCK_BATCH_MQ, consumerManageProcessor, this.consumerManageExecutor);
             this.snodeServer.registerProcessor(RequestCode.UNLOCK_BATCH_MQ, consumerManageProcessor, this.consumerManageExecutor);
+            this.snodeServer.registerProcessor(RequestCode.MQTT_TRANSFER_MESSAGE, innerMqttMessageProcessor, this.handleMqttMessageExecutor);
         }
         if (mqttRemotingServer != null) {
             this.mqttRemotingServer.registerProcessor(RequestCode.MQTT_MESSAGE, defaultMqttMessageProcessor, handleMqttMessageExecutor);
@@ -378,6 +384,7 @@ public class SnodeController {
             this.mqttRemotingClient.start();
         }
         this.scheduledService.startScheduleTask();
+        this.consumerOffsetManager.start();
         this.clientHousekeepingService.start(this.snodeConfig.getHouseKeepingInterval());
         this.metricsService.start(this.snodeConfig.getMetricsExportPort());
     }
@@ -398,6 +405,12 @@ public class SnodeController {
         if (this.scheduledExecutorService != null) {
             this.scheduledExecutorService.shutdown();
         }
+        if (this.consumerOffsetManager != null) {
+            this.consumerOffsetManager.shutdown();
+        }
+        if (this.mqttTransferService != null) {
+            this.mqttTransferService.shutdown();
+        }
         if (this.remotingClient != null) {
             this.remotingClient.shutdown();
         }
@@ -23,6 +23,7 @@ import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.snode.SnodeController;
 import org.apache.rocketmq.snode.client.SlowConsumerService;
+import org.apache.rocketmq.snode.exception.SnodeException;
 
 public class SlowConsumerServiceImpl implements SlowConsumerService {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.SNODE_LOGGER_NAME);
@@ -36,7 +37,13 @@ public class SlowConsumerServiceImpl implements SlowConsumerService {
     @Override
     public boolean isSlowConsumer(long currentOffset, String topic, int queueId,
         String consumerGroup, String enodeName) {
-        long ackedOffset = this.snodeController.getConsumerOffsetManager().queryCacheOffset(enodeName, consumerGroup, topic, queueId);
+        long ackedOffset;
+        try {
+            ackedOffset = this.snodeController.getConsumerOffsetManager().queryCacheOffset(enodeName, consumerGroup, topic, queueId);
+        } catch (SnodeException ex) {
+            log.warn("[SlowConsumer] acked offset of group: {} unknown, {}", consumerGroup, ex.getMessage());
+            return false;
+        }
         if (currentOffset - ackedOffset > snodeController.getSnodeConfig().getSlowConsumerThreshold()) {
             log.warn("[SlowConsumer] group: {}, lastAckedOffset:{} nowOffset:{} ", consumerGroup, ackedOffset, currentOffset);
             return true;
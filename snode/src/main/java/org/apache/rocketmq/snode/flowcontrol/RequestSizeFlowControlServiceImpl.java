@@ -41,10 +41,7 @@ public class RequestSizeFlowControlServiceImpl extends AbstractFlowControlServic
      */
     @Override
     public int getResourceCount(RequestContext requestContext) {
-        if (requestContext.getRequest().getBody() != null) {
-            return requestContext.getRequest().getBody().length / 1024;
-        }
-        return 0;
+        return requestContext.getRequest().getBodyLength() / 1024;
     }
 
     @Override
@@ -16,16 +16,39 @@
  */
 package org.apache.rocketmq.snode.offset;
 
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.utils.ThreadUtils;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.snode.SnodeController;
+import org.apache.rocketmq.snode.constant.SnodeConstant;
 import org.apache.rocketmq.snode.exception.SnodeException;
 
+/**
+ * Snode side cache of consumer offsets.
+ * <p>
+ * Reads are served locally while the cached entry is younger than {@code loadOffsetInterval}. Stale entries are still
+ * returned, and refreshed from the enode in background; a refresh takes the enode offset, which may have been reset,
+ * unless a committed offset is not persisted yet. Concurrent
+ * misses on the same queue share one enode query, and fail with a {@link SnodeException} when it fails.
+ * Committed offsets are marked dirty and persisted to the enodes every {@code persistOffsetInterval}, so that
+ * successive commits of one queue only cost one request.
+ */
 public class ConsumerOffsetManager {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.SNODE_LOGGER_NAME);
     private static final String TOPIC_GROUP_SEPARATOR = "@";
@@ -35,8 +58,57 @@ public class ConsumerOffsetManager {
 
     private SnodeController snodeController;
 
+    private final AtomicLong cacheHitTimes = new AtomicLong(0);
+    private final AtomicLong cacheMissTimes = new AtomicLong(0);
+    private final AtomicLong cacheRefreshTimes = new AtomicLong(0);
+    private final AtomicLong persistTimes = new AtomicLong(0);
+
+    private final ExecutorService refreshOffsetExecutor;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "SnodeOffsetScheduledThread");
+        }
+    });
+
     public ConsumerOffsetManager(SnodeController brokerController) {
         this.snodeController = brokerController;
+        this.refreshOffsetExecutor = ThreadUtils.newThreadPoolExecutor(
+            1,
+            brokerController.getSnodeConfig().getSnodeOffsetRefreshMaxPoolSize(),
+            1000 * 60,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(brokerController.getSnodeConfig().getSnodeOffsetRefreshThreadPoolQueueCapacity()),
+            "SnodeOffsetRefreshThread",
+            true);
+    }
+
+    public void start() {
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    persistAll();
+                } catch (Throwable e) {
+                    log.error("Persist consumer offset error", e);
+                }
+            }
+        }, 1000 * 10, this.snodeController.getSnodeConfig().getPersistOffsetInterval(), TimeUnit.MILLISECONDS);
+
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                log.info("[OffsetCache] hit: {}, miss: {}, refresh: {}, persist: {}",
+                    cacheHitTimes.get(), cacheMissTimes.get(), cacheRefreshTimes.get(), persistTimes.get());
+            }
+        }, 1000 * 60, 1000 * 60, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        this.scheduledExecutorService.shutdown();
+        this.refreshOffsetExecutor.shutdown();
+        persistAll();
     }
 
     private String buildKey(final String enodeName, final String topic, final String consumerGroup) {
@@ -50,6 +122,16 @@ public class ConsumerOffsetManager {
         return sb.toString();
     }
 
+    private ConcurrentMap<Integer, CacheOffset> getOrCreateQueueTable(final String key) {
+        ConcurrentMap<Integer, CacheOffset> map = this.offsetTable.get(key);
+        if (null == map) {
+            map = new ConcurrentHashMap<>(32);
+            ConcurrentMap<Integer, CacheOffset> prev = this.offsetTable.putIfAbsent(key, map);
+            map = prev != null ? prev : map;
+        }
+        return map;
+    }
+
     public void cacheOffset(final String enodeName, final String clientHost, final String group, final String topic,
         final int queueId,
         final long offset) {
@@ -58,64 +140,138 @@ public class ConsumerOffsetManager {
         this.commitOffset(clientHost, key, queueId, offset);
     }
 
-    private void commitOffset(final String clientHost, final String key, final int queueId, final long offset) {
-        ConcurrentMap<Integer, CacheOffset> map = this.offsetTable.get(key);
+    private CacheOffset commitOffset(final String clientHost, final String key, final int queueId,
+        final long offset) {
+        ConcurrentMap<Integer, CacheOffset> map = getOrCreateQueueTable(key);
         CacheOffset cacheOffset = new CacheOffset(key, offset, System.currentTimeMillis());
-        if (null == map) {
-            map = new ConcurrentHashMap<>(32);
-            ConcurrentMap<Integer, CacheOffset> prev = this.offsetTable.putIfAbsent(key, map);
-            map = prev != null ? prev : map;
-            map.put(queueId, cacheOffset);
-        } else {
-            CacheOffset storeOffset = map.put(queueId, cacheOffset);
-            if (storeOffset != null && offset < storeOffset.getOffset()) {
-                log.warn("[NOTIFYME]update consumer offset less than store. clientHost: {}, key: {}, queueId: {}, requestOffset: {}, storeOffset: {}",
-                    clientHost, key, queueId, offset, storeOffset);
-            }
+        cacheOffset.markLoaded();
+        CacheOffset storeOffset = map.put(queueId, cacheOffset);
+        if (storeOffset != null && offset < storeOffset.getOffset()) {
+            log.warn("[NOTIFYME]update consumer offset less than store. clientHost: {}, key: {}, queueId: {}, requestOffset: {}, storeOffset: {}",
+                clientHost, key, queueId, offset, storeOffset.getOffset());
         }
+        return cacheOffset;
     }
 
     public long queryCacheOffset(final String enodeName, final String group, final String topic, final int queueId) {
         String key = buildKey(enodeName, topic, group);
-        ConcurrentMap<Integer, CacheOffset> map = this.offsetTable.get(key);
-        if (map == null) {
-            map = new ConcurrentHashMap<>();
-            map = this.offsetTable.putIfAbsent(key, map);
-        }
+        ConcurrentMap<Integer, CacheOffset> map = getOrCreateQueueTable(key);
         CacheOffset cacheOffset = map.get(queueId);
-        try {
-            if (cacheOffset != null) {
-                if (!this.snodeController.getSnodeConfig().isEmbeddedModeEnable() && System.currentTimeMillis() - cacheOffset.getUpdateTimestamp() > snodeController.getSnodeConfig().getLoadOffsetInterval()) {
-                    long offset = this.snodeController.getEnodeService().queryOffset(enodeName, group, topic, queueId);
-                    cacheOffset.setOffset(offset);
-                    cacheOffset.setUpdateTimestamp(System.currentTimeMillis());
-                } else {
-                    long offset = this.snodeController.getEnodeService().queryOffset(enodeName, group, topic, queueId);
-                    cacheOffset.setOffset(offset);
+        if (cacheOffset == null) {
+            CacheOffset loading = new CacheOffset(key, -1, 0);
+            cacheOffset = map.putIfAbsent(queueId, loading);
+            if (cacheOffset == null) {
+                this.cacheMissTimes.incrementAndGet();
+                try {
+                    loading.setOffset(this.snodeController.getEnodeService().queryOffset(enodeName, group, topic, queueId));
+                    loading.setUpdateTimestamp(System.currentTimeMillis());
+                } catch (Exception ex) {
+                    map.remove(queueId, loading);
+                    loading.markLoadFailed();
+                    log.warn("Load offset error, enodeName: {}, group:{},topic:{} queueId:{}", enodeName, group, topic, queueId);
+                    throw new SnodeException(ResponseCode.SYSTEM_ERROR, "Load offset from enode error!");
+                } finally {
+                    loading.markLoaded();
                 }
-            } else {
-                long offset = this.snodeController.getEnodeService().queryOffset(enodeName, group, topic, queueId);
-                cacheOffset = new CacheOffset(key, offset, System.currentTimeMillis());
-                map.put(queueId, cacheOffset);
+                return loading.getOffset();
             }
-        } catch (Exception ex) {
-            log.warn("Load offset error, enodeName: {}, group:{},topic:{} queueId:{}", enodeName, group, topic, queueId);
+        }
+
+        if (!cacheOffset.awaitLoaded(SnodeConstant.DEFAULT_TIMEOUT_MILLS)) {
+            log.warn("Wait offset loading timeout, enodeName: {}, group:{},topic:{} queueId:{}", enodeName, group, topic, queueId);
+            throw new SnodeException(ResponseCode.SYSTEM_ERROR, "Wait offset loading timeout!");
+        }
+        if (cacheOffset.isLoadFailed()) {
+            throw new SnodeException(ResponseCode.SYSTEM_ERROR, "Load offset from enode error!");
+        }
+        this.cacheHitTimes.incrementAndGet();
+        if (System.currentTimeMillis() - cacheOffset.getUpdateTimestamp() > snodeController.getSnodeConfig().getLoadOffsetInterval()
+            && !cacheOffset.isDirty()) {
+            refreshAsync(cacheOffset, enodeName, group, topic, queueId);
         }
         return cacheOffset.getOffset();
     }
 
+    private void refreshAsync(final CacheOffset cacheOffset, final String enodeName, final String group,
+        final String topic, final int queueId) {
+        if (!cacheOffset.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.refreshOffsetExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long offset = snodeController.getEnodeService().queryOffset(enodeName, group, topic, queueId);
+                        cacheOffset.refreshOffset(offset);
+                        cacheOffset.setUpdateTimestamp(System.currentTimeMillis());
+                        cacheRefreshTimes.incrementAndGet();
+                    } catch (Exception ex) {
+                        log.warn("Refresh offset error, enodeName: {}, group:{},topic:{} queueId:{}", enodeName, group, topic, queueId);
+                    } finally {
+                        cacheOffset.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            cacheOffset.refreshing.set(false);
+            log.warn("Too many offset refresh requests, refresh of key: {} queueId: {} ignored", cacheOffset.getKey(), queueId);
+        }
+    }
+
     public void commitOffset(final RemotingChannel remotingChannel, final String enodeName, final String clientHost,
         final String group, final String topic,
         final int queueId,
         final long offset) {
-        cacheOffset(enodeName, clientHost, group, topic, queueId, offset);
-        this.snodeController.getEnodeService().persistOffset(remotingChannel, enodeName, group, topic, queueId, offset);
+        String key = buildKey(enodeName, topic, group);
+        CacheOffset cacheOffset = commitOffset(clientHost, key, queueId, offset);
+        cacheOffset.markDirty(remotingChannel, enodeName, group, topic, queueId);
+    }
+
+    /**
+     * Persist all dirty offsets to their enodes, only the latest committed offset of each queue is sent.
+     */
+    public void persistAll() {
+        for (Map.Entry<String, ConcurrentMap<Integer, CacheOffset>> entry : this.offsetTable.entrySet()) {
+            for (CacheOffset cacheOffset : entry.getValue().values()) {
+                if (cacheOffset.dirty.compareAndSet(true, false)) {
+                    this.snodeController.getEnodeService().persistOffset(cacheOffset.remotingChannel, cacheOffset.enodeName,
+                        cacheOffset.group, cacheOffset.topic, cacheOffset.queueId, cacheOffset.getOffset());
+                    this.persistTimes.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public long getCacheHitTimes() {
+        return cacheHitTimes.get();
+    }
+
+    public long getCacheMissTimes() {
+        return cacheMissTimes.get();
+    }
+
+    public long getCacheRefreshTimes() {
+        return cacheRefreshTimes.get();
+    }
+
+    public long getPersistTimes() {
+        return persistTimes.get();
     }
 
     public class CacheOffset {
         private String key;
-        private long offset;
-        private long updateTimestamp;
+        private volatile long offset;
+        private volatile long updateTimestamp;
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+        private final AtomicBoolean dirty = new AtomicBoolean(false);
+        private volatile boolean loadFailed = false;
+        private volatile RemotingChannel remotingChannel;
+        private volatile String enodeName;
+        private volatile String group;
+        private volatile String topic;
+        private volatile int queueId;
 
         public CacheOffset(final String key, final long offset, final long updateTimestamp) {
             this.key = key;
@@ -123,6 +279,50 @@ public class ConsumerOffsetManager {
             this.updateTimestamp = updateTimestamp;
         }
 
+        private void markLoaded() {
+            this.loaded.countDown();
+        }
+
+        private boolean awaitLoaded(long timeoutMillis) {
+            try {
+                return this.loaded.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void markDirty(final RemotingChannel remotingChannel, final String enodeName, final String group,
+            final String topic, final int queueId) {
+            this.remotingChannel = remotingChannel;
+            this.enodeName = enodeName;
+            this.group = group;
+            this.topic = topic;
+            this.queueId = queueId;
+            this.dirty.set(true);
+        }
+
+        private void markLoadFailed() {
+            this.loadFailed = true;
+        }
+
+        private boolean isLoadFailed() {
+            return loadFailed;
+        }
+
+        /**
+         * Take the offset read from the enode, only keep a newer committed one that is not persisted yet.
+         */
+        private synchronized void refreshOffset(final long offset) {
+            if (!this.isDirty() || offset > this.offset) {
+                this.offset = offset;
+            }
+        }
+
+        public boolean isDirty() {
+            return dirty.get();
+        }
+
         public String getKey() {
             return key;
         }
@@ -17,6 +17,7 @@
 package org.apache.rocketmq.snode.processor;
 
 import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.util.Attribute;
 import java.util.HashSet;
 import java.util.Set;
@@ -96,6 +97,10 @@ public class HeartbeatProcessor implements RequestProcessor {
                 consumerData.getMessageModel(),
                 consumerData.getConsumeFromWhere());
             if (consumerData.getConsumeType() == ConsumeType.CONSUME_PUSH) {
+                // Push frames are dropped once the channel is not writable, bound its outbound buffer accordingly
+                channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(
+                    this.snodeController.getSnodeConfig().getSnodePushWriteBufferLowWaterMark(),
+                    this.snodeController.getSnodeConfig().getSnodePushWriteBufferHighWaterMark()));
                 NettyChannelImpl nettyChannel = new NettyChannelImpl(channel);
                 this.snodeController.getSubscriptionManager().registerPushSession(consumerData.getSubscriptionDataSet(), nettyChannel, consumerData.getGroupName());
             }
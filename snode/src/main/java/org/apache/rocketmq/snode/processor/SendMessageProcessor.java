@@ -85,32 +85,43 @@ public class SendMessageProcessor implements RequestProcessor {
             stringBuffer.append(MixAll.getRetryTopic(consumerSendMsgBackRequestHeader.getGroup()));
         }
 
-        CompletableFuture<RemotingCommand> responseFuture = snodeController.getEnodeService().sendMessage(remotingChannel, enodeName, request);
+        // The request is forwarded as is, keep a zero-copy body alive until the enode has answered
+        request.retainBody();
+        CompletableFuture<RemotingCommand> responseFuture;
+        try {
+            responseFuture = snodeController.getEnodeService().sendMessage(remotingChannel, enodeName, request);
+        } catch (RuntimeException ex) {
+            request.releaseBody();
+            throw ex;
+        }
 
-        final byte[] message = request.getBody();
         final boolean needPush = !isSendBack;
         final SendMessageRequestHeader sendMessageRequestHeader =
             SendMessageRequestHeaderV2.createSendMessageRequestHeaderV1(sendMessageRequestHeaderV2);
         responseFuture.whenComplete((data, ex) -> {
-            if (ex == null) {
-                if (this.snodeController.getSendMessageInterceptorGroup() != null) {
-                    ResponseContext responseContext = new ResponseContext(request, remotingChannel, data);
-                    this.snodeController.getSendMessageInterceptorGroup().afterRequest(responseContext);
-                }
-                remotingChannel.reply(data);
-                this.snodeController.getMetricsService().recordRequestSize(stringBuffer.toString(), request.getBody().length);
-                if (data.getCode() == ResponseCode.SUCCESS && needPush) {
-                    this.snodeController.getPushService().pushMessage(sendMessageRequestHeader, message, data);
-                }
-            } else {
-                this.snodeController.getMetricsService().incRequestCount(request.getCode(), false);
-                if (this.snodeController.getSendMessageInterceptorGroup() != null) {
-                    ExceptionContext exceptionContext = new ExceptionContext(request, remotingChannel, ex, null);
-                    this.snodeController.getSendMessageInterceptorGroup().onException(exceptionContext);
+            try {
+                if (ex == null) {
+                    if (this.snodeController.getSendMessageInterceptorGroup() != null) {
+                        ResponseContext responseContext = new ResponseContext(request, remotingChannel, data);
+                        this.snodeController.getSendMessageInterceptorGroup().afterRequest(responseContext);
+                    }
+                    remotingChannel.reply(data);
+                    this.snodeController.getMetricsService().recordRequestSize(stringBuffer.toString(), request.getBodyLength());
+                    if (data.getCode() == ResponseCode.SUCCESS && needPush) {
+                        this.snodeController.getPushService().pushMessage(sendMessageRequestHeader, request.getBody(), data);
+                    }
+                } else {
+                    this.snodeController.getMetricsService().incRequestCount(request.getCode(), false);
+                    if (this.snodeController.getSendMessageInterceptorGroup() != null) {
+                        ExceptionContext exceptionContext = new ExceptionContext(request, remotingChannel, ex, null);
+                        this.snodeController.getSendMessageInterceptorGroup().onException(exceptionContext);
+                    }
+                    log.error("Send Message error: {}", ex);
                 }
-                log.error("Send Message error: {}", ex);
+                timer.observeDuration();
+            } finally {
+                request.releaseBody();
             }
-            timer.observeDuration();
         });
     }
 
@@ -16,13 +16,25 @@
  */
 package org.apache.rocketmq.snode.service.impl;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
 import io.netty.util.Attribute;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.client.Client;
 import org.apache.rocketmq.common.client.Subscription;
@@ -51,6 +63,22 @@ public class PushServiceImpl implements PushService {
     private SnodeController snodeController;
     private ExecutorService pushMessageExecutorService;
 
+    private final AtomicLong pushedFrames = new AtomicLong(0);
+    private final AtomicLong droppedFrames = new AtomicLong(0);
+    private final AtomicLong slowConsumerSkippedFrames = new AtomicLong(0);
+
+    private final ChannelFutureListener pushListener = new ChannelFutureListener() {
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            if (future.isSuccess()) {
+                pushedFrames.incrementAndGet();
+            } else {
+                droppedFrames.incrementAndGet();
+                log.warn("Push message to channel: {} failed", future.channel(), future.cause());
+            }
+        }
+    };
+
     public PushServiceImpl(final SnodeController snodeController) {
         this.snodeController = snodeController;
         pushMessageExecutorService = ThreadUtils.newThreadPoolExecutor(
@@ -96,7 +124,7 @@ public class PushServiceImpl implements PushService {
             messageExt.setFlag(sendMessageRequestHeader.getFlag());
             messageExt.setBody(message);
             messageExt.setBodyCRC(UtilAll.crc32(message));
-            log.info("MessageExt:{}", messageExt);
+            log.debug("MessageExt:{}", messageExt);
             return messageExt;
         }
 
@@ -109,19 +137,15 @@ public class PushServiceImpl implements PushService {
                     MessageQueue messageQueue = new MessageQueue(sendMessageRequestHeader.getTopic(), sendMessageRequestHeader.getEnodeName(), sendMessageRequestHeader.getQueueId());
                     Set<RemotingChannel> consumerTable = snodeController.getSubscriptionManager().getPushableChannel(messageQueue);
                     if (consumerTable != null) {
-                        PushMessageHeader pushMessageHeader = new PushMessageHeader();
-                        pushMessageHeader.setQueueOffset(sendMessageResponseHeader.getQueueOffset());
-                        pushMessageHeader.setTopic(sendMessageRequestHeader.getTopic());
-                        pushMessageHeader.setQueueId(sendMessageResponseHeader.getQueueId());
-                        pushMessageHeader.setEnodeName(sendMessageRequestHeader.getEnodeName());
-                        RemotingCommand pushMessage = RemotingCommand.createRequestCommand(RequestCode.SNODE_PUSH_MESSAGE, pushMessageHeader);
                         MessageExt messageExt = buildMessageExt(sendMessageResponseHeader, message, sendMessageRequestHeader);
-                        pushMessage.setBody(MessageDecoder.encode(messageExt, false));
+                        byte[] body = MessageDecoder.encode(messageExt, false);
+                        Map<String, RemotingCommand> group2PushMessage = new HashMap<String, RemotingCommand>();
+                        Map<String, List<Channel>> group2Channels = new HashMap<String, List<Channel>>();
                         for (RemotingChannel remotingChannel : consumerTable) {
-                            log.info("Push message pushMessage:{} to remotingChannel: {}", pushMessage, remotingChannel);
                             Client client = null;
+                            Channel channel = null;
                             if (remotingChannel instanceof NettyChannelImpl) {
-                                Channel channel = ((NettyChannelImpl) remotingChannel).getChannel();
+                                channel = ((NettyChannelImpl) remotingChannel).getChannel();
                                 Attribute<Client> clientAttribute = channel.attr(SnodeConstant.NETTY_CLIENT_ATTRIBUTE_KEY);
                                 if (clientAttribute != null) {
                                     client = clientAttribute.get();
@@ -131,20 +155,31 @@ public class PushServiceImpl implements PushService {
                                 for (String consumerGroup : client.getGroups()) {
                                     Subscription subscription = snodeController.getSubscriptionManager().getSubscription(consumerGroup);
                                     if (subscription.getSubscriptionData(sendMessageRequestHeader.getTopic()) != null) {
+                                        RemotingCommand pushMessage = group2PushMessage.get(consumerGroup);
+                                        if (pushMessage == null) {
+                                            pushMessage = buildPushMessage(sendMessageResponseHeader, consumerGroup);
+                                            group2PushMessage.put(consumerGroup, pushMessage);
+                                            group2Channels.put(consumerGroup, new ArrayList<Channel>());
+                                        }
                                         boolean slowConsumer = snodeController.getSlowConsumerService().isSlowConsumer(sendMessageResponseHeader.getQueueOffset(), sendMessageRequestHeader.getTopic(), sendMessageRequestHeader.getQueueId(), consumerGroup, sendMessageRequestHeader.getEnodeName());
                                         if (slowConsumer) {
                                             log.warn("[SlowConsumer]: {} is slow consumer", remotingChannel);
+                                            slowConsumerSkippedFrames.incrementAndGet();
                                             snodeController.getSlowConsumerService().slowConsumerResolve(pushMessage, remotingChannel);
                                             continue;
                                         }
-                                        pushMessageHeader.setConsumerGroup(consumerGroup);
-                                        snodeController.getSnodeServer().push(remotingChannel, pushMessage, SnodeConstant.DEFAULT_TIMEOUT_MILLS);
+                                        group2Channels.get(consumerGroup).add(channel);
                                     }
                                 }
                             } else {
                                 log.error("[NOTIFYME] Remoting channel: {} related client is null", remotingChannel.remoteAddress());
                             }
                         }
+                        for (Map.Entry<String, List<Channel>> entry : group2Channels.entrySet()) {
+                            if (!entry.getValue().isEmpty()) {
+                                fanOut(group2PushMessage.get(entry.getKey()), body, entry.getValue());
+                            }
+                        }
                     } else {
                         log.info("No online registered as push consumer and online for messageQueue: {} ", messageQueue);
                     }
@@ -156,12 +191,101 @@ public class PushServiceImpl implements PushService {
             }
         }
 
+        private RemotingCommand buildPushMessage(final SendMessageResponseHeader sendMessageResponseHeader,
+            final String consumerGroup) {
+            PushMessageHeader pushMessageHeader = new PushMessageHeader();
+            pushMessageHeader.setQueueOffset(sendMessageResponseHeader.getQueueOffset());
+            pushMessageHeader.setTopic(sendMessageRequestHeader.getTopic());
+            pushMessageHeader.setQueueId(sendMessageResponseHeader.getQueueId());
+            pushMessageHeader.setEnodeName(sendMessageRequestHeader.getEnodeName());
+            pushMessageHeader.setConsumerGroup(consumerGroup);
+            RemotingCommand pushMessage = RemotingCommand.createRequestCommand(RequestCode.SNODE_PUSH_MESSAGE, pushMessageHeader);
+            pushMessage.markOnewayRPC();
+            return pushMessage;
+        }
+
         public void setCanceled(AtomicBoolean canceled) {
             this.canceled = canceled;
         }
 
     }
 
+    /**
+     * Encode the push command only once into a pooled frame, then write a retained duplicate of it to every channel.
+     * Writes are grouped by event loop so each loop receives a single task and flushes its channels once.
+     *
+     * @param pushMessage Push command shared by all channels of one consumer group
+     * @param body Encoded message body
+     * @param channels Target channels
+     */
+    void fanOut(final RemotingCommand pushMessage, final byte[] body, final List<Channel> channels) {
+        ByteBuffer header = pushMessage.encodeHeader(body.length);
+        ByteBuf frame = PooledByteBufAllocator.DEFAULT.directBuffer(header.remaining() + body.length);
+        try {
+            frame.writeBytes(header);
+            frame.writeBytes(body);
+            Map<EventLoop, List<Channel>> eventLoop2Channels = new HashMap<EventLoop, List<Channel>>();
+            for (Channel channel : channels) {
+                List<Channel> batch = eventLoop2Channels.get(channel.eventLoop());
+                if (batch == null) {
+                    batch = new ArrayList<Channel>();
+                    eventLoop2Channels.put(channel.eventLoop(), batch);
+                }
+                batch.add(channel);
+            }
+            for (Map.Entry<EventLoop, List<Channel>> entry : eventLoop2Channels.entrySet()) {
+                final ByteBuf batchFrame = frame.retainedDuplicate();
+                final List<Channel> batch = entry.getValue();
+                try {
+                    entry.getKey().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                writeBatch(batchFrame, batch);
+                            } finally {
+                                batchFrame.release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    batchFrame.release();
+                    droppedFrames.addAndGet(batch.size());
+                    log.warn("Push message to {} channels rejected by event loop", batch.size(), e);
+                }
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void writeBatch(final ByteBuf batchFrame, final List<Channel> batch) {
+        List<Channel> written = new ArrayList<Channel>(batch.size());
+        for (Channel channel : batch) {
+            if (!channel.isActive() || !channel.isWritable()) {
+                droppedFrames.incrementAndGet();
+                log.warn("Drop push frame for channel: {}, active: {}, writable: {}", channel, channel.isActive(), channel.isWritable());
+                continue;
+            }
+            channel.write(batchFrame.retainedDuplicate()).addListener(pushListener);
+            written.add(channel);
+        }
+        for (Channel channel : written) {
+            channel.flush();
+        }
+    }
+
+    public long getPushedFrames() {
+        return pushedFrames.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getSlowConsumerSkippedFrames() {
+        return slowConsumerSkippedFrames.get();
+    }
+
     @Override
     public void pushMessage(final SendMessageRequestHeader requestHeader, final byte[] message,
         final RemotingCommand response) {
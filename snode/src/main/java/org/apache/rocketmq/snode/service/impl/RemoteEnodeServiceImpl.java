@@ -92,10 +92,13 @@ public class RemoteEnodeServiceImpl implements EnodeService {
                     } else {
                         if (!responseFuture.isSendRequestOK()) {
                             log.error("Pull message error in async callback: {}", responseFuture.getCause());
+                            future.completeExceptionally(new RemotingSendRequestException(enodeAddress, responseFuture.getCause()));
                         } else if (responseFuture.isTimeout()) {
                             log.warn("Pull message timeout!");
+                            future.completeExceptionally(new RemotingTimeoutException(enodeAddress, responseFuture.getTimeoutMillis(), responseFuture.getCause()));
                         } else {
                             log.error("Unknown pull message error occurred: {}", responseFuture.getCause());
+                            future.completeExceptionally(new RemotingSendRequestException(enodeAddress, responseFuture.getCause()));
                         }
                     }
                 }
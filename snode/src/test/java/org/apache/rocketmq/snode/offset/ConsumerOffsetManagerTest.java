@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.snode.offset;
+
+import org.apache.rocketmq.common.MqttConfig;
+import org.apache.rocketmq.common.SnodeConfig;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.common.service.EnodeService;
+import org.apache.rocketmq.remoting.ClientConfig;
+import org.apache.rocketmq.remoting.RemotingChannel;
+import org.apache.rocketmq.remoting.ServerConfig;
+import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
+import org.apache.rocketmq.snode.SnodeController;
+import org.apache.rocketmq.snode.exception.SnodeException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConsumerOffsetManagerTest {
+
+    @Spy
+    private ServerConfig serverConfig = new ServerConfig();
+    @Spy
+    private ClientConfig clientConfig = new ClientConfig();
+    @Spy
+    private ServerConfig mqttServerConfig = new ServerConfig();
+    @Spy
+    private ClientConfig mqttClientConfig = new ClientConfig();
+
+    @Mock
+    private EnodeService enodeService;
+
+    @Mock
+    private RemotingChannel remotingChannel;
+
+    private SnodeController snodeController;
+
+    private ConsumerOffsetManager consumerOffsetManager;
+
+    private final String enodeName = "testEnode";
+
+    private final String topic = "SnodeTopic";
+
+    private final String group = "SnodeGroup";
+
+    @Before
+    public void init() throws CloneNotSupportedException {
+        SnodeConfig snodeConfig = new SnodeConfig();
+        serverConfig.setListenPort(snodeConfig.getListenPort());
+        snodeConfig.setNettyClientConfig(clientConfig);
+        snodeConfig.setNettyServerConfig(serverConfig);
+
+        MqttConfig mqttConfig = new MqttConfig();
+        mqttServerConfig.setListenPort(mqttConfig.getListenPort());
+        mqttConfig.setMqttClientConfig(mqttClientConfig);
+        mqttConfig.setMqttServerConfig(mqttServerConfig);
+
+        snodeController = new SnodeController(snodeConfig, mqttConfig);
+        snodeController.setEnodeService(enodeService);
+        consumerOffsetManager = new ConsumerOffsetManager(snodeController);
+    }
+
+    @After
+    public void shutdown() {
+        consumerOffsetManager.shutdown();
+    }
+
+    @Test
+    public void testQueryCacheOffsetServedLocally() throws Exception {
+        when(enodeService.queryOffset(enodeName, group, topic, 1)).thenReturn(100L);
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(100L);
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(100L);
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(100L);
+        verify(enodeService, times(1)).queryOffset(enodeName, group, topic, 1);
+        assertThat(consumerOffsetManager.getCacheMissTimes()).isEqualTo(1);
+        assertThat(consumerOffsetManager.getCacheHitTimes()).isEqualTo(2);
+    }
+
+    @Test
+    public void testQueryCacheOffsetRefreshAhead() throws Exception {
+        snodeController.getSnodeConfig().setLoadOffsetInterval(0);
+        when(enodeService.queryOffset(enodeName, group, topic, 1)).thenReturn(100L, 200L);
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(100L);
+        Thread.sleep(1);
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(100L);
+        verify(enodeService, timeout(3000).times(2)).queryOffset(enodeName, group, topic, 1);
+        long start = System.currentTimeMillis();
+        while (consumerOffsetManager.getCacheRefreshTimes() == 0 && System.currentTimeMillis() - start < 3000) {
+            Thread.sleep(10);
+        }
+        snodeController.getSnodeConfig().setLoadOffsetInterval(60 * 1000);
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(200L);
+    }
+
+    @Test
+    public void testCommitOffsetPersistLatestOnly() throws Exception {
+        consumerOffsetManager.commitOffset(remotingChannel, enodeName, "127.0.0.1", group, topic, 1, 10L);
+        consumerOffsetManager.commitOffset(remotingChannel, enodeName, "127.0.0.1", group, topic, 1, 20L);
+        verify(enodeService, never()).persistOffset(any(RemotingChannel.class), anyString(), anyString(), anyString(), anyInt(), anyLong());
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(20L);
+
+        consumerOffsetManager.persistAll();
+        consumerOffsetManager.persistAll();
+        verify(enodeService, times(1)).persistOffset(remotingChannel, enodeName, group, topic, 1, 20L);
+        verify(enodeService, never()).queryOffset(anyString(), anyString(), anyString(), anyInt());
+        assertThat(consumerOffsetManager.getPersistTimes()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRefreshTakesEnodeOffset() throws Exception {
+        consumerOffsetManager.commitOffset(remotingChannel, enodeName, "127.0.0.1", group, topic, 1, 20L);
+        snodeController.getSnodeConfig().setLoadOffsetInterval(0);
+        Thread.sleep(1);
+        // A committed offset not persisted yet is not refreshed
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(20L);
+        verify(enodeService, never()).queryOffset(anyString(), anyString(), anyString(), anyInt());
+
+        consumerOffsetManager.persistAll();
+        // The offset has been reset on the enode since
+        when(enodeService.queryOffset(enodeName, group, topic, 1)).thenReturn(10L);
+        consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1);
+        long start = System.currentTimeMillis();
+        while (consumerOffsetManager.getCacheRefreshTimes() == 0 && System.currentTimeMillis() - start < 3000) {
+            Thread.sleep(10);
+        }
+        assertThat(consumerOffsetManager.getCacheRefreshTimes()).isEqualTo(1);
+        snodeController.getSnodeConfig().setLoadOffsetInterval(60 * 1000);
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(10L);
+    }
+
+    @Test
+    public void testQueryCacheOffsetLoadFailed() throws Exception {
+        when(enodeService.queryOffset(enodeName, group, topic, 1)).thenThrow(new RemotingTimeoutException("timeout")).thenReturn(100L);
+        try {
+            consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1);
+            failBecauseExceptionWasNotThrown(SnodeException.class);
+        } catch (SnodeException e) {
+            assertThat(e.getResponseCode()).isEqualTo(ResponseCode.SYSTEM_ERROR);
+        }
+        // The failed load is not cached
+        assertThat(consumerOffsetManager.queryCacheOffset(enodeName, group, topic, 1)).isEqualTo(100L);
+    }
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.rocketmq.snode.processor;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import java.util.concurrent.CompletableFuture;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.MqttConfig;
@@ -29,6 +31,7 @@ import org.apache.rocketmq.remoting.ClientConfig;
 import org.apache.rocketmq.remoting.RemotingChannel;
 import org.apache.rocketmq.remoting.ServerConfig;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
+import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
 import org.apache.rocketmq.remoting.netty.CodecHelper;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.snode.SnodeController;
@@ -39,8 +42,11 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -110,6 +116,43 @@ public class SendMessageProcessorTest {
         sendMessageProcessor.processRequest(remotingChannel, request);
     }
 
+    @Test
+    public void testForwardKeepsZeroCopyBodyUntilEnodeAnswers() throws RemotingCommandException {
+        CompletableFuture<RemotingCommand> future = new CompletableFuture<>();
+        RemotingCommand request = createZeroCopySendMessageV2Command();
+        ByteBuf body = request.getBodyBuffer();
+        when(this.snodeController.getEnodeService().sendMessage(any(RemotingChannel.class), anyString(), any(RemotingCommand.class))).thenReturn(future);
+        sendMessageProcessor.processRequest(remotingChannel, request);
+        // Released by the remoting layer once the processor returns
+        request.releaseBody();
+
+        verify(enodeService).sendMessage(any(RemotingChannel.class), anyString(), same(request));
+        assertThat(body.refCnt()).isEqualTo(1);
+        future.complete(RemotingCommand.createResponseCommand(ResponseCode.SUCCESS, null));
+        assertThat(body.refCnt()).isEqualTo(0);
+        assertThat(request.getBody()).containsExactly('a', 'b', 'c');
+    }
+
+    @Test
+    public void testForwardReleasesZeroCopyBodyOnFailure() throws RemotingCommandException {
+        CompletableFuture<RemotingCommand> future = new CompletableFuture<>();
+        RemotingCommand request = createZeroCopySendMessageV2Command();
+        ByteBuf body = request.getBodyBuffer();
+        when(this.snodeController.getEnodeService().sendMessage(any(RemotingChannel.class), anyString(), any(RemotingCommand.class))).thenReturn(future);
+        sendMessageProcessor.processRequest(remotingChannel, request);
+        request.releaseBody();
+
+        future.completeExceptionally(new RemotingTimeoutException("enode timeout"));
+        assertThat(body.refCnt()).isEqualTo(0);
+    }
+
+    private RemotingCommand createZeroCopySendMessageV2Command() {
+        RemotingCommand request = createSendMesssageV2Command();
+        request.setBody(null);
+        request.setBodyBuffer(PooledByteBufAllocator.DEFAULT.directBuffer(3).writeBytes(new byte[] {'a', 'b', 'c'}));
+        return request;
+    }
+
     private SendMessageRequestHeaderV2 createSendMsgRequestHeader() {
         SendMessageRequestHeaderV2 requestHeader = new SendMessageRequestHeaderV2();
         requestHeader.setA(group);
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.snode.service;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.apache.rocketmq.common.MqttConfig;
+import org.apache.rocketmq.common.SnodeConfig;
+import org.apache.rocketmq.common.client.Client;
+import org.apache.rocketmq.common.client.Subscription;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.common.protocol.RequestCode;
+import org.apache.rocketmq.common.protocol.header.PushMessageHeader;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.remoting.ClientConfig;
+import org.apache.rocketmq.remoting.RemotingChannel;
+import org.apache.rocketmq.remoting.ServerConfig;
+import org.apache.rocketmq.remoting.netty.CodecHelper;
+import org.apache.rocketmq.remoting.netty.NettyChannelImpl;
+import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.snode.SnodeController;
+import org.apache.rocketmq.snode.SnodeTestBase;
+import org.apache.rocketmq.snode.client.SlowConsumerService;
+import org.apache.rocketmq.snode.client.SubscriptionManager;
+import org.apache.rocketmq.snode.constant.SnodeConstant;
+import org.apache.rocketmq.snode.service.impl.PushServiceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PushServiceImplTest extends SnodeTestBase {
+
+    @Spy
+    private ServerConfig serverConfig = new ServerConfig();
+    @Spy
+    private ClientConfig clientConfig = new ClientConfig();
+    @Spy
+    private ServerConfig mqttServerConfig = new ServerConfig();
+    @Spy
+    private ClientConfig mqttClientConfig = new ClientConfig();
+
+    @Mock
+    private SubscriptionManager subscriptionManager;
+
+    @Mock
+    private SlowConsumerService slowConsumerService;
+
+    private SnodeController snodeController;
+
+    private PushServiceImpl pushService;
+
+    private final String topic = "SnodeTopic";
+
+    private final String group = "SnodeGroup";
+
+    private final String enodeName = "testEnode";
+
+    @Before
+    public void init() throws CloneNotSupportedException {
+        SnodeConfig snodeConfig = new SnodeConfig();
+        serverConfig.setListenPort(snodeConfig.getListenPort());
+        snodeConfig.setNettyClientConfig(clientConfig);
+        snodeConfig.setNettyServerConfig(serverConfig);
+
+        MqttConfig mqttConfig = new MqttConfig();
+        mqttServerConfig.setListenPort(mqttConfig.getListenPort());
+        mqttConfig.setMqttClientConfig(mqttClientConfig);
+        mqttConfig.setMqttServerConfig(mqttServerConfig);
+
+        snodeController = new SnodeController(snodeConfig, mqttConfig);
+        snodeController.setSubscriptionManager(subscriptionManager);
+        snodeController.setSlowConsumerService(slowConsumerService);
+        pushService = new PushServiceImpl(snodeController);
+
+        Subscription subscription = new Subscription();
+        subscription.getSubscriptionTable().put(topic, new SubscriptionData(topic, "*"));
+        when(subscriptionManager.getSubscription(group)).thenReturn(subscription);
+    }
+
+    @After
+    public void shutdown() {
+        pushService.shutdown();
+    }
+
+    @Test
+    public void testPushTaskEncodeOnceWriteMany() throws Exception {
+        EmbeddedChannel first = createConsumerChannel();
+        EmbeddedChannel second = createConsumerChannel();
+        Set<RemotingChannel> channels = new LinkedHashSet<RemotingChannel>();
+        channels.add(new NettyChannelImpl(first));
+        channels.add(new NettyChannelImpl(second));
+        when(subscriptionManager.getPushableChannel(any(MessageQueue.class))).thenReturn(channels);
+
+        pushService.new PushTask(createRequestHeader(), new byte[] {'a'}, createPushableResponse()).run();
+        first.runPendingTasks();
+        second.runPendingTasks();
+
+        assertPushFrame(first);
+        assertPushFrame(second);
+        assertThat(pushService.getPushedFrames()).isEqualTo(2);
+        assertThat(pushService.getDroppedFrames()).isEqualTo(0);
+        assertThat(pushService.getSlowConsumerSkippedFrames()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPushTaskSkipSlowConsumerAndDropUnwritable() throws Exception {
+        EmbeddedChannel inactive = createConsumerChannel();
+        Set<RemotingChannel> channels = new LinkedHashSet<RemotingChannel>();
+        channels.add(new NettyChannelImpl(inactive));
+        when(subscriptionManager.getPushableChannel(any(MessageQueue.class))).thenReturn(channels);
+
+        when(slowConsumerService.isSlowConsumer(anyLong(), anyString(), anyInt(), eq(group), anyString())).thenReturn(true);
+        pushService.new PushTask(createRequestHeader(), new byte[] {'a'}, createPushableResponse()).run();
+        assertThat(pushService.getSlowConsumerSkippedFrames()).isEqualTo(1);
+
+        when(slowConsumerService.isSlowConsumer(anyLong(), anyString(), anyInt(), eq(group), anyString())).thenReturn(false);
+        inactive.close();
+        pushService.new PushTask(createRequestHeader(), new byte[] {'a'}, createPushableResponse()).run();
+        inactive.runPendingTasks();
+        assertThat((Object) inactive.readOutbound()).isNull();
+        assertThat(pushService.getDroppedFrames()).isEqualTo(1);
+        assertThat(pushService.getPushedFrames()).isEqualTo(0);
+    }
+
+    private void assertPushFrame(EmbeddedChannel channel) throws Exception {
+        ByteBuf frame = channel.readOutbound();
+        assertThat(frame).isNotNull();
+        try {
+            assertThat(frame.readInt()).isEqualTo(frame.readableBytes());
+            RemotingCommand pushMessage = CodecHelper.decode(frame.nioBuffer());
+            assertThat(pushMessage.getCode()).isEqualTo(RequestCode.SNODE_PUSH_MESSAGE);
+            assertThat(pushMessage.isOnewayRPC()).isTrue();
+            PushMessageHeader pushMessageHeader = (PushMessageHeader) pushMessage.decodeCommandCustomHeader(PushMessageHeader.class);
+            assertThat(pushMessageHeader.getConsumerGroup()).isEqualTo(group);
+            assertThat(pushMessageHeader.getTopic()).isEqualTo(topic);
+            assertThat(pushMessage.getBody()).isNotEmpty();
+        } finally {
+            frame.release();
+        }
+    }
+
+    private EmbeddedChannel createConsumerChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        Client client = new Client();
+        client.setGroups(Collections.singleton(group));
+        channel.attr(SnodeConstant.NETTY_CLIENT_ATTRIBUTE_KEY).set(client);
+        return channel;
+    }
+
+    private SendMessageRequestHeader createRequestHeader() {
+        SendMessageRequestHeader requestHeader = new SendMessageRequestHeader();
+        requestHeader.setProducerGroup(group);
+        requestHeader.setTopic(topic);
+        requestHeader.setQueueId(1);
+        requestHeader.setSysFlag(0);
+        requestHeader.setFlag(0);
+        requestHeader.setReconsumeTimes(0);
+        requestHeader.setBornTimestamp(System.currentTimeMillis());
+        requestHeader.setBornHost("127.0.0.1:10911");
+        requestHeader.setEnodeName(enodeName);
+        return requestHeader;
+    }
+
+    private RemotingCommand createPushableResponse() {
+        RemotingCommand response = createSuccessResponse();
+        response.addExtField("storeHost", "127.0.0.1:10911");
+        return response;
+    }
+}
@@ -16,13 +16,16 @@
  */
 package org.apache.rocketmq.store;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
@@ -34,10 +37,13 @@ import org.apache.rocketmq.common.message.MessageExtBatch;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.StoreStatsService.LatencyPhase;
 import org.apache.rocketmq.store.config.BrokerRole;
 import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.apache.rocketmq.store.ha.HAService;
 import org.apache.rocketmq.store.schedule.ScheduleMessageService;
+import org.apache.rocketmq.store.timer.TimerMessageStore;
 
 /**
  * Store all metadata downtime for recovery, data protection reliability
@@ -48,6 +54,10 @@ public class CommitLog {
     protected static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     // End of file empty MAGIC CODE cbd43194
     protected final static int BLANK_MAGIC_CODE = -875286124;
+    // Positions of the fields filled in when a message is appended
+    final static int QUEUE_OFFSET_POSITION = 20;
+    final static int PHYSICAL_OFFSET_POSITION = 28;
+    final static int STORE_TIMESTAMP_POSITION = 56;
     protected final MappedFileQueue mappedFileQueue;
     protected final DefaultMessageStore defaultMessageStore;
     private final FlushCommitLogService flushCommitLogService;
@@ -63,6 +73,10 @@ public class CommitLog {
     private volatile long beginTimeInLock = 0;
     protected final PutMessageLock putMessageLock;
 
+    private final ConcurrentAppender concurrentAppender;
+
+    private final Map<Long/* container offset */, CompressedMessageBatch> compressedBatchCache;
+
     public CommitLog(final DefaultMessageStore defaultMessageStore) {
         this.mappedFileQueue = new MappedFileQueue(defaultMessageStore.getMessageStoreConfig().getStorePathCommitLog(),
             defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog(), defaultMessageStore.getAllocateMappedFileService());
@@ -84,6 +98,15 @@ public class CommitLog {
             }
         };
         this.putMessageLock = defaultMessageStore.getMessageStoreConfig().isUseReentrantLockWhenPutMessage() ? new PutMessageReentrantLock() : new PutMessageSpinLock();
+        this.concurrentAppender = defaultMessageStore.getMessageStoreConfig().isLockFreeAppendEnable() ? new ConcurrentAppender(defaultMessageStore, this.mappedFileQueue) : null;
+
+        final int compressBatchCacheNum = defaultMessageStore.getMessageStoreConfig().getCompressBatchCacheNum();
+        this.compressedBatchCache = Collections.synchronizedMap(new LinkedHashMap<Long, CompressedMessageBatch>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CompressedMessageBatch> eldest) {
+                return size() > compressBatchCacheNum;
+            }
+        });
 
     }
 
@@ -136,6 +159,21 @@ public class CommitLog {
         return this.mappedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately);
     }
 
+    public int deleteExpiredFile(
+        final long expiredTime,
+        final int deleteFilesInterval,
+        final long intervalForcibly,
+        final boolean cleanImmediately,
+        final long maxDeleteOffset
+    ) {
+        return this.mappedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately,
+            maxDeleteOffset);
+    }
+
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
     /**
      * Read CommitLog data, use data replication
      */
@@ -336,6 +374,11 @@ public class CommitLog {
                                 storeTimestamp);
                         }
                     }
+
+                    String deliverMs = propertiesMap.get(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+                    if (TimerMessageStore.TIMER_TOPIC.equals(topic) && deliverMs != null) {
+                        tagsCode = Long.parseLong(deliverMs);
+                    }
                 }
             }
 
@@ -372,6 +415,47 @@ public class CommitLog {
         return new DispatchRequest(-1, false /* success */);
     }
 
+    /**
+     * Split a compressed batch into the records of its messages, each one pointing at its slot in the batch.
+     */
+    public List<DispatchRequest> unpackCompressedBatch(final DispatchRequest container) {
+        List<DispatchRequest> requests = new ArrayList<DispatchRequest>();
+        SelectMappedBufferResult result = this.getMessage(container.getCommitLogOffset(), container.getMsgSize());
+        if (result == null) {
+            log.warn("compressed batch at {} not found", container.getCommitLogOffset());
+            return requests;
+        }
+
+        try {
+            CompressedMessageBatch batch = this.decodeCompressedBatch(result.getByteBuffer());
+            for (int i = 0; i < batch.getMessageNum(); i++) {
+                DispatchRequest inner = this.checkMessageAndReturnSize(batch.getMessage(i), false, false);
+                if (!inner.isSuccess()) {
+                    log.error("[BUG]illegal message {} of compressed batch at {}", i, container.getCommitLogOffset());
+                    break;
+                }
+                requests.add(new DispatchRequest(
+                    inner.getTopic(),
+                    inner.getQueueId(),
+                    CompressedMessageBatch.slotOffset(container.getCommitLogOffset(), i),
+                    CompressedMessageBatch.INDEX_SLOT_SIZE,
+                    inner.getTagsCode(),
+                    container.getStoreTimestamp(),
+                    inner.getConsumeQueueOffset(),
+                    inner.getKeys(),
+                    inner.getUniqKey(),
+                    inner.getSysFlag(),
+                    inner.getPreparedTransactionOffset(),
+                    inner.getPropertiesMap()));
+            }
+        } catch (IOException e) {
+            log.error("decompress batch at " + container.getCommitLogOffset() + " failed", e);
+        } finally {
+            result.release();
+        }
+        return requests;
+    }
+
     protected static int calMsgLength(int bodyLength, int topicLength, int propertiesLength) {
         final int msgLen = 4 //TOTALSIZE
             + 4 //MAGICCODE
@@ -438,10 +522,10 @@ public class CommitLog {
 
                         if (this.defaultMessageStore.getMessageStoreConfig().isDuplicationEnable()) {
                             if (dispatchRequest.getCommitLogOffset() < this.defaultMessageStore.getConfirmOffset()) {
-                                this.defaultMessageStore.doDispatch(dispatchRequest);
+                                this.doDispatch(dispatchRequest);
                             }
                         } else {
-                            this.defaultMessageStore.doDispatch(dispatchRequest);
+                            this.doDispatch(dispatchRequest);
                         }
                     }
                     // Come the end of the file, switch to the next file
@@ -488,6 +572,16 @@ public class CommitLog {
         }
     }
 
+    private void doDispatch(final DispatchRequest dispatchRequest) {
+        if (MessageSysFlag.isCompressedBatch(dispatchRequest.getSysFlag())) {
+            for (DispatchRequest request : this.unpackCompressedBatch(dispatchRequest)) {
+                this.defaultMessageStore.doDispatch(request);
+            }
+        } else {
+            this.defaultMessageStore.doDispatch(dispatchRequest);
+        }
+    }
+
     private boolean isMappedFileMatchedRecover(final MappedFile mappedFile) {
         ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
 
@@ -526,14 +620,18 @@ public class CommitLog {
     }
 
     public boolean resetOffset(long offset) {
-        return this.mappedFileQueue.resetOffset(offset);
+        boolean result = this.mappedFileQueue.resetOffset(offset);
+        if (result && this.concurrentAppender != null) {
+            this.concurrentAppender.reset(this.getMaxOffset(), this.topicQueueTable);
+        }
+        return result;
     }
 
     public long getBeginTimeInLock() {
         return beginTimeInLock;
     }
 
-    public PutMessageResult putMessage(final MessageExtBrokerInner msg) {
+    public CompletableFuture<PutMessageResult> asyncPutMessage(final MessageExtBrokerInner msg) {
         // Set the storage time
         msg.setStoreTimestamp(System.currentTimeMillis());
         // Set the message body BODY CRC (consider the most appropriate setting
@@ -550,8 +648,13 @@ public class CommitLog {
         final int tranType = MessageSysFlag.getTransactionValue(msg.getSysFlag());
         if (tranType == MessageSysFlag.TRANSACTION_NOT_TYPE
             || tranType == MessageSysFlag.TRANSACTION_COMMIT_TYPE) {
-            // Delay Delivery
-            if (msg.getDelayTimeLevel() > 0) {
+            // Timer Delivery
+            if (this.defaultMessageStore.getTimerMessageStore() != null
+                && this.defaultMessageStore.getTimerMessageStore().transformTimerMessage(msg)) {
+                topic = msg.getTopic();
+                queueId = msg.getQueueId();
+            } else if (msg.getDelayTimeLevel() > 0) {
+                // Delay Delivery
                 if (msg.getDelayTimeLevel() > this.defaultMessageStore.getScheduleMessageService().getMaxDelayLevel()) {
                     msg.setDelayTimeLevel(this.defaultMessageStore.getScheduleMessageService().getMaxDelayLevel());
                 }
@@ -569,11 +672,18 @@ public class CommitLog {
             }
         }
 
+        if (this.concurrentAppender != null) {
+            result = this.concurrentAppender.append(msg);
+            return this.handleConcurrentAppendResult(result, msg, topic, 1);
+        }
+
         long eclipseTimeInLock = 0;
         MappedFile unlockMappedFile = null;
         MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
 
+        long beginLockNanos = System.nanoTime();
         putMessageLock.lock(); //spin or ReentrantLock ,depending on store config
+        storeStatsService.recordLatencySince(LatencyPhase.PUT_LOCK_WAIT, beginLockNanos);
         try {
             long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
             this.beginTimeInLock = beginLockTimestamp;
@@ -588,7 +698,7 @@ public class CommitLog {
             if (null == mappedFile) {
                 log.error("create mapped file1 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
                 beginTimeInLock = 0;
-                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null));
             }
 
             result = mappedFile.appendMessage(msg, this.appendMessageCallback);
@@ -603,20 +713,20 @@ public class CommitLog {
                         // XXX: warn and notify me
                         log.error("create mapped file2 error, topic: " + msg.getTopic() + " clientAddr: " + msg.getBornHostString());
                         beginTimeInLock = 0;
-                        return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
+                        return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result));
                     }
                     result = mappedFile.appendMessage(msg, this.appendMessageCallback);
                     break;
                 case MESSAGE_SIZE_EXCEEDED:
                 case PROPERTIES_SIZE_EXCEEDED:
                     beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+                    return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result));
                 case UNKNOWN_ERROR:
                     beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+                    return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result));
                 default:
                     beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+                    return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result));
             }
 
             eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
@@ -639,25 +749,77 @@ public class CommitLog {
         storeStatsService.getSinglePutMessageTopicTimesTotal(msg.getTopic()).incrementAndGet();
         storeStatsService.getSinglePutMessageTopicSizeTotal(topic).addAndGet(result.getWroteBytes());
 
-        handleDiskFlush(result, putMessageResult, msg);
-        handleHA(result, putMessageResult, msg);
+        return this.submitFlushAndReplicaRequests(result, putMessageResult, msg);
+    }
+
+    private CompletableFuture<PutMessageResult> handleConcurrentAppendResult(AppendMessageResult result, MessageExt messageExt, String topic,
+        int msgNum) {
+        if (null == result) {
+            log.error("create mapped file error, topic: " + messageExt.getTopic() + " clientAddr: " + messageExt.getBornHostString());
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null));
+        }
+        switch (result.getStatus()) {
+            case PUT_OK:
+                break;
+            case MESSAGE_SIZE_EXCEEDED:
+            case PROPERTIES_SIZE_EXCEEDED:
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result));
+            default:
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result));
+        }
+
+        PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
+
+        // Statistics
+        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+        storeStatsService.getSinglePutMessageTopicTimesTotal(messageExt.getTopic()).addAndGet(msgNum);
+        storeStatsService.getSinglePutMessageTopicSizeTotal(topic).addAndGet(result.getWroteBytes());
+
+        return this.submitFlushAndReplicaRequests(result, putMessageResult, messageExt);
+    }
 
-        return putMessageResult;
+    public PutMessageResult putMessage(final MessageExtBrokerInner msg) {
+        return this.defaultMessageStore.waitForPutResult(this.asyncPutMessage(msg));
     }
 
-    public void handleDiskFlush(AppendMessageResult result, PutMessageResult putMessageResult, MessageExt messageExt) {
+    public PutMessageResult putMessages(final MessageExtBatch messageExtBatch) {
+        return this.defaultMessageStore.waitForPutResult(this.asyncPutMessages(messageExtBatch));
+    }
+
+    /**
+     * Complete the put once the flush and the slave acknowledgment it waits for, if any, are done. A failed flush or
+     * replication only downgrades the status of the result, the message is stored already.
+     */
+    private CompletableFuture<PutMessageResult> submitFlushAndReplicaRequests(AppendMessageResult result,
+        PutMessageResult putMessageResult, MessageExt messageExt) {
+        CompletableFuture<PutMessageStatus> flushResultFuture = this.submitFlushRequest(result, messageExt);
+        CompletableFuture<PutMessageStatus> replicaResultFuture = this.submitReplicaRequest(result, messageExt);
+        return flushResultFuture.thenCombine(replicaResultFuture, (flushStatus, replicaStatus) -> {
+            if (flushStatus != PutMessageStatus.PUT_OK) {
+                log.error("do groupcommit, wait for flush failed, topic: " + messageExt.getTopic() + " tags: " + messageExt.getTags()
+                    + " client address: " + messageExt.getBornHostString());
+                putMessageResult.setPutMessageStatus(flushStatus);
+            }
+            if (replicaStatus != PutMessageStatus.PUT_OK) {
+                if (replicaStatus == PutMessageStatus.FLUSH_SLAVE_TIMEOUT) {
+                    log.error("do sync transfer other node, wait return, but failed, topic: " + messageExt.getTopic() + " tags: "
+                        + messageExt.getTags() + " client address: " + messageExt.getBornHostNameString());
+                }
+                putMessageResult.setPutMessageStatus(replicaStatus);
+            }
+            return putMessageResult;
+        });
+    }
+
+    public CompletableFuture<PutMessageStatus> submitFlushRequest(AppendMessageResult result, MessageExt messageExt) {
         // Synchronization flush
         if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
             final GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
             if (messageExt.isWaitStoreMsgOK()) {
-                GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
+                GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes(),
+                    this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
                 service.putRequest(request);
-                boolean flushOK = request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
-                if (!flushOK) {
-                    log.error("do groupcommit, wait for flush failed, topic: " + messageExt.getTopic() + " tags: " + messageExt.getTags()
-                        + " client address: " + messageExt.getBornHostString());
-                    putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_DISK_TIMEOUT);
-                }
+                return this.recordWaitLatency(request.future(), LatencyPhase.PUT_FLUSH_WAIT);
             } else {
                 service.wakeup();
             }
@@ -670,36 +832,38 @@ public class CommitLog {
                 commitLogService.wakeup();
             }
         }
+        return CompletableFuture.completedFuture(PutMessageStatus.PUT_OK);
     }
 
-    public void handleHA(AppendMessageResult result, PutMessageResult putMessageResult, MessageExt messageExt) {
+    private CompletableFuture<PutMessageStatus> recordWaitLatency(CompletableFuture<PutMessageStatus> future, LatencyPhase phase) {
+        final long beginNanos = System.nanoTime();
+        final StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+        return future.whenComplete((status, throwable) -> storeStatsService.recordLatencySince(phase, beginNanos));
+    }
+
+    public CompletableFuture<PutMessageStatus> submitReplicaRequest(AppendMessageResult result, MessageExt messageExt) {
         if (BrokerRole.SYNC_MASTER == this.defaultMessageStore.getMessageStoreConfig().getBrokerRole()) {
             HAService service = this.defaultMessageStore.getHaService();
             if (messageExt.isWaitStoreMsgOK()) {
                 // Determine whether to wait
                 if (service.isSlaveOK(result.getWroteOffset() + result.getWroteBytes())) {
-                    GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
+                    GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes(),
+                        this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
                     service.putRequest(request);
                     service.getWaitNotifyObject().wakeupAll();
-                    boolean flushOK =
-                        request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
-                    if (!flushOK) {
-                        log.error("do sync transfer other node, wait return, but failed, topic: " + messageExt.getTopic() + " tags: "
-                            + messageExt.getTags() + " client address: " + messageExt.getBornHostNameString());
-                        putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
-                    }
+                    return this.recordWaitLatency(request.future(), LatencyPhase.PUT_REPLICA_WAIT);
                 }
                 // Slave problem
                 else {
                     // Tell the producer, slave not available
-                    putMessageResult.setPutMessageStatus(PutMessageStatus.SLAVE_NOT_AVAILABLE);
+                    return CompletableFuture.completedFuture(PutMessageStatus.SLAVE_NOT_AVAILABLE);
                 }
             }
         }
-
+        return CompletableFuture.completedFuture(PutMessageStatus.PUT_OK);
     }
 
-    public PutMessageResult putMessages(final MessageExtBatch messageExtBatch) {
+    public CompletableFuture<PutMessageResult> asyncPutMessages(final MessageExtBatch messageExtBatch) {
         messageExtBatch.setStoreTimestamp(System.currentTimeMillis());
         AppendMessageResult result;
 
@@ -708,10 +872,10 @@ public class CommitLog {
         final int tranType = MessageSysFlag.getTransactionValue(messageExtBatch.getSysFlag());
 
         if (tranType != MessageSysFlag.TRANSACTION_NOT_TYPE) {
-            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null));
         }
-        if (messageExtBatch.getDelayTimeLevel() > 0) {
-            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        if (messageExtBatch.getDelayTimeLevel() > 0 || messageExtBatch.getDeliverTimeMs() > 0) {
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null));
         }
 
         long eclipseTimeInLock = 0;
@@ -720,10 +884,32 @@ public class CommitLog {
 
         //fine-grained lock instead of the coarse-grained
         MessageExtBatchEncoder batchEncoder = batchEncoderThreadLocal.get();
+        long beginEncodeNanos = System.nanoTime();
+
+        ByteBuffer encodedBuff = batchEncoder.encode(messageExtBatch);
+        MessageStoreConfig messageStoreConfig = this.defaultMessageStore.getMessageStoreConfig();
+        if (messageStoreConfig.isCompressBatchEnable() && encodedBuff.remaining() >= messageStoreConfig.getCompressBatchOverHowmuch()) {
+            try {
+                ByteBuffer container = CompressedMessageBatch.encode(encodedBuff, messageExtBatch, messageStoreConfig.getCompressBatchLevel());
+                if (container != null) {
+                    encodedBuff = container;
+                }
+            } catch (IOException e) {
+                log.warn("compress batch failed, store it uncompressed, topic: " + messageExtBatch.getTopic(), e);
+            }
+        }
+        messageExtBatch.setEncodedBuff(encodedBuff);
+        storeStatsService.recordLatencySince(LatencyPhase.PUT_ENCODE, beginEncodeNanos);
 
-        messageExtBatch.setEncodedBuff(batchEncoder.encode(messageExtBatch));
+        if (this.concurrentAppender != null) {
+            result = this.concurrentAppender.append(messageExtBatch);
+            return this.handleConcurrentAppendResult(result, messageExtBatch, messageExtBatch.getTopic(),
+                result != null ? result.getMsgNum() : 0);
+        }
 
+        long beginLockNanos = System.nanoTime();
         putMessageLock.lock();
+        storeStatsService.recordLatencySince(LatencyPhase.PUT_LOCK_WAIT, beginLockNanos);
         try {
             long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
             this.beginTimeInLock = beginLockTimestamp;
@@ -738,7 +924,7 @@ public class CommitLog {
             if (null == mappedFile) {
                 log.error("Create mapped file1 error, topic: {} clientAddr: {}", messageExtBatch.getTopic(), messageExtBatch.getBornHostString());
                 beginTimeInLock = 0;
-                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
+                return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null));
             }
 
             result = mappedFile.appendMessages(messageExtBatch, this.appendMessageCallback);
@@ -753,20 +939,20 @@ public class CommitLog {
                         // XXX: warn and notify me
                         log.error("Create mapped file2 error, topic: {} clientAddr: {}", messageExtBatch.getTopic(), messageExtBatch.getBornHostString());
                         beginTimeInLock = 0;
-                        return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
+                        return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result));
                     }
                     result = mappedFile.appendMessages(messageExtBatch, this.appendMessageCallback);
                     break;
                 case MESSAGE_SIZE_EXCEEDED:
                 case PROPERTIES_SIZE_EXCEEDED:
                     beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+                    return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result));
                 case UNKNOWN_ERROR:
                     beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+                    return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result));
                 default:
                     beginTimeInLock = 0;
-                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+                    return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result));
             }
 
             eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
@@ -789,11 +975,7 @@ public class CommitLog {
         storeStatsService.getSinglePutMessageTopicTimesTotal(messageExtBatch.getTopic()).addAndGet(result.getMsgNum());
         storeStatsService.getSinglePutMessageTopicSizeTotal(messageExtBatch.getTopic()).addAndGet(result.getWroteBytes());
 
-        handleDiskFlush(result, putMessageResult, messageExtBatch);
-
-        handleHA(result, putMessageResult, messageExtBatch);
-
-        return putMessageResult;
+        return this.submitFlushAndReplicaRequests(result, putMessageResult, messageExtBatch);
     }
 
     /**
@@ -801,7 +983,9 @@ public class CommitLog {
      */
     public long pickupStoreTimestamp(final long offset, final int size) {
         if (offset >= this.getMinOffset()) {
-            SelectMappedBufferResult result = this.getMessage(offset, size);
+            // Messages of a compressed batch carry the store timestamp of the batch
+            SelectMappedBufferResult result = size == CompressedMessageBatch.INDEX_SLOT_SIZE
+                ? this.selectCompressedBatch(offset) : this.getMessage(offset, size);
             if (null != result) {
                 try {
                     return result.getByteBuffer().getLong(MessageDecoder.MESSAGE_STORE_TIMESTAMP_POSTION);
@@ -837,6 +1021,87 @@ public class CommitLog {
         return null;
     }
 
+    /**
+     * Find the message at the given physical offset when it lives in a compressed batch.
+     *
+     * @param offset Offset of the index slot of the message.
+     * @return The message, null if the offset is the start of an uncompressed message or no message at all.
+     */
+    public SelectMappedBufferResult getCompressedMessage(final long offset) {
+        CompressedMessageBatch batch = this.getCompressedBatch(offset);
+        return batch != null ? batch.selectBySlotOffset(offset) : null;
+    }
+
+    /**
+     * @param offset Offset of the index slot of a message in a compressed batch.
+     * @return The decompressed batch, null if there is no index slot at the offset.
+     */
+    public CompressedMessageBatch getCompressedBatch(final long offset) {
+        SelectMappedBufferResult result = this.selectCompressedBatch(offset);
+        if (result == null) {
+            return null;
+        }
+
+        try {
+            return this.decodeCompressedBatch(result.getByteBuffer());
+        } catch (IOException e) {
+            log.error("decompress batch holding " + offset + " failed", e);
+            return null;
+        } finally {
+            result.release();
+        }
+    }
+
+    /**
+     * Locate the container from the index stored in the slot, without scanning.
+     */
+    private SelectMappedBufferResult selectCompressedBatch(final long offset) {
+        int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset, false);
+        if (mappedFile == null) {
+            return null;
+        }
+
+        SelectMappedBufferResult slot = mappedFile.selectMappedBuffer((int) (offset % mappedFileSize), CompressedMessageBatch.INDEX_SLOT_SIZE);
+        if (slot == null) {
+            return null;
+        }
+        int index;
+        try {
+            index = slot.getByteBuffer().getInt();
+        } finally {
+            slot.release();
+        }
+
+        long containerOffset = CompressedMessageBatch.containerOffset(offset, index);
+        if (index < 0 || containerOffset < mappedFile.getFileFromOffset()) {
+            return null;
+        }
+        SelectMappedBufferResult result = mappedFile.selectMappedBuffer((int) (containerOffset % mappedFileSize));
+        if (result == null) {
+            return null;
+        }
+        if (!CompressedMessageBatch.isContainerOf(result.getByteBuffer(), containerOffset, index)) {
+            result.release();
+            return null;
+        }
+        int size = result.getByteBuffer().getInt(0);
+        result.getByteBuffer().limit(size);
+        result.setSize(size);
+        return result;
+    }
+
+    private CompressedMessageBatch decodeCompressedBatch(final ByteBuffer entry) throws IOException {
+        long containerOffset = entry.getLong(entry.position() + PHYSICAL_OFFSET_POSITION);
+        CompressedMessageBatch batch = this.compressedBatchCache.get(containerOffset);
+        // The crc tells apart a batch written again at the same offset after the commit log was truncated
+        if (batch == null || batch.getBodyCRC() != CompressedMessageBatch.bodyCRC(entry)) {
+            batch = CompressedMessageBatch.decode(entry);
+            this.compressedBatchCache.put(containerOffset, batch);
+        }
+        return batch;
+    }
+
     public long rollNextFile(final long offset) {
         int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
         return offset + mappedFileSize - offset % mappedFileSize;
@@ -848,6 +1113,9 @@ public class CommitLog {
 
     public void setTopicQueueTable(HashMap<String, Long> topicQueueTable) {
         this.topicQueueTable = topicQueueTable;
+        if (this.concurrentAppender != null) {
+            this.concurrentAppender.reset(this.getMaxOffset(), topicQueueTable);
+        }
     }
 
     public void destroy() {
@@ -878,6 +1146,9 @@ public class CommitLog {
         synchronized (this) {
             this.topicQueueTable.remove(key);
         }
+        if (this.concurrentAppender != null) {
+            this.concurrentAppender.removeQueue(key);
+        }
 
         log.info("removeQueueFromTopicQueueTable OK Topic: {} QueueId: {}", topic, queueId);
     }
@@ -1040,30 +1311,28 @@ public class CommitLog {
 
     public static class GroupCommitRequest {
         private final long nextOffset;
-        private final CountDownLatch countDownLatch = new CountDownLatch(1);
-        private volatile boolean flushOK = false;
+        private final long deadLine;
+        private final CompletableFuture<PutMessageStatus> flushOKFuture = new CompletableFuture<PutMessageStatus>();
 
-        public GroupCommitRequest(long nextOffset) {
+        public GroupCommitRequest(long nextOffset, long timeoutMillis) {
             this.nextOffset = nextOffset;
+            this.deadLine = System.currentTimeMillis() + timeoutMillis;
         }
 
         public long getNextOffset() {
             return nextOffset;
         }
 
-        public void wakeupCustomer(final boolean flushOK) {
-            this.flushOK = flushOK;
-            this.countDownLatch.countDown();
+        public long getDeadLine() {
+            return deadLine;
         }
 
-        public boolean waitForFlush(long timeout) {
-            try {
-                this.countDownLatch.await(timeout, TimeUnit.MILLISECONDS);
-                return this.flushOK;
-            } catch (InterruptedException e) {
-                log.error("Interrupted", e);
-                return false;
-            }
+        public void wakeupCustomer(final PutMessageStatus putMessageStatus) {
+            this.flushOKFuture.complete(putMessageStatus);
+        }
+
+        public CompletableFuture<PutMessageStatus> future() {
+            return flushOKFuture;
         }
     }
 
@@ -1071,53 +1340,36 @@ public class CommitLog {
      * GroupCommit Service
      */
     class GroupCommitService extends FlushCommitLogService {
-        private volatile List<GroupCommitRequest> requestsWrite = new ArrayList<GroupCommitRequest>();
-        private volatile List<GroupCommitRequest> requestsRead = new ArrayList<GroupCommitRequest>();
+        private final ConcurrentLinkedQueue<GroupCommitRequest> requests = new ConcurrentLinkedQueue<GroupCommitRequest>();
 
-        public synchronized void putRequest(final GroupCommitRequest request) {
-            synchronized (this.requestsWrite) {
-                this.requestsWrite.add(request);
-            }
-            if (hasNotified.compareAndSet(false, true)) {
-                waitPoint.countDown(); // notify
-            }
-        }
-
-        private void swapRequests() {
-            List<GroupCommitRequest> tmp = this.requestsWrite;
-            this.requestsWrite = this.requestsRead;
-            this.requestsRead = tmp;
+        public void putRequest(final GroupCommitRequest request) {
+            this.requests.offer(request);
+            this.wakeup();
         }
 
         private void doCommit() {
-            synchronized (this.requestsRead) {
-                if (!this.requestsRead.isEmpty()) {
-                    for (GroupCommitRequest req : this.requestsRead) {
-                        // There may be a message in the next file, so a maximum of
-                        // two times the flush
-                        boolean flushOK = false;
-                        for (int i = 0; i < 2 && !flushOK; i++) {
-                            flushOK = CommitLog.this.mappedFileQueue.getFlushedWhere() >= req.getNextOffset();
-
-                            if (!flushOK) {
-                                CommitLog.this.mappedFileQueue.flush(0);
-                            }
-                        }
-
-                        req.wakeupCustomer(flushOK);
+            GroupCommitRequest req = this.requests.poll();
+            if (req != null) {
+                for (; req != null; req = this.requests.poll()) {
+                    // There may be a message in the next file, so a maximum of
+                    // two times the flush, checked after each one
+                    boolean flushOK = CommitLog.this.mappedFileQueue.getFlushedWhere() >= req.getNextOffset();
+                    for (int i = 0; i < 2 && !flushOK; i++) {
+                        CommitLog.this.mappedFileQueue.flush(0);
+                        flushOK = CommitLog.this.mappedFileQueue.getFlushedWhere() >= req.getNextOffset();
                     }
 
-                    long storeTimestamp = CommitLog.this.mappedFileQueue.getStoreTimestamp();
-                    if (storeTimestamp > 0) {
-                        CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgTimestamp(storeTimestamp);
-                    }
+                    req.wakeupCustomer(flushOK ? PutMessageStatus.PUT_OK : PutMessageStatus.FLUSH_DISK_TIMEOUT);
+                }
 
-                    this.requestsRead.clear();
-                } else {
-                    // Because of individual messages is set to not sync flush, it
-                    // will come to this process
-                    CommitLog.this.mappedFileQueue.flush(0);
+                long storeTimestamp = CommitLog.this.mappedFileQueue.getStoreTimestamp();
+                if (storeTimestamp > 0) {
+                    CommitLog.this.defaultMessageStore.getStoreCheckpoint().setPhysicMsgTimestamp(storeTimestamp);
                 }
+            } else {
+                // Because of individual messages is set to not sync flush, it
+                // will come to this process
+                CommitLog.this.mappedFileQueue.flush(0);
             }
         }
 
@@ -1141,20 +1393,11 @@ public class CommitLog {
                 CommitLog.log.warn("GroupCommitService Exception, ", e);
             }
 
-            synchronized (this) {
-                this.swapRequests();
-            }
-
             this.doCommit();
 
             CommitLog.log.info(this.getServiceName() + " service end");
         }
 
-        @Override
-        protected void onWaitEnd() {
-            this.swapRequests();
-        }
-
         @Override
         public String getServiceName() {
             return GroupCommitService.class.getSimpleName();
@@ -1181,10 +1424,14 @@ public class CommitLog {
 
         private final ByteBuffer hostHolder = ByteBuffer.allocate(8);
 
+        // Serializes single messages, shared with the lock free append
+        private final MessageExtEncoder encoder;
+
         DefaultAppendMessageCallback(final int size) {
             this.msgIdMemory = ByteBuffer.allocate(MessageDecoder.MSG_ID_LENGTH);
             this.msgStoreItemMemory = ByteBuffer.allocate(size + END_FILE_MIN_BLANK_LENGTH);
             this.maxMessageSize = size;
+            this.encoder = new MessageExtEncoder(size);
         }
 
         public ByteBuffer getMsgStoreItemMemory() {
@@ -1194,6 +1441,7 @@ public class CommitLog {
         public AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer, final int maxBlank,
             final MessageExtBrokerInner msgInner) {
             // STORETIMESTAMP + STOREHOSTADDRESS + OFFSET <br>
+            final long beginEncodeNanos = System.nanoTime();
 
             // PHY OFFSET
             long wroteOffset = fileFromOffset + byteBuffer.position();
@@ -1231,29 +1479,12 @@ public class CommitLog {
             /**
              * Serialize message
              */
-            final byte[] propertiesData =
-                msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
-
-            final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
-
-            if (propertiesLength > Short.MAX_VALUE) {
-                log.warn("putMessage message properties length too long. length={}", propertiesData.length);
-                return new AppendMessageResult(AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED);
-            }
-
-            final byte[] topicData = msgInner.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
-            final int topicLength = topicData.length;
-
-            final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
-
-            final int msgLen = calMsgLength(bodyLength, topicLength, propertiesLength);
-
-            // Exceeds the maximum message
-            if (msgLen > this.maxMessageSize) {
-                CommitLog.log.warn("message size exceeded, msg total size: " + msgLen + ", msg body size: " + bodyLength
-                    + ", maxMessageSize: " + this.maxMessageSize);
-                return new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED);
+            AppendMessageStatus status = this.encoder.encode(msgInner);
+            if (status != AppendMessageStatus.PUT_OK) {
+                return new AppendMessageResult(status);
             }
+            final ByteBuffer encoded = this.encoder.getEncoderBuffer();
+            final int msgLen = encoded.limit();
 
             // Determines whether there is sufficient free space
             if ((msgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
@@ -1270,54 +1501,18 @@ public class CommitLog {
                     queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
             }
 
-            // Initialization of storage space
-            this.resetByteBuffer(msgStoreItemMemory, msgLen);
-            // 1 TOTALSIZE
-            this.msgStoreItemMemory.putInt(msgLen);
-            // 2 MAGICCODE
-            this.msgStoreItemMemory.putInt(CommitLog.MESSAGE_MAGIC_CODE);
-            // 3 BODYCRC
-            this.msgStoreItemMemory.putInt(msgInner.getBodyCRC());
-            // 4 QUEUEID
-            this.msgStoreItemMemory.putInt(msgInner.getQueueId());
-            // 5 FLAG
-            this.msgStoreItemMemory.putInt(msgInner.getFlag());
             // 6 QUEUEOFFSET
-            this.msgStoreItemMemory.putLong(queueOffset);
+            encoded.putLong(QUEUE_OFFSET_POSITION, queueOffset);
             // 7 PHYSICALOFFSET
-            this.msgStoreItemMemory.putLong(fileFromOffset + byteBuffer.position());
-            // 8 SYSFLAG
-            this.msgStoreItemMemory.putInt(msgInner.getSysFlag());
-            // 9 BORNTIMESTAMP
-            this.msgStoreItemMemory.putLong(msgInner.getBornTimestamp());
-            // 10 BORNHOST
-            this.resetByteBuffer(hostHolder, 8);
-            this.msgStoreItemMemory.put(msgInner.getBornHostBytes(hostHolder));
-            // 11 STORETIMESTAMP
-            this.msgStoreItemMemory.putLong(msgInner.getStoreTimestamp());
-            // 12 STOREHOSTADDRESS
-            this.resetByteBuffer(hostHolder, 8);
-            this.msgStoreItemMemory.put(msgInner.getStoreHostBytes(hostHolder));
-            //this.msgBatchMemory.put(msgInner.getStoreHostBytes());
-            // 13 RECONSUMETIMES
-            this.msgStoreItemMemory.putInt(msgInner.getReconsumeTimes());
-            // 14 Prepared Transaction Offset
-            this.msgStoreItemMemory.putLong(msgInner.getPreparedTransactionOffset());
-            // 15 BODY
-            this.msgStoreItemMemory.putInt(bodyLength);
-            if (bodyLength > 0)
-                this.msgStoreItemMemory.put(msgInner.getBody());
-            // 16 TOPIC
-            this.msgStoreItemMemory.put((byte) topicLength);
-            this.msgStoreItemMemory.put(topicData);
-            // 17 PROPERTIES
-            this.msgStoreItemMemory.putShort((short) propertiesLength);
-            if (propertiesLength > 0)
-                this.msgStoreItemMemory.put(propertiesData);
+            encoded.putLong(PHYSICAL_OFFSET_POSITION, wroteOffset);
 
+            final StoreStatsService storeStatsService = CommitLog.this.defaultMessageStore.getStoreStatsService();
+            final long beginWriteNanos = System.nanoTime();
+            storeStatsService.recordLatency(LatencyPhase.PUT_ENCODE, (beginWriteNanos - beginEncodeNanos) / 1000);
             final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
             // Write messages to the queue buffer
-            byteBuffer.put(this.msgStoreItemMemory.array(), 0, msgLen);
+            byteBuffer.put(encoded.array(), 0, msgLen);
+            storeStatsService.recordLatencySince(LatencyPhase.PUT_WRITE, beginWriteNanos);
 
             AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, msgId,
                 msgInner.getStoreTimestamp(), queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
@@ -1395,21 +1590,28 @@ public class CommitLog {
                 messagesByteBuff.putLong(queueOffset);
                 messagesByteBuff.putLong(wroteOffset + totalMsgLen - msgLen);
 
-                storeHostBytes.rewind();
-                String msgId = MessageDecoder.createMessageId(this.msgIdMemory, storeHostBytes, wroteOffset + totalMsgLen - msgLen);
-                if (msgIdBuilder.length() > 0) {
-                    msgIdBuilder.append(',').append(msgId);
-                } else {
-                    msgIdBuilder.append(msgId);
+                // A compressed batch stands for several messages addressed by their slots inside it
+                int innerNum = CompressedMessageBatch.messageNum(messagesByteBuff, msgPos);
+                for (int i = 0; i < innerNum; i++) {
+                    storeHostBytes.rewind();
+                    long msgOffset = CompressedMessageBatch.messageOffset(messagesByteBuff, msgPos, wroteOffset + totalMsgLen - msgLen, i);
+                    String msgId = MessageDecoder.createMessageId(this.msgIdMemory, storeHostBytes, msgOffset);
+                    if (msgIdBuilder.length() > 0) {
+                        msgIdBuilder.append(',').append(msgId);
+                    } else {
+                        msgIdBuilder.append(msgId);
+                    }
                 }
-                queueOffset++;
-                msgNum++;
+                queueOffset += innerNum;
+                msgNum += innerNum;
                 messagesByteBuff.position(msgPos + msgLen);
             }
 
             messagesByteBuff.position(0);
             messagesByteBuff.limit(totalMsgLen);
+            final long beginWriteNanos = System.nanoTime();
             byteBuffer.put(messagesByteBuff);
+            CommitLog.this.defaultMessageStore.getStoreStatsService().recordLatencySince(LatencyPhase.PUT_WRITE, beginWriteNanos);
             messageExtBatch.setEncodedBuff(null);
             AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalMsgLen, msgIdBuilder.toString(),
                 messageExtBatch.getStoreTimestamp(), beginQueueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
@@ -1426,6 +1628,112 @@ public class CommitLog {
 
     }
 
+    /**
+     * Serializes a message ahead of the append, leaving its queue offset, physical offset and store timestamp to be
+     * filled in at {@link #QUEUE_OFFSET_POSITION}, {@link #PHYSICAL_OFFSET_POSITION} and
+     * {@link #STORE_TIMESTAMP_POSITION}.
+     */
+    public static class MessageExtEncoder {
+        // Store the message content
+        private final ByteBuffer msgStoreItemMemory;
+        // The maximum length of the message
+        private final int maxMessageSize;
+
+        private final ByteBuffer hostHolder = ByteBuffer.allocate(8);
+
+        private final ByteBuffer msgIdMemory = ByteBuffer.allocate(MessageDecoder.MSG_ID_LENGTH);
+
+        MessageExtEncoder(final int size) {
+            this.msgStoreItemMemory = ByteBuffer.allocate(size);
+            this.maxMessageSize = size;
+        }
+
+        public AppendMessageStatus encode(final MessageExtBrokerInner msgInner) {
+            final byte[] propertiesData =
+                msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
+
+            final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
+
+            if (propertiesLength > Short.MAX_VALUE) {
+                log.warn("putMessage message properties length too long. length={}", propertiesData.length);
+                return AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED;
+            }
+
+            final byte[] topicData = msgInner.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
+            final int topicLength = topicData.length;
+
+            final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
+
+            final int msgLen = calMsgLength(bodyLength, topicLength, propertiesLength);
+
+            // Exceeds the maximum message
+            if (msgLen > this.maxMessageSize) {
+                CommitLog.log.warn("message size exceeded, msg total size: " + msgLen + ", msg body size: " + bodyLength
+                    + ", maxMessageSize: " + this.maxMessageSize);
+                return AppendMessageStatus.MESSAGE_SIZE_EXCEEDED;
+            }
+
+            this.msgStoreItemMemory.clear();
+            // 1 TOTALSIZE
+            this.msgStoreItemMemory.putInt(msgLen);
+            // 2 MAGICCODE
+            this.msgStoreItemMemory.putInt(CommitLog.MESSAGE_MAGIC_CODE);
+            // 3 BODYCRC
+            this.msgStoreItemMemory.putInt(msgInner.getBodyCRC());
+            // 4 QUEUEID
+            this.msgStoreItemMemory.putInt(msgInner.getQueueId());
+            // 5 FLAG
+            this.msgStoreItemMemory.putInt(msgInner.getFlag());
+            // 6 QUEUEOFFSET, filled in on append
+            this.msgStoreItemMemory.putLong(0);
+            // 7 PHYSICALOFFSET, filled in on append
+            this.msgStoreItemMemory.putLong(0);
+            // 8 SYSFLAG
+            this.msgStoreItemMemory.putInt(msgInner.getSysFlag());
+            // 9 BORNTIMESTAMP
+            this.msgStoreItemMemory.putLong(msgInner.getBornTimestamp());
+            // 10 BORNHOST
+            this.resetByteBuffer(hostHolder, 8);
+            this.msgStoreItemMemory.put(msgInner.getBornHostBytes(hostHolder));
+            // 11 STORETIMESTAMP, filled in on append
+            this.msgStoreItemMemory.putLong(msgInner.getStoreTimestamp());
+            // 12 STOREHOSTADDRESS
+            this.resetByteBuffer(hostHolder, 8);
+            this.msgStoreItemMemory.put(msgInner.getStoreHostBytes(hostHolder));
+            // 13 RECONSUMETIMES
+            this.msgStoreItemMemory.putInt(msgInner.getReconsumeTimes());
+            // 14 Prepared Transaction Offset
+            this.msgStoreItemMemory.putLong(msgInner.getPreparedTransactionOffset());
+            // 15 BODY
+            this.msgStoreItemMemory.putInt(bodyLength);
+            if (bodyLength > 0)
+                this.msgStoreItemMemory.put(msgInner.getBody());
+            // 16 TOPIC
+            this.msgStoreItemMemory.put((byte) topicLength);
+            this.msgStoreItemMemory.put(topicData);
+            // 17 PROPERTIES
+            this.msgStoreItemMemory.putShort((short) propertiesLength);
+            if (propertiesLength > 0)
+                this.msgStoreItemMemory.put(propertiesData);
+            this.msgStoreItemMemory.flip();
+            return AppendMessageStatus.PUT_OK;
+        }
+
+        public ByteBuffer getEncoderBuffer() {
+            return msgStoreItemMemory;
+        }
+
+        public String createMessageId(final MessageExt messageExt, final long offset) {
+            this.resetByteBuffer(hostHolder, 8);
+            return MessageDecoder.createMessageId(this.msgIdMemory, messageExt.getStoreHostBytes(hostHolder), offset);
+        }
+
+        private void resetByteBuffer(final ByteBuffer byteBuffer, final int limit) {
+            byteBuffer.flip();
+            byteBuffer.limit(limit);
+        }
+    }
+
     public static class MessageExtBatchEncoder {
         // Store the message content
         private final ByteBuffer msgBatchMemory;
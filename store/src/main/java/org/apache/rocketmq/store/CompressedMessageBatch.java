@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+
+/**
+ * Messages of one batch stored as a single compressed commit log entry.
+ * <p>
+ * The container is a regular commit log entry: its sys flag carries {@link MessageSysFlag#COMPRESSED_BATCH_FLAG},
+ * its flag holds the number of messages and its queue offset the queue offset of the first message. Its body starts
+ * with an uncompressed index table, slot i holding i, followed by the zlib-compressed messages in commit log format.
+ * Message i is addressed by the physical offset of its slot: the consume queue entry, the index and the message id
+ * all carry that offset with the size {@link #INDEX_SLOT_SIZE}, and the container is found back from it in O(1) by
+ * {@link #containerOffset(long, int)}.
+ */
+public class CompressedMessageBatch {
+    private static final int BODY_CRC_POSITION = 8;
+    private static final int FLAG_POSITION = 16;
+    private static final int QUEUE_OFFSET_POSITION = 20;
+    private static final int PHYSICAL_OFFSET_POSITION = 28;
+    private static final int SYS_FLAG_POSITION = 36;
+    private static final int STORE_TIMESTAMP_POSITION = 56;
+    private static final int BODY_POSITION = 84;
+    private static final int INDEX_TABLE_POSITION = BODY_POSITION + 4;
+
+    /**
+     * Consume queue size of a message in a compressed batch, no regular commit log entry is that small.
+     */
+    public static final int INDEX_SLOT_SIZE = 4;
+
+    private final long containerOffset;
+    private final int bodyCRC;
+    private final long baseQueueOffset;
+    private final byte[] messages;
+    private final int[] positions;
+
+    private CompressedMessageBatch(long containerOffset, int bodyCRC, long baseQueueOffset, byte[] messages,
+        int[] positions) {
+        this.containerOffset = containerOffset;
+        this.bodyCRC = bodyCRC;
+        this.baseQueueOffset = baseQueueOffset;
+        this.messages = messages;
+        this.positions = positions;
+    }
+
+    /**
+     * Wrap encoded messages into a container.
+     *
+     * @param encoded Messages encoded by {@link CommitLog.MessageExtBatchEncoder}, from position to limit.
+     * @return Container ready to append, null if compressing does not make it smaller.
+     */
+    public static ByteBuffer encode(final ByteBuffer encoded, final MessageExtBatch messageExtBatch,
+        final int compressLevel) throws IOException {
+        byte[] raw = new byte[encoded.remaining()];
+        encoded.duplicate().get(raw);
+
+        int msgNum = 0;
+        for (int pos = 0; pos < raw.length; pos += ByteBuffer.wrap(raw, pos, 4).getInt()) {
+            msgNum++;
+        }
+
+        byte[] compressed = UtilAll.compress(raw, compressLevel);
+        ByteBuffer body = ByteBuffer.allocate(msgNum * INDEX_SLOT_SIZE + compressed.length);
+        for (int i = 0; i < msgNum; i++) {
+            body.putInt(i);
+        }
+        body.put(compressed);
+        byte[] topicData = messageExtBatch.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
+        int msgLen = CommitLog.calMsgLength(body.capacity(), topicData.length, 0);
+        if (msgLen >= raw.length) {
+            return null;
+        }
+
+        ByteBuffer container = ByteBuffer.allocate(msgLen);
+        // 1 TOTALSIZE
+        container.putInt(msgLen);
+        // 2 MAGICCODE
+        container.putInt(CommitLog.MESSAGE_MAGIC_CODE);
+        // 3 BODYCRC
+        container.putInt(UtilAll.crc32(body.array()));
+        // 4 QUEUEID
+        container.putInt(messageExtBatch.getQueueId());
+        // 5 FLAG, number of messages
+        container.putInt(msgNum);
+        // 6 QUEUEOFFSET
+        container.putLong(0);
+        // 7 PHYSICALOFFSET
+        container.putLong(0);
+        // 8 SYSFLAG
+        container.putInt(messageExtBatch.getSysFlag() | MessageSysFlag.COMPRESSED_BATCH_FLAG);
+        // 9 BORNTIMESTAMP
+        container.putLong(messageExtBatch.getBornTimestamp());
+        // 10 BORNHOST
+        container.put(messageExtBatch.getBornHostBytes());
+        // 11 STORETIMESTAMP
+        container.putLong(messageExtBatch.getStoreTimestamp());
+        // 12 STOREHOSTADDRESS
+        container.put(messageExtBatch.getStoreHostBytes());
+        // 13 RECONSUMETIMES
+        container.putInt(messageExtBatch.getReconsumeTimes());
+        // 14 Prepared Transaction Offset
+        container.putLong(0);
+        // 15 BODY, index table and compressed messages
+        container.putInt(body.capacity());
+        container.put(body.array());
+        // 16 TOPIC
+        container.put((byte) topicData.length);
+        container.put(topicData);
+        // 17 PROPERTIES
+        container.putShort((short) 0);
+        container.flip();
+        return container;
+    }
+
+    /**
+     * @param entry Buffer positioned at the start of a commit log entry.
+     */
+    public static boolean isCompressedBatch(final ByteBuffer entry) {
+        int pos = entry.position();
+        return entry.remaining() >= BODY_POSITION
+            && entry.getInt(pos + 4) == CommitLog.MESSAGE_MAGIC_CODE
+            && MessageSysFlag.isCompressedBatch(entry.getInt(pos + SYS_FLAG_POSITION));
+    }
+
+    /**
+     * @return Number of messages the entry at the given position stands for.
+     */
+    public static int messageNum(final ByteBuffer entry, final int pos) {
+        if (MessageSysFlag.isCompressedBatch(entry.getInt(pos + SYS_FLAG_POSITION))) {
+            return entry.getInt(pos + FLAG_POSITION);
+        }
+        return 1;
+    }
+
+    /**
+     * @return Physical offset message index of the entry at the given position is addressed by.
+     */
+    public static long messageOffset(final ByteBuffer entry, final int pos, final long entryOffset, final int index) {
+        if (MessageSysFlag.isCompressedBatch(entry.getInt(pos + SYS_FLAG_POSITION))) {
+            return slotOffset(entryOffset, index);
+        }
+        return entryOffset;
+    }
+
+    /**
+     * @return Physical offset of the slot addressing message index of the container at the given offset.
+     */
+    public static long slotOffset(final long containerOffset, final int index) {
+        return containerOffset + INDEX_TABLE_POSITION + (long) index * INDEX_SLOT_SIZE;
+    }
+
+    /**
+     * @param index Content of the slot at the given offset.
+     * @return Physical offset of the container the slot would belong to.
+     */
+    public static long containerOffset(final long slotOffset, final int index) {
+        return slotOffset - INDEX_TABLE_POSITION - (long) index * INDEX_SLOT_SIZE;
+    }
+
+    /**
+     * Check that the entry is the container whose slot index was used to locate it.
+     *
+     * @param entry Buffer positioned at the start of the entry.
+     */
+    public static boolean isContainerOf(final ByteBuffer entry, final long containerOffset, final int index) {
+        int pos = entry.position();
+        return index >= 0
+            && entry.remaining() >= INDEX_TABLE_POSITION
+            && isCompressedBatch(entry)
+            && entry.getLong(pos + PHYSICAL_OFFSET_POSITION) == containerOffset
+            && index < entry.getInt(pos + FLAG_POSITION);
+    }
+
+    /**
+     * @param entry Buffer positioned at the start of a container.
+     */
+    public static int bodyCRC(final ByteBuffer entry) {
+        return entry.getInt(entry.position() + BODY_CRC_POSITION);
+    }
+
+    /**
+     * Decompress a container, filling in the queue offset, physical offset and store timestamp of every message.
+     *
+     * @param entry Buffer positioned at the start of the container.
+     */
+    public static CompressedMessageBatch decode(final ByteBuffer entry) throws IOException {
+        int pos = entry.position();
+        int msgNum = entry.getInt(pos + FLAG_POSITION);
+        long baseQueueOffset = entry.getLong(pos + QUEUE_OFFSET_POSITION);
+        long containerOffset = entry.getLong(pos + PHYSICAL_OFFSET_POSITION);
+        long storeTimestamp = entry.getLong(pos + STORE_TIMESTAMP_POSITION);
+        byte[] body = new byte[entry.getInt(pos + BODY_POSITION) - msgNum * INDEX_SLOT_SIZE];
+        ByteBuffer bodyBuffer = entry.duplicate();
+        bodyBuffer.position(pos + INDEX_TABLE_POSITION + msgNum * INDEX_SLOT_SIZE);
+        bodyBuffer.get(body);
+
+        byte[] messages = UtilAll.uncompress(body);
+        ByteBuffer buffer = ByteBuffer.wrap(messages);
+        int[] positions = new int[msgNum + 1];
+        int msgPos = 0;
+        for (int i = 0; i < msgNum; i++) {
+            if (msgPos + BODY_POSITION > messages.length) {
+                throw new IOException("compressed batch at " + containerOffset + " holds less than " + msgNum + " messages");
+            }
+            positions[i] = msgPos;
+            buffer.putLong(msgPos + QUEUE_OFFSET_POSITION, baseQueueOffset + i);
+            buffer.putLong(msgPos + PHYSICAL_OFFSET_POSITION, slotOffset(containerOffset, i));
+            buffer.putLong(msgPos + STORE_TIMESTAMP_POSITION, storeTimestamp);
+            msgPos += buffer.getInt(msgPos);
+        }
+        positions[msgNum] = msgPos;
+        return new CompressedMessageBatch(containerOffset, bodyCRC(entry), baseQueueOffset, messages, positions);
+    }
+
+    public long getContainerOffset() {
+        return containerOffset;
+    }
+
+    public int getBodyCRC() {
+        return bodyCRC;
+    }
+
+    public long getBaseQueueOffset() {
+        return baseQueueOffset;
+    }
+
+    public int getMessageNum() {
+        return positions.length - 1;
+    }
+
+    public int getMessageSize(final int index) {
+        return positions[index + 1] - positions[index];
+    }
+
+    public ByteBuffer getMessage(final int index) {
+        return ByteBuffer.wrap(this.messages, positions[index], this.getMessageSize(index)).slice();
+    }
+
+    public SelectMappedBufferResult select(final int index) {
+        if (index < 0 || index >= this.getMessageNum()) {
+            return null;
+        }
+        return new SelectMappedBufferResult(slotOffset(this.containerOffset, index), this.getMessage(index),
+            this.getMessageSize(index), null);
+    }
+
+    /**
+     * @return Index of the message addressed by the slot at the given offset, -1 if the slot is not in this batch.
+     */
+    public int indexOf(final long slotOffset) {
+        long index = (slotOffset - slotOffset(this.containerOffset, 0)) / INDEX_SLOT_SIZE;
+        if (slotOffset < slotOffset(this.containerOffset, 0) || index >= this.getMessageNum()
+            || slotOffset(this.containerOffset, (int) index) != slotOffset) {
+            return -1;
+        }
+        return (int) index;
+    }
+
+    public SelectMappedBufferResult selectBySlotOffset(final long slotOffset) {
+        return this.select(this.indexOf(slotOffset));
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.StoreStatsService.LatencyPhase;
+import org.apache.rocketmq.store.config.FlushDiskType;
+
+/**
+ * Commit log appends without the put message lock.
+ * <p>
+ * Producers encode their messages on their own thread and reserve space by CAS on the reserve offset. The producer
+ * whose message does not fit the current file moves the reserve offset to the next one, creating it first, and fills
+ * the rest of the file with the end of file blank. Queue offsets come from per queue counters and are taken together
+ * with the space under the spin lock of the counter, so the messages of a queue are laid out in queue offset order
+ * while different queues never wait for each other.
+ * <p>
+ * Producers finish writing out of order. The wrote positions seen by the reput, flush and HA services only advance
+ * over the completed prefix of the reserved space, whichever producer closes a gap advances them over the regions
+ * completed behind it. Producers only wait for their own region to become visible under sync flush, the sync master
+ * wait that follows an append already covers it. They park on a condition signalled by whichever thread advances the
+ * visible offset, which only takes the lock when someone waits.
+ */
+class ConcurrentAppender {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    // File at the end of the minimum fixed length empty
+    private static final int END_FILE_MIN_BLANK_LENGTH = 4 + 4;
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private final MappedFileQueue mappedFileQueue;
+
+    private final int mappedFileSize;
+
+    private final ThreadLocal<CommitLog.MessageExtEncoder> encoderThreadLocal;
+
+    private final ConcurrentMap<String/* topic-queueid */, QueueOffsetCounter> queueOffsetTable =
+        new ConcurrentHashMap<String, QueueOffsetCounter>(1024);
+
+    private final AtomicLong reserveOffset = new AtomicLong(0);
+
+    /**
+     * End of the completed prefix, only moved by the thread holding {@link #advancing}.
+     */
+    private volatile long visibleOffset = 0;
+
+    private final ConcurrentSkipListMap<Long/* offset */, CompletedRegion> completedRegions =
+        new ConcurrentSkipListMap<Long, CompletedRegion>();
+
+    private final AtomicBoolean advancing = new AtomicBoolean(false);
+
+    private final boolean waitVisible;
+
+    private final ReentrantLock visibleLock = new ReentrantLock();
+
+    private final Condition visibleCondition = this.visibleLock.newCondition();
+
+    private final AtomicInteger visibleWaiters = new AtomicInteger(0);
+
+    ConcurrentAppender(final DefaultMessageStore defaultMessageStore, final MappedFileQueue mappedFileQueue) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.mappedFileQueue = mappedFileQueue;
+        this.mappedFileSize = defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
+        this.waitVisible = FlushDiskType.SYNC_FLUSH == defaultMessageStore.getMessageStoreConfig().getFlushDiskType();
+        this.encoderThreadLocal = new ThreadLocal<CommitLog.MessageExtEncoder>() {
+            @Override
+            protected CommitLog.MessageExtEncoder initialValue() {
+                return new CommitLog.MessageExtEncoder(defaultMessageStore.getMessageStoreConfig().getMaxMessageSize());
+            }
+        };
+    }
+
+    /**
+     * Continue appending at the given offset with the queue offsets recovered from the commit log, while no append is
+     * in progress.
+     */
+    public void reset(final long maxOffset, final Map<String, Long> topicQueueTable) {
+        this.queueOffsetTable.clear();
+        for (Map.Entry<String, Long> entry : topicQueueTable.entrySet()) {
+            this.queueOffsetTable.put(entry.getKey(), new QueueOffsetCounter(entry.getValue()));
+        }
+        this.completedRegions.clear();
+        this.reserveOffset.set(maxOffset);
+        this.visibleOffset = maxOffset;
+        log.info("concurrent appender reset to offset {}, {} queues", maxOffset, this.queueOffsetTable.size());
+    }
+
+    public void removeQueue(final String key) {
+        this.queueOffsetTable.remove(key);
+    }
+
+    /**
+     * @return Result of the append, null if the mapped file to append to could not be created.
+     */
+    public AppendMessageResult append(final MessageExtBrokerInner msgInner) {
+        final StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+        CommitLog.MessageExtEncoder encoder = this.encoderThreadLocal.get();
+        long beginNanos = System.nanoTime();
+        AppendMessageStatus status = encoder.encode(msgInner);
+        if (status != AppendMessageStatus.PUT_OK) {
+            return new AppendMessageResult(status);
+        }
+        storeStatsService.recordLatencySince(LatencyPhase.PUT_ENCODE, beginNanos);
+        ByteBuffer encoded = encoder.getEncoderBuffer();
+        final int msgLen = encoded.limit();
+
+        long wroteOffset;
+        long queueOffset = 0L;
+        final int tranType = MessageSysFlag.getTransactionValue(msgInner.getSysFlag());
+        switch (tranType) {
+            // Prepared and Rollback message is not consumed, will not enter the consumer queue
+            case MessageSysFlag.TRANSACTION_PREPARED_TYPE:
+            case MessageSysFlag.TRANSACTION_ROLLBACK_TYPE:
+                wroteOffset = this.reserve(msgLen);
+                msgInner.setStoreTimestamp(this.defaultMessageStore.getSystemClock().now());
+                break;
+            case MessageSysFlag.TRANSACTION_NOT_TYPE:
+            case MessageSysFlag.TRANSACTION_COMMIT_TYPE:
+            default:
+                QueueOffsetCounter queueOffsetCounter = this.getQueueOffsetCounter(msgInner.getTopic(), msgInner.getQueueId());
+                beginNanos = System.nanoTime();
+                queueOffsetCounter.lock.lock();
+                storeStatsService.recordLatencySince(LatencyPhase.PUT_LOCK_WAIT, beginNanos);
+                try {
+                    wroteOffset = this.reserve(msgLen);
+                    if (wroteOffset >= 0) {
+                        queueOffset = queueOffsetCounter.offset++;
+                    }
+                    msgInner.setStoreTimestamp(this.defaultMessageStore.getSystemClock().now());
+                } finally {
+                    queueOffsetCounter.lock.unlock();
+                }
+                break;
+        }
+        if (wroteOffset < 0) {
+            return null;
+        }
+
+        encoded.putLong(CommitLog.QUEUE_OFFSET_POSITION, queueOffset);
+        encoded.putLong(CommitLog.PHYSICAL_OFFSET_POSITION, wroteOffset);
+        encoded.putLong(CommitLog.STORE_TIMESTAMP_POSITION, msgInner.getStoreTimestamp());
+
+        final long beginTimeMills = this.defaultMessageStore.now();
+        beginNanos = System.nanoTime();
+        this.write(wroteOffset, encoded);
+        storeStatsService.recordLatencySince(LatencyPhase.PUT_WRITE, beginNanos);
+
+        return new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, encoder.createMessageId(msgInner, wroteOffset),
+            msgInner.getStoreTimestamp(), queueOffset, this.defaultMessageStore.now() - beginTimeMills);
+    }
+
+    /**
+     * @return Result of the append, null if the mapped file to append to could not be created.
+     */
+    public AppendMessageResult append(final MessageExtBatch messageExtBatch) {
+        ByteBuffer messagesByteBuff = messageExtBatch.getEncodedBuff();
+        final int totalMsgLen = messagesByteBuff.limit();
+        int msgNum = 0;
+        for (int pos = 0; pos < totalMsgLen; pos += messagesByteBuff.getInt(pos)) {
+            msgNum += CompressedMessageBatch.messageNum(messagesByteBuff, pos);
+        }
+
+        long wroteOffset;
+        long beginQueueOffset;
+        final StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+        QueueOffsetCounter queueOffsetCounter = this.getQueueOffsetCounter(messageExtBatch.getTopic(), messageExtBatch.getQueueId());
+        long beginNanos = System.nanoTime();
+        queueOffsetCounter.lock.lock();
+        storeStatsService.recordLatencySince(LatencyPhase.PUT_LOCK_WAIT, beginNanos);
+        try {
+            wroteOffset = this.reserve(totalMsgLen);
+            if (wroteOffset < 0) {
+                return null;
+            }
+            beginQueueOffset = queueOffsetCounter.offset;
+            queueOffsetCounter.offset += msgNum;
+            messageExtBatch.setStoreTimestamp(this.defaultMessageStore.getSystemClock().now());
+        } finally {
+            queueOffsetCounter.lock.unlock();
+        }
+
+        CommitLog.MessageExtEncoder encoder = this.encoderThreadLocal.get();
+        StringBuilder msgIdBuilder = new StringBuilder();
+        long queueOffset = beginQueueOffset;
+        for (int pos = 0; pos < totalMsgLen; pos += messagesByteBuff.getInt(pos)) {
+            messagesByteBuff.putLong(pos + CommitLog.QUEUE_OFFSET_POSITION, queueOffset);
+            messagesByteBuff.putLong(pos + CommitLog.PHYSICAL_OFFSET_POSITION, wroteOffset + pos);
+            messagesByteBuff.putLong(pos + CommitLog.STORE_TIMESTAMP_POSITION, messageExtBatch.getStoreTimestamp());
+            int innerNum = CompressedMessageBatch.messageNum(messagesByteBuff, pos);
+            for (int i = 0; i < innerNum; i++) {
+                if (msgIdBuilder.length() > 0) {
+                    msgIdBuilder.append(',');
+                }
+                msgIdBuilder.append(encoder.createMessageId(messageExtBatch,
+                    CompressedMessageBatch.messageOffset(messagesByteBuff, pos, wroteOffset + pos, i)));
+            }
+            queueOffset += innerNum;
+        }
+
+        final long beginTimeMills = this.defaultMessageStore.now();
+        messagesByteBuff.position(0);
+        beginNanos = System.nanoTime();
+        this.write(wroteOffset, messagesByteBuff);
+        storeStatsService.recordLatencySince(LatencyPhase.PUT_WRITE, beginNanos);
+        messageExtBatch.setEncodedBuff(null);
+
+        AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalMsgLen, msgIdBuilder.toString(),
+            messageExtBatch.getStoreTimestamp(), beginQueueOffset, this.defaultMessageStore.now() - beginTimeMills);
+        result.setMsgNum(msgNum);
+        return result;
+    }
+
+    private QueueOffsetCounter getQueueOffsetCounter(final String topic, final int queueId) {
+        String key = topic + '-' + queueId;
+        QueueOffsetCounter queueOffsetCounter = this.queueOffsetTable.get(key);
+        if (null == queueOffsetCounter) {
+            QueueOffsetCounter newCounter = new QueueOffsetCounter(0);
+            queueOffsetCounter = this.queueOffsetTable.putIfAbsent(key, newCounter);
+            if (null == queueOffsetCounter) {
+                queueOffsetCounter = newCounter;
+            }
+        }
+        return queueOffsetCounter;
+    }
+
+    /**
+     * @return Offset of the reserved space, -1 if the mapped file to append to could not be created.
+     */
+    private long reserve(final int size) {
+        while (true) {
+            long from = this.reserveOffset.get();
+            long fileEnd = from - from % this.mappedFileSize + this.mappedFileSize;
+            if (from + size + END_FILE_MIN_BLANK_LENGTH <= fileEnd) {
+                if (null == this.getMappedFile(from)) {
+                    return -1;
+                }
+                if (this.reserveOffset.compareAndSet(from, from + size)) {
+                    return from;
+                }
+            } else {
+                // No producer is sent to the next file before it exists
+                if (null == this.getMappedFile(fileEnd)) {
+                    return -1;
+                }
+                if (this.reserveOffset.compareAndSet(from, fileEnd)) {
+                    int maxBlank = (int) (fileEnd - from);
+                    ByteBuffer blank = ByteBuffer.allocate(END_FILE_MIN_BLANK_LENGTH);
+                    // 1 TOTALSIZE
+                    blank.putInt(maxBlank);
+                    // 2 MAGICCODE
+                    blank.putInt(CommitLog.BLANK_MAGIC_CODE);
+                    blank.flip();
+                    this.write(from, maxBlank, blank);
+                }
+            }
+        }
+    }
+
+    private void write(final long offset, final ByteBuffer data) {
+        int size = data.remaining();
+        this.write(offset, size, data);
+        if (this.waitVisible && this.visibleOffset < offset + size) {
+            // The group commit gives up on requests beyond the wrote position
+            this.awaitVisible(offset + size);
+        }
+    }
+
+    private void awaitVisible(final long end) {
+        // Registered before checking, so that an advance either is seen here or sees the waiter
+        this.visibleWaiters.incrementAndGet();
+        this.visibleLock.lock();
+        try {
+            while (this.visibleOffset < end) {
+                this.visibleCondition.awaitUninterruptibly();
+            }
+        } finally {
+            this.visibleLock.unlock();
+            this.visibleWaiters.decrementAndGet();
+        }
+    }
+
+    private void signalVisible() {
+        if (this.visibleWaiters.get() > 0) {
+            this.visibleLock.lock();
+            try {
+                this.visibleCondition.signalAll();
+            } finally {
+                this.visibleLock.unlock();
+            }
+        }
+    }
+
+    private void write(final long offset, final int size, final ByteBuffer data) {
+        MappedFile mappedFile = this.getMappedFile(offset);
+        mappedFile.write((int) (offset % this.mappedFileSize), data);
+        this.complete(offset, size, mappedFile);
+    }
+
+    private MappedFile getMappedFile(final long offset) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+        if (mappedFile != null && offset >= mappedFile.getFileFromOffset()
+            && offset < mappedFile.getFileFromOffset() + this.mappedFileSize) {
+            return mappedFile;
+        }
+        if (mappedFile != null && offset < mappedFile.getFileFromOffset()) {
+            return this.mappedFileQueue.findMappedFileByOffset(offset, false);
+        }
+        return this.mappedFileQueue.getOrCreateMappedFile(offset);
+    }
+
+    private void complete(final long offset, final int size, final MappedFile mappedFile) {
+        CompletedRegion completed = new CompletedRegion(size, mappedFile);
+        if (!this.advancing.compareAndSet(false, true)) {
+            this.completedRegions.put(offset, completed);
+            // The thread advancing rechecks after giving up the flag, so leaving the region behind is safe
+            if (!this.advancing.compareAndSet(false, true)) {
+                return;
+            }
+            completed = null;
+        }
+
+        while (true) {
+            try {
+                if (completed != null) {
+                    // Skip the completed regions map when appending right at the watermark, the uncontended case
+                    if (offset == this.visibleOffset) {
+                        this.advance(offset, completed);
+                    } else {
+                        this.completedRegions.put(offset, completed);
+                    }
+                    completed = null;
+                }
+                Map.Entry<Long, CompletedRegion> head;
+                while ((head = this.completedRegions.firstEntry()) != null && head.getKey() == this.visibleOffset) {
+                    this.completedRegions.remove(head.getKey());
+                    this.advance(head.getKey(), head.getValue());
+                }
+            } finally {
+                this.advancing.set(false);
+            }
+
+            // Recheck after giving up the advancing flag, a completion may have come in while it was taken
+            Map.Entry<Long, CompletedRegion> head = this.completedRegions.firstEntry();
+            if (head == null || head.getKey() != this.visibleOffset || !this.advancing.compareAndSet(false, true)) {
+                break;
+            }
+        }
+        this.signalVisible();
+    }
+
+    private void advance(final long offset, final CompletedRegion region) {
+        long end = offset + region.size;
+        region.mappedFile.setWrotePosition((int) (end - region.mappedFile.getFileFromOffset()));
+        this.visibleOffset = end;
+    }
+
+    static class CompletedRegion {
+        private final int size;
+        private final MappedFile mappedFile;
+
+        CompletedRegion(int size, MappedFile mappedFile) {
+            this.size = size;
+            this.mappedFile = mappedFile;
+        }
+    }
+
+    /**
+     * Next queue offset of a queue, guarded by a spin lock held only while reserving, as the put message spin lock.
+     */
+    static class QueueOffsetCounter {
+        private final PutMessageLock lock = new PutMessageSpinLock();
+        private long offset;
+
+        QueueOffsetCounter(long offset) {
+            this.offset = offset;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.apache.rocketmq.store.tiered.TieredStoreService;
 
 public class ConsumeQueue {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
@@ -85,6 +86,15 @@ public class ConsumeQueue {
     }
 
     public void recover() {
+        this.recover(false);
+    }
+
+    /**
+     * Recover from the last three files, scanning each unit until the first empty one.
+     *
+     * @param lastExitOK Whether the store was shut down cleanly, which lets sealed files be taken without a scan.
+     */
+    public void recover(final boolean lastExitOK) {
         final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
         if (!mappedFiles.isEmpty()) {
 
@@ -99,21 +109,28 @@ public class ConsumeQueue {
             long mappedFileOffset = 0;
             long maxExtAddr = 1;
             while (true) {
-                for (int i = 0; i < mappedFileSizeLogics; i += CQ_STORE_UNIT_SIZE) {
-                    long offset = byteBuffer.getLong();
-                    int size = byteBuffer.getInt();
-                    long tagsCode = byteBuffer.getLong();
+                if (index < mappedFiles.size() - 1 && this.isSealedFileTrusted(byteBuffer, lastExitOK)) {
+                    int lastUnit = mappedFileSizeLogics - CQ_STORE_UNIT_SIZE;
+                    mappedFileOffset = mappedFileSizeLogics;
+                    this.maxPhysicOffset = byteBuffer.getLong(lastUnit) + byteBuffer.getInt(lastUnit + 8);
+                    log.info("recover sealed consume queue file without scanning, " + mappedFile.getFileName());
+                } else {
+                    for (int i = 0; i < mappedFileSizeLogics; i += CQ_STORE_UNIT_SIZE) {
+                        long offset = byteBuffer.getLong();
+                        int size = byteBuffer.getInt();
+                        long tagsCode = byteBuffer.getLong();
 
-                    if (offset >= 0 && size > 0) {
-                        mappedFileOffset = i + CQ_STORE_UNIT_SIZE;
-                        this.maxPhysicOffset = offset + size;
-                        if (isExtAddr(tagsCode)) {
-                            maxExtAddr = tagsCode;
+                        if (offset >= 0 && size > 0) {
+                            mappedFileOffset = i + CQ_STORE_UNIT_SIZE;
+                            this.maxPhysicOffset = offset + size;
+                            if (isExtAddr(tagsCode)) {
+                                maxExtAddr = tagsCode;
+                            }
+                        } else {
+                            log.info("recover current consume queue file over,  " + mappedFile.getFileName() + " "
+                                + offset + " " + size + " " + tagsCode);
+                            break;
                         }
-                    } else {
-                        log.info("recover current consume queue file over,  " + mappedFile.getFileName() + " "
-                            + offset + " " + size + " " + tagsCode);
-                        break;
                     }
                 }
 
@@ -151,6 +168,30 @@ public class ConsumeQueue {
         }
     }
 
+    /**
+     * A file followed by another one is complete once its last unit is written, so it can be taken without a scan when
+     * that unit is known to be on disk: after a clean shutdown, or when its message is not newer than the last full
+     * consume queue flush recorded in the checkpoint.
+     */
+    private boolean isSealedFileTrusted(final ByteBuffer byteBuffer, final boolean lastExitOK) {
+        if (isExtReadEnable()) {
+            return false;
+        }
+
+        int lastUnit = this.mappedFileSize - CQ_STORE_UNIT_SIZE;
+        long offset = byteBuffer.getLong(lastUnit);
+        int size = byteBuffer.getInt(lastUnit + 8);
+        if (offset < 0 || size <= 0) {
+            return false;
+        }
+        if (lastExitOK) {
+            return true;
+        }
+
+        long storeTimestamp = this.defaultMessageStore.getCommitLog().pickupStoreTimestamp(offset, size);
+        return storeTimestamp > 0 && storeTimestamp <= this.defaultMessageStore.getStoreCheckpoint().getLogicsMsgTimestamp();
+    }
+
     public long getOffsetInQueueByTime(final long timestamp) {
         MappedFile mappedFile = this.mappedFileQueue.getMappedFileByTime(timestamp);
         if (mappedFile != null) {
@@ -329,40 +370,52 @@ public class ConsumeQueue {
         return result;
     }
 
+    /**
+     * Delete the files only pointing below the given commit log offset. With a tier, files not uploaded yet are kept
+     * whatever they point to, the tier cannot serve them otherwise.
+     */
     public int deleteExpiredFile(long offset) {
-        int cnt = this.mappedFileQueue.deleteExpiredFileByOffset(offset, CQ_STORE_UNIT_SIZE);
+        TieredStoreService tieredStoreService = this.defaultMessageStore.getTieredStoreService();
+        long maxDeleteOffset = tieredStoreService == null ? Long.MAX_VALUE : tieredStoreService.getUploadedConsumeQueueOffset(this);
+        int cnt = this.mappedFileQueue.deleteExpiredFileByOffset(offset, CQ_STORE_UNIT_SIZE, maxDeleteOffset);
         this.correctMinOffset(offset);
         return cnt;
     }
 
     public void correctMinOffset(long phyMinOffset) {
-        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
         long minExtAddr = 1;
-        if (mappedFile != null) {
+        // Files kept for the tier may only point below the commit log, the min offset is then in a later file
+        boolean found = false;
+        for (MappedFile mappedFile : this.mappedFileQueue.getMappedFiles()) {
             SelectMappedBufferResult result = mappedFile.selectMappedBuffer(0);
-            if (result != null) {
-                try {
-                    for (int i = 0; i < result.getSize(); i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
-                        long offsetPy = result.getByteBuffer().getLong();
-                        result.getByteBuffer().getInt();
-                        long tagsCode = result.getByteBuffer().getLong();
-
-                        if (offsetPy >= phyMinOffset) {
-                            this.minLogicOffset = mappedFile.getFileFromOffset() + i;
-                            log.info("Compute logical min offset: {}, topic: {}, queueId: {}",
-                                this.getMinOffsetInQueue(), this.topic, this.queueId);
-                            // This maybe not take effect, when not every consume queue has extend file.
-                            if (isExtAddr(tagsCode)) {
-                                minExtAddr = tagsCode;
-                            }
-                            break;
+            if (result == null) {
+                break;
+            }
+            try {
+                for (int i = 0; i < result.getSize(); i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                    long offsetPy = result.getByteBuffer().getLong();
+                    result.getByteBuffer().getInt();
+                    long tagsCode = result.getByteBuffer().getLong();
+
+                    if (offsetPy >= phyMinOffset) {
+                        this.minLogicOffset = mappedFile.getFileFromOffset() + i;
+                        log.info("Compute logical min offset: {}, topic: {}, queueId: {}",
+                            this.getMinOffsetInQueue(), this.topic, this.queueId);
+                        // This maybe not take effect, when not every consume queue has extend file.
+                        if (isExtAddr(tagsCode)) {
+                            minExtAddr = tagsCode;
                         }
+                        found = true;
+                        break;
                     }
-                } catch (Exception e) {
-                    log.error("Exception thrown when correctMinOffset", e);
-                } finally {
-                    result.release();
                 }
+            } catch (Exception e) {
+                log.error("Exception thrown when correctMinOffset", e);
+            } finally {
+                result.release();
+            }
+            if (found || this.defaultMessageStore.getTieredStoreService() == null) {
+                break;
             }
         }
 
@@ -397,7 +450,6 @@ public class ConsumeQueue {
             boolean result = this.putMessagePositionInfo(request.getCommitLogOffset(),
                 request.getMsgSize(), tagsCode, request.getConsumeQueueOffset());
             if (result) {
-                this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(request.getStoreTimestamp());
                 return;
             } else {
                 // XXX: warn and notify me
@@ -524,6 +576,10 @@ public class ConsumeQueue {
         return index + totalUnitsInFile - index % totalUnitsInFile;
     }
 
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
     public String getTopic() {
         return topic;
     }
@@ -22,19 +22,29 @@ import java.io.RandomAccessFile;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileLock;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.ServiceThread;
@@ -49,6 +59,7 @@ import org.apache.rocketmq.common.running.RunningStats;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.StoreStatsService.LatencyPhase;
 import org.apache.rocketmq.store.config.BrokerRole;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
@@ -58,6 +69,8 @@ import org.apache.rocketmq.store.index.IndexService;
 import org.apache.rocketmq.store.index.QueryOffsetResult;
 import org.apache.rocketmq.store.schedule.ScheduleMessageService;
 import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.apache.rocketmq.store.tiered.TieredStoreService;
+import org.apache.rocketmq.store.timer.TimerMessageStore;
 
 public class DefaultMessageStore implements MessageStore {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
@@ -80,10 +93,16 @@ public class DefaultMessageStore implements MessageStore {
 
     private final ReputMessageService reputMessageService;
 
+    private final DispatchPipeline dispatchPipeline;
+
     private final HAService haService;
 
     private final ScheduleMessageService scheduleMessageService;
 
+    private final TimerMessageStore timerMessageStore;
+
+    private final TieredStoreService tieredStoreService;
+
     private final StoreStatsService storeStatsService;
 
     private final TransientStorePool transientStorePool;
@@ -139,6 +158,18 @@ public class DefaultMessageStore implements MessageStore {
 
         this.scheduleMessageService = new ScheduleMessageService(this);
 
+        if (messageStoreConfig.isTimerWheelEnable()) {
+            this.timerMessageStore = new TimerMessageStore(this);
+        } else {
+            this.timerMessageStore = null;
+        }
+
+        if (messageStoreConfig.isTieredStoreEnable() && !messageStoreConfig.isEnableDLegerCommitLog()) {
+            this.tieredStoreService = new TieredStoreService(this);
+        } else {
+            this.tieredStoreService = null;
+        }
+
         this.transientStorePool = new TransientStorePool(messageStoreConfig);
 
         if (messageStoreConfig.isTransientStorePoolEnable()) {
@@ -150,8 +181,14 @@ public class DefaultMessageStore implements MessageStore {
         this.indexService.start();
 
         this.dispatcherList = new LinkedList<>();
-        this.dispatcherList.addLast(new CommitLogDispatcherBuildConsumeQueue());
+        CommitLogDispatcher consumeQueueDispatcher = new CommitLogDispatcherBuildConsumeQueue();
+        this.dispatcherList.addLast(consumeQueueDispatcher);
         this.dispatcherList.addLast(new CommitLogDispatcherBuildIndex());
+        if (messageStoreConfig.isDispatchPipelineEnable()) {
+            this.dispatchPipeline = new DispatchPipeline(this, consumeQueueDispatcher);
+        } else {
+            this.dispatchPipeline = null;
+        }
 
         File file = new File(StorePathConfigHelper.getLockFile(messageStoreConfig.getStorePathRootDir()));
         MappedFile.ensureDirOK(file.getParent());
@@ -182,6 +219,10 @@ public class DefaultMessageStore implements MessageStore {
                 result = result && this.scheduleMessageService.load();
             }
 
+            if (null != tieredStoreService) {
+                result = result && this.tieredStoreService.load();
+            }
+
             // load Commit Log
             result = result && this.commitLog.load();
 
@@ -193,9 +234,16 @@ public class DefaultMessageStore implements MessageStore {
                     new StoreCheckpoint(StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir()));
 
                 this.indexService.load(lastExitOK);
+                if (!lastExitOK && this.messageStoreConfig.isIndexRebuildAsyncEnable()) {
+                    this.indexService.deferIndexBuilding();
+                }
 
                 this.recover(lastExitOK);
 
+                if (null != timerMessageStore) {
+                    result = this.timerMessageStore.load();
+                }
+
                 log.info("load over, and the max phy offset = {}", this.getMaxPhyOffset());
             }
         } catch (Exception e) {
@@ -237,6 +285,13 @@ public class DefaultMessageStore implements MessageStore {
                     }
                 }
             }
+            if (this.dispatchPipeline != null) {
+                // Consume queues built in parallel may miss entries below the highest one, resume from the checkpoint
+                long logicsMsgOffset = this.storeCheckpoint.getLogicsMsgOffset();
+                if (logicsMsgOffset > 0 && logicsMsgOffset < maxPhysicalPosInLogicQueue) {
+                    maxPhysicalPosInLogicQueue = Math.max(logicsMsgOffset, this.commitLog.getMinOffset());
+                }
+            }
             if (maxPhysicalPosInLogicQueue < 0) {
                 maxPhysicalPosInLogicQueue = 0;
             }
@@ -255,7 +310,11 @@ public class DefaultMessageStore implements MessageStore {
             log.info("[SetReputOffset] maxPhysicalPosInLogicQueue={} clMinOffset={} clMaxOffset={} clConfirmedOffset={}",
                 maxPhysicalPosInLogicQueue, this.commitLog.getMinOffset(), this.commitLog.getMaxOffset(), this.commitLog.getConfirmOffset());
             this.reputMessageService.setReputFromOffset(maxPhysicalPosInLogicQueue);
+            if (this.dispatchPipeline != null) {
+                this.dispatchPipeline.start();
+            }
             this.reputMessageService.start();
+            this.indexService.startRebuild();
 
             /**
              *  1. Finish dispatching the messages fall behind, then to start other services.
@@ -280,6 +339,10 @@ public class DefaultMessageStore implements MessageStore {
         this.commitLog.start();
         this.storeStatsService.start();
 
+        if (this.tieredStoreService != null) {
+            this.tieredStoreService.start();
+        }
+
         this.createTempFile();
         this.addScheduleTask();
         this.shutdown = false;
@@ -303,6 +366,12 @@ public class DefaultMessageStore implements MessageStore {
             if (this.scheduleMessageService != null) {
                 this.scheduleMessageService.shutdown();
             }
+            if (this.timerMessageStore != null) {
+                this.timerMessageStore.shutdown();
+            }
+            if (this.tieredStoreService != null) {
+                this.tieredStoreService.shutdown();
+            }
             if (this.haService != null) {
                 this.haService.shutdown();
             }
@@ -311,6 +380,9 @@ public class DefaultMessageStore implements MessageStore {
             this.indexService.shutdown();
             this.commitLog.shutdown();
             this.reputMessageService.shutdown();
+            if (this.dispatchPipeline != null) {
+                this.dispatchPipeline.shutdown();
+            }
             this.flushConsumeQueueService.shutdown();
             this.allocateMappedFileService.shutdown();
             this.storeCheckpoint.flush();
@@ -339,6 +411,9 @@ public class DefaultMessageStore implements MessageStore {
         this.destroyLogics();
         this.commitLog.destroy();
         this.indexService.destroy();
+        if (this.timerMessageStore != null) {
+            this.timerMessageStore.destroy();
+        }
         this.deleteFile(StorePathConfigHelper.getAbortFile(this.messageStoreConfig.getStorePathRootDir()));
         this.deleteFile(StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir()));
     }
@@ -352,9 +427,37 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public PutMessageResult putMessage(MessageExtBrokerInner msg) {
+        return this.waitForPutResult(this.asyncPutMessage(msg));
+    }
+
+    public PutMessageResult putMessages(MessageExtBatch messageExtBatch) {
+        return this.waitForPutResult(this.asyncPutMessages(messageExtBatch));
+    }
+
+    /**
+     * Block until a put completes, as a safety net the flush and replication services are given a few seconds beyond
+     * their own timeout.
+     */
+    PutMessageResult waitForPutResult(CompletableFuture<PutMessageResult> putMessageResultFuture) {
+        try {
+            return putMessageResultFuture.get(this.messageStoreConfig.getSyncFlushTimeout() + 5000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, null);
+        } catch (ExecutionException e) {
+            log.error("put message failed", e.getCause());
+            return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, null);
+        } catch (TimeoutException e) {
+            log.error("wait for put message result timeout, flush or replication service may be stopped");
+            return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, null);
+        }
+    }
+
+    @Override
+    public CompletableFuture<PutMessageResult> asyncPutMessage(MessageExtBrokerInner msg) {
         if (this.shutdown) {
             log.warn("message store has shutdown, so putMessage is forbidden");
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null));
         }
 
         if (BrokerRole.SLAVE == this.messageStoreConfig.getBrokerRole()) {
@@ -363,7 +466,7 @@ public class DefaultMessageStore implements MessageStore {
                 log.warn("message store is slave mode, so putMessage is forbidden ");
             }
 
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null));
         }
 
         if (!this.runningFlags.isWriteable()) {
@@ -372,45 +475,50 @@ public class DefaultMessageStore implements MessageStore {
                 log.warn("message store is not writeable, so putMessage is forbidden " + this.runningFlags.getFlagBits());
             }
 
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null));
         } else {
             this.printTimes.set(0);
         }
 
         if (msg.getTopic().length() > Byte.MAX_VALUE) {
             log.warn("putMessage message topic length too long " + msg.getTopic().length());
-            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null));
         }
 
         if (msg.getPropertiesString() != null && msg.getPropertiesString().length() > Short.MAX_VALUE) {
             log.warn("putMessage message properties length too long " + msg.getPropertiesString().length());
-            return new PutMessageResult(PutMessageStatus.PROPERTIES_SIZE_EXCEEDED, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.PROPERTIES_SIZE_EXCEEDED, null));
         }
 
         if (this.isOSPageCacheBusy()) {
-            return new PutMessageResult(PutMessageStatus.OS_PAGECACHE_BUSY, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.OS_PAGECACHE_BUSY, null));
         }
 
         long beginTime = this.getSystemClock().now();
-        PutMessageResult result = this.commitLog.putMessage(msg);
+        long beginNanos = System.nanoTime();
+        CompletableFuture<PutMessageResult> putResultFuture = this.commitLog.asyncPutMessage(msg);
 
-        long eclipseTime = this.getSystemClock().now() - beginTime;
-        if (eclipseTime > 500) {
-            log.warn("putMessage not in lock eclipse time(ms)={}, bodyLength={}", eclipseTime, msg.getBody().length);
-        }
-        this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
+        putResultFuture.thenAccept(result -> {
+            long eclipseTime = this.getSystemClock().now() - beginTime;
+            if (eclipseTime > 500) {
+                log.warn("putMessage not in lock eclipse time(ms)={}, bodyLength={}", eclipseTime, msg.getBody().length);
+            }
+            this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
+            this.storeStatsService.recordLatencySince(LatencyPhase.PUT_MESSAGE_ENTIRE, beginNanos);
 
-        if (null == result || !result.isOk()) {
-            this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
-        }
+            if (null == result || !result.isOk()) {
+                this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
+            }
+        });
 
-        return result;
+        return putResultFuture;
     }
 
-    public PutMessageResult putMessages(MessageExtBatch messageExtBatch) {
+    @Override
+    public CompletableFuture<PutMessageResult> asyncPutMessages(MessageExtBatch messageExtBatch) {
         if (this.shutdown) {
             log.warn("DefaultMessageStore has shutdown, so putMessages is forbidden");
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null));
         }
 
         if (BrokerRole.SLAVE == this.messageStoreConfig.getBrokerRole()) {
@@ -419,7 +527,7 @@ public class DefaultMessageStore implements MessageStore {
                 log.warn("DefaultMessageStore is in slave mode, so putMessages is forbidden ");
             }
 
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null));
         }
 
         if (!this.runningFlags.isWriteable()) {
@@ -428,39 +536,43 @@ public class DefaultMessageStore implements MessageStore {
                 log.warn("DefaultMessageStore is not writable, so putMessages is forbidden " + this.runningFlags.getFlagBits());
             }
 
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null));
         } else {
             this.printTimes.set(0);
         }
 
         if (messageExtBatch.getTopic().length() > Byte.MAX_VALUE) {
             log.warn("PutMessages topic length too long " + messageExtBatch.getTopic().length());
-            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null));
         }
 
         if (messageExtBatch.getBody().length > messageStoreConfig.getMaxMessageSize()) {
             log.warn("PutMessages body length too long " + messageExtBatch.getBody().length);
-            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null));
         }
 
         if (this.isOSPageCacheBusy()) {
-            return new PutMessageResult(PutMessageStatus.OS_PAGECACHE_BUSY, null);
+            return CompletableFuture.completedFuture(new PutMessageResult(PutMessageStatus.OS_PAGECACHE_BUSY, null));
         }
 
         long beginTime = this.getSystemClock().now();
-        PutMessageResult result = this.commitLog.putMessages(messageExtBatch);
+        long beginNanos = System.nanoTime();
+        CompletableFuture<PutMessageResult> putResultFuture = this.commitLog.asyncPutMessages(messageExtBatch);
 
-        long eclipseTime = this.getSystemClock().now() - beginTime;
-        if (eclipseTime > 500) {
-            log.warn("not in lock eclipse time(ms)={}, bodyLength={}", eclipseTime, messageExtBatch.getBody().length);
-        }
-        this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
+        putResultFuture.thenAccept(result -> {
+            long eclipseTime = this.getSystemClock().now() - beginTime;
+            if (eclipseTime > 500) {
+                log.warn("not in lock eclipse time(ms)={}, bodyLength={}", eclipseTime, messageExtBatch.getBody().length);
+            }
+            this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
+            this.storeStatsService.recordLatencySince(LatencyPhase.PUT_MESSAGE_ENTIRE, beginNanos);
 
-        if (null == result || !result.isOk()) {
-            this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
-        }
+            if (null == result || !result.isOk()) {
+                this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
+            }
+        });
 
-        return result;
+        return putResultFuture;
     }
 
     @Override
@@ -499,6 +611,7 @@ public class DefaultMessageStore implements MessageStore {
         }
 
         long beginTime = this.getSystemClock().now();
+        long beginNanos = System.nanoTime();
 
         GetMessageStatus status = GetMessageStatus.NO_MESSAGE_IN_QUEUE;
         long nextBeginOffset = offset;
@@ -520,6 +633,13 @@ public class DefaultMessageStore implements MessageStore {
             } else if (offset < minOffset) {
                 status = GetMessageStatus.OFFSET_TOO_SMALL;
                 nextBeginOffset = nextOffsetCorrection(offset, minOffset);
+                if (this.tieredStoreService != null) {
+                    long tieredNextOffset = this.tieredStoreService.getMessage(topic, queueId, offset, maxMsgNums, messageFilter, getResult);
+                    if (tieredNextOffset > offset) {
+                        status = getResult.getMessageCount() > 0 ? GetMessageStatus.FOUND : GetMessageStatus.NO_MATCHED_MESSAGE;
+                        nextBeginOffset = tieredNextOffset;
+                    }
+                }
             } else if (offset == maxOffset) {
                 status = GetMessageStatus.OFFSET_OVERFLOW_ONE;
                 nextBeginOffset = nextOffsetCorrection(offset, offset);
@@ -543,10 +663,12 @@ public class DefaultMessageStore implements MessageStore {
                         final int maxFilterMessageCount = Math.max(16000, maxMsgNums * ConsumeQueue.CQ_STORE_UNIT_SIZE);
                         final boolean diskFallRecorded = this.messageStoreConfig.isDiskFallRecorded();
                         ConsumeQueueExt.CqExtUnit cqExtUnit = new ConsumeQueueExt.CqExtUnit();
+                        CompressedMessageBatch compressedBatch = null;
                         for (; i < bufferConsumeQueue.getSize() && i < maxFilterMessageCount; i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
                             long offsetPy = bufferConsumeQueue.getByteBuffer().getLong();
                             int sizePy = bufferConsumeQueue.getByteBuffer().getInt();
                             long tagsCode = bufferConsumeQueue.getByteBuffer().getLong();
+                            boolean inCompressedBatch = sizePy == CompressedMessageBatch.INDEX_SLOT_SIZE;
 
                             maxPhyOffsetPulling = offsetPy;
 
@@ -557,7 +679,17 @@ public class DefaultMessageStore implements MessageStore {
 
                             boolean isInDisk = checkInDiskByCommitOffset(offsetPy, maxOffsetPy);
 
-                            if (this.isTheBatchFull(sizePy, maxMsgNums, getResult.getBufferTotalSize(), getResult.getMessageCount(),
+                            int sizeToTransfer = sizePy;
+                            if (inCompressedBatch) {
+                                // Decompress once for all the messages of the batch in this pull
+                                if (compressedBatch == null || compressedBatch.indexOf(offsetPy) < 0) {
+                                    compressedBatch = this.commitLog.getCompressedBatch(offsetPy);
+                                }
+                                if (compressedBatch != null) {
+                                    sizeToTransfer = compressedBatch.getMessageSize(compressedBatch.indexOf(offsetPy));
+                                }
+                            }
+                            if (this.isTheBatchFull(sizeToTransfer, maxMsgNums, getResult.getBufferTotalSize(), getResult.getMessageCount(),
                                 isInDisk)) {
                                 break;
                             }
@@ -584,7 +716,12 @@ public class DefaultMessageStore implements MessageStore {
                                 continue;
                             }
 
-                            SelectMappedBufferResult selectResult = this.commitLog.getMessage(offsetPy, sizePy);
+                            SelectMappedBufferResult selectResult;
+                            if (inCompressedBatch) {
+                                selectResult = compressedBatch != null ? compressedBatch.selectBySlotOffset(offsetPy) : null;
+                            } else {
+                                selectResult = this.commitLog.getMessage(offsetPy, sizePy);
+                            }
                             if (null == selectResult) {
                                 if (getResult.getBufferTotalSize() == 0) {
                                     status = GetMessageStatus.MESSAGE_WAS_REMOVING;
@@ -644,6 +781,7 @@ public class DefaultMessageStore implements MessageStore {
         }
         long eclipseTime = this.getSystemClock().now() - beginTime;
         this.storeStatsService.setGetMessageEntireTimeMax(eclipseTime);
+        this.storeStatsService.recordLatencySince(LatencyPhase.GET_MESSAGE, beginNanos);
 
         getResult.setStatus(status);
         getResult.setNextBeginOffset(nextBeginOffset);
@@ -699,6 +837,15 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public MessageExt lookMessageByOffset(long commitLogOffset) {
+        if (this.isInTieredOnly(commitLogOffset)) {
+            return this.tieredStoreService.lookMessageByOffset(commitLogOffset);
+        }
+
+        MessageExt compressedMessage = this.lookCompressedMessage(commitLogOffset);
+        if (compressedMessage != null) {
+            return compressedMessage;
+        }
+
         SelectMappedBufferResult sbr = this.commitLog.getMessage(commitLogOffset, 4);
         if (null != sbr) {
             try {
@@ -710,11 +857,21 @@ public class DefaultMessageStore implements MessageStore {
             }
         }
 
+        if (this.tieredStoreService != null) {
+            return this.tieredStoreService.lookMessageByOffset(commitLogOffset);
+        }
+
         return null;
     }
 
     @Override
     public SelectMappedBufferResult selectOneMessageByOffset(long commitLogOffset) {
+        // The offset of a message in a compressed batch is its slot in the batch
+        SelectMappedBufferResult compressedMessage = this.commitLog.getCompressedMessage(commitLogOffset);
+        if (compressedMessage != null) {
+            return compressedMessage;
+        }
+
         SelectMappedBufferResult sbr = this.commitLog.getMessage(commitLogOffset, 4);
         if (null != sbr) {
             try {
@@ -731,6 +888,9 @@ public class DefaultMessageStore implements MessageStore {
 
     @Override
     public SelectMappedBufferResult selectOneMessageByOffset(long commitLogOffset, int msgSize) {
+        if (msgSize == CompressedMessageBatch.INDEX_SLOT_SIZE) {
+            return this.commitLog.getCompressedMessage(commitLogOffset);
+        }
         return this.commitLog.getMessage(commitLogOffset, msgSize);
     }
 
@@ -760,11 +920,20 @@ public class DefaultMessageStore implements MessageStore {
             if (this.scheduleMessageService != null) {
                 this.scheduleMessageService.buildRunningStats(result);
             }
+            if (this.timerMessageStore != null) {
+                this.timerMessageStore.buildRunningStats(result);
+            }
+            if (this.haService != null && BrokerRole.SLAVE != this.messageStoreConfig.getBrokerRole()) {
+                this.haService.buildRunningStats(result);
+            }
         }
 
         result.put(RunningStats.commitLogMinOffset.name(), String.valueOf(DefaultMessageStore.this.getMinPhyOffset()));
         result.put(RunningStats.commitLogMaxOffset.name(), String.valueOf(DefaultMessageStore.this.getMaxPhyOffset()));
 
+        this.reputMessageService.buildRunningStats(result);
+        result.put(RunningStats.indexRebuildBehindBytes.name(), String.valueOf(this.indexService.getRebuildBehindBytes()));
+
         return result;
     }
 
@@ -905,12 +1074,18 @@ public class DefaultMessageStore implements MessageStore {
 //                    }
 
                     if (match) {
-                        SelectMappedBufferResult result = this.commitLog.getData(offset, false);
+                        // Keys of a message in a compressed batch are indexed at its slot in the batch
+                        SelectMappedBufferResult result = this.commitLog.getCompressedMessage(offset);
                         if (result != null) {
-                            int size = result.getByteBuffer().getInt(0);
-                            result.getByteBuffer().limit(size);
-                            result.setSize(size);
                             queryMessageResult.addMessage(result);
+                        } else {
+                            result = this.commitLog.getData(offset, false);
+                            if (result != null) {
+                                int size = result.getByteBuffer().getInt(0);
+                                result.getByteBuffer().limit(size);
+                                result.setSize(size);
+                                queryMessageResult.addMessage(result);
+                            }
                         }
                     } else {
                         log.warn("queryMessage hash duplicate, {} {}", topic, key);
@@ -954,7 +1129,8 @@ public class DefaultMessageStore implements MessageStore {
             Entry<String, ConcurrentMap<Integer, ConsumeQueue>> next = it.next();
             String topic = next.getKey();
 
-            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)) {
+            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)
+                && !topic.equals(TimerMessageStore.TIMER_TOPIC)) {
                 ConcurrentMap<Integer, ConsumeQueue> queueTable = next.getValue();
                 for (ConsumeQueue cq : queueTable.values()) {
                     cq.destroy();
@@ -1114,6 +1290,18 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public MessageExt lookMessageByOffset(long commitLogOffset, int size) {
+        if (this.isInTieredOnly(commitLogOffset)) {
+            return this.tieredStoreService.lookMessageByOffset(commitLogOffset, size);
+        }
+
+        if (size == CompressedMessageBatch.INDEX_SLOT_SIZE) {
+            MessageExt compressedMessage = this.lookCompressedMessage(commitLogOffset);
+            if (compressedMessage != null || this.tieredStoreService == null) {
+                return compressedMessage;
+            }
+            return this.tieredStoreService.lookMessageByOffset(commitLogOffset, size);
+        }
+
         SelectMappedBufferResult sbr = this.commitLog.getMessage(commitLogOffset, size);
         if (null != sbr) {
             try {
@@ -1123,9 +1311,25 @@ public class DefaultMessageStore implements MessageStore {
             }
         }
 
+        if (this.tieredStoreService != null) {
+            return this.tieredStoreService.lookMessageByOffset(commitLogOffset, size);
+        }
+
+        return null;
+    }
+
+    private MessageExt lookCompressedMessage(long commitLogOffset) {
+        SelectMappedBufferResult sbr = this.commitLog.getCompressedMessage(commitLogOffset);
+        if (sbr != null) {
+            return MessageDecoder.decode(sbr.getByteBuffer(), true, false);
+        }
         return null;
     }
 
+    private boolean isInTieredOnly(long commitLogOffset) {
+        return this.tieredStoreService != null && commitLogOffset < this.commitLog.getMinOffset();
+    }
+
     public ConsumeQueue findConsumeQueue(String topic, int queueId) {
         ConcurrentMap<Integer, ConsumeQueue> map = consumeQueueTable.get(topic);
         if (null == map) {
@@ -1326,7 +1530,7 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     private void recover(final boolean lastExitOK) {
-        long maxPhyOffsetOfConsumeQueue = this.recoverConsumeQueue();
+        long maxPhyOffsetOfConsumeQueue = this.recoverConsumeQueue(lastExitOK);
 
         if (lastExitOK) {
             this.commitLog.recoverNormally(maxPhyOffsetOfConsumeQueue);
@@ -1356,11 +1560,12 @@ public class DefaultMessageStore implements MessageStore {
         }
     }
 
-    private long recoverConsumeQueue() {
+    private long recoverConsumeQueue(final boolean lastExitOK) {
+        this.forEachConsumeQueueInParallel("recover consume queue", logic -> logic.recover(lastExitOK));
+
         long maxPhysicOffset = -1;
         for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
             for (ConsumeQueue logic : maps.values()) {
-                logic.recover();
                 if (logic.getMaxPhysicOffset() > maxPhysicOffset) {
                     maxPhysicOffset = logic.getMaxPhysicOffset();
                 }
@@ -1371,19 +1576,70 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public void recoverTopicQueueTable() {
+        final long minPhyOffset = this.commitLog.getMinOffset();
+        this.forEachConsumeQueueInParallel("correct consume queue min offset", logic -> logic.correctMinOffset(minPhyOffset));
+
         HashMap<String/* topic-queueid */, Long/* offset */> table = new HashMap<String, Long>(1024);
-        long minPhyOffset = this.commitLog.getMinOffset();
         for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
             for (ConsumeQueue logic : maps.values()) {
                 String key = logic.getTopic() + "-" + logic.getQueueId();
                 table.put(key, logic.getMaxOffsetInQueue());
-                logic.correctMinOffset(minPhyOffset);
             }
         }
 
         this.commitLog.setTopicQueueTable(table);
     }
 
+    /**
+     * Run a task on every consume queue, spread over a fork join pool of recoverThreadPoolNums threads. Each queue
+     * only touches its own files, so they can be handled in any order.
+     */
+    private void forEachConsumeQueueInParallel(final String action, final Consumer<ConsumeQueue> task) {
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        final int total = this.consumeQueueTable.values().stream().mapToInt(Map::size).sum();
+        final AtomicInteger done = new AtomicInteger(0);
+        for (ConcurrentMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
+            for (final ConsumeQueue logic : maps.values()) {
+                tasks.add(() -> {
+                    task.accept(logic);
+                    int count = done.incrementAndGet();
+                    if (count % 1000 == 0) {
+                        log.info("{} progress {}/{}", action, count, total);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        final long begin = System.currentTimeMillis();
+        final int threads = Math.min(tasks.size(), this.messageStoreConfig.getRecoverThreadPoolNums());
+        if (threads <= 1) {
+            for (Callable<Void> t : tasks) {
+                try {
+                    t.call();
+                } catch (Exception e) {
+                    throw new RuntimeException(action + " failed", e);
+                }
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(action + " interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(action + " failed", e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        log.info("{} over, {} queues with {} threads in {} ms", action, total, Math.max(threads, 1),
+            System.currentTimeMillis() - begin);
+    }
+
     public AllocateMappedFileService getAllocateMappedFileService() {
         return allocateMappedFileService;
     }
@@ -1408,10 +1664,22 @@ public class DefaultMessageStore implements MessageStore {
         return haService;
     }
 
+    public IndexService getIndexService() {
+        return indexService;
+    }
+
     public ScheduleMessageService getScheduleMessageService() {
         return scheduleMessageService;
     }
 
+    public TimerMessageStore getTimerMessageStore() {
+        return timerMessageStore;
+    }
+
+    public TieredStoreService getTieredStoreService() {
+        return tieredStoreService;
+    }
+
     public RunningFlags getRunningFlags() {
         return runningFlags;
     }
@@ -1422,6 +1690,16 @@ public class DefaultMessageStore implements MessageStore {
         }
     }
 
+    void notifyMessageArriving(DispatchRequest req) {
+        if (BrokerRole.SLAVE != this.getMessageStoreConfig().getBrokerRole()
+            && this.brokerConfig.isLongPollingEnable()) {
+            this.messageArrivingListener.arriving(req.getTopic(),
+                req.getQueueId(), req.getConsumeQueueOffset() + 1,
+                req.getTagsCode(), req.getStoreTimestamp(),
+                req.getBitMap(), req.getPropertiesMap());
+        }
+    }
+
     public void putMessagePositionInfo(DispatchRequest dispatchRequest) {
         ConsumeQueue cq = this.findConsumeQueue(dispatchRequest.getTopic(), dispatchRequest.getQueueId());
         cq.putMessagePositionInfoWrapper(dispatchRequest);
@@ -1442,6 +1720,13 @@ public class DefaultMessageStore implements MessageStore {
             }
         }
 
+        if (this.timerMessageStore != null) {
+            if (brokerRole == BrokerRole.SLAVE) {
+                this.timerMessageStore.shutdown();
+            } else {
+                this.timerMessageStore.start();
+            }
+        }
     }
 
     public int remainTransientStoreBufferNumbs() {
@@ -1558,8 +1843,13 @@ public class DefaultMessageStore implements MessageStore {
 
                 fileReservedTime *= 60 * 60 * 1000;
 
-                deleteCount = DefaultMessageStore.this.commitLog.deleteExpiredFile(fileReservedTime, deletePhysicFilesInterval,
-                    destroyMapedFileIntervalForcibly, cleanAtOnce);
+                if (DefaultMessageStore.this.tieredStoreService != null) {
+                    deleteCount = DefaultMessageStore.this.commitLog.deleteExpiredFile(fileReservedTime, deletePhysicFilesInterval,
+                        destroyMapedFileIntervalForcibly, cleanAtOnce, DefaultMessageStore.this.tieredStoreService.getUploadedCommitLogOffset());
+                } else {
+                    deleteCount = DefaultMessageStore.this.commitLog.deleteExpiredFile(fileReservedTime, deletePhysicFilesInterval,
+                        destroyMapedFileIntervalForcibly, cleanAtOnce);
+                }
                 if (deleteCount > 0) {
                 } else if (spacefull) {
                     log.warn("disk space will be full soon, but delete file failed.");
@@ -1677,13 +1967,14 @@ public class DefaultMessageStore implements MessageStore {
 
             long minOffset = DefaultMessageStore.this.commitLog.getMinOffset();
             if (minOffset > this.lastPhysicalMinOffset) {
-                this.lastPhysicalMinOffset = minOffset;
-
                 ConcurrentMap<String, ConcurrentMap<Integer, ConsumeQueue>> tables = DefaultMessageStore.this.consumeQueueTable;
 
+                // Consume queue files not uploaded yet are kept, clean again on the next round until they are
+                boolean uploadPending = false;
                 for (ConcurrentMap<Integer, ConsumeQueue> maps : tables.values()) {
                     for (ConsumeQueue logic : maps.values()) {
                         int deleteCount = logic.deleteExpiredFile(minOffset);
+                        uploadPending = uploadPending || this.isUploadPending(logic);
 
                         if (deleteCount > 0 && deleteLogicsFilesInterval > 0) {
                             try {
@@ -1695,9 +1986,21 @@ public class DefaultMessageStore implements MessageStore {
                 }
 
                 DefaultMessageStore.this.indexService.deleteExpiredFile(minOffset);
+                if (!uploadPending) {
+                    this.lastPhysicalMinOffset = minOffset;
+                }
             }
         }
 
+        private boolean isUploadPending(final ConsumeQueue logic) {
+            if (DefaultMessageStore.this.tieredStoreService == null) {
+                return false;
+            }
+            MappedFile lastMappedFile = logic.getMappedFileQueue().getLastMappedFile();
+            return lastMappedFile != null
+                && DefaultMessageStore.this.tieredStoreService.getUploadedConsumeQueueOffset(logic) < lastMappedFile.getFileFromOffset();
+        }
+
         public String getServiceName() {
             return CleanConsumeQueueService.class.getSimpleName();
         }
@@ -1715,6 +2018,7 @@ public class DefaultMessageStore implements MessageStore {
             }
 
             long logicsMsgTimestamp = 0;
+            long logicsMsgOffset = 0;
 
             int flushConsumeQueueThoroughInterval = DefaultMessageStore.this.getMessageStoreConfig().getFlushConsumeQueueThoroughInterval();
             long currentTimeMillis = System.currentTimeMillis();
@@ -1722,6 +2026,7 @@ public class DefaultMessageStore implements MessageStore {
                 this.lastFlushTimestamp = currentTimeMillis;
                 flushConsumeQueueLeastPages = 0;
                 logicsMsgTimestamp = DefaultMessageStore.this.getStoreCheckpoint().getLogicsMsgTimestamp();
+                logicsMsgOffset = DefaultMessageStore.this.getStoreCheckpoint().getLogicsMsgOffset();
             }
 
             ConcurrentMap<String, ConcurrentMap<Integer, ConsumeQueue>> tables = DefaultMessageStore.this.consumeQueueTable;
@@ -1738,6 +2043,7 @@ public class DefaultMessageStore implements MessageStore {
             if (0 == flushConsumeQueueLeastPages) {
                 if (logicsMsgTimestamp > 0) {
                     DefaultMessageStore.this.getStoreCheckpoint().setLogicsMsgTimestamp(logicsMsgTimestamp);
+                    DefaultMessageStore.this.getStoreCheckpoint().setLogicsMsgOffset(logicsMsgOffset);
                 }
                 DefaultMessageStore.this.getStoreCheckpoint().flush();
             }
@@ -1776,6 +2082,18 @@ public class DefaultMessageStore implements MessageStore {
 
         private volatile long reputFromOffset = 0;
 
+        /**
+         * Store timestamp of the last record handed to the dispatchers, only used by the reput thread.
+         */
+        private long lastDispatchedTimestamp = 0;
+
+        /**
+         * Reput offset and timestamp to be recorded in the checkpoint once the consume queue stage of the pipeline has
+         * gone past the offset, -1 if none.
+         */
+        private long checkpointOffset = -1;
+        private long checkpointTimestamp = 0;
+
         public long getReputFromOffset() {
             return reputFromOffset;
         }
@@ -1802,14 +2120,62 @@ public class DefaultMessageStore implements MessageStore {
         }
 
         public long behind() {
-            return DefaultMessageStore.this.commitLog.getMaxOffset() - this.reputFromOffset;
+            long dispatchedOffset = this.reputFromOffset;
+            if (DefaultMessageStore.this.dispatchPipeline != null) {
+                // Read after the reput offset: every request below it has been handed to the pipeline by then
+                dispatchedOffset = Math.min(dispatchedOffset, DefaultMessageStore.this.dispatchPipeline.consumeQueuePendingOffset());
+                dispatchedOffset = Math.min(dispatchedOffset, DefaultMessageStore.this.dispatchPipeline.indexPendingOffset());
+            }
+            return DefaultMessageStore.this.commitLog.getMaxOffset() - dispatchedOffset;
+        }
+
+        public void buildRunningStats(HashMap<String, String> stats) {
+            long reputOffset = this.reputFromOffset;
+            long consumeQueueOffset = reputOffset;
+            long indexOffset = reputOffset;
+            if (DefaultMessageStore.this.dispatchPipeline != null) {
+                consumeQueueOffset = Math.min(reputOffset, DefaultMessageStore.this.dispatchPipeline.consumeQueuePendingOffset());
+                indexOffset = Math.min(reputOffset, DefaultMessageStore.this.dispatchPipeline.indexPendingOffset());
+            }
+            long maxOffset = DefaultMessageStore.this.commitLog.getMaxOffset();
+            stats.put(RunningStats.dispatchReputBehindBytes.name(), String.valueOf(maxOffset - reputOffset));
+            stats.put(RunningStats.dispatchConsumeQueueBehindBytes.name(), String.valueOf(maxOffset - consumeQueueOffset));
+            stats.put(RunningStats.dispatchIndexBehindBytes.name(), String.valueOf(maxOffset - indexOffset));
         }
 
         private boolean isCommitLogAvailable() {
             return this.reputFromOffset < DefaultMessageStore.this.commitLog.getMaxOffset();
         }
 
-        private void doReput() {
+        /**
+         * The consume queue workers of the pipeline finish out of order, so the checkpoint only moves to a reput
+         * position the whole consume queue stage has gone past: the one taken on a previous round, which keeps it
+         * moving under load.
+         */
+        private void advanceCheckpoint() {
+            long pendingOffset = DefaultMessageStore.this.dispatchPipeline != null
+                ? DefaultMessageStore.this.dispatchPipeline.consumeQueuePendingOffset() : Long.MAX_VALUE;
+            if (this.checkpointOffset >= 0 && pendingOffset >= this.checkpointOffset) {
+                DefaultMessageStore.this.storeCheckpoint.setLogicsMsgTimestamp(this.checkpointTimestamp);
+                DefaultMessageStore.this.storeCheckpoint.setLogicsMsgOffset(this.checkpointOffset);
+                this.checkpointOffset = -1;
+            }
+            if (this.checkpointOffset < 0 && this.lastDispatchedTimestamp > 0) {
+                this.checkpointOffset = this.reputFromOffset;
+                this.checkpointTimestamp = this.lastDispatchedTimestamp;
+            }
+        }
+
+        private void dispatch(DispatchRequest dispatchRequest) throws InterruptedException {
+            if (DefaultMessageStore.this.dispatchPipeline != null) {
+                DefaultMessageStore.this.dispatchPipeline.dispatch(dispatchRequest);
+            } else {
+                DefaultMessageStore.this.doDispatch(dispatchRequest);
+                DefaultMessageStore.this.notifyMessageArriving(dispatchRequest);
+            }
+        }
+
+        private void doReput() throws InterruptedException {
             if (this.reputFromOffset < DefaultMessageStore.this.commitLog.getMinOffset()) {
                 log.warn("The reputFromOffset={} is smaller than minPyOffset={}, this usually indicate that the dispatch behind too much and the commitlog has expired.",
                     this.reputFromOffset, DefaultMessageStore.this.commitLog.getMinOffset());
@@ -1834,18 +2200,19 @@ public class DefaultMessageStore implements MessageStore {
 
                             if (dispatchRequest.isSuccess()) {
                                 if (size > 0) {
-                                    DefaultMessageStore.this.doDispatch(dispatchRequest);
-
-                                    if (BrokerRole.SLAVE != DefaultMessageStore.this.getMessageStoreConfig().getBrokerRole()
-                                        && DefaultMessageStore.this.brokerConfig.isLongPollingEnable()) {
-                                        DefaultMessageStore.this.messageArrivingListener.arriving(dispatchRequest.getTopic(),
-                                            dispatchRequest.getQueueId(), dispatchRequest.getConsumeQueueOffset() + 1,
-                                            dispatchRequest.getTagsCode(), dispatchRequest.getStoreTimestamp(),
-                                            dispatchRequest.getBitMap(), dispatchRequest.getPropertiesMap());
+                                    if (MessageSysFlag.isCompressedBatch(dispatchRequest.getSysFlag())) {
+                                        for (DispatchRequest request : DefaultMessageStore.this.commitLog.unpackCompressedBatch(dispatchRequest)) {
+                                            this.dispatch(request);
+                                        }
+                                    } else {
+                                        this.dispatch(dispatchRequest);
                                     }
+                                    DefaultMessageStore.this.storeStatsService.recordLatency(LatencyPhase.REPUT_LAG,
+                                        (DefaultMessageStore.this.getSystemClock().now() - dispatchRequest.getStoreTimestamp()) * 1000);
 
                                     this.reputFromOffset += size;
                                     readSize += size;
+                                    this.lastDispatchedTimestamp = dispatchRequest.getStoreTimestamp();
                                     if (DefaultMessageStore.this.getMessageStoreConfig().getBrokerRole() == BrokerRole.SLAVE) {
                                         DefaultMessageStore.this.storeStatsService
                                             .getSinglePutMessageTopicTimesTotal(dispatchRequest.getTopic()).incrementAndGet();
@@ -1888,6 +2255,7 @@ public class DefaultMessageStore implements MessageStore {
                 try {
                     Thread.sleep(1);
                     this.doReput();
+                    this.advanceCheckpoint();
                 } catch (Exception e) {
                     DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
                 }
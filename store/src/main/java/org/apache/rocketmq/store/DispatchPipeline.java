@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+
+/**
+ * Pipelined dispatch of the records parsed by the reput service.
+ * <p>
+ * The consume queue builder, together with the dispatchers registered ahead of it (such as the filter bit map
+ * calculation, whose result the consume queue ext and the arriving listener read), runs on one of N workers picked by
+ * topic and queue id, so every consume queue is still built in commit log order. The arriving listener is notified as
+ * soon as the entry is written. The dispatchers registered after it, the index build among them, run in commit log
+ * order on a worker of their own and must not rely on the results of the consume queue stage.
+ */
+class DispatchPipeline {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private final CommitLogDispatcher consumeQueueDispatcher;
+
+    private DispatchWorker[] consumeQueueWorkers;
+
+    private DispatchWorker indexWorker;
+
+    DispatchPipeline(DefaultMessageStore defaultMessageStore, CommitLogDispatcher consumeQueueDispatcher) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.consumeQueueDispatcher = consumeQueueDispatcher;
+    }
+
+    public void start() {
+        List<CommitLogDispatcher> consumeQueueStage = new ArrayList<CommitLogDispatcher>();
+        List<CommitLogDispatcher> indexStage = new ArrayList<CommitLogDispatcher>();
+        boolean afterConsumeQueue = false;
+        for (CommitLogDispatcher dispatcher : this.defaultMessageStore.getDispatcherList()) {
+            if (afterConsumeQueue) {
+                indexStage.add(dispatcher);
+            } else {
+                consumeQueueStage.add(dispatcher);
+                afterConsumeQueue = dispatcher == this.consumeQueueDispatcher;
+            }
+        }
+
+        int capacity = this.defaultMessageStore.getMessageStoreConfig().getDispatchPipelineQueueCapacity();
+        int workerNum = Math.max(1, this.defaultMessageStore.getMessageStoreConfig().getDispatchConsumeQueueThreads());
+        this.consumeQueueWorkers = new DispatchWorker[workerNum];
+        for (int i = 0; i < workerNum; i++) {
+            this.consumeQueueWorkers[i] = new DispatchWorker("DispatchConsumeQueueWorker" + i, consumeQueueStage, true, capacity);
+            this.consumeQueueWorkers[i].start();
+        }
+        this.indexWorker = new DispatchWorker("DispatchIndexWorker", indexStage, false, capacity);
+        this.indexWorker.start();
+    }
+
+    /**
+     * Drain all pending requests, then stop the workers.
+     */
+    public void shutdown() {
+        for (DispatchWorker worker : this.consumeQueueWorkers) {
+            worker.shutdown();
+        }
+        this.indexWorker.shutdown();
+    }
+
+    /**
+     * Hand a parsed record to both stages, blocking while the chosen consume queue worker or the index worker is full.
+     */
+    public void dispatch(DispatchRequest request) throws InterruptedException {
+        int hash = request.getTopic().hashCode() * 31 + request.getQueueId();
+        this.consumeQueueWorkers[(hash & Integer.MAX_VALUE) % this.consumeQueueWorkers.length].put(request);
+        this.indexWorker.put(request);
+    }
+
+    /**
+     * @return Smallest commit log offset not yet through the consume queue stage, {@link Long#MAX_VALUE} if none.
+     */
+    public long consumeQueuePendingOffset() {
+        long pending = Long.MAX_VALUE;
+        for (DispatchWorker worker : this.consumeQueueWorkers) {
+            pending = Math.min(pending, worker.pendingOffset());
+        }
+        return pending;
+    }
+
+    /**
+     * @return Smallest commit log offset not yet through the index stage, {@link Long#MAX_VALUE} if none.
+     */
+    public long indexPendingOffset() {
+        return this.indexWorker.pendingOffset();
+    }
+
+    class DispatchWorker extends ServiceThread {
+        private final String serviceName;
+        private final List<CommitLogDispatcher> dispatchers;
+        private final boolean notifyArriving;
+        private final BlockingQueue<DispatchRequest> requestQueue;
+
+        /**
+         * Offset of the request being dispatched, published before it leaves the queue so that
+         * {@link #pendingOffset()} never misses it.
+         */
+        private volatile long dispatchingOffset = Long.MAX_VALUE;
+
+        DispatchWorker(String serviceName, List<CommitLogDispatcher> dispatchers, boolean notifyArriving, int capacity) {
+            this.serviceName = serviceName;
+            this.dispatchers = dispatchers;
+            this.notifyArriving = notifyArriving;
+            this.requestQueue = new LinkedBlockingQueue<DispatchRequest>(capacity);
+        }
+
+        void put(DispatchRequest request) throws InterruptedException {
+            this.requestQueue.put(request);
+            this.wakeup();
+        }
+
+        long pendingOffset() {
+            // Read the queue head first: a request is published as dispatching before it is polled
+            DispatchRequest head = this.requestQueue.peek();
+            long pending = this.dispatchingOffset;
+            return head != null ? Math.min(pending, head.getCommitLogOffset()) : pending;
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped() || !this.requestQueue.isEmpty()) {
+                DispatchRequest request = this.requestQueue.peek();
+                if (request == null) {
+                    this.waitForRunning(1);
+                    continue;
+                }
+
+                this.dispatchingOffset = request.getCommitLogOffset();
+                this.requestQueue.poll();
+                try {
+                    for (CommitLogDispatcher dispatcher : this.dispatchers) {
+                        dispatcher.dispatch(request);
+                    }
+                    if (this.notifyArriving) {
+                        DispatchPipeline.this.defaultMessageStore.notifyMessageArriving(request);
+                    }
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " dispatch exception, commitLogOffset=" + request.getCommitLogOffset(), e);
+                } finally {
+                    this.dispatchingOffset = Long.MAX_VALUE;
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+        @Override
+        public String getServiceName() {
+            return this.serviceName;
+        }
+    }
+}
@@ -267,6 +267,15 @@ public class MappedFile extends ReferenceResource {
         return false;
     }
 
+    /**
+     * Write data at a position reserved ahead, leaving the wrote position to the caller.
+     */
+    public void write(final int pos, final ByteBuffer data) {
+        ByteBuffer byteBuffer = writeBuffer != null ? writeBuffer.slice() : this.mappedByteBuffer.slice();
+        byteBuffer.position(pos);
+        byteBuffer.put(data);
+    }
+
     /**
      * @return The current flushed position
      */
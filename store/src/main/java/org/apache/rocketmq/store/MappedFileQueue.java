@@ -204,33 +204,59 @@ public class MappedFileQueue {
         }
 
         if (createOffset != -1 && needCreate) {
-            String nextFilePath = this.storePath + File.separator + UtilAll.offset2FileName(createOffset);
-            String nextNextFilePath = this.storePath + File.separator
-                + UtilAll.offset2FileName(createOffset + this.mappedFileSize);
-            MappedFile mappedFile = null;
-
-            if (this.allocateMappedFileService != null) {
-                mappedFile = this.allocateMappedFileService.putRequestAndReturnMappedFile(nextFilePath,
-                    nextNextFilePath, this.mappedFileSize);
-            } else {
-                try {
-                    mappedFile = new MappedFile(nextFilePath, this.mappedFileSize);
-                } catch (IOException e) {
-                    log.error("create mappedFile exception", e);
-                }
+            return this.createMappedFile(createOffset);
+        }
+
+        return mappedFileLast;
+    }
+
+    /**
+     * Get the file holding the given offset, creating the files up to it if needed. Unlike
+     * {@link #getLastMappedFile(long)}, the next file is created whether the last one is full or not, for appends
+     * reserving space ahead of the wrote position.
+     */
+    public synchronized MappedFile getOrCreateMappedFile(final long offset) {
+        MappedFile mappedFileLast = getLastMappedFile();
+        while (mappedFileLast == null || offset >= mappedFileLast.getFileFromOffset() + this.mappedFileSize) {
+            long createOffset = mappedFileLast == null ? offset - (offset % this.mappedFileSize)
+                : mappedFileLast.getFileFromOffset() + this.mappedFileSize;
+            mappedFileLast = this.createMappedFile(createOffset);
+            if (mappedFileLast == null) {
+                return null;
             }
+        }
 
-            if (mappedFile != null) {
-                if (this.mappedFiles.isEmpty()) {
-                    mappedFile.setFirstCreateInQueue(true);
-                }
-                this.mappedFiles.add(mappedFile);
+        if (offset >= mappedFileLast.getFileFromOffset()) {
+            return mappedFileLast;
+        }
+        return this.findMappedFileByOffset(offset, false);
+    }
+
+    private MappedFile createMappedFile(final long createOffset) {
+        String nextFilePath = this.storePath + File.separator + UtilAll.offset2FileName(createOffset);
+        String nextNextFilePath = this.storePath + File.separator
+            + UtilAll.offset2FileName(createOffset + this.mappedFileSize);
+        MappedFile mappedFile = null;
+
+        if (this.allocateMappedFileService != null) {
+            mappedFile = this.allocateMappedFileService.putRequestAndReturnMappedFile(nextFilePath,
+                nextNextFilePath, this.mappedFileSize);
+        } else {
+            try {
+                mappedFile = new MappedFile(nextFilePath, this.mappedFileSize);
+            } catch (IOException e) {
+                log.error("create mappedFile exception", e);
             }
+        }
 
-            return mappedFile;
+        if (mappedFile != null) {
+            if (this.mappedFiles.isEmpty()) {
+                mappedFile.setFirstCreateInQueue(true);
+            }
+            this.mappedFiles.add(mappedFile);
         }
 
-        return mappedFileLast;
+        return mappedFile;
     }
 
     public MappedFile getLastMappedFile(final long startOffset) {
@@ -337,6 +363,17 @@ public class MappedFileQueue {
         final int deleteFilesInterval,
         final long intervalForcibly,
         final boolean cleanImmediately) {
+        return this.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxDeleteOffset Files ending beyond this offset are kept, whatever their age.
+     */
+    public int deleteExpiredFileByTime(final long expiredTime,
+        final int deleteFilesInterval,
+        final long intervalForcibly,
+        final boolean cleanImmediately,
+        final long maxDeleteOffset) {
         Object[] mfs = this.copyMappedFiles(0);
 
         if (null == mfs)
@@ -348,6 +385,9 @@ public class MappedFileQueue {
         if (null != mfs) {
             for (int i = 0; i < mfsLength; i++) {
                 MappedFile mappedFile = (MappedFile) mfs[i];
+                if (mappedFile.getFileFromOffset() + this.mappedFileSize > maxDeleteOffset) {
+                    break;
+                }
                 long liveMaxTimestamp = mappedFile.getLastModifiedTimestamp() + expiredTime;
                 if (System.currentTimeMillis() >= liveMaxTimestamp || cleanImmediately) {
                     if (mappedFile.destroy(intervalForcibly)) {
@@ -380,6 +420,13 @@ public class MappedFileQueue {
     }
 
     public int deleteExpiredFileByOffset(long offset, int unitSize) {
+        return this.deleteExpiredFileByOffset(offset, unitSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxDeleteOffset Files ending beyond this offset are kept, whatever the offsets they hold.
+     */
+    public int deleteExpiredFileByOffset(long offset, int unitSize, long maxDeleteOffset) {
         Object[] mfs = this.copyMappedFiles(0);
 
         List<MappedFile> files = new ArrayList<MappedFile>();
@@ -391,6 +438,9 @@ public class MappedFileQueue {
             for (int i = 0; i < mfsLength; i++) {
                 boolean destroy;
                 MappedFile mappedFile = (MappedFile) mfs[i];
+                if (mappedFile.getFileFromOffset() + this.mappedFileSize > maxDeleteOffset) {
+                    break;
+                }
                 SelectMappedBufferResult result = mappedFile.selectMappedBuffer(this.mappedFileSize - unitSize);
                 if (result != null) {
                     long maxOffsetInLogicQueue = result.getByteBuffer().getLong();
@@ -19,6 +19,7 @@ package org.apache.rocketmq.store;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageExtBatch;
 import org.apache.rocketmq.store.config.BrokerRole;
@@ -69,6 +70,27 @@ public interface MessageStore {
      */
     PutMessageResult putMessages(final MessageExtBatch messageExtBatch);
 
+    /**
+     * Store a message into store asynchronously, without blocking the caller until the message is flushed or
+     * replicated.
+     *
+     * @param msg Message instance to store
+     * @return a future of the result of store operation, completed once the flush and replication required are done.
+     */
+    default CompletableFuture<PutMessageResult> asyncPutMessage(final MessageExtBrokerInner msg) {
+        return CompletableFuture.completedFuture(putMessage(msg));
+    }
+
+    /**
+     * Store a batch of messages asynchronously, see {@link #asyncPutMessage(MessageExtBrokerInner)}.
+     *
+     * @param messageExtBatch Message batch.
+     * @return a future of the result of storing batch messages.
+     */
+    default CompletableFuture<PutMessageResult> asyncPutMessages(final MessageExtBatch messageExtBatch) {
+        return CompletableFuture.completedFuture(putMessages(messageExtBatch));
+    }
+
     /**
      * Query at most <code>maxMsgNums</code> messages belonging to <code>topic</code> at <code>queueId</code> starting
      * from given <code>offset</code>. Resulting messages will further be screened using provided message filter.
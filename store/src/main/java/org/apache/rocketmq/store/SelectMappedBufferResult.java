@@ -48,9 +48,9 @@ public class SelectMappedBufferResult {
         this.byteBuffer.limit(this.size);
     }
 
-   /* public MappedFile getMappedFile() {
+    public MappedFile getMappedFile() {
         return mappedFile;
-    }*/
+    }
 
 //    @Override
 //    protected void finalize() {
@@ -17,6 +17,7 @@
 package org.apache.rocketmq.store;
 
 import java.text.MessageFormat;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
@@ -28,9 +29,11 @@ import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.stats.LatencyHistogram;
 
 public class StoreStatsService extends ServiceThread {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+    private static final InternalLogger LOG_STATS = InternalLoggerFactory.getLogger(LoggerName.ROCKETMQ_STATS_LOGGER_NAME);
 
     private static final int FREQUENCY_OF_SAMPLING = 1000;
 
@@ -38,6 +41,9 @@ public class StoreStatsService extends ServiceThread {
     private static final String[] PUT_MESSAGE_ENTIRE_TIME_MAX_DESC = new String[] {
         "[<=0ms]", "[0~10ms]", "[10~50ms]", "[50~100ms]", "[100~200ms]", "[200~500ms]", "[500ms~1s]", "[1~2s]", "[2~3s]", "[3~4s]", "[4~5s]", "[5~10s]", "[10s~]",
     };
+    private static final long[] PUT_MESSAGE_ENTIRE_TIME_MAX_BOUND = new long[] {
+        1, 10, 50, 100, 200, 500, 1000, 2000, 3000, 4000, 5000, 10000, Long.MAX_VALUE
+    };
 
     private static int printTPSInterval = 60 * 1;
 
@@ -56,7 +62,10 @@ public class StoreStatsService extends ServiceThread {
     private final LinkedList<CallSnapshot> getTimesFoundList = new LinkedList<CallSnapshot>();
     private final LinkedList<CallSnapshot> getTimesMissList = new LinkedList<CallSnapshot>();
     private final LinkedList<CallSnapshot> transferedMsgCountList = new LinkedList<CallSnapshot>();
-    private volatile AtomicLong[] putMessageDistributeTime;
+    private final EnumMap<LatencyPhase, LatencyHistogram> latencyHistograms = new EnumMap<LatencyPhase, LatencyHistogram>(LatencyPhase.class);
+    // cumulative counts at the end of the last interval, and the counts of that interval
+    private final EnumMap<LatencyPhase, LatencyHistogram.Snapshot> latencyLastSnapshots = new EnumMap<LatencyPhase, LatencyHistogram.Snapshot>(LatencyPhase.class);
+    private final EnumMap<LatencyPhase, LatencyHistogram.Snapshot> latencyIntervalSnapshots = new EnumMap<LatencyPhase, LatencyHistogram.Snapshot>(LatencyPhase.class);
     private long messageStoreBootTimestamp = System.currentTimeMillis();
     private volatile long putMessageEntireTimeMax = 0;
     private volatile long getMessageEntireTimeMax = 0;
@@ -71,20 +80,27 @@ public class StoreStatsService extends ServiceThread {
     private long lastPrintTimestamp = System.currentTimeMillis();
 
     public StoreStatsService() {
-        this.initPutMessageDistributeTime();
-    }
-
-    private AtomicLong[] initPutMessageDistributeTime() {
-        AtomicLong[] next = new AtomicLong[13];
-        for (int i = 0; i < next.length; i++) {
-            next[i] = new AtomicLong(0);
+        for (LatencyPhase phase : LatencyPhase.values()) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            this.latencyHistograms.put(phase, histogram);
+            this.latencyLastSnapshots.put(phase, histogram.snapshot());
+            this.latencyIntervalSnapshots.put(phase, histogram.snapshot());
         }
+    }
 
-        AtomicLong[] old = this.putMessageDistributeTime;
+    public void recordLatency(LatencyPhase phase, long valueMicros) {
+        this.latencyHistograms.get(phase).record(valueMicros);
+    }
 
-        this.putMessageDistributeTime = next;
+    /**
+     * Record the nanoseconds elapsed since the given {@link System#nanoTime()}.
+     */
+    public void recordLatencySince(LatencyPhase phase, long beginNanos) {
+        this.latencyHistograms.get(phase).record((System.nanoTime() - beginNanos) / 1000);
+    }
 
-        return old;
+    public LatencyHistogram getLatencyHistogram(LatencyPhase phase) {
+        return this.latencyHistograms.get(phase);
     }
 
     public long getPutMessageEntireTimeMax() {
@@ -92,50 +108,6 @@ public class StoreStatsService extends ServiceThread {
     }
 
     public void setPutMessageEntireTimeMax(long value) {
-        final AtomicLong[] times = this.putMessageDistributeTime;
-
-        if (null == times)
-            return;
-
-        // us
-        if (value <= 0) {
-            times[0].incrementAndGet();
-        } else if (value < 10) {
-            times[1].incrementAndGet();
-        } else if (value < 50) {
-            times[2].incrementAndGet();
-        } else if (value < 100) {
-            times[3].incrementAndGet();
-        } else if (value < 200) {
-            times[4].incrementAndGet();
-        } else if (value < 500) {
-            times[5].incrementAndGet();
-        } else if (value < 1000) {
-            times[6].incrementAndGet();
-        }
-        // 2s
-        else if (value < 2000) {
-            times[7].incrementAndGet();
-        }
-        // 3s
-        else if (value < 3000) {
-            times[8].incrementAndGet();
-        }
-        // 4s
-        else if (value < 4000) {
-            times[9].incrementAndGet();
-        }
-        // 5s
-        else if (value < 5000) {
-            times[10].incrementAndGet();
-        }
-        // 10s
-        else if (value < 10000) {
-            times[11].incrementAndGet();
-        } else {
-            times[12].incrementAndGet();
-        }
-
         if (value > this.putMessageEntireTimeMax) {
             this.lockPut.lock();
             this.putMessageEntireTimeMax =
@@ -188,6 +160,9 @@ public class StoreStatsService extends ServiceThread {
         sb.append("\tgetMissTps: " + this.getGetMissTps() + "\r\n");
         sb.append("\tgetTotalTps: " + this.getGetTotalTps() + "\r\n");
         sb.append("\tgetTransferedTps: " + this.getGetTransferedTps() + "\r\n");
+        for (LatencyPhase phase : LatencyPhase.values()) {
+            sb.append("\t" + phase.getKey() + "Latency: " + this.latencyHistograms.get(phase).snapshot() + "\r\n");
+        }
         return sb.toString();
     }
 
@@ -298,15 +273,21 @@ public class StoreStatsService extends ServiceThread {
     }
 
     private String putMessageDistributeTimeToString() {
-        final AtomicLong[] times = this.putMessageDistributeTime;
-        if (null == times)
-            return null;
+        return putMessageDistributeTimeToString(this.latencyHistograms.get(LatencyPhase.PUT_MESSAGE_ENTIRE).snapshot());
+    }
 
+    /**
+     * Format put latencies in the ranges of the former fixed buckets, as read by existing dashboards.
+     */
+    private static String putMessageDistributeTimeToString(LatencyHistogram.Snapshot snapshot) {
         final StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < times.length; i++) {
-            long value = times[i].get();
+        long lowMillis = 0;
+        for (int i = 0; i < PUT_MESSAGE_ENTIRE_TIME_MAX_BOUND.length; i++) {
+            long highMillis = PUT_MESSAGE_ENTIRE_TIME_MAX_BOUND[i];
+            long value = snapshot.getCountBetween(lowMillis * 1000, highMillis == Long.MAX_VALUE ? Long.MAX_VALUE : highMillis * 1000 - 1);
             sb.append(String.format("%s:%d", PUT_MESSAGE_ENTIRE_TIME_MAX_DESC[i], value));
             sb.append(" ");
+            lowMillis = highMillis;
         }
 
         return sb.toString();
@@ -316,9 +297,8 @@ public class StoreStatsService extends ServiceThread {
         String result = "";
         this.lockSampling.lock();
         try {
-            CallSnapshot last = this.putTimesList.getLast();
-
             if (this.putTimesList.size() > time) {
+                CallSnapshot last = this.putTimesList.getLast();
                 CallSnapshot lastBefore = this.putTimesList.get(this.putTimesList.size() - (time + 1));
                 result += CallSnapshot.getTPS(lastBefore, last);
             }
@@ -333,9 +313,8 @@ public class StoreStatsService extends ServiceThread {
         String result = "";
         this.lockSampling.lock();
         try {
-            CallSnapshot last = this.getTimesFoundList.getLast();
-
             if (this.getTimesFoundList.size() > time) {
+                CallSnapshot last = this.getTimesFoundList.getLast();
                 CallSnapshot lastBefore =
                     this.getTimesFoundList.get(this.getTimesFoundList.size() - (time + 1));
                 result += CallSnapshot.getTPS(lastBefore, last);
@@ -351,9 +330,8 @@ public class StoreStatsService extends ServiceThread {
         String result = "";
         this.lockSampling.lock();
         try {
-            CallSnapshot last = this.getTimesMissList.getLast();
-
             if (this.getTimesMissList.size() > time) {
+                CallSnapshot last = this.getTimesMissList.getLast();
                 CallSnapshot lastBefore =
                     this.getTimesMissList.get(this.getTimesMissList.size() - (time + 1));
                 result += CallSnapshot.getTPS(lastBefore, last);
@@ -372,18 +350,16 @@ public class StoreStatsService extends ServiceThread {
         double miss = 0;
         try {
             {
-                CallSnapshot last = this.getTimesFoundList.getLast();
-
                 if (this.getTimesFoundList.size() > time) {
+                    CallSnapshot last = this.getTimesFoundList.getLast();
                     CallSnapshot lastBefore =
                         this.getTimesFoundList.get(this.getTimesFoundList.size() - (time + 1));
                     found = CallSnapshot.getTPS(lastBefore, last);
                 }
             }
             {
-                CallSnapshot last = this.getTimesMissList.getLast();
-
                 if (this.getTimesMissList.size() > time) {
+                    CallSnapshot last = this.getTimesMissList.getLast();
                     CallSnapshot lastBefore =
                         this.getTimesMissList.get(this.getTimesMissList.size() - (time + 1));
                     miss = CallSnapshot.getTPS(lastBefore, last);
@@ -401,9 +377,8 @@ public class StoreStatsService extends ServiceThread {
         String result = "";
         this.lockSampling.lock();
         try {
-            CallSnapshot last = this.transferedMsgCountList.getLast();
-
             if (this.transferedMsgCountList.size() > time) {
+                CallSnapshot last = this.transferedMsgCountList.getLast();
                 CallSnapshot lastBefore =
                     this.transferedMsgCountList.get(this.transferedMsgCountList.size() - (time + 1));
                 result += CallSnapshot.getTPS(lastBefore, last);
@@ -440,6 +415,12 @@ public class StoreStatsService extends ServiceThread {
         result.put("getMissTps", String.valueOf(this.getGetMissTps()));
         result.put("getTotalTps", String.valueOf(this.getGetTotalTps()));
         result.put("getTransferedTps", String.valueOf(this.getGetTransferedTps()));
+        for (LatencyPhase phase : LatencyPhase.values()) {
+            result.put(phase.getKey() + "Latency", this.latencyHistograms.get(phase).snapshot().toString());
+            synchronized (this.latencyIntervalSnapshots) {
+                result.put(phase.getKey() + "LatencyInterval", this.latencyIntervalSnapshots.get(phase).toString());
+            }
+        }
 
         return result;
     }
@@ -509,20 +490,25 @@ public class StoreStatsService extends ServiceThread {
                 this.getGetTransferedTps(printTPSInterval)
             );
 
-            final AtomicLong[] times = this.initPutMessageDistributeTime();
-            if (null == times)
-                return;
-
-            final StringBuilder sb = new StringBuilder();
-            long totalPut = 0;
-            for (int i = 0; i < times.length; i++) {
-                long value = times[i].get();
-                totalPut += value;
-                sb.append(String.format("%s:%d", PUT_MESSAGE_ENTIRE_TIME_MAX_DESC[i], value));
-                sb.append(" ");
+            this.rollLatencyInterval();
+
+            LatencyHistogram.Snapshot putInterval = this.latencyIntervalSnapshots.get(LatencyPhase.PUT_MESSAGE_ENTIRE);
+            log.info("[PAGECACHERT] TotalPut {}, PutMessageDistributeTime {}", putInterval.getTotalCount(),
+                putMessageDistributeTimeToString(putInterval));
+            for (LatencyPhase phase : LatencyPhase.values()) {
+                LOG_STATS.info("[STORELATENCY] {} interval(us) [{}] total(us) [{}]", phase.getKey(),
+                    this.latencyIntervalSnapshots.get(phase), this.latencyLastSnapshots.get(phase));
             }
+        }
+    }
 
-            log.info("[PAGECACHERT] TotalPut {}, PutMessageDistributeTime {}", totalPut, sb.toString());
+    void rollLatencyInterval() {
+        synchronized (this.latencyIntervalSnapshots) {
+            for (LatencyPhase phase : LatencyPhase.values()) {
+                LatencyHistogram.Snapshot current = this.latencyHistograms.get(phase).snapshot();
+                this.latencyIntervalSnapshots.put(phase, current.minus(this.latencyLastSnapshots.get(phase)));
+                this.latencyLastSnapshots.put(phase, current);
+            }
         }
     }
 
@@ -574,6 +560,38 @@ public class StoreStatsService extends ServiceThread {
         return putMessageTopicSizeTotal;
     }
 
+    /**
+     * Phases of putting and getting messages whose latency is tracked in microseconds.
+     */
+    public enum LatencyPhase {
+        /** Waiting for the put message lock, or the queue offset lock of the concurrent appender. */
+        PUT_LOCK_WAIT("putLockWait"),
+        /** Serializing a message before it is written. */
+        PUT_ENCODE("putEncode"),
+        /** Copying an encoded message into the mapped file. */
+        PUT_WRITE("putWrite"),
+        /** Waiting for the group commit of a sync flush. */
+        PUT_FLUSH_WAIT("putFlushWait"),
+        /** Waiting for slaves to acknowledge a message put on a sync master. */
+        PUT_REPLICA_WAIT("putReplicaWait"),
+        /** Whole put, from the store call to its result. */
+        PUT_MESSAGE_ENTIRE("putMessageEntire"),
+        /** Looking up and selecting messages for a pull. */
+        GET_MESSAGE("getMessage"),
+        /** From storing a message to dispatching it to consume queues and the index. */
+        REPUT_LAG("reputLag");
+
+        private final String key;
+
+        LatencyPhase(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
     static class CallSnapshot {
         public final long timestamp;
         public final long callTimesTotal;
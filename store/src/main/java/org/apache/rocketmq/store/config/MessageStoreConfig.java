@@ -58,6 +58,12 @@ public class MessageStoreConfig {
      */
     private boolean useReentrantLockWhenPutMessage = false;
 
+    /**
+     * Append without the put message lock: producers reserve commit log space by CAS and take queue offsets from per
+     * queue counters, see {@code ConcurrentAppender}. Not used with DLedger.
+     */
+    private boolean lockFreeAppendEnable = false;
+
     // Whether schedule flush,default is real-time
     @ImportantField
     private boolean flushCommitLogTimed = false;
@@ -86,6 +92,10 @@ public class MessageStoreConfig {
     // This ensures no on-the-wire or on-disk corruption to the messages occurred.
     // This check adds some overhead,so it may be disabled in cases seeking extreme performance.
     private boolean checkCRCOnRecover = true;
+    // Threads recovering consume queues on startup, one queue at a time each
+    private int recoverThreadPoolNums = Math.min(16, Runtime.getRuntime().availableProcessors());
+    // After an abnormal shutdown, rebuild the index in the background instead of during recovery
+    private boolean indexRebuildAsyncEnable = false;
     // How many pages are to be flushed when flush CommitLog
     private int flushCommitLogLeastPages = 4;
     // How many pages are to be committed when commit data to file
@@ -121,6 +131,16 @@ public class MessageStoreConfig {
     @ImportantField
     private String haMasterAddress = null;
     private int haSlaveFallbehindMax = 1024 * 1024 * 256;
+    /**
+     * Number of slaves that must ack a message before a SYNC_MASTER put completes with PUT_OK.
+     */
+    private int haAckQuorum = 1;
+    /**
+     * Deflate every batch pushed to slaves. Each frame tells whether it is compressed, only the master reads it.
+     */
+    private boolean haTransferCompressEnable = false;
+    private int haTransferCompressLevel = 1;
+    private boolean haTransferZeroCopyEnable = true;
     @ImportantField
     private BrokerRole brokerRole = BrokerRole.ASYNC_MASTER;
     @ImportantField
@@ -143,6 +163,46 @@ public class MessageStoreConfig {
     private int transientStorePoolSize = 5;
     private boolean fastFailIfNoBufferInStorePool = false;
 
+    /**
+     * Dispatch parsed commit log records through {@code DispatchPipeline}: consume queues are built by
+     * dispatchConsumeQueueThreads workers partitioned by topic and queue, the index on a stage of its own.
+     */
+    private boolean dispatchPipelineEnable = false;
+    private int dispatchConsumeQueueThreads = 4;
+    private int dispatchPipelineQueueCapacity = 10000;
+
+    /**
+     * Accept messages carrying an absolute deliver time and keep them in the timing wheel of
+     * {@code TimerMessageStore} until due. Timers beyond timerWheelSlots * timerPrecisionMs are rolled over.
+     */
+    private boolean timerWheelEnable = false;
+    private int timerPrecisionMs = 1000;
+    private int timerWheelSlots = 2 * 24 * 3600;
+    private int mappedFileSizeTimerLog = 36 * 1024 * 1024;
+    private long timerFlushIntervalMs = 1000;
+
+    /**
+     * Upload sealed commit log and consume queue files to the tier created from tieredStorageClass, keep commit log
+     * files locally until uploaded and read through to the tier below the local min offsets.
+     */
+    private boolean tieredStoreEnable = false;
+    private String tieredStorageClass = "org.apache.rocketmq.store.tiered.LocalDirTieredStorage";
+    private String tieredStoragePath = System.getProperty("user.home") + File.separator + "store"
+        + File.separator + "tiered";
+    private long tieredUploadIntervalMs = 10 * 1000;
+    private int tieredReadAheadSize = 1024 * 1024;
+    private int tieredReadCacheBlocks = 64;
+
+    /**
+     * Store a batch whose encoded messages reach compressBatchOverHowmuch bytes as one zlib-compressed commit log
+     * entry; the consume queue still holds one entry per message.
+     */
+    private boolean compressBatchEnable = false;
+    private int compressBatchOverHowmuch = 1024 * 4;
+    private int compressBatchLevel = 5;
+    // Decompressed batches kept for the pulls, lookups and dispatches following each other on the same batch
+    private int compressBatchCacheNum = 64;
+
     private boolean enableDLegerCommitLog = false;
     private String dLegerGroup;
     private String dLegerPeers;
@@ -655,6 +715,14 @@ public class MessageStoreConfig {
         this.useReentrantLockWhenPutMessage = useReentrantLockWhenPutMessage;
     }
 
+    public boolean isLockFreeAppendEnable() {
+        return lockFreeAppendEnable;
+    }
+
+    public void setLockFreeAppendEnable(final boolean lockFreeAppendEnable) {
+        this.lockFreeAppendEnable = lockFreeAppendEnable;
+    }
+
     public int getCommitCommitLogLeastPages() {
         return commitCommitLogLeastPages;
     }
@@ -702,4 +770,196 @@ public class MessageStoreConfig {
     public void setEnableDLegerCommitLog(boolean enableDLegerCommitLog) {
         this.enableDLegerCommitLog = enableDLegerCommitLog;
     }
+
+    public boolean isDispatchPipelineEnable() {
+        return dispatchPipelineEnable;
+    }
+
+    public void setDispatchPipelineEnable(boolean dispatchPipelineEnable) {
+        this.dispatchPipelineEnable = dispatchPipelineEnable;
+    }
+
+    public int getDispatchConsumeQueueThreads() {
+        return dispatchConsumeQueueThreads;
+    }
+
+    public void setDispatchConsumeQueueThreads(int dispatchConsumeQueueThreads) {
+        this.dispatchConsumeQueueThreads = dispatchConsumeQueueThreads;
+    }
+
+    public int getDispatchPipelineQueueCapacity() {
+        return dispatchPipelineQueueCapacity;
+    }
+
+    public void setDispatchPipelineQueueCapacity(int dispatchPipelineQueueCapacity) {
+        this.dispatchPipelineQueueCapacity = dispatchPipelineQueueCapacity;
+    }
+
+    public boolean isTimerWheelEnable() {
+        return timerWheelEnable;
+    }
+
+    public void setTimerWheelEnable(boolean timerWheelEnable) {
+        this.timerWheelEnable = timerWheelEnable;
+    }
+
+    public int getTimerPrecisionMs() {
+        return timerPrecisionMs;
+    }
+
+    public void setTimerPrecisionMs(int timerPrecisionMs) {
+        this.timerPrecisionMs = timerPrecisionMs;
+    }
+
+    public int getTimerWheelSlots() {
+        return timerWheelSlots;
+    }
+
+    public void setTimerWheelSlots(int timerWheelSlots) {
+        this.timerWheelSlots = timerWheelSlots;
+    }
+
+    public int getMappedFileSizeTimerLog() {
+        return mappedFileSizeTimerLog;
+    }
+
+    public void setMappedFileSizeTimerLog(int mappedFileSizeTimerLog) {
+        this.mappedFileSizeTimerLog = mappedFileSizeTimerLog;
+    }
+
+    public long getTimerFlushIntervalMs() {
+        return timerFlushIntervalMs;
+    }
+
+    public void setTimerFlushIntervalMs(long timerFlushIntervalMs) {
+        this.timerFlushIntervalMs = timerFlushIntervalMs;
+    }
+
+    public boolean isTieredStoreEnable() {
+        return tieredStoreEnable;
+    }
+
+    public void setTieredStoreEnable(boolean tieredStoreEnable) {
+        this.tieredStoreEnable = tieredStoreEnable;
+    }
+
+    public String getTieredStorageClass() {
+        return tieredStorageClass;
+    }
+
+    public void setTieredStorageClass(String tieredStorageClass) {
+        this.tieredStorageClass = tieredStorageClass;
+    }
+
+    public String getTieredStoragePath() {
+        return tieredStoragePath;
+    }
+
+    public void setTieredStoragePath(String tieredStoragePath) {
+        this.tieredStoragePath = tieredStoragePath;
+    }
+
+    public long getTieredUploadIntervalMs() {
+        return tieredUploadIntervalMs;
+    }
+
+    public void setTieredUploadIntervalMs(long tieredUploadIntervalMs) {
+        this.tieredUploadIntervalMs = tieredUploadIntervalMs;
+    }
+
+    public int getTieredReadAheadSize() {
+        return tieredReadAheadSize;
+    }
+
+    public void setTieredReadAheadSize(int tieredReadAheadSize) {
+        this.tieredReadAheadSize = tieredReadAheadSize;
+    }
+
+    public int getTieredReadCacheBlocks() {
+        return tieredReadCacheBlocks;
+    }
+
+    public void setTieredReadCacheBlocks(int tieredReadCacheBlocks) {
+        this.tieredReadCacheBlocks = tieredReadCacheBlocks;
+    }
+
+    public boolean isCompressBatchEnable() {
+        return compressBatchEnable;
+    }
+
+    public void setCompressBatchEnable(boolean compressBatchEnable) {
+        this.compressBatchEnable = compressBatchEnable;
+    }
+
+    public int getCompressBatchOverHowmuch() {
+        return compressBatchOverHowmuch;
+    }
+
+    public void setCompressBatchOverHowmuch(int compressBatchOverHowmuch) {
+        this.compressBatchOverHowmuch = compressBatchOverHowmuch;
+    }
+
+    public int getCompressBatchLevel() {
+        return compressBatchLevel;
+    }
+
+    public void setCompressBatchLevel(int compressBatchLevel) {
+        this.compressBatchLevel = compressBatchLevel;
+    }
+
+    public int getCompressBatchCacheNum() {
+        return compressBatchCacheNum;
+    }
+
+    public void setCompressBatchCacheNum(int compressBatchCacheNum) {
+        this.compressBatchCacheNum = compressBatchCacheNum;
+    }
+
+    public int getHaAckQuorum() {
+        return haAckQuorum;
+    }
+
+    public void setHaAckQuorum(int haAckQuorum) {
+        this.haAckQuorum = haAckQuorum;
+    }
+
+    public boolean isHaTransferCompressEnable() {
+        return haTransferCompressEnable;
+    }
+
+    public void setHaTransferCompressEnable(boolean haTransferCompressEnable) {
+        this.haTransferCompressEnable = haTransferCompressEnable;
+    }
+
+    public int getHaTransferCompressLevel() {
+        return haTransferCompressLevel;
+    }
+
+    public void setHaTransferCompressLevel(int haTransferCompressLevel) {
+        this.haTransferCompressLevel = haTransferCompressLevel;
+    }
+
+    public boolean isHaTransferZeroCopyEnable() {
+        return haTransferZeroCopyEnable;
+    }
+
+    public void setHaTransferZeroCopyEnable(boolean haTransferZeroCopyEnable) {
+        this.haTransferZeroCopyEnable = haTransferZeroCopyEnable;
+    }
+
+    public int getRecoverThreadPoolNums() {
+        return recoverThreadPoolNums;
+    }
+
+    public void setRecoverThreadPoolNums(int recoverThreadPoolNums) {
+        this.recoverThreadPoolNums = recoverThreadPoolNums;
+    }
+
+    public boolean isIndexRebuildAsyncEnable() {
+        return indexRebuildAsyncEnable;
+    }
+
+    public void setIndexRebuildAsyncEnable(boolean indexRebuildAsyncEnable) {
+        this.indexRebuildAsyncEnable = indexRebuildAsyncEnable;
+    }
 }
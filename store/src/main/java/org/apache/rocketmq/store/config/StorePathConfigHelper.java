@@ -48,6 +48,22 @@ public class StorePathConfigHelper {
         return rootDir + File.separator + "config" + File.separator + "delayOffset.json";
     }
 
+    public static String getStorePathTimerLog(final String rootDir) {
+        return rootDir + File.separator + "timerlog";
+    }
+
+    public static String getTimerWheelPath(final String rootDir) {
+        return rootDir + File.separator + "timerwheel";
+    }
+
+    public static String getTimerCheckpointPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "timercheck";
+    }
+
+    public static String getTieredSegmentIndexPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "tieredSegments.json";
+    }
+
     public static String getTranStateTableStorePath(final String rootDir) {
         return rootDir + File.separator + "transaction" + File.separator + "statetable";
     }
@@ -18,17 +18,27 @@ package org.apache.rocketmq.store.ha;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.zip.Deflater;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
+import org.apache.rocketmq.store.MappedFile;
 import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
 
 public class HAConnection {
+    /**
+     * Set in the body size of a frame header when the body is compressed, the uncompressed size follows then.
+     */
+    static final int COMPRESSED_BODY_FLAG = 0x80000000;
+
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     private final HAService haService;
     private final SocketChannel socketChannel;
@@ -78,6 +88,14 @@ public class HAConnection {
         return socketChannel;
     }
 
+    public String getClientAddr() {
+        return clientAddr;
+    }
+
+    public long getSlaveAckOffset() {
+        return slaveAckOffset;
+    }
+
     class ReadSocketService extends ServiceThread {
         private static final int READ_MAX_BUFFER_SIZE = 1024 * 1024;
         private final Selector selector;
@@ -194,10 +212,15 @@ public class HAConnection {
         private final Selector selector;
         private final SocketChannel socketChannel;
 
-        private final int headerSize = 8 + 4;
-        private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(headerSize);
+        private final boolean compressEnable;
+        private final boolean zeroCopyEnable;
+        // phyoffset + size, followed by the uncompressed size when the body is compressed
+        private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(8 + 4 + 4);
         private long nextTransferFromWhere = -1;
         private SelectMappedBufferResult selectMappedBufferResult;
+        private Deflater deflater;
+        private byte[] compressedData;
+        private ByteBuffer compressedBody;
         private boolean lastWriteOver = true;
         private long lastWriteTimestamp = System.currentTimeMillis();
 
@@ -206,6 +229,13 @@ public class HAConnection {
             this.socketChannel = socketChannel;
             this.socketChannel.register(this.selector, SelectionKey.OP_WRITE);
             this.setDaemon(true);
+            MessageStoreConfig config = HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig();
+            this.compressEnable = config.isHaTransferCompressEnable();
+            this.zeroCopyEnable = config.isHaTransferZeroCopyEnable();
+            if (this.compressEnable) {
+                this.deflater = new Deflater(config.getHaTransferCompressLevel());
+                this.compressedData = new byte[config.getHaTransferBatchSize()];
+            }
         }
 
         @Override
@@ -250,12 +280,7 @@ public class HAConnection {
                         if (interval > HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig()
                             .getHaSendHeartbeatInterval()) {
 
-                            // Build Header
-                            this.byteBufferHeader.position(0);
-                            this.byteBufferHeader.limit(headerSize);
-                            this.byteBufferHeader.putLong(this.nextTransferFromWhere);
-                            this.byteBufferHeader.putInt(0);
-                            this.byteBufferHeader.flip();
+                            this.buildHeader(this.nextTransferFromWhere, 0, -1);
 
                             this.lastWriteOver = this.transferData();
                             if (!this.lastWriteOver)
@@ -279,14 +304,17 @@ public class HAConnection {
                         this.nextTransferFromWhere += size;
 
                         selectResult.getByteBuffer().limit(size);
-                        this.selectMappedBufferResult = selectResult;
-
-                        // Build Header
-                        this.byteBufferHeader.position(0);
-                        this.byteBufferHeader.limit(headerSize);
-                        this.byteBufferHeader.putLong(thisOffset);
-                        this.byteBufferHeader.putInt(size);
-                        this.byteBufferHeader.flip();
+                        if (this.compressEnable) {
+                            try {
+                                this.compressedBody = this.compress(selectResult.getByteBuffer());
+                            } finally {
+                                selectResult.release();
+                            }
+                            this.buildHeader(thisOffset, this.compressedBody.remaining(), size);
+                        } else {
+                            this.selectMappedBufferResult = selectResult;
+                            this.buildHeader(thisOffset, size, -1);
+                        }
 
                         this.lastWriteOver = this.transferData();
                     } else {
@@ -306,6 +334,10 @@ public class HAConnection {
                 this.selectMappedBufferResult.release();
             }
 
+            if (this.deflater != null) {
+                this.deflater.end();
+            }
+
             this.makeStop();
 
             readSocketService.makeStop();
@@ -344,7 +376,7 @@ public class HAConnection {
                 }
             }
 
-            if (null == this.selectMappedBufferResult) {
+            if (null == this.selectMappedBufferResult && null == this.compressedBody) {
                 return !this.byteBufferHeader.hasRemaining();
             }
 
@@ -352,8 +384,8 @@ public class HAConnection {
 
             // Write Body
             if (!this.byteBufferHeader.hasRemaining()) {
-                while (this.selectMappedBufferResult.getByteBuffer().hasRemaining()) {
-                    int writeSize = this.socketChannel.write(this.selectMappedBufferResult.getByteBuffer());
+                while (this.bodyHasRemaining()) {
+                    long writeSize = this.writeBody();
                     if (writeSize > 0) {
                         writeSizeZeroTimes = 0;
                         this.lastWriteTimestamp = HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
@@ -367,16 +399,81 @@ public class HAConnection {
                 }
             }
 
-            boolean result = !this.byteBufferHeader.hasRemaining() && !this.selectMappedBufferResult.getByteBuffer().hasRemaining();
+            boolean result = !this.byteBufferHeader.hasRemaining() && !this.bodyHasRemaining();
 
-            if (!this.selectMappedBufferResult.getByteBuffer().hasRemaining()) {
-                this.selectMappedBufferResult.release();
-                this.selectMappedBufferResult = null;
+            if (!this.bodyHasRemaining()) {
+                if (this.selectMappedBufferResult != null) {
+                    this.selectMappedBufferResult.release();
+                    this.selectMappedBufferResult = null;
+                }
+                this.compressedBody = null;
             }
 
             return result;
         }
 
+        /**
+         * @param rawSize Uncompressed size of a compressed body, -1 if the body is not compressed.
+         */
+        private void buildHeader(final long offset, final int bodySize, final int rawSize) {
+            this.byteBufferHeader.clear();
+            this.byteBufferHeader.putLong(offset);
+            if (rawSize < 0) {
+                this.byteBufferHeader.putInt(bodySize);
+            } else {
+                this.byteBufferHeader.putInt(bodySize | COMPRESSED_BODY_FLAG);
+                this.byteBufferHeader.putInt(rawSize);
+            }
+            this.byteBufferHeader.flip();
+        }
+
+        private boolean bodyHasRemaining() {
+            if (this.compressedBody != null) {
+                return this.compressedBody.hasRemaining();
+            }
+            return this.selectMappedBufferResult != null && this.selectMappedBufferResult.getByteBuffer().hasRemaining();
+        }
+
+        /**
+         * Write the pending body. An uncompressed batch is sent straight from the page cache of its commit log file
+         * with {@link FileChannel#transferTo}, the mapped slice only tracks how much has been sent.
+         */
+        private long writeBody() throws IOException {
+            if (this.compressedBody != null) {
+                return this.socketChannel.write(this.compressedBody);
+            }
+
+            ByteBuffer body = this.selectMappedBufferResult.getByteBuffer();
+            MappedFile mappedFile = this.selectMappedBufferResult.getMappedFile();
+            if (!this.zeroCopyEnable || null == mappedFile) {
+                return this.socketChannel.write(body);
+            }
+
+            long position = this.selectMappedBufferResult.getStartOffset() - mappedFile.getFileFromOffset() + body.position();
+            long writeSize = mappedFile.getFileChannel().transferTo(position, body.remaining(), this.socketChannel);
+            if (writeSize > 0) {
+                body.position(body.position() + (int) writeSize);
+            }
+            return writeSize;
+        }
+
+        private ByteBuffer compress(final ByteBuffer raw) {
+            byte[] input = new byte[raw.remaining()];
+            raw.get(input);
+
+            this.deflater.reset();
+            this.deflater.setInput(input);
+            this.deflater.finish();
+            int length = 0;
+            while (!this.deflater.finished()) {
+                if (length == this.compressedData.length) {
+                    this.compressedData = Arrays.copyOf(this.compressedData, Math.max(1024, this.compressedData.length * 2));
+                }
+                length += this.deflater.deflate(this.compressedData, length, this.compressedData.length - length);
+            }
+            return ByteBuffer.wrap(this.compressedData, 0, length);
+        }
+
         @Override
         public String getServiceName() {
             return WriteSocketService.class.getSimpleName();
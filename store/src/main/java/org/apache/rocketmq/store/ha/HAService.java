@@ -25,20 +25,28 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.running.RunningStats;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
 import org.apache.rocketmq.store.CommitLog;
 import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.PutMessageStatus;
 
 public class HAService {
     private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
@@ -53,6 +61,7 @@ public class HAService {
 
     private final WaitNotifyObject waitNotifyObject = new WaitNotifyObject();
     private final AtomicLong push2SlaveMaxOffset = new AtomicLong(0);
+    private final AtomicLong quorumAckOffset = new AtomicLong(0);
 
     private final GroupTransferService groupTransferService;
 
@@ -77,10 +86,10 @@ public class HAService {
     }
 
     public boolean isSlaveOK(final long masterPutWhere) {
-        boolean result = this.connectionCount.get() > 0;
+        boolean result = this.connectionCount.get() >= this.getAckQuorum();
         result =
             result
-                && ((masterPutWhere - this.push2SlaveMaxOffset.get()) < this.defaultMessageStore
+                && ((masterPutWhere - this.quorumAckOffset.get()) < this.defaultMessageStore
                 .getMessageStoreConfig().getHaSlaveFallbehindMax());
         return result;
     }
@@ -89,12 +98,72 @@ public class HAService {
         for (long value = this.push2SlaveMaxOffset.get(); offset > value; ) {
             boolean ok = this.push2SlaveMaxOffset.compareAndSet(value, offset);
             if (ok) {
-                this.groupTransferService.notifyTransferSome();
                 break;
             } else {
                 value = this.push2SlaveMaxOffset.get();
             }
         }
+
+        final long quorumOffset = this.computeQuorumAckOffset();
+        for (long value = this.quorumAckOffset.get(); quorumOffset > value; ) {
+            boolean ok = this.quorumAckOffset.compareAndSet(value, quorumOffset);
+            if (ok) {
+                this.groupTransferService.notifyTransferSome();
+                break;
+            } else {
+                value = this.quorumAckOffset.get();
+            }
+        }
+    }
+
+    /**
+     * The highest offset acked by at least {@link #getAckQuorum()} connected slaves, that is the quorum-th largest
+     * slave ack offset, or -1 if fewer slaves are connected.
+     */
+    long computeQuorumAckOffset() {
+        final int quorum = this.getAckQuorum();
+        final long[] ackOffsets;
+        synchronized (this.connectionList) {
+            if (this.connectionList.size() < quorum) {
+                return -1;
+            }
+            ackOffsets = new long[this.connectionList.size()];
+            int i = 0;
+            for (HAConnection c : this.connectionList) {
+                ackOffsets[i++] = c.getSlaveAckOffset();
+            }
+        }
+        Arrays.sort(ackOffsets);
+        return ackOffsets[ackOffsets.length - quorum];
+    }
+
+    private int getAckQuorum() {
+        return Math.max(1, this.defaultMessageStore.getMessageStoreConfig().getHaAckQuorum());
+    }
+
+    /**
+     * @return Acked offset of every connected slave, keyed by slave address.
+     */
+    public Map<String, Long> getSlaveAckOffsetTable() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        synchronized (this.connectionList) {
+            for (HAConnection c : this.connectionList) {
+                result.put(c.getClientAddr(), c.getSlaveAckOffset());
+            }
+        }
+        return result;
+    }
+
+    public void buildRunningStats(HashMap<String, String> stats) {
+        stats.put(RunningStats.haQuorumAckOffset.name(), String.valueOf(this.quorumAckOffset.get()));
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : this.getSlaveAckOffsetTable().entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        stats.put(RunningStats.haSlaveAckOffset.name(), sb.toString());
     }
 
     public AtomicInteger getConnectionCount() {
@@ -153,6 +222,10 @@ public class HAService {
         return push2SlaveMaxOffset;
     }
 
+    public AtomicLong getQuorumAckOffset() {
+        return quorumAckOffset;
+    }
+
     /**
      * Listens to slave connections to create {@link HAConnection}.
      */
@@ -253,47 +326,32 @@ public class HAService {
     class GroupTransferService extends ServiceThread {
 
         private final WaitNotifyObject notifyTransferObject = new WaitNotifyObject();
-        private volatile List<CommitLog.GroupCommitRequest> requestsWrite = new ArrayList<>();
-        private volatile List<CommitLog.GroupCommitRequest> requestsRead = new ArrayList<>();
+        private final ConcurrentLinkedQueue<CommitLog.GroupCommitRequest> requests = new ConcurrentLinkedQueue<>();
 
-        public synchronized void putRequest(final CommitLog.GroupCommitRequest request) {
-            synchronized (this.requestsWrite) {
-                this.requestsWrite.add(request);
-            }
-            if (hasNotified.compareAndSet(false, true)) {
-                waitPoint.countDown(); // notify
-            }
+        public void putRequest(final CommitLog.GroupCommitRequest request) {
+            this.requests.offer(request);
+            this.wakeup();
         }
 
         public void notifyTransferSome() {
             this.notifyTransferObject.wakeup();
         }
 
-        private void swapRequests() {
-            List<CommitLog.GroupCommitRequest> tmp = this.requestsWrite;
-            this.requestsWrite = this.requestsRead;
-            this.requestsRead = tmp;
-        }
-
         private void doWaitTransfer() {
-            synchronized (this.requestsRead) {
-                if (!this.requestsRead.isEmpty()) {
-                    for (CommitLog.GroupCommitRequest req : this.requestsRead) {
-                        boolean transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
-                        for (int i = 0; !transferOK && i < 5; i++) {
-                            this.notifyTransferObject.waitForRunning(1000);
-                            transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
-                        }
-
-                        if (!transferOK) {
-                            log.warn("transfer messsage to slave timeout, " + req.getNextOffset());
-                        }
-
-                        req.wakeupCustomer(transferOK);
-                    }
+            // Requests come in offset order, so waiting on the first one never holds back one due earlier
+            CommitLog.GroupCommitRequest req;
+            while ((req = this.requests.poll()) != null) {
+                boolean transferOK = HAService.this.quorumAckOffset.get() >= req.getNextOffset();
+                while (!transferOK && System.currentTimeMillis() < req.getDeadLine()) {
+                    this.notifyTransferObject.waitForRunning(1000);
+                    transferOK = HAService.this.quorumAckOffset.get() >= req.getNextOffset();
+                }
 
-                    this.requestsRead.clear();
+                if (!transferOK) {
+                    log.warn("transfer messsage to slave timeout, " + req.getNextOffset());
                 }
+
+                req.wakeupCustomer(transferOK ? PutMessageStatus.PUT_OK : PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
             }
         }
 
@@ -312,11 +370,6 @@ public class HAService {
             log.info(this.getServiceName() + " service end");
         }
 
-        @Override
-        protected void onWaitEnd() {
-            this.swapRequests();
-        }
-
         @Override
         public String getServiceName() {
             return GroupTransferService.class.getSimpleName();
@@ -335,6 +388,7 @@ public class HAService {
         private int dispatchPostion = 0;
         private ByteBuffer byteBufferRead = ByteBuffer.allocate(READ_MAX_BUFFER_SIZE);
         private ByteBuffer byteBufferBackup = ByteBuffer.allocate(READ_MAX_BUFFER_SIZE);
+        private final Inflater inflater = new Inflater();
 
         public HAClient() throws IOException {
             this.selector = RemotingUtil.openSelector();
@@ -431,7 +485,8 @@ public class HAService {
         }
 
         private boolean dispatchReadRequest() {
-            final int msgHeaderSize = 8 + 4; // phyoffset + size
+            // phyoffset + size, followed by the uncompressed size when the body is compressed
+            final int msgHeaderSize = 8 + 4;
             int readSocketPos = this.byteBufferRead.position();
 
             while (true) {
@@ -439,6 +494,9 @@ public class HAService {
                 if (diff >= msgHeaderSize) {
                     long masterPhyOffset = this.byteBufferRead.getLong(this.dispatchPostion);
                     int bodySize = this.byteBufferRead.getInt(this.dispatchPostion + 8);
+                    final boolean compressed = (bodySize & HAConnection.COMPRESSED_BODY_FLAG) != 0;
+                    final int headerSize = compressed ? msgHeaderSize + 4 : msgHeaderSize;
+                    bodySize &= ~HAConnection.COMPRESSED_BODY_FLAG;
 
                     long slavePhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
 
@@ -450,15 +508,24 @@ public class HAService {
                         }
                     }
 
-                    if (diff >= (msgHeaderSize + bodySize)) {
+                    if (diff >= (headerSize + bodySize)) {
                         byte[] bodyData = new byte[bodySize];
-                        this.byteBufferRead.position(this.dispatchPostion + msgHeaderSize);
+                        this.byteBufferRead.position(this.dispatchPostion + headerSize);
                         this.byteBufferRead.get(bodyData);
 
+                        if (compressed) {
+                            int rawSize = this.byteBufferRead.getInt(this.dispatchPostion + msgHeaderSize);
+                            bodyData = this.decompress(bodyData, rawSize);
+                            if (null == bodyData) {
+                                log.error("HAClient, decompress batch at " + masterPhyOffset + " failed");
+                                return false;
+                            }
+                        }
+
                         HAService.this.defaultMessageStore.appendToCommitLog(masterPhyOffset, bodyData);
 
                         this.byteBufferRead.position(readSocketPos);
-                        this.dispatchPostion += msgHeaderSize + bodySize;
+                        this.dispatchPostion += headerSize + bodySize;
 
                         if (!reportSlaveMaxOffsetPlus()) {
                             return false;
@@ -478,6 +545,26 @@ public class HAService {
             return true;
         }
 
+        private byte[] decompress(final byte[] body, final int rawSize) {
+            byte[] raw = new byte[rawSize];
+            this.inflater.reset();
+            this.inflater.setInput(body);
+            try {
+                int pos = 0;
+                while (pos < rawSize && !this.inflater.finished()) {
+                    int n = this.inflater.inflate(raw, pos, rawSize - pos);
+                    if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+                        break;
+                    }
+                    pos += n;
+                }
+                return pos == rawSize ? raw : null;
+            } catch (DataFormatException e) {
+                log.error("HAClient, corrupted compressed batch", e);
+                return null;
+            }
+        }
+
         private boolean reportSlaveMaxOffsetPlus() {
             boolean result = true;
             long currentPhyOffset = HAService.this.defaultMessageStore.getMaxPhyOffset();
@@ -587,6 +674,8 @@ public class HAService {
                 }
             }
 
+            this.inflater.end();
+
             log.info(this.getServiceName() + " service end");
         }
         // private void disableWriteFlag() {
@@ -23,14 +23,17 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.logging.InternalLogger;
 import org.apache.rocketmq.logging.InternalLoggerFactory;
 import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.apache.rocketmq.store.CommitLog;
 import org.apache.rocketmq.store.DefaultMessageStore;
 import org.apache.rocketmq.store.DispatchRequest;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
 
 public class IndexService {
@@ -46,6 +49,17 @@ public class IndexService {
     private final ArrayList<IndexFile> indexFileList = new ArrayList<IndexFile>();
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 
+    /**
+     * While rebuilding, dispatched messages are not indexed but only recorded here, the rebuild service picks them up
+     * from the commit log in order and hands over once it has caught up.
+     */
+    private final Object rebuildLock = new Object();
+    private volatile boolean rebuilding = false;
+    private long deferredMinOffset = Long.MAX_VALUE;
+    private long deferredMaxOffset = -1;
+    private volatile long rebuildOffset = -1;
+    private IndexRebuildService indexRebuildService;
+
     public IndexService(final DefaultMessageStore store) {
         this.defaultMessageStore = store;
         this.hashSlotNum = store.getMessageStoreConfig().getMaxHashSlotNum();
@@ -199,6 +213,19 @@ public class IndexService {
     }
 
     public void buildIndex(DispatchRequest req) {
+        if (this.rebuilding) {
+            synchronized (this.rebuildLock) {
+                if (this.rebuilding) {
+                    this.deferredMinOffset = Math.min(this.deferredMinOffset, req.getCommitLogOffset());
+                    this.deferredMaxOffset = Math.max(this.deferredMaxOffset, req.getCommitLogOffset() + req.getMsgSize());
+                    return;
+                }
+            }
+        }
+        this.doBuildIndex(req);
+    }
+
+    private void doBuildIndex(DispatchRequest req) {
         IndexFile indexFile = retryGetAndCreateIndexFile();
         if (indexFile != null) {
             long endPhyOffset = indexFile.getEndPhyOffset();
@@ -362,11 +389,168 @@ public class IndexService {
         }
     }
 
+    /**
+     * Leave every message dispatched from now on to a background rebuild started by {@link #startRebuild()}, so that
+     * recovery after an abnormal shutdown does not wait for the index.
+     */
+    public void deferIndexBuilding() {
+        this.rebuilding = true;
+    }
+
+    public void startRebuild() {
+        if (this.rebuilding && null == this.indexRebuildService) {
+            this.indexRebuildService = new IndexRebuildService();
+            this.indexRebuildService.start();
+        }
+    }
+
+    public boolean isRebuilding() {
+        return rebuilding;
+    }
+
+    public long getRebuildBehindBytes() {
+        if (!this.rebuilding) {
+            return 0;
+        }
+        synchronized (this.rebuildLock) {
+            return Math.max(0, this.deferredMaxOffset - Math.max(this.rebuildOffset, this.deferredMinOffset));
+        }
+    }
+
+    private long getMaxEndPhyOffset() {
+        try {
+            this.readWriteLock.readLock().lock();
+            return this.indexFileList.isEmpty() ? 0 : this.indexFileList.get(this.indexFileList.size() - 1).getEndPhyOffset();
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+    }
+
     public void start() {
 
     }
 
     public void shutdown() {
+        if (this.indexRebuildService != null) {
+            this.indexRebuildService.shutdown();
+        }
+    }
+
+    /**
+     * Index the messages deferred by {@link #deferIndexBuilding()} from the commit log, starting where the index left
+     * off, until the index has caught up with dispatching. A commit log read that fails is retried a few times, then the
+     * rebuild stops with an error naming the range left unindexed, instead of silently jumping over it.
+     */
+    class IndexRebuildService extends ServiceThread {
+        private static final long PROGRESS_LOG_INTERVAL = 1024 * 1024 * 64;
+        private static final int MAX_READ_RETRY_TIMES = 3;
+        private static final long READ_RETRY_INTERVAL = 1000;
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            final CommitLog commitLog = IndexService.this.defaultMessageStore.getCommitLog();
+            long offset;
+            synchronized (IndexService.this.rebuildLock) {
+                offset = Math.max(IndexService.this.getMaxEndPhyOffset(), IndexService.this.deferredMinOffset);
+            }
+            IndexService.this.rebuildOffset = offset;
+            log.info("rebuild index from " + offset);
+
+            long lastLogOffset = offset;
+            int retryTimes = 0;
+            while (!this.isStopped()) {
+                long target;
+                synchronized (IndexService.this.rebuildLock) {
+                    if (offset >= IndexService.this.deferredMaxOffset) {
+                        IndexService.this.rebuilding = false;
+                        log.info("rebuild index over at " + offset);
+                        break;
+                    }
+                    target = IndexService.this.deferredMaxOffset;
+                }
+
+                long minOffset = commitLog.getMinOffset();
+                if (offset < minOffset) {
+                    log.warn("rebuild index skip range [" + offset + ", " + minOffset + "), the commit log files are deleted");
+                    offset = minOffset;
+                }
+
+                long next;
+                try {
+                    next = this.rebuild(commitLog, offset, target);
+                } catch (Exception e) {
+                    log.warn(this.getServiceName() + " read commit log at " + offset + " failed", e);
+                    next = -1;
+                }
+                if (next < 0) {
+                    if (++retryTimes <= MAX_READ_RETRY_TIMES) {
+                        this.waitForRunning(READ_RETRY_INTERVAL);
+                        continue;
+                    }
+                    synchronized (IndexService.this.rebuildLock) {
+                        IndexService.this.rebuilding = false;
+                        log.error("rebuild index stopped after " + MAX_READ_RETRY_TIMES + " retries, range [" + offset + ", "
+                            + IndexService.this.deferredMaxOffset + ") of the commit log is not indexed");
+                    }
+                    break;
+                }
+                retryTimes = 0;
+                offset = next;
+                IndexService.this.rebuildOffset = offset;
+
+                if (offset - lastLogOffset >= PROGRESS_LOG_INTERVAL) {
+                    log.info("rebuild index progress " + offset + ", behind " + IndexService.this.getRebuildBehindBytes());
+                    lastLogOffset = offset;
+                }
+            }
 
+            log.info(this.getServiceName() + " service end");
+        }
+
+        /**
+         * @return The offset to go on from, or -1 if the commit log could not be read at the given offset.
+         */
+        private long rebuild(final CommitLog commitLog, long offset, final long target) {
+            SelectMappedBufferResult result = commitLog.getData(offset);
+            if (null == result) {
+                log.warn("rebuild index found no commit log data at " + offset);
+                return -1;
+            }
+
+            try {
+                offset = result.getStartOffset();
+                for (int readSize = 0; readSize < result.getSize() && offset < target; ) {
+                    DispatchRequest dispatchRequest = commitLog.checkMessageAndReturnSize(result.getByteBuffer(), false, false);
+                    int size = dispatchRequest.getBufferSize() == -1 ? dispatchRequest.getMsgSize() : dispatchRequest.getBufferSize();
+                    if (!dispatchRequest.isSuccess()) {
+                        log.warn("rebuild index found a bad message at " + offset);
+                        return readSize > 0 ? offset : -1;
+                    }
+                    if (size == 0) {
+                        return commitLog.rollNextFile(offset);
+                    }
+
+                    if (MessageSysFlag.isCompressedBatch(dispatchRequest.getSysFlag())) {
+                        for (DispatchRequest request : commitLog.unpackCompressedBatch(dispatchRequest)) {
+                            IndexService.this.doBuildIndex(request);
+                        }
+                    } else {
+                        IndexService.this.doBuildIndex(dispatchRequest);
+                    }
+                    offset += size;
+                    readSize += size;
+                }
+                return offset;
+            } finally {
+                result.release();
+            }
+        }
+
+        @Override
+        public String getServiceName() {
+            return IndexRebuildService.class.getSimpleName();
+        }
     }
 }
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in microseconds, with log-linear buckets in the manner of HdrHistogram: values below
+ * {@link #SUB_BUCKET_COUNT} are counted exactly, larger ones within 1/{@value #SUB_BUCKET_HALF_COUNT} of their value.
+ * <p>
+ * Recording threads are spread over striped counters by thread id so that they rarely touch the same cache lines.
+ * Readers take a {@link Snapshot} of the cumulative counts; an interval view is the difference of two snapshots, so
+ * recording never has to be paused or reset.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * Larger values, a bit more than an hour, are counted as this one.
+     */
+    public static final long MAX_VALUE = (1L << 32) - 1;
+
+    private static final int BUCKET_NUM = bucketIndex(MAX_VALUE) + 1;
+
+    private static final int STRIPE_NUM = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPE_NUM];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(BUCKET_NUM);
+        }
+    }
+
+    public void record(long valueMicros) {
+        int index = bucketIndex(Math.min(Math.max(valueMicros, 0), MAX_VALUE));
+        stripes[(int) (Thread.currentThread().getId() & (STRIPE_NUM - 1))].incrementAndGet(index);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_NUM];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_NUM; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new Snapshot(counts);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+    }
+
+    /**
+     * @return Highest value counted in the bucket.
+     */
+    static long bucketHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        /**
+         * @return Counts recorded since the given earlier snapshot of the same histogram.
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] diff = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                diff[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(diff);
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * @param percentile In [0, 100].
+         * @return Highest value of the bucket holding the percentile, 0 if nothing is recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return bucketHighestValue(i);
+                }
+            }
+            return MAX_VALUE;
+        }
+
+        public long getMaxValue() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return bucketHighestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * @return Number of values in the range, for values counted exactly or ranges on bucket boundaries.
+         */
+        public long getCountBetween(long lowValue, long highValue) {
+            long count = 0;
+            for (int i = bucketIndex(Math.min(lowValue, MAX_VALUE)); i < counts.length; i++) {
+                if (bucketHighestValue(i) > highValue) {
+                    break;
+                }
+                count += counts[i];
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count:%d p50:%d p90:%d p99:%d p999:%d max:%d", totalCount, getValueAtPercentile(50),
+                getValueAtPercentile(90), getValueAtPercentile(99), getValueAtPercentile(99.9), getMaxValue());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+
+/**
+ * Tier kept in a local or mounted directory, one file per key. Stands in for an object store in tests.
+ */
+public class LocalDirTieredStorage implements TieredStorage {
+    private final String baseDir;
+
+    public LocalDirTieredStorage(final MessageStoreConfig messageStoreConfig) {
+        this.baseDir = messageStoreConfig.getTieredStoragePath();
+    }
+
+    @Override
+    public void upload(String key, File file) throws IOException {
+        File target = new File(this.baseDir, key);
+        MappedFile.ensureDirOK(target.getParent());
+        File tmp = new File(target.getPath() + ".tmp");
+        try (FileChannel in = new FileInputStream(file).getChannel();
+             FileChannel out = new FileOutputStream(tmp).getChannel()) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("rename " + tmp + " to " + target + " failed");
+        }
+    }
+
+    @Override
+    public int read(String key, long position, ByteBuffer dst) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(new File(this.baseDir, key), "r")) {
+            FileChannel channel = file.getChannel();
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int read = channel.read(dst, position + total);
+                if (read < 0) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        File file = new File(this.baseDir, key);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("delete " + file + " failed");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of fixed size blocks read from the tier. A miss fetches the whole block around the requested
+ * range, which is the read-ahead for the sequential scans replays do.
+ */
+public class TieredReadCache {
+    private final TieredStorage tieredStorage;
+    private final int blockSize;
+    private final LinkedHashMap<String, byte[]> blocks;
+    private final AtomicLong hitTimes = new AtomicLong(0);
+    private final AtomicLong missTimes = new AtomicLong(0);
+
+    public TieredReadCache(final TieredStorage tieredStorage, final int blockSize, final int maxBlocks) {
+        this.tieredStorage = tieredStorage;
+        this.blockSize = blockSize;
+        this.blocks = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > maxBlocks;
+            }
+        };
+    }
+
+    /**
+     * @param segmentLength Length of the whole segment, bounds the last block.
+     * @param position Position inside the segment.
+     */
+    public byte[] read(final String segmentKey, final int segmentLength, final long position, final int size)
+        throws IOException {
+        byte[] result = new byte[size];
+        int copied = 0;
+        while (copied < size) {
+            long pos = position + copied;
+            long blockIndex = pos / this.blockSize;
+            byte[] block = this.getBlock(segmentKey, segmentLength, blockIndex);
+            int posInBlock = (int) (pos - blockIndex * this.blockSize);
+            if (posInBlock >= block.length) {
+                throw new IOException("read " + segmentKey + " beyond its length " + segmentLength + ", position " + pos);
+            }
+            int length = Math.min(size - copied, block.length - posInBlock);
+            System.arraycopy(block, posInBlock, result, copied, length);
+            copied += length;
+        }
+        return result;
+    }
+
+    private byte[] getBlock(final String segmentKey, final int segmentLength, final long blockIndex) throws IOException {
+        String key = segmentKey + "#" + blockIndex;
+        synchronized (this.blocks) {
+            byte[] block = this.blocks.get(key);
+            if (block != null) {
+                this.hitTimes.incrementAndGet();
+                return block;
+            }
+        }
+
+        this.missTimes.incrementAndGet();
+        long start = blockIndex * this.blockSize;
+        int length = (int) Math.min(this.blockSize, segmentLength - start);
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(length, 0));
+        int read = this.tieredStorage.read(segmentKey, start, buffer);
+        if (read < length) {
+            throw new IOException("short read of " + segmentKey + " at " + start + ", " + read + " of " + length);
+        }
+
+        synchronized (this.blocks) {
+            this.blocks.put(key, buffer.array());
+        }
+        return buffer.array();
+    }
+
+    public long getHitTimes() {
+        return hitTimes.get();
+    }
+
+    public long getMissTimes() {
+        return missTimes.get();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.apache.rocketmq.common.ConfigManager;
+import org.apache.rocketmq.common.UtilAll;
+
+/**
+ * Which sealed files have reached the tier: start offset and length of every commit log segment and of every consume
+ * queue segment per queue, persisted as json next to the other store configs.
+ */
+public class TieredSegmentIndex extends ConfigManager {
+    private final String configFilePath;
+
+    private final ConcurrentSkipListMap<Long/* from offset */, Integer/* length */> commitLogSegments =
+        new ConcurrentSkipListMap<Long, Integer>();
+
+    private final ConcurrentMap<String/* topic@queueId */, ConcurrentSkipListMap<Long, Integer>> consumeQueueSegments =
+        new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, Integer>>();
+
+    public TieredSegmentIndex(final String configFilePath) {
+        this.configFilePath = configFilePath;
+    }
+
+    public static String commitLogKey(final long fromOffset) {
+        return "commitlog/" + UtilAll.offset2FileName(fromOffset);
+    }
+
+    public static String consumeQueueKey(final String topic, final int queueId, final long fromOffset) {
+        return "consumequeue/" + topic + "/" + queueId + "/" + UtilAll.offset2FileName(fromOffset);
+    }
+
+    private static String queueKey(final String topic, final int queueId) {
+        return topic + "@" + queueId;
+    }
+
+    private static Map.Entry<Long, Integer> findSegment(final ConcurrentSkipListMap<Long, Integer> segments,
+        final long offset) {
+        if (segments == null) {
+            return null;
+        }
+        Map.Entry<Long, Integer> entry = segments.floorEntry(offset);
+        if (entry != null && offset < entry.getKey() + entry.getValue()) {
+            return entry;
+        }
+        return null;
+    }
+
+    public boolean containsCommitLog(final long fromOffset) {
+        return this.commitLogSegments.containsKey(fromOffset);
+    }
+
+    public void addCommitLog(final long fromOffset, final int length) {
+        this.commitLogSegments.put(fromOffset, length);
+    }
+
+    /**
+     * @return Start offset and length of the commit log segment holding the offset, null if not in the tier.
+     */
+    public Map.Entry<Long, Integer> findCommitLog(final long offset) {
+        return findSegment(this.commitLogSegments, offset);
+    }
+
+    public boolean containsConsumeQueue(final String topic, final int queueId, final long fromOffset) {
+        ConcurrentSkipListMap<Long, Integer> segments = this.consumeQueueSegments.get(queueKey(topic, queueId));
+        return segments != null && segments.containsKey(fromOffset);
+    }
+
+    public void addConsumeQueue(final String topic, final int queueId, final long fromOffset, final int length) {
+        String key = queueKey(topic, queueId);
+        ConcurrentSkipListMap<Long, Integer> segments = this.consumeQueueSegments.get(key);
+        if (segments == null) {
+            segments = new ConcurrentSkipListMap<Long, Integer>();
+            ConcurrentSkipListMap<Long, Integer> old = this.consumeQueueSegments.putIfAbsent(key, segments);
+            if (old != null) {
+                segments = old;
+            }
+        }
+        segments.put(fromOffset, length);
+    }
+
+    /**
+     * @param offset Byte offset in the consume queue, that is queue offset * unit size.
+     */
+    public Map.Entry<Long, Integer> findConsumeQueue(final String topic, final int queueId, final long offset) {
+        return findSegment(this.consumeQueueSegments.get(queueKey(topic, queueId)), offset);
+    }
+
+    @Override
+    public String encode() {
+        return this.encode(false);
+    }
+
+    @Override
+    public String encode(final boolean prettyFormat) {
+        TieredSegmentSerializeWrapper wrapper = new TieredSegmentSerializeWrapper();
+        wrapper.getCommitLogSegments().putAll(this.commitLogSegments);
+        for (Map.Entry<String, ConcurrentSkipListMap<Long, Integer>> entry : this.consumeQueueSegments.entrySet()) {
+            wrapper.getConsumeQueueSegments().put(entry.getKey(), new ConcurrentHashMap<Long, Integer>(entry.getValue()));
+        }
+        return wrapper.toJson(prettyFormat);
+    }
+
+    @Override
+    public void decode(String jsonString) {
+        if (jsonString != null) {
+            TieredSegmentSerializeWrapper wrapper =
+                TieredSegmentSerializeWrapper.fromJson(jsonString, TieredSegmentSerializeWrapper.class);
+            if (wrapper != null) {
+                this.commitLogSegments.putAll(wrapper.getCommitLogSegments());
+                for (Map.Entry<String, ConcurrentMap<Long, Integer>> entry : wrapper.getConsumeQueueSegments().entrySet()) {
+                    this.consumeQueueSegments.put(entry.getKey(), new ConcurrentSkipListMap<Long, Integer>(entry.getValue()));
+                }
+            }
+        }
+    }
+
+    @Override
+    public String configFilePath() {
+        return this.configFilePath;
+    }
+}
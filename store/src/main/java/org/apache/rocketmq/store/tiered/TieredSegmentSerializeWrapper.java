@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.remoting.serialize.RemotingSerializable;
+
+public class TieredSegmentSerializeWrapper extends RemotingSerializable {
+    private ConcurrentMap<Long/* from offset */, Integer/* length */> commitLogSegments =
+        new ConcurrentHashMap<Long, Integer>();
+    private ConcurrentMap<String/* topic@queueId */, ConcurrentMap<Long, Integer>> consumeQueueSegments =
+        new ConcurrentHashMap<String, ConcurrentMap<Long, Integer>>();
+
+    public ConcurrentMap<Long, Integer> getCommitLogSegments() {
+        return commitLogSegments;
+    }
+
+    public void setCommitLogSegments(ConcurrentMap<Long, Integer> commitLogSegments) {
+        this.commitLogSegments = commitLogSegments;
+    }
+
+    public ConcurrentMap<String, ConcurrentMap<Long, Integer>> getConsumeQueueSegments() {
+        return consumeQueueSegments;
+    }
+
+    public void setConsumeQueueSegments(ConcurrentMap<String, ConcurrentMap<Long, Integer>> consumeQueueSegments) {
+        this.consumeQueueSegments = consumeQueueSegments;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Secondary tier holding sealed commit log and consume queue files by key, e.g. an object store. Implementations are
+ * created reflectively from {@code tieredStorageClass} through a constructor taking the {@code MessageStoreConfig}.
+ */
+public interface TieredStorage {
+
+    /**
+     * Copy a sealed local file to the tier, replacing any partial upload under the same key.
+     */
+    void upload(String key, File file) throws IOException;
+
+    /**
+     * Read bytes of a segment starting at the given position until dst is full or the segment ends.
+     *
+     * @return Number of bytes read.
+     */
+    int read(String key, long position, ByteBuffer dst) throws IOException;
+
+    void delete(String key) throws IOException;
+}
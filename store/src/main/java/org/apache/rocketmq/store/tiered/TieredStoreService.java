@@ -0,0 +1,426 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.CompressedMessageBatch;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.ConsumeQueueExt;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.MessageFilter;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+
+/**
+ * Copies sealed commit log and consume queue files to a {@link TieredStorage} and reads through to it once the local
+ * files have been cleaned.
+ * <p>
+ * Commit log files are only cleaned after they have been uploaded, see {@link #getUploadedCommitLogOffset()}, so the
+ * local disk keeps the hot tail while the tier keeps the history.
+ */
+public class TieredStoreService {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final MessageStoreConfig messageStoreConfig;
+    private final TieredStorage tieredStorage;
+    private final TieredSegmentIndex segmentIndex;
+    private final TieredReadCache readCache;
+    private final TieredUploadService tieredUploadService = new TieredUploadService();
+
+    public TieredStoreService(final DefaultMessageStore defaultMessageStore) throws IOException {
+        this.defaultMessageStore = defaultMessageStore;
+        this.messageStoreConfig = defaultMessageStore.getMessageStoreConfig();
+        try {
+            this.tieredStorage = (TieredStorage) Class.forName(this.messageStoreConfig.getTieredStorageClass())
+                .getConstructor(MessageStoreConfig.class).newInstance(this.messageStoreConfig);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("create tiered storage " + this.messageStoreConfig.getTieredStorageClass() + " failed", e);
+        }
+        this.segmentIndex = new TieredSegmentIndex(
+            StorePathConfigHelper.getTieredSegmentIndexPath(this.messageStoreConfig.getStorePathRootDir()));
+        this.readCache = new TieredReadCache(this.tieredStorage, this.messageStoreConfig.getTieredReadAheadSize(),
+            this.messageStoreConfig.getTieredReadCacheBlocks());
+    }
+
+    public boolean load() {
+        return this.segmentIndex.load();
+    }
+
+    public void start() {
+        this.tieredUploadService.start();
+    }
+
+    public void shutdown() {
+        this.tieredUploadService.shutdown();
+        this.segmentIndex.persist();
+    }
+
+    /**
+     * @return End of the uploaded commit log files following the first local one; local files below it may be cleaned.
+     */
+    public long getUploadedCommitLogOffset() {
+        MappedFile firstMappedFile = this.defaultMessageStore.getCommitLog().getMappedFileQueue().getFirstMappedFile();
+        if (firstMappedFile == null) {
+            return 0;
+        }
+
+        long offset = firstMappedFile.getFileFromOffset();
+        Map.Entry<Long, Integer> segment = this.segmentIndex.findCommitLog(offset);
+        while (segment != null) {
+            offset = segment.getKey() + segment.getValue();
+            segment = this.segmentIndex.findCommitLog(offset);
+        }
+        return offset;
+    }
+
+    /**
+     * @return End of the uploaded files of the consume queue following its first local one; local files below it may
+     * be cleaned.
+     */
+    public long getUploadedConsumeQueueOffset(final ConsumeQueue cq) {
+        MappedFile firstMappedFile = cq.getMappedFileQueue().getFirstMappedFile();
+        if (firstMappedFile == null) {
+            return 0;
+        }
+
+        long offset = firstMappedFile.getFileFromOffset();
+        Map.Entry<Long, Integer> segment = this.segmentIndex.findConsumeQueue(cq.getTopic(), cq.getQueueId(), offset);
+        while (segment != null) {
+            offset = segment.getKey() + segment.getValue();
+            segment = this.segmentIndex.findConsumeQueue(cq.getTopic(), cq.getQueueId(), offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Upload every sealed file not in the tier yet, oldest first.
+     *
+     * @return Number of files uploaded.
+     */
+    public int uploadSealedFiles() {
+        int uploaded = 0;
+        for (MappedFile mappedFile : this.defaultMessageStore.getCommitLog().getMappedFileQueue().getMappedFiles()) {
+            if (!this.isSealed(mappedFile)) {
+                break;
+            }
+            long fromOffset = mappedFile.getFileFromOffset();
+            if (this.segmentIndex.containsCommitLog(fromOffset)) {
+                continue;
+            }
+            if (!this.upload(TieredSegmentIndex.commitLogKey(fromOffset), mappedFile)) {
+                break;
+            }
+            this.segmentIndex.addCommitLog(fromOffset, mappedFile.getFileSize());
+            uploaded++;
+        }
+
+        for (ConcurrentMap<Integer, ConsumeQueue> queueTable : this.defaultMessageStore.getConsumeQueueTable().values()) {
+            for (ConsumeQueue cq : queueTable.values()) {
+                for (MappedFile mappedFile : cq.getMappedFileQueue().getMappedFiles()) {
+                    if (!this.isSealed(mappedFile)) {
+                        break;
+                    }
+                    long fromOffset = mappedFile.getFileFromOffset();
+                    if (this.segmentIndex.containsConsumeQueue(cq.getTopic(), cq.getQueueId(), fromOffset)) {
+                        continue;
+                    }
+                    if (!this.upload(TieredSegmentIndex.consumeQueueKey(cq.getTopic(), cq.getQueueId(), fromOffset), mappedFile)) {
+                        break;
+                    }
+                    this.segmentIndex.addConsumeQueue(cq.getTopic(), cq.getQueueId(), fromOffset, mappedFile.getFileSize());
+                    uploaded++;
+                }
+            }
+        }
+
+        if (uploaded > 0) {
+            this.segmentIndex.persist();
+        }
+        return uploaded;
+    }
+
+    private boolean isSealed(final MappedFile mappedFile) {
+        return mappedFile.isFull() && mappedFile.getFlushedPosition() >= mappedFile.getFileSize();
+    }
+
+    private boolean upload(final String key, final MappedFile mappedFile) {
+        if (!mappedFile.hold()) {
+            return false;
+        }
+        try {
+            long beginTime = System.currentTimeMillis();
+            this.tieredStorage.upload(key, new File(mappedFile.getFileName()));
+            log.info("upload {} to tiered storage as {}, cost {}ms", mappedFile.getFileName(), key,
+                System.currentTimeMillis() - beginTime);
+            return true;
+        } catch (IOException e) {
+            log.error("upload " + mappedFile.getFileName() + " to tiered storage failed", e);
+            return false;
+        } finally {
+            mappedFile.release();
+        }
+    }
+
+    /**
+     * @return Bytes of the commit log range, null if it is not in the tier.
+     */
+    public ByteBuffer readCommitLog(final long offset, final int size) {
+        Map.Entry<Long, Integer> segment = this.segmentIndex.findCommitLog(offset);
+        if (segment == null || offset + size > segment.getKey() + segment.getValue()) {
+            return null;
+        }
+        try {
+            return ByteBuffer.wrap(this.readCache.read(TieredSegmentIndex.commitLogKey(segment.getKey()),
+                segment.getValue(), offset - segment.getKey(), size));
+        } catch (IOException e) {
+            log.error("read commit log from tiered storage failed, offset " + offset + ", size " + size, e);
+            return null;
+        }
+    }
+
+    public MessageExt lookMessageByOffset(final long commitLogOffset) {
+        MessageExt compressedMessage = this.lookCompressedMessage(commitLogOffset);
+        if (compressedMessage != null) {
+            return compressedMessage;
+        }
+
+        ByteBuffer sizeBuffer = this.readCommitLog(commitLogOffset, 4);
+        if (sizeBuffer == null) {
+            return null;
+        }
+        return this.lookMessageByOffset(commitLogOffset, sizeBuffer.getInt());
+    }
+
+    public MessageExt lookMessageByOffset(final long commitLogOffset, final int size) {
+        if (size == CompressedMessageBatch.INDEX_SLOT_SIZE) {
+            return this.lookCompressedMessage(commitLogOffset);
+        }
+
+        ByteBuffer byteBuffer = this.readCommitLog(commitLogOffset, size);
+        if (byteBuffer == null) {
+            return null;
+        }
+        return MessageDecoder.decode(byteBuffer, true, false);
+    }
+
+    private MessageExt lookCompressedMessage(final long commitLogOffset) {
+        CompressedMessageBatch batch = this.readCompressedBatch(commitLogOffset);
+        if (batch == null) {
+            return null;
+        }
+        return MessageDecoder.decode(batch.selectBySlotOffset(commitLogOffset).getByteBuffer(), true, false);
+    }
+
+    /**
+     * @param offset Offset of the index slot of a message in a compressed batch.
+     * @return The decompressed batch, null if the tier holds no index slot at the offset.
+     */
+    private CompressedMessageBatch readCompressedBatch(final long offset) {
+        ByteBuffer slot = this.readCommitLog(offset, CompressedMessageBatch.INDEX_SLOT_SIZE);
+        if (slot == null) {
+            return null;
+        }
+        int index = slot.getInt();
+        long containerOffset = CompressedMessageBatch.containerOffset(offset, index);
+        ByteBuffer sizeBuffer = index >= 0 ? this.readCommitLog(containerOffset, 4) : null;
+        if (sizeBuffer == null) {
+            return null;
+        }
+        int size = sizeBuffer.getInt();
+        ByteBuffer container = size > 0 ? this.readCommitLog(containerOffset, size) : null;
+        if (container == null || !CompressedMessageBatch.isContainerOf(container, containerOffset, index)) {
+            return null;
+        }
+
+        try {
+            return CompressedMessageBatch.decode(container);
+        } catch (IOException e) {
+            log.error("decompress batch at " + containerOffset + " failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * Serve a pull below the local consume queue from the tier. Consume queue files kept locally until uploaded and
+     * messages still on local disk are read from there.
+     *
+     * @return Next queue offset to pull, -1 if the offset is not in the tier either.
+     */
+    public long getMessage(final String topic, final int queueId, final long offset, final int maxMsgNums,
+        final MessageFilter messageFilter, final GetMessageResult getResult) {
+        long cqPosition = offset * ConsumeQueue.CQ_STORE_UNIT_SIZE;
+        int maxReadBytes = Math.max(16000, maxMsgNums * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        SelectMappedBufferResult localConsumeQueue = this.selectLocalConsumeQueue(topic, queueId, cqPosition);
+        if (localConsumeQueue != null) {
+            try {
+                return this.getMessage(topic, queueId, offset, maxMsgNums, messageFilter, getResult,
+                    localConsumeQueue.getByteBuffer(), Math.min(localConsumeQueue.getSize(), maxReadBytes));
+            } finally {
+                localConsumeQueue.release();
+            }
+        }
+
+        Map.Entry<Long, Integer> segment = this.segmentIndex.findConsumeQueue(topic, queueId, cqPosition);
+        if (segment == null) {
+            return -1;
+        }
+
+        long remainBytes = segment.getKey() + segment.getValue() - cqPosition;
+        int readBytes = (int) Math.min(remainBytes, maxReadBytes);
+        ByteBuffer bufferConsumeQueue;
+        try {
+            bufferConsumeQueue = ByteBuffer.wrap(this.readCache.read(
+                TieredSegmentIndex.consumeQueueKey(topic, queueId, segment.getKey()), segment.getValue(),
+                cqPosition - segment.getKey(), readBytes));
+        } catch (IOException e) {
+            log.error("read consume queue from tiered storage failed, topic " + topic + ", queueId " + queueId, e);
+            return -1;
+        }
+        return this.getMessage(topic, queueId, offset, maxMsgNums, messageFilter, getResult, bufferConsumeQueue, readBytes);
+    }
+
+    /**
+     * @return Consume queue entries from the given position on, if the file holding it is still on local disk.
+     */
+    private SelectMappedBufferResult selectLocalConsumeQueue(final String topic, final int queueId,
+        final long cqPosition) {
+        ConcurrentMap<Integer, ConsumeQueue> queueTable = this.defaultMessageStore.getConsumeQueueTable().get(topic);
+        ConsumeQueue cq = queueTable == null ? null : queueTable.get(queueId);
+        if (cq == null) {
+            return null;
+        }
+        MappedFile firstMappedFile = cq.getMappedFileQueue().getFirstMappedFile();
+        if (firstMappedFile == null || cqPosition < firstMappedFile.getFileFromOffset()) {
+            return null;
+        }
+        MappedFile mappedFile = cq.getMappedFileQueue().findMappedFileByOffset(cqPosition);
+        if (mappedFile == null) {
+            return null;
+        }
+        return mappedFile.selectMappedBuffer((int) (cqPosition - mappedFile.getFileFromOffset()));
+    }
+
+    private long getMessage(final String topic, final int queueId, final long offset, final int maxMsgNums,
+        final MessageFilter messageFilter, final GetMessageResult getResult, final ByteBuffer bufferConsumeQueue,
+        final int readBytes) {
+        int maxMsgCount = Math.min(maxMsgNums, this.messageStoreConfig.getMaxTransferCountOnMessageInDisk());
+        int i = 0;
+        CompressedMessageBatch compressedBatch = null;
+        for (; i < readBytes; i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+            long offsetPy = bufferConsumeQueue.getLong();
+            int sizePy = bufferConsumeQueue.getInt();
+            long tagsCode = bufferConsumeQueue.getLong();
+            if (offsetPy < 0 || sizePy <= 0) {
+                break;
+            }
+            if (getResult.getMessageCount() >= maxMsgCount
+                || (getResult.getMessageCount() > 0
+                && getResult.getBufferTotalSize() + sizePy > this.messageStoreConfig.getMaxTransferBytesOnMessageInDisk())) {
+                break;
+            }
+
+            if (messageFilter != null
+                && !messageFilter.isMatchedByConsumeQueue(ConsumeQueueExt.isExtAddr(tagsCode) ? null : tagsCode, null)) {
+                continue;
+            }
+
+            SelectMappedBufferResult selectResult = null;
+            boolean isInLocal = offsetPy >= this.defaultMessageStore.getCommitLog().getMinOffset();
+            if (sizePy == CompressedMessageBatch.INDEX_SLOT_SIZE) {
+                if (compressedBatch == null || compressedBatch.indexOf(offsetPy) < 0) {
+                    compressedBatch = isInLocal ? this.defaultMessageStore.getCommitLog().getCompressedBatch(offsetPy) : null;
+                    if (compressedBatch == null) {
+                        compressedBatch = this.readCompressedBatch(offsetPy);
+                    }
+                }
+                if (compressedBatch == null) {
+                    log.warn("compressed batch of topic {} queueId {} holding {} is in neither tier", topic, queueId, offsetPy);
+                    continue;
+                }
+                selectResult = compressedBatch.selectBySlotOffset(offsetPy);
+            } else {
+                if (isInLocal) {
+                    selectResult = this.defaultMessageStore.getCommitLog().getMessage(offsetPy, sizePy);
+                }
+                if (selectResult == null) {
+                    ByteBuffer byteBuffer = this.readCommitLog(offsetPy, sizePy);
+                    if (byteBuffer == null) {
+                        log.warn("message of topic {} queueId {} at {} is in neither tier", topic, queueId, offsetPy);
+                        continue;
+                    }
+                    selectResult = new SelectMappedBufferResult(offsetPy, byteBuffer, sizePy, null);
+                }
+            }
+
+            if (messageFilter != null
+                && !messageFilter.isMatchedByCommitLog(selectResult.getByteBuffer().slice(), null)) {
+                selectResult.release();
+                continue;
+            }
+
+            getResult.addMessage(selectResult);
+        }
+
+        return offset + i / ConsumeQueue.CQ_STORE_UNIT_SIZE;
+    }
+
+    public TieredSegmentIndex getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public TieredReadCache getReadCache() {
+        return readCache;
+    }
+
+    class TieredUploadService extends ServiceThread {
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    this.waitForRunning(TieredStoreService.this.messageStoreConfig.getTieredUploadIntervalMs());
+                    TieredStoreService.this.uploadSealedFiles();
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+        @Override
+        public String getServiceName() {
+            return TieredUploadService.class.getSimpleName();
+        }
+    }
+}
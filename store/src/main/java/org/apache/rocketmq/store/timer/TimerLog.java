@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.MappedFileQueue;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+
+/**
+ * Append only log of fixed size timer units. Each unit links to the previous unit of the same wheel slot, so a slot is
+ * a singly linked chain walked backwards from {@link TimerWheel.Slot#getLastPos()}.
+ */
+public class TimerLog {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    // size(4) + prevPos(8) + magic(4) + deliverMs(8) + offsetPy(8) + sizePy(4)
+    public static final int UNIT_SIZE = 4 + 8 + 4 + 8 + 8 + 4;
+    public static final int MAGIC_CODE = 0x7143EA15;
+
+    private final MappedFileQueue mappedFileQueue;
+    private final int mappedFileSize;
+    private final ByteBuffer unitBuffer = ByteBuffer.allocate(UNIT_SIZE);
+
+    public TimerLog(final String storePath, final int mappedFileSize) {
+        this.mappedFileSize = mappedFileSize - mappedFileSize % UNIT_SIZE;
+        this.mappedFileQueue = new MappedFileQueue(storePath, this.mappedFileSize, null);
+    }
+
+    public boolean load() {
+        return this.mappedFileQueue.load();
+    }
+
+    public void recover() {
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (mappedFiles.isEmpty()) {
+            return;
+        }
+
+        int index = mappedFiles.size() - 3;
+        if (index < 0) {
+            index = 0;
+        }
+
+        MappedFile mappedFile = mappedFiles.get(index);
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        long processOffset = mappedFile.getFileFromOffset();
+        long mappedFileOffset = 0;
+        while (true) {
+            for (int i = 0; i < this.mappedFileSize; i += UNIT_SIZE) {
+                int size = byteBuffer.getInt(i);
+                int magic = byteBuffer.getInt(i + 12);
+                if (size == UNIT_SIZE && magic == MAGIC_CODE) {
+                    mappedFileOffset = i + UNIT_SIZE;
+                } else {
+                    break;
+                }
+            }
+
+            if (mappedFileOffset == this.mappedFileSize && index + 1 < mappedFiles.size()) {
+                index++;
+                mappedFile = mappedFiles.get(index);
+                byteBuffer = mappedFile.sliceByteBuffer();
+                processOffset = mappedFile.getFileFromOffset();
+                mappedFileOffset = 0;
+            } else {
+                break;
+            }
+        }
+
+        processOffset += mappedFileOffset;
+        this.mappedFileQueue.setFlushedWhere(processOffset);
+        this.mappedFileQueue.setCommittedWhere(processOffset);
+        this.mappedFileQueue.truncateDirtyFiles(processOffset);
+        log.info("recover timer log over, max offset {}", processOffset);
+    }
+
+    /**
+     * Only called from the single timer wheel thread.
+     *
+     * @return Position of the appended unit, -1 if it could not be written.
+     */
+    public long append(final long prevPos, final long deliverMs, final long offsetPy, final int sizePy) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+        if (mappedFile == null) {
+            log.error("create timer log mapped file failed");
+            return -1;
+        }
+
+        this.unitBuffer.clear();
+        this.unitBuffer.putInt(UNIT_SIZE);
+        this.unitBuffer.putLong(prevPos);
+        this.unitBuffer.putInt(MAGIC_CODE);
+        this.unitBuffer.putLong(deliverMs);
+        this.unitBuffer.putLong(offsetPy);
+        this.unitBuffer.putInt(sizePy);
+
+        long pos = mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+        if (!mappedFile.appendMessage(this.unitBuffer.array())) {
+            log.error("append timer log failed, pos {}", pos);
+            return -1;
+        }
+        return pos;
+    }
+
+    public Unit read(final long pos) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(pos);
+        if (mappedFile == null) {
+            return null;
+        }
+
+        SelectMappedBufferResult result = mappedFile.selectMappedBuffer((int) (pos % this.mappedFileSize), UNIT_SIZE);
+        if (result == null) {
+            return null;
+        }
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            int size = byteBuffer.getInt();
+            long prevPos = byteBuffer.getLong();
+            int magic = byteBuffer.getInt();
+            if (size != UNIT_SIZE || magic != MAGIC_CODE) {
+                return null;
+            }
+            return new Unit(pos, prevPos, byteBuffer.getLong(), byteBuffer.getLong(), byteBuffer.getInt());
+        } finally {
+            result.release();
+        }
+    }
+
+    public void flush() {
+        this.mappedFileQueue.flush(0);
+    }
+
+    /**
+     * A file can go once the last slot any of its units may have been linked into has been read, that is
+     * {@code slotsSpanMs} after it was last written, measured against the read time of the wheel.
+     */
+    public int deleteExpiredFiles(final long currReadTimeMs, final long slotsSpanMs) {
+        long expiredTime = System.currentTimeMillis() - currReadTimeMs + slotsSpanMs;
+        return this.mappedFileQueue.deleteExpiredFileByTime(expiredTime, 0, 1000 * 120, false);
+    }
+
+    public long getFlushedWhere() {
+        return this.mappedFileQueue.getFlushedWhere();
+    }
+
+    public long getMaxOffset() {
+        return this.mappedFileQueue.getMaxOffset();
+    }
+
+    public void destroy() {
+        this.mappedFileQueue.destroy();
+    }
+
+    public static class Unit {
+        private final long pos;
+        private final long prevPos;
+        private final long deliverMs;
+        private final long offsetPy;
+        private final int sizePy;
+
+        public Unit(long pos, long prevPos, long deliverMs, long offsetPy, int sizePy) {
+            this.pos = pos;
+            this.prevPos = prevPos;
+            this.deliverMs = deliverMs;
+            this.offsetPy = offsetPy;
+            this.sizePy = sizePy;
+        }
+
+        public long getPos() {
+            return pos;
+        }
+
+        public long getPrevPos() {
+            return prevPos;
+        }
+
+        public long getDeliverMs() {
+            return deliverMs;
+        }
+
+        public long getOffsetPy() {
+            return offsetPy;
+        }
+
+        public int getSizePy() {
+            return sizePy;
+        }
+    }
+}
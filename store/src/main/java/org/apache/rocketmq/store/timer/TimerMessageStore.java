@@ -0,0 +1,467 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.TopicFilterType;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.running.RunningStats;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.ConsumeQueueExt;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+
+/**
+ * Delivers messages at an arbitrary absolute time, see {@link MessageConst#PROPERTY_TIMER_DELIVER_MS}.
+ * <p>
+ * The commit log rewrites such messages to {@link #TIMER_TOPIC}, whose consume queue carries the deliver time as tags
+ * code. A single wheel thread moves new consume queue entries into the {@link TimerWheel}, one slot per
+ * {@code timerPrecisionMs} tick linking its {@link TimerLog} units, and re-puts the messages of a slot to their real
+ * topic once the tick has passed. The slot chain is walked from its last unit in batches of
+ * {@link #DEQUEUE_BATCH_SIZE}, whose puts are issued together and then awaited. Timers further away than the wheel span are linked into the farthest
+ * slot and rolled over again when it is read, so a slot never holds more than one round.
+ * <p>
+ * The consume queue offset and read time are checkpointed after the timer log and the wheel are flushed. Entries
+ * between the checkpoint and a crash are enqueued or delivered again, delivery is at least once.
+ */
+public class TimerMessageStore {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final String TIMER_TOPIC = "TIMER_TOPIC_XXXX";
+    public static final int TIMER_QUEUE_ID = 0;
+    private static final long DELAY_FOR_A_WHILE = 100L;
+    private static final int DEQUEUE_BATCH_SIZE = 32;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final MessageStoreConfig messageStoreConfig;
+    private final int precisionMs;
+    private final int slotsTotal;
+    private final TimerLog timerLog;
+    private final TimerWheelService timerWheelService = new TimerWheelService();
+    private TimerWheel timerWheel;
+    private TimerCheckpoint timerCheckpoint;
+
+    private volatile long currReadTimeMs;
+    private volatile long currQueueOffset;
+    /**
+     * Units of the slot at {@link #currReadTimeMs} already handled, counted from its last unit, so a failed re-put does
+     * not deliver them twice.
+     */
+    private int currSlotHandled;
+    /**
+     * Positions of the units handled after a failed one of the same batch, skipped when the batch is retried.
+     */
+    private final Set<Long> currSlotHandledAhead = new HashSet<Long>();
+    private long lastFlushTimestamp;
+
+    public TimerMessageStore(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.messageStoreConfig = defaultMessageStore.getMessageStoreConfig();
+        this.precisionMs = this.messageStoreConfig.getTimerPrecisionMs();
+        this.slotsTotal = this.messageStoreConfig.getTimerWheelSlots();
+        this.timerLog = new TimerLog(StorePathConfigHelper.getStorePathTimerLog(this.messageStoreConfig.getStorePathRootDir()),
+            this.messageStoreConfig.getMappedFileSizeTimerLog());
+    }
+
+    public boolean load() {
+        boolean result = this.timerLog.load();
+        if (!result) {
+            return false;
+        }
+
+        try {
+            String rootDir = this.messageStoreConfig.getStorePathRootDir();
+            this.timerWheel = new TimerWheel(StorePathConfigHelper.getTimerWheelPath(rootDir), this.slotsTotal, this.precisionMs);
+            this.timerCheckpoint = new TimerCheckpoint(StorePathConfigHelper.getTimerCheckpointPath(rootDir));
+        } catch (IOException e) {
+            log.error("load timer wheel exception", e);
+            return false;
+        }
+
+        this.timerLog.recover();
+        this.currQueueOffset = this.timerCheckpoint.getLastTimerQueueOffset();
+        this.currReadTimeMs = this.timerCheckpoint.getLastReadTimeMs();
+        if (this.currReadTimeMs <= 0) {
+            this.currReadTimeMs = this.roundDown(System.currentTimeMillis());
+        }
+        log.info("load timer message store, currReadTimeMs {}, currQueueOffset {}, timer log max offset {}",
+            this.currReadTimeMs, this.currQueueOffset, this.timerLog.getMaxOffset());
+        return true;
+    }
+
+    public void start() {
+        this.timerWheelService.start();
+    }
+
+    public void shutdown() {
+        this.timerWheelService.shutdown();
+    }
+
+    public void destroy() {
+        if (this.timerWheel != null) {
+            this.timerWheel.destroy();
+        }
+        if (this.timerCheckpoint != null) {
+            this.timerCheckpoint.destroy();
+        }
+        this.timerLog.destroy();
+    }
+
+    /**
+     * Called on the put path: redirects a message whose deliver time is still ahead to {@link #TIMER_TOPIC}, backing
+     * up the real topic and queue like delay level messages do.
+     *
+     * @return true if the message has been redirected.
+     */
+    public boolean transformTimerMessage(final MessageExtBrokerInner msg) {
+        String deliverMs = msg.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+        if (deliverMs == null) {
+            return false;
+        }
+
+        try {
+            if (Long.parseLong(deliverMs) <= System.currentTimeMillis()) {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            log.warn("illegal timer deliver time {} of topic {}", deliverMs, msg.getTopic());
+            return false;
+        }
+
+        MessageAccessor.clearProperty(msg, MessageConst.PROPERTY_DELAY_TIME_LEVEL);
+        MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_TOPIC, msg.getTopic());
+        MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_QUEUE_ID, String.valueOf(msg.getQueueId()));
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+
+        msg.setTopic(TIMER_TOPIC);
+        msg.setQueueId(TIMER_QUEUE_ID);
+        return true;
+    }
+
+    public void buildRunningStats(HashMap<String, String> stats) {
+        long maxOffset = this.defaultMessageStore.getMaxOffsetInQueue(TIMER_TOPIC, TIMER_QUEUE_ID);
+        stats.put(RunningStats.timerMessageOffset.name(), String.format("%d,%d", this.currQueueOffset, maxOffset));
+        long behind = System.currentTimeMillis() - this.currReadTimeMs - this.precisionMs;
+        stats.put(RunningStats.timerReadBehindMs.name(), String.valueOf(Math.max(behind, 0)));
+    }
+
+    private long roundDown(final long timeMs) {
+        return timeMs - timeMs % this.precisionMs;
+    }
+
+    /**
+     * Move newly dispatched entries of the timer consume queue into the wheel.
+     *
+     * @return true if any entry was moved.
+     */
+    private boolean enqueue() {
+        ConsumeQueue cq = this.defaultMessageStore.findConsumeQueue(TIMER_TOPIC, TIMER_QUEUE_ID);
+        if (this.currQueueOffset < cq.getMinOffsetInQueue()) {
+            log.error("timer consume queue offset {} expired, skip to min offset {}", this.currQueueOffset, cq.getMinOffsetInQueue());
+            this.currQueueOffset = cq.getMinOffsetInQueue();
+        }
+
+        SelectMappedBufferResult bufferCQ = cq.getIndexBuffer(this.currQueueOffset);
+        if (bufferCQ == null) {
+            return false;
+        }
+
+        int enqueued = 0;
+        try {
+            ConsumeQueueExt.CqExtUnit cqExtUnit = new ConsumeQueueExt.CqExtUnit();
+            for (int i = 0; i < bufferCQ.getSize(); i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                long offsetPy = bufferCQ.getByteBuffer().getLong();
+                int sizePy = bufferCQ.getByteBuffer().getInt();
+                long deliverMs = bufferCQ.getByteBuffer().getLong();
+
+                if (cq.isExtAddr(deliverMs)) {
+                    if (cq.getExt(deliverMs, cqExtUnit)) {
+                        deliverMs = cqExtUnit.getTagsCode();
+                    } else {
+                        log.error("[BUG] can't find consume queue extend file content!addr={}, offsetPy={}, sizePy={}",
+                            deliverMs, offsetPy, sizePy);
+                        deliverMs = this.pickupDeliverMs(offsetPy, sizePy);
+                    }
+                }
+
+                if (!this.addToWheel(deliverMs, offsetPy, sizePy)) {
+                    break;
+                }
+                this.currQueueOffset++;
+                enqueued++;
+            }
+        } finally {
+            bufferCQ.release();
+        }
+        return enqueued > 0;
+    }
+
+    private long pickupDeliverMs(final long offsetPy, final int sizePy) {
+        MessageExt msgExt = this.defaultMessageStore.lookMessageByOffset(offsetPy, sizePy);
+        if (msgExt != null) {
+            String deliverMs = msgExt.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+            if (deliverMs != null) {
+                return Long.parseLong(deliverMs);
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * A late unit goes to the next slot, the one being read only has its handled units counted from its last unit.
+     */
+    private boolean addToWheel(final long deliverMs, final long offsetPy, final int sizePy) {
+        long slotTimeMs = Math.max(this.roundDown(deliverMs), this.currReadTimeMs + this.precisionMs);
+        slotTimeMs = Math.min(slotTimeMs, this.currReadTimeMs + (long) (this.slotsTotal - 1) * this.precisionMs);
+
+        TimerWheel.Slot slot = this.timerWheel.getSlot(slotTimeMs);
+        boolean sameRound = slot.getTimeMs() == slotTimeMs && slot.getNum() > 0;
+        long prevPos = sameRound ? slot.getLastPos() : -1;
+        long pos = this.timerLog.append(prevPos, deliverMs, offsetPy, sizePy);
+        if (pos < 0) {
+            return false;
+        }
+
+        this.timerWheel.putSlot(slotTimeMs, sameRound ? slot.getFirstPos() : pos, pos, sameRound ? slot.getNum() + 1 : 1);
+        return true;
+    }
+
+    /**
+     * Read the slot at {@link #currReadTimeMs} once its tick has passed: re-put due messages, roll the others over.
+     *
+     * @return true if the read time moved on.
+     */
+    private boolean dequeue() {
+        if (this.currReadTimeMs + this.precisionMs > System.currentTimeMillis()) {
+            return false;
+        }
+
+        TimerWheel.Slot slot = this.timerWheel.getSlot(this.currReadTimeMs);
+        if (slot.getTimeMs() == this.currReadTimeMs && slot.getNum() > 0) {
+            long nextReadTimeMs = this.currReadTimeMs + this.precisionMs;
+            long pos = slot.getLastPos();
+            int read = 0;
+            List<TimerLog.Unit> batch = new ArrayList<TimerLog.Unit>(DEQUEUE_BATCH_SIZE);
+            while (pos >= 0) {
+                batch.clear();
+                while (pos >= 0 && batch.size() < DEQUEUE_BATCH_SIZE) {
+                    TimerLog.Unit unit = this.timerLog.read(pos);
+                    if (unit == null) {
+                        log.error("timer log unit at {} is lost, slot {} has {} units, {} read", pos, slot.getTimeMs(),
+                            slot.getNum(), read);
+                        pos = -1;
+                        break;
+                    }
+                    // units handled by an earlier, interrupted pass are only walked through
+                    if (read++ >= this.currSlotHandled) {
+                        batch.add(unit);
+                    }
+                    pos = unit.getPrevPos();
+                }
+
+                int handled = this.handle(batch, nextReadTimeMs);
+                this.currSlotHandled += handled;
+                if (handled < batch.size()) {
+                    return false;
+                }
+            }
+        }
+
+        this.currReadTimeMs += this.precisionMs;
+        this.currSlotHandled = 0;
+        this.currSlotHandledAhead.clear();
+        return true;
+    }
+
+    /**
+     * Roll over or re-put a batch of units, the re-puts are issued together before any of them is awaited.
+     *
+     * @return the number of leading units handled, the rest is retried later.
+     */
+    private int handle(final List<TimerLog.Unit> units, final long nextReadTimeMs) {
+        List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>(units.size());
+        for (TimerLog.Unit unit : units) {
+            if (this.currSlotHandledAhead.contains(unit.getPos())) {
+                futures.add(CompletableFuture.completedFuture(true));
+            } else if (unit.getDeliverMs() >= nextReadTimeMs) {
+                futures.add(CompletableFuture.completedFuture(
+                    this.addToWheel(unit.getDeliverMs(), unit.getOffsetPy(), unit.getSizePy())));
+            } else {
+                futures.add(this.deliver(unit));
+            }
+        }
+
+        int handled = 0;
+        boolean failed = false;
+        for (int i = 0; i < units.size(); i++) {
+            boolean done;
+            try {
+                done = futures.get(i).get(this.messageStoreConfig.getSyncFlushTimeout() + 5000, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                log.warn("wait for timer message reput failed, offsetPy={}", units.get(i).getOffsetPy(), e);
+                done = false;
+            }
+
+            if (!done) {
+                failed = true;
+            } else if (failed) {
+                this.currSlotHandledAhead.add(units.get(i).getPos());
+            } else {
+                handled++;
+            }
+        }
+        return handled;
+    }
+
+    /**
+     * @return a future telling whether the unit is done with: the message is stored, or can never be.
+     */
+    private CompletableFuture<Boolean> deliver(final TimerLog.Unit unit) {
+        final MessageExt msgExt = this.defaultMessageStore.lookMessageByOffset(unit.getOffsetPy(), unit.getSizePy());
+        if (msgExt == null) {
+            log.error("timer message is lost, offsetPy={}, sizePy={}", unit.getOffsetPy(), unit.getSizePy());
+            return CompletableFuture.completedFuture(true);
+        }
+
+        MessageExtBrokerInner msgInner;
+        try {
+            msgInner = this.messageTimeup(msgExt);
+        } catch (Exception e) {
+            log.error("timer messageTimeup execute error, drop it. msgExt=" + msgExt + ", offsetPy="
+                + unit.getOffsetPy() + ",sizePy=" + unit.getSizePy(), e);
+            return CompletableFuture.completedFuture(true);
+        }
+
+        return this.defaultMessageStore.asyncPutMessage(msgInner).thenApply(result -> this.isReputDone(msgExt, result));
+    }
+
+    private boolean isReputDone(final MessageExt msgExt, final PutMessageResult putMessageResult) {
+        // a flush or slave timeout still leaves the message stored
+        if (putMessageResult != null && putMessageResult.isOk()) {
+            return true;
+        }
+
+        PutMessageStatus status = putMessageResult == null ? PutMessageStatus.UNKNOWN_ERROR : putMessageResult.getPutMessageStatus();
+        switch (status) {
+            case MESSAGE_ILLEGAL:
+            case PROPERTIES_SIZE_EXCEEDED:
+                log.error("a timer message time up, but it can never be reput, drop it. topic: {} msgId {} status {}",
+                    msgExt.getTopic(), msgExt.getMsgId(), status);
+                return true;
+            default:
+                log.warn("a timer message time up, but reput it failed, retry later. topic: {} msgId {} status {}",
+                    msgExt.getTopic(), msgExt.getMsgId(), status);
+                return false;
+        }
+    }
+
+    private MessageExtBrokerInner messageTimeup(MessageExt msgExt) {
+        MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+        msgInner.setBody(msgExt.getBody());
+        msgInner.setFlag(msgExt.getFlag());
+        MessageAccessor.setProperties(msgInner, msgExt.getProperties());
+        MessageAccessor.clearProperty(msgInner, MessageConst.PROPERTY_TIMER_DELIVER_MS);
+
+        TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
+        long tagsCodeValue =
+            MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
+        msgInner.setTagsCode(tagsCodeValue);
+        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
+
+        msgInner.setSysFlag(msgExt.getSysFlag());
+        msgInner.setBornTimestamp(msgExt.getBornTimestamp());
+        msgInner.setBornHost(msgExt.getBornHost());
+        msgInner.setStoreHost(msgExt.getStoreHost());
+        msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
+
+        msgInner.setWaitStoreMsgOK(false);
+        msgInner.setTopic(msgInner.getProperty(MessageConst.PROPERTY_REAL_TOPIC));
+        msgInner.setQueueId(Integer.parseInt(msgInner.getProperty(MessageConst.PROPERTY_REAL_QUEUE_ID)));
+        return msgInner;
+    }
+
+    private void flush() {
+        this.timerLog.flush();
+        this.timerWheel.flush();
+        this.timerCheckpoint.setLastTimerLogFlushPos(this.timerLog.getFlushedWhere());
+        this.timerCheckpoint.setLastReadTimeMs(this.currReadTimeMs);
+        this.timerCheckpoint.setLastTimerQueueOffset(this.currQueueOffset);
+        this.timerCheckpoint.flush();
+        this.timerLog.deleteExpiredFiles(this.currReadTimeMs, (long) this.slotsTotal * this.precisionMs);
+        this.lastFlushTimestamp = System.currentTimeMillis();
+    }
+
+    public long getCurrReadTimeMs() {
+        return currReadTimeMs;
+    }
+
+    public long getCurrQueueOffset() {
+        return currQueueOffset;
+    }
+
+    class TimerWheelService extends ServiceThread {
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    boolean enqueued = TimerMessageStore.this.enqueue();
+                    boolean dequeued = TimerMessageStore.this.dequeue();
+                    if (System.currentTimeMillis() - TimerMessageStore.this.lastFlushTimestamp
+                        >= TimerMessageStore.this.messageStoreConfig.getTimerFlushIntervalMs()) {
+                        TimerMessageStore.this.flush();
+                    }
+                    if (!enqueued && !dequeued) {
+                        this.waitForRunning(Math.min(TimerMessageStore.this.precisionMs, DELAY_FOR_A_WHILE));
+                    }
+                } catch (Throwable e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(DELAY_FOR_A_WHILE);
+                }
+            }
+
+            TimerMessageStore.this.flush();
+            log.info(this.getServiceName() + " service end");
+        }
+
+        @Override
+        public String getServiceName() {
+            return TimerWheelService.class.getSimpleName();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.logging.InternalLogger;
+import org.apache.rocketmq.logging.InternalLoggerFactory;
+import org.apache.rocketmq.store.MappedFile;
+
+/**
+ * Memory mapped wheel of fixed size slots, one per {@code precisionMs} tick. A slot points to the last {@link TimerLog}
+ * unit of its chain and remembers the tick it was written for, so slots left over from an earlier round read as empty.
+ */
+public class TimerWheel {
+    private static final InternalLogger log = InternalLoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    // timeMs(8) + firstPos(8) + lastPos(8) + num(4)
+    public static final int SLOT_SIZE = 8 + 8 + 8 + 4;
+
+    private final String fileName;
+    private final int slotsTotal;
+    private final int precisionMs;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedByteBuffer;
+
+    public TimerWheel(final String fileName, final int slotsTotal, final int precisionMs) throws IOException {
+        this.fileName = fileName;
+        this.slotsTotal = slotsTotal;
+        this.precisionMs = precisionMs;
+
+        File file = new File(fileName);
+        MappedFile.ensureDirOK(file.getParent());
+        long wheelSize = (long) slotsTotal * SLOT_SIZE;
+        if (file.exists() && file.length() != wheelSize) {
+            throw new IOException(String.format("timer wheel %s has %d bytes, but %d slots need %d",
+                fileName, file.length(), slotsTotal, wheelSize));
+        }
+
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, wheelSize);
+        log.info("load timer wheel {}, slots {}, precision {}ms", fileName, slotsTotal, precisionMs);
+    }
+
+    public Slot getSlot(final long timeMs) {
+        int index = this.getSlotIndex(timeMs) * SLOT_SIZE;
+        return new Slot(this.mappedByteBuffer.getLong(index),
+            this.mappedByteBuffer.getLong(index + 8),
+            this.mappedByteBuffer.getLong(index + 16),
+            this.mappedByteBuffer.getInt(index + 24));
+    }
+
+    public void putSlot(final long timeMs, final long firstPos, final long lastPos, final int num) {
+        int index = this.getSlotIndex(timeMs) * SLOT_SIZE;
+        this.mappedByteBuffer.putLong(index, timeMs);
+        this.mappedByteBuffer.putLong(index + 8, firstPos);
+        this.mappedByteBuffer.putLong(index + 16, lastPos);
+        this.mappedByteBuffer.putInt(index + 24, num);
+    }
+
+    private int getSlotIndex(final long timeMs) {
+        return (int) (timeMs / this.precisionMs % this.slotsTotal);
+    }
+
+    public void flush() {
+        this.mappedByteBuffer.force();
+    }
+
+    public void shutdown() {
+        this.flush();
+
+        MappedFile.clean(this.mappedByteBuffer);
+
+        try {
+            this.fileChannel.close();
+        } catch (IOException e) {
+            log.error("Failed to properly close the channel", e);
+        }
+    }
+
+    public void destroy() {
+        this.shutdown();
+        UtilAll.deleteFile(new File(this.fileName));
+    }
+
+    public int getSlotsTotal() {
+        return slotsTotal;
+    }
+
+    public int getPrecisionMs() {
+        return precisionMs;
+    }
+
+    public static class Slot {
+        private final long timeMs;
+        private final long firstPos;
+        private final long lastPos;
+        private final int num;
+
+        public Slot(long timeMs, long firstPos, long lastPos, int num) {
+            this.timeMs = timeMs;
+            this.firstPos = firstPos;
+            this.lastPos = lastPos;
+            this.num = num;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        public long getFirstPos() {
+            return firstPos;
+        }
+
+        public long getLastPos() {
+            return lastPos;
+        }
+
+        public int getNum() {
+            return num;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressedMessageBatchTest extends StoreTestBase {
+
+    private static final String TOPIC = "CompressedMessageBatchTest";
+
+    private static final int BATCH_SIZE = 64;
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024 * 10);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 1024);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setCompressBatchEnable(true);
+        messageStoreConfig.setCompressBatchOverHowmuch(1024);
+
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("CompressedMessageBatchTest"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testPutAndGetCompressedBatch() throws Exception {
+        PutMessageResult first = messageStore.putMessages(buildBatch(0));
+        assertThat(first.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        assertThat(first.getAppendMessageResult().getMsgNum()).isEqualTo(BATCH_SIZE);
+        assertThat(first.getAppendMessageResult().getMsgId().split(",")).hasSize(BATCH_SIZE);
+        assertThat(first.getAppendMessageResult().getWroteBytes()).isLessThan(BATCH_SIZE * 200 / 3);
+
+        MessageExtBrokerInner single = buildMessage();
+        single.setTopic(TOPIC);
+        single.setQueueId(0);
+        single.setKeys("key-" + BATCH_SIZE);
+        single.setBody(body(BATCH_SIZE));
+        single.setPropertiesString(MessageDecoder.messageProperties2String(single.getProperties()));
+        assertThat(messageStore.putMessage(single).getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+
+        PutMessageResult second = messageStore.putMessages(buildBatch(BATCH_SIZE + 1));
+        assertThat(second.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        assertThat(second.getAppendMessageResult().getLogicsOffset()).isEqualTo(BATCH_SIZE + 1);
+
+        int total = BATCH_SIZE * 2 + 1;
+        long start = System.currentTimeMillis();
+        while (messageStore.getMaxOffsetInQueue(TOPIC, 0) < total && System.currentTimeMillis() - start < 3000) {
+            Thread.sleep(10);
+        }
+        assertThat(messageStore.getMaxOffsetInQueue(TOPIC, 0)).isEqualTo(total);
+
+        List<MessageExt> messages = new ArrayList<MessageExt>();
+        long offset = 0;
+        while (offset < total) {
+            GetMessageResult result = messageStore.getMessage("GROUP", TOPIC, 0, offset, 32, null);
+            try {
+                assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                for (ByteBuffer buffer : result.getMessageBufferList()) {
+                    messages.add(MessageDecoder.decode(buffer));
+                }
+                offset = result.getNextBeginOffset();
+            } finally {
+                result.release();
+            }
+        }
+        assertThat(messages).hasSize(total);
+        for (int i = 0; i < total; i++) {
+            MessageExt msg = messages.get(i);
+            assertThat(msg.getKeys()).isEqualTo("key-" + i);
+            assertThat(msg.getQueueOffset()).isEqualTo(i);
+            assertThat(new String(msg.getBody(), MessageDecoder.CHARSET_UTF8)).isEqualTo(new String(body(i), MessageDecoder.CHARSET_UTF8));
+        }
+
+        // Every message of a batch keeps an offset of its own to be looked up by
+        MessageExt looked = messageStore.lookMessageByOffset(messages.get(10).getCommitLogOffset());
+        assertThat(looked.getKeys()).isEqualTo("key-10");
+        assertThat(messages.get(10).getCommitLogOffset())
+            .isEqualTo(messages.get(0).getCommitLogOffset() + 10 * CompressedMessageBatch.INDEX_SLOT_SIZE);
+        assertThat(messageStore.getCommitLog().pickupStoreTimestamp(messages.get(10).getCommitLogOffset(),
+            CompressedMessageBatch.INDEX_SLOT_SIZE)).isEqualTo(looked.getStoreTimestamp());
+        looked = messageStore.lookMessageByOffset(messages.get(BATCH_SIZE).getCommitLogOffset());
+        assertThat(looked.getKeys()).isEqualTo("key-" + BATCH_SIZE);
+        looked = messageStore.lookMessageByOffset(messages.get(BATCH_SIZE + 10).getCommitLogOffset(),
+            CompressedMessageBatch.INDEX_SLOT_SIZE);
+        assertThat(looked.getKeys()).isEqualTo("key-" + (BATCH_SIZE + 10));
+        // Viewing a message by id selects it alone, not the bytes of the batch at its slot
+        SelectMappedBufferResult selected = messageStore.selectOneMessageByOffset(messages.get(20).getCommitLogOffset());
+        assertThat(MessageDecoder.decode(selected.getByteBuffer()).getKeys()).isEqualTo("key-20");
+        selected.release();
+        selected = messageStore.selectOneMessageByOffset(messages.get(BATCH_SIZE).getCommitLogOffset());
+        assertThat(MessageDecoder.decode(selected.getByteBuffer()).getKeys()).isEqualTo("key-" + BATCH_SIZE);
+        selected.release();
+        selected = messageStore.selectOneMessageByOffset(messages.get(BATCH_SIZE + 20).getCommitLogOffset(),
+            CompressedMessageBatch.INDEX_SLOT_SIZE);
+        assertThat(MessageDecoder.decode(selected.getByteBuffer()).getKeys()).isEqualTo("key-" + (BATCH_SIZE + 20));
+        selected.release();
+        // The ids handed back by the put address the same messages
+        String[] msgIds = first.getAppendMessageResult().getMsgId().split(",");
+        assertThat(MessageDecoder.decodeMessageId(msgIds[10]).getOffset()).isEqualTo(messages.get(10).getCommitLogOffset());
+
+        // A key query returns the message carrying it, not the whole batch
+        start = System.currentTimeMillis();
+        List<String> queried = new ArrayList<String>();
+        while (queried.isEmpty() && System.currentTimeMillis() - start < 3000) {
+            QueryMessageResult queryResult = messageStore.queryMessage(TOPIC, "key-100", 32, 0, Long.MAX_VALUE);
+            try {
+                for (ByteBuffer buffer : queryResult.getMessageBufferList()) {
+                    queried.add(MessageDecoder.decode(buffer).getKeys());
+                }
+            } finally {
+                queryResult.release();
+            }
+            Thread.sleep(10);
+        }
+        assertThat(queried).containsExactly("key-100");
+    }
+
+    private MessageExtBatch buildBatch(int from) {
+        List<Message> messages = new ArrayList<Message>();
+        for (int i = from; i < from + BATCH_SIZE; i++) {
+            Message msg = new Message(TOPIC, "TAG", "key-" + i, body(i));
+            messages.add(msg);
+        }
+        MessageExtBatch messageExtBatch = new MessageExtBatch();
+        messageExtBatch.setTopic(TOPIC);
+        messageExtBatch.setQueueId(0);
+        messageExtBatch.setBornTimestamp(System.currentTimeMillis());
+        messageExtBatch.setBornHost(new InetSocketAddress("127.0.0.1", 8123));
+        messageExtBatch.setStoreHost(new InetSocketAddress("127.0.0.1", 8123));
+        messageExtBatch.setBody(MessageDecoder.encodeMessages(messages));
+        return messageExtBatch;
+    }
+
+    private static byte[] body(int i) {
+        return ("{\"device\":\"sensor-" + (i % 4) + "\",\"temperature\":21.5,\"humidity\":40,\"seq\":" + i + "}")
+            .getBytes(MessageDecoder.CHARSET_UTF8);
+    }
+}
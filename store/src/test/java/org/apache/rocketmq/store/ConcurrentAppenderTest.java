@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageExtBatch;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrentAppenderTest extends StoreTestBase {
+
+    private static final String TOPIC = "ConcurrentAppenderTest";
+
+    private static final int THREADS = 8;
+
+    private static final int QUEUES = 4;
+
+    private static final int MESSAGES_PER_THREAD = 200;
+
+    private static final int BATCH_SIZE = 4;
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        this.startStore(FlushDiskType.ASYNC_FLUSH);
+    }
+
+    private void startStore(FlushDiskType flushDiskType) throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + "/commitlog");
+        // Small files so that appends roll over while racing
+        messageStoreConfig.setMapedFileSizeCommitLog(64 * 1024);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 1024);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(flushDiskType);
+        messageStoreConfig.setLockFreeAppendEnable(true);
+
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("ConcurrentAppenderTest"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testConcurrentPutKeepsQueueOrder() throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(THREADS);
+        final AtomicInteger failures = new AtomicInteger(0);
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                            int queueId = (thread + i) % QUEUES;
+                            PutMessageResult result;
+                            if (i % 10 == 0) {
+                                result = messageStore.putMessages(buildBatch(queueId, thread, i));
+                            } else {
+                                result = messageStore.putMessage(buildMessage(queueId, thread, i));
+                            }
+                            if (result.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        doneLatch.await();
+        assertThat(failures.get()).isEqualTo(0);
+        assertThat(messageStore.getCommitLog().getMappedFileQueue().getMappedFiles().size()).isGreaterThan(1);
+
+        int total = 0;
+        for (int queueId = 0; queueId < QUEUES; queueId++) {
+            List<MessageExt> messages = pullAll(queueId);
+            for (int i = 0; i < messages.size(); i++) {
+                MessageExt msg = messages.get(i);
+                assertThat(msg.getQueueOffset()).isEqualTo(i);
+                assertThat(msg.getQueueId()).isEqualTo(queueId);
+                MessageExt looked = messageStore.lookMessageByOffset(msg.getCommitLogOffset());
+                assertThat(looked.getKeys()).isEqualTo(msg.getKeys());
+                if (i > 0) {
+                    assertThat(msg.getCommitLogOffset()).isGreaterThan(messages.get(i - 1).getCommitLogOffset());
+                }
+            }
+            total += messages.size();
+        }
+        int batches = MESSAGES_PER_THREAD / 10;
+        assertThat(total).isEqualTo(THREADS * (MESSAGES_PER_THREAD - batches + batches * BATCH_SIZE));
+    }
+
+    @Test
+    public void testConcurrentPutWithSyncFlush() throws Exception {
+        this.destroy();
+        this.startStore(FlushDiskType.SYNC_FLUSH);
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(THREADS);
+        final AtomicInteger failures = new AtomicInteger(0);
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int i = 0; i < MESSAGES_PER_THREAD / 4; i++) {
+                            // Each put waits for its region to become visible before the flush
+                            PutMessageResult result = messageStore.putMessage(buildMessage(thread % QUEUES, thread, i));
+                            if (result.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        doneLatch.await();
+        assertThat(failures.get()).isEqualTo(0);
+
+        int total = 0;
+        for (int queueId = 0; queueId < QUEUES; queueId++) {
+            total += pullAll(queueId).size();
+        }
+        assertThat(total).isEqualTo(THREADS * MESSAGES_PER_THREAD / 4);
+    }
+
+    private List<MessageExt> pullAll(int queueId) throws Exception {
+        long start = System.currentTimeMillis();
+        long maxOffset = -1;
+        while (System.currentTimeMillis() - start < 3000) {
+            long current = messageStore.getMaxOffsetInQueue(TOPIC, queueId);
+            if (current == maxOffset) {
+                break;
+            }
+            maxOffset = current;
+            Thread.sleep(100);
+        }
+
+        List<MessageExt> messages = new ArrayList<MessageExt>();
+        long offset = 0;
+        while (offset < maxOffset) {
+            GetMessageResult result = messageStore.getMessage("GROUP", TOPIC, queueId, offset, 32, null);
+            try {
+                assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                for (ByteBuffer buffer : result.getMessageBufferList()) {
+                    messages.add(MessageDecoder.decode(buffer));
+                }
+                offset = result.getNextBeginOffset();
+            } finally {
+                result.release();
+            }
+        }
+        return messages;
+    }
+
+    private MessageExtBrokerInner buildMessage(int queueId, int thread, int i) {
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setTopic(TOPIC);
+        msg.setQueueId(queueId);
+        msg.setKeys("key-" + thread + "-" + i);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        return msg;
+    }
+
+    private MessageExtBatch buildBatch(int queueId, int thread, int i) {
+        List<Message> messages = new ArrayList<Message>();
+        for (int j = 0; j < BATCH_SIZE; j++) {
+            messages.add(new Message(TOPIC, "TAG", "key-" + thread + "-" + i + "-" + j, new byte[128]));
+        }
+        MessageExtBatch messageExtBatch = new MessageExtBatch();
+        messageExtBatch.setTopic(TOPIC);
+        messageExtBatch.setQueueId(queueId);
+        messageExtBatch.setBornTimestamp(System.currentTimeMillis());
+        messageExtBatch.setBornHost(new InetSocketAddress("127.0.0.1", 8123));
+        messageExtBatch.setStoreHost(new InetSocketAddress("127.0.0.1", 8123));
+        messageExtBatch.setBody(MessageDecoder.encodeMessages(messages));
+        return messageExtBatch;
+    }
+}
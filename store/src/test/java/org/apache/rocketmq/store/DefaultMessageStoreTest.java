@@ -25,7 +25,11 @@ import java.net.SocketAddress;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.UtilAll;
@@ -174,6 +178,27 @@ public class DefaultMessageStoreTest {
         assertThat(getMessageResult45.getMessageBufferList().size()).isEqualTo(10);
     }
 
+    @Test
+    public void testAsyncPutMessage() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+        List<CompletableFuture<PutMessageResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(messageStore.asyncPutMessage(buildMessage()));
+        }
+
+        long flushedWhere = 0;
+        for (CompletableFuture<PutMessageResult> future : futures) {
+            PutMessageResult result = future.get(5, TimeUnit.SECONDS);
+            assertThat(result.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+            // Completed under SYNC_FLUSH only once flushed
+            AppendMessageResult appendResult = result.getAppendMessageResult();
+            flushedWhere = ((DefaultMessageStore) messageStore).getCommitLog().getMappedFileQueue().getFlushedWhere();
+            assertThat(flushedWhere).isGreaterThanOrEqualTo(appendResult.getWroteOffset() + appendResult.getWroteBytes());
+        }
+        assertThat(flushedWhere).isEqualTo(messageStore.getMaxPhyOffset());
+    }
+
     @Test
     public void testRecover() throws Exception {
         String topic = "recoverTopic";
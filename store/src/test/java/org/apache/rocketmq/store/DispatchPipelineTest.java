@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.running.RunningStats;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DispatchPipelineTest extends StoreTestBase {
+
+    private static final String TOPIC = "DispatchPipelineTest";
+
+    private static final int QUEUE_NUM = 8;
+
+    private final Map<Integer, List<Long>> arrivedOffsets = new ConcurrentHashMap<>();
+
+    private final List<Long> indexStageOffsets = Collections.synchronizedList(new ArrayList<Long>());
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024 * 10);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 1024);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setDispatchPipelineEnable(true);
+        messageStoreConfig.setDispatchConsumeQueueThreads(3);
+        messageStoreConfig.setDispatchPipelineQueueCapacity(16);
+
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("DispatchPipelineTest"), (topic, queueId, logicOffset, tagsCode, msgStoreTime,
+            filterBitMap, properties) -> arrivedOffsets.computeIfAbsent(queueId, k -> Collections.synchronizedList(new ArrayList<Long>()))
+            .add(logicOffset), new BrokerConfig());
+        messageStore.getDispatcherList().addLast(request -> indexStageOffsets.add(request.getCommitLogOffset()));
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testDispatchKeepsPerQueueOrder() throws Exception {
+        int total = 1000;
+        for (int i = 0; i < total; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(i % QUEUE_NUM);
+            msg.setKeys("key-" + i);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertThat(messageStore.putMessage(msg).getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        }
+
+        long start = System.currentTimeMillis();
+        while (messageStore.dispatchBehindBytes() > 0 && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(10);
+        }
+        assertThat(messageStore.dispatchBehindBytes()).isEqualTo(0);
+
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            int perQueue = total / QUEUE_NUM;
+            assertThat(messageStore.getMaxOffsetInQueue(TOPIC, queueId)).isEqualTo(perQueue);
+            List<Long> expected = new ArrayList<>();
+            for (long offset = 1; offset <= perQueue; offset++) {
+                expected.add(offset);
+            }
+            assertThat(arrivedOffsets.get(queueId)).isEqualTo(expected);
+
+            GetMessageResult result = messageStore.getMessage("GROUP", TOPIC, queueId, perQueue - 1, 1, null);
+            assertThat(result.getMessageCount()).isEqualTo(1);
+            assertThat(result.getNextBeginOffset()).isEqualTo(perQueue);
+            result.release();
+        }
+
+        assertThat(indexStageOffsets).hasSize(total);
+        assertThat(indexStageOffsets).isSorted();
+        QueryMessageResult queryResult = messageStore.queryMessage(TOPIC, "key-999", 1, 0, Long.MAX_VALUE);
+        assertThat(queryResult.getMessageBufferList()).hasSize(1);
+        queryResult.release();
+
+        // StoreStatsService serves runtime info only after its first one-second sample
+        Thread.sleep(1500);
+        Map<String, String> runtimeInfo = messageStore.getRuntimeInfo();
+        assertThat(runtimeInfo.get(RunningStats.dispatchReputBehindBytes.name())).isEqualTo("0");
+        assertThat(runtimeInfo.get(RunningStats.dispatchConsumeQueueBehindBytes.name())).isEqualTo("0");
+        assertThat(runtimeInfo.get(RunningStats.dispatchIndexBehindBytes.name())).isEqualTo("0");
+    }
+
+    @Test
+    public void testCheckpointFollowsConsumeQueueStage() throws Exception {
+        int total = 100;
+        PutMessageResult lastResult = null;
+        for (int i = 0; i < total; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(i % QUEUE_NUM);
+            lastResult = messageStore.putMessage(msg);
+            assertThat(lastResult.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        }
+
+        long maxOffset = messageStore.getMaxPhyOffset();
+        long start = System.currentTimeMillis();
+        while (messageStore.getStoreCheckpoint().getLogicsMsgOffset() < maxOffset && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(10);
+        }
+        assertThat(messageStore.getStoreCheckpoint().getLogicsMsgOffset()).isEqualTo(maxOffset);
+        assertThat(messageStore.getStoreCheckpoint().getLogicsMsgTimestamp())
+            .isEqualTo(lastResult.getAppendMessageResult().getStoreTimestamp());
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            assertThat(messageStore.getMaxOffsetInQueue(TOPIC, queueId)).isEqualTo((total - queueId + QUEUE_NUM - 1) / QUEUE_NUM);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StoreRecoverTest extends StoreTestBase {
+
+    private static final String TOPIC = "StoreTest";
+
+    private static final int QUEUE_NUM = 4;
+
+    private final List<DefaultMessageStore> stores = new ArrayList<>();
+
+    @After
+    public void destroy() {
+        for (DefaultMessageStore store : stores) {
+            store.shutdown();
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void testParallelRecoverConsumeQueues() throws Exception {
+        MessageStoreConfig config = buildConfig();
+        DefaultMessageStore store = startStore(config);
+        putMessages(store, 0, 1000);
+        long maxPhyOffset = store.getMaxPhyOffset();
+        long[] maxOffsets = new long[QUEUE_NUM];
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            maxOffsets[queueId] = store.getMaxOffsetInQueue(TOPIC, queueId);
+            assertThat(maxOffsets[queueId]).isEqualTo(250);
+        }
+        store.shutdown();
+        stores.remove(store);
+
+        config.setRecoverThreadPoolNums(4);
+        store = startStore(config);
+        assertThat(store.getMaxPhyOffset()).isEqualTo(maxPhyOffset);
+        for (int queueId = 0; queueId < QUEUE_NUM; queueId++) {
+            assertThat(store.getMaxOffsetInQueue(TOPIC, queueId)).isEqualTo(maxOffsets[queueId]);
+            for (long offset : new long[] {0, maxOffsets[queueId] / 2, maxOffsets[queueId] - 1}) {
+                GetMessageResult result = store.getMessage("group", TOPIC, queueId, offset, 1, null);
+                try {
+                    assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                    assertThat(result.getMessageCount()).isEqualTo(1);
+                } finally {
+                    result.release();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAbnormalRestartRebuildsIndexInBackground() throws Exception {
+        MessageStoreConfig config = buildConfig();
+        config.setIndexRebuildAsyncEnable(true);
+        DefaultMessageStore store = startStore(config);
+        putMessages(store, 0, 500);
+        long maxPhyOffset = store.getMaxPhyOffset();
+        store.shutdown();
+        stores.remove(store);
+
+        makeSureFileExists(StorePathConfigHelper.getAbortFile(config.getStorePathRootDir()));
+        store = startStore(config);
+        assertThat(store.getMaxPhyOffset()).isEqualTo(maxPhyOffset);
+        putMessages(store, 500, 100);
+
+        long begin = System.currentTimeMillis();
+        while (store.getIndexService().isRebuilding() && System.currentTimeMillis() - begin < 10 * 1000) {
+            Thread.sleep(10);
+        }
+        assertThat(store.getIndexService().isRebuilding()).isFalse();
+        assertThat(store.getIndexService().getRebuildBehindBytes()).isEqualTo(0);
+        while (store.dispatchBehindBytes() > 0 && System.currentTimeMillis() - begin < 10 * 1000) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 600; i += 50) {
+            QueryMessageResult result = store.queryMessage(TOPIC, "key-" + i, 32, 0, Long.MAX_VALUE);
+            try {
+                assertThat(result.getMessageBufferList()).as("key-%d", i).isNotEmpty();
+            } finally {
+                result.release();
+            }
+        }
+    }
+
+    private MessageStoreConfig buildConfig() {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig config = new MessageStoreConfig();
+        config.setStorePathRootDir(baseDir);
+        config.setStorePathCommitLog(baseDir + File.separator + "commitlog");
+        config.setMapedFileSizeCommitLog(1024 * 1024 * 10);
+        config.setMapedFileSizeConsumeQueue(ConsumeQueue.CQ_STORE_UNIT_SIZE * 64);
+        config.setMaxIndexNum(100 * 10);
+        config.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+        config.setHaListenPort(nextPort());
+        return config;
+    }
+
+    private DefaultMessageStore startStore(MessageStoreConfig config) throws Exception {
+        DefaultMessageStore store = new DefaultMessageStore(config, new BrokerStatsManager("StoreRecoverTest"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        stores.add(store);
+        assertThat(store.load()).isTrue();
+        store.start();
+        return store;
+    }
+
+    private void putMessages(DefaultMessageStore store, int from, int count) throws Exception {
+        for (int i = from; i < from + count; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(i % QUEUE_NUM);
+            msg.setKeys("key-" + i);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertThat(store.putMessage(msg).getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        }
+        long begin = System.currentTimeMillis();
+        while (store.dispatchBehindBytes() > 0 && System.currentTimeMillis() - begin < 10 * 1000) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -16,13 +16,17 @@
  */
 package org.apache.rocketmq.store;
 
+import java.util.Map;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import org.apache.rocketmq.store.StoreStatsService.LatencyPhase;
 import org.junit.Test;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class StoreStatsServiceTest {
 
     @Test
@@ -87,4 +91,22 @@ public class StoreStatsServiceTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testLatencyInRuntimeInfo() {
+        StoreStatsService storeStatsService = new StoreStatsService();
+        for (int i = 0; i < 100; i++) {
+            storeStatsService.recordLatency(LatencyPhase.PUT_MESSAGE_ENTIRE, 100);
+        }
+        storeStatsService.recordLatency(LatencyPhase.PUT_MESSAGE_ENTIRE, 20 * 1000);
+        storeStatsService.recordLatency(LatencyPhase.GET_MESSAGE, 100);
+        storeStatsService.rollLatencyInterval();
+        storeStatsService.recordLatency(LatencyPhase.GET_MESSAGE, 120);
+
+        Map<String, String> runtimeInfo = storeStatsService.getRuntimeInfo();
+        assertThat(runtimeInfo.get("putMessageDistributeTime")).startsWith("[<=0ms]:100 [0~10ms]:0 [10~50ms]:1 ");
+        assertThat(runtimeInfo.get("putMessageEntireLatency")).contains("count:101 ", "p50:100 ");
+        assertThat(runtimeInfo.get("getMessageLatency")).contains("count:2 ", "max:120");
+        assertThat(runtimeInfo.get("getMessageLatencyInterval")).contains("count:1 ", "max:100");
+        assertThat(runtimeInfo.get("reputLagLatencyInterval")).contains("count:0 ");
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.ha;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.BrokerRole;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs a master and its slaves in one JVM, replicating over localhost.
+ */
+public class HAReplicationTest extends StoreTestBase {
+
+    private static final int MESSAGES = 2000;
+
+    private final List<DefaultMessageStore> stores = new ArrayList<>();
+
+    private DefaultMessageStore master;
+
+    private final List<DefaultMessageStore> slaves = new ArrayList<>();
+
+    @After
+    public void destroy() {
+        for (DefaultMessageStore store : stores) {
+            store.shutdown();
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void testQuorumAckWithTwoSlaves() throws Exception {
+        startCluster(2, 2, false);
+
+        putAndWaitForSlaves();
+
+        Map<String, Long> ackOffsets = master.getHaService().getSlaveAckOffsetTable();
+        assertThat(ackOffsets).hasSize(2);
+        for (Long ackOffset : ackOffsets.values()) {
+            assertThat(ackOffset).isEqualTo(master.getMaxPhyOffset());
+        }
+        assertThat(master.getHaService().getQuorumAckOffset().get()).isEqualTo(master.getMaxPhyOffset());
+        assertSameCommitLog();
+    }
+
+    @Test
+    public void testCompressedTransfer() throws Exception {
+        // The slaves are not configured for it, every frame tells them
+        startCluster(2, 2, true);
+
+        putAndWaitForSlaves();
+
+        assertSameCommitLog();
+    }
+
+    @Test
+    public void testSlaveNotAvailableBelowQuorum() throws Exception {
+        startCluster(1, 2, false);
+
+        PutMessageResult result = master.putMessage(buildMessage());
+        assertThat(result.getPutMessageStatus()).isEqualTo(PutMessageStatus.SLAVE_NOT_AVAILABLE);
+    }
+
+    /**
+     * Put messages on the master one by one, each waiting for the quorum, then wait for every slave to hold the whole
+     * commit log.
+     */
+    private void putAndWaitForSlaves() throws Exception {
+        for (int i = 0; i < MESSAGES; i++) {
+            PutMessageResult result = master.putMessage(buildMessage());
+            assertThat(result.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        }
+
+        long begin = System.currentTimeMillis();
+        for (DefaultMessageStore slave : slaves) {
+            while (slave.getMaxPhyOffset() < master.getMaxPhyOffset() && System.currentTimeMillis() - begin < 10 * 1000) {
+                Thread.sleep(1);
+            }
+            assertThat(slave.getMaxPhyOffset()).isEqualTo(master.getMaxPhyOffset());
+        }
+    }
+
+    private void assertSameCommitLog() {
+        long offset = 0;
+        while (offset < master.getMaxPhyOffset()) {
+            SelectMappedBufferResult expected = master.getCommitLogData(offset);
+            assertThat(expected).isNotNull();
+            try {
+                for (DefaultMessageStore slave : slaves) {
+                    SelectMappedBufferResult actual = slave.getCommitLogData(offset);
+                    assertThat(actual).isNotNull();
+                    try {
+                        assertThat(actual.getSize()).isEqualTo(expected.getSize());
+                        assertThat(actual.getByteBuffer()).isEqualTo(expected.getByteBuffer());
+                    } finally {
+                        actual.release();
+                    }
+                }
+                offset += expected.getSize();
+            } finally {
+                expected.release();
+            }
+        }
+    }
+
+    private void startCluster(int slaveNum, int ackQuorum, boolean compress) throws Exception {
+        int masterHaPort = nextPort();
+        master = createStore(BrokerRole.SYNC_MASTER, masterHaPort, ackQuorum, compress);
+        for (int i = 0; i < slaveNum; i++) {
+            DefaultMessageStore slave = createStore(BrokerRole.SLAVE, nextPort(), ackQuorum, false);
+            slave.updateHaMasterAddress("127.0.0.1:" + masterHaPort);
+            slaves.add(slave);
+        }
+
+        long begin = System.currentTimeMillis();
+        while (!allSlavesReported(slaveNum) && System.currentTimeMillis() - begin < 10 * 1000) {
+            Thread.sleep(10);
+        }
+        assertThat(allSlavesReported(slaveNum)).isTrue();
+    }
+
+    private boolean allSlavesReported(int slaveNum) {
+        Map<String, Long> ackOffsets = master.getHaService().getSlaveAckOffsetTable();
+        if (ackOffsets.size() < slaveNum) {
+            return false;
+        }
+        for (Long ackOffset : ackOffsets.values()) {
+            if (ackOffset < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private DefaultMessageStore createStore(BrokerRole role, int haListenPort, int ackQuorum,
+        boolean compress) throws Exception {
+        String baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 1024);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setBrokerRole(role);
+        messageStoreConfig.setHaListenPort(haListenPort);
+        messageStoreConfig.setHaSendHeartbeatInterval(100);
+        messageStoreConfig.setHaAckQuorum(ackQuorum);
+        messageStoreConfig.setHaTransferCompressEnable(compress);
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("HAReplicationTest"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        assertThat(store.load()).isTrue();
+        store.start();
+        stores.add(store);
+        return store;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.stats;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value = 0; value < 1000000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertThat(LatencyHistogram.bucketHighestValue(index)).isGreaterThanOrEqualTo(value);
+            if (index > 0) {
+                assertThat(LatencyHistogram.bucketHighestValue(index - 1)).isLessThan(value);
+            }
+            assertThat(LatencyHistogram.bucketHighestValue(index) - value).isLessThanOrEqualTo(Math.max(0, value / 64));
+        }
+        int last = LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE);
+        assertThat(LatencyHistogram.bucketHighestValue(last)).isEqualTo(LatencyHistogram.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getTotalCount()).isEqualTo(1002);
+        assertThat(snapshot.getValueAtPercentile(50)).isBetween(500L, 508L);
+        assertThat(snapshot.getValueAtPercentile(99)).isBetween(990L, 1000L);
+        assertThat(snapshot.getMaxValue()).isEqualTo(LatencyHistogram.MAX_VALUE);
+        assertThat(snapshot.getCountBetween(0, 0)).isEqualTo(1);
+        assertThat(snapshot.getCountBetween(1, 999)).isEqualTo(999);
+    }
+
+    @Test
+    public void testIntervalFromConcurrentRecorders() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        LatencyHistogram.Snapshot before = histogram.snapshot();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random();
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(1000 + random.nextInt(1000));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot interval = histogram.snapshot().minus(before);
+        assertThat(interval.getTotalCount()).isEqualTo(40000);
+        assertThat(interval.getValueAtPercentile(0)).isGreaterThanOrEqualTo(1000);
+        assertThat(interval.getMaxValue()).isLessThan(2000 + 2000 / 64);
+        assertThat(histogram.snapshot().getTotalCount()).isEqualTo(40001);
+    }
+}
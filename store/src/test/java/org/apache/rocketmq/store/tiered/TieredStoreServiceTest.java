@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.GetMessageStatus;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredStoreServiceTest extends StoreTestBase {
+
+    private static final String TOPIC = "TieredStoreServiceTest";
+
+    private static final int TOTAL = 310;
+
+    private String baseDir;
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(64 * 1024);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(ConsumeQueue.CQ_STORE_UNIT_SIZE * 50);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setFlushIntervalCommitLog(50);
+        messageStoreConfig.setFlushCommitLogLeastPages(0);
+        messageStoreConfig.setFlushIntervalConsumeQueue(50);
+        messageStoreConfig.setTieredStoreEnable(true);
+        messageStoreConfig.setTieredStoragePath(baseDir + "/tiered");
+        messageStoreConfig.setTieredUploadIntervalMs(100);
+        messageStoreConfig.setTieredReadAheadSize(16 * 1024);
+        messageStoreConfig.setTieredReadCacheBlocks(4);
+
+        messageStore = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("TieredStoreServiceTest"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        assertThat(messageStore.load()).isTrue();
+        messageStore.start();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    @Test
+    public void testReadThroughAfterLocalFilesCleaned() throws Exception {
+        List<Long> physicOffsets = new ArrayList<>();
+        for (int i = 0; i < TOTAL; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(TOPIC);
+            msg.setQueueId(0);
+            msg.setKeys("key-" + i);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            PutMessageResult result = messageStore.putMessage(msg);
+            assertThat(result.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+            physicOffsets.add(result.getAppendMessageResult().getWroteOffset());
+        }
+
+        TieredStoreService tieredStoreService = messageStore.getTieredStoreService();
+        long lastFileOffset = messageStore.getCommitLog().getMappedFileQueue().getLastMappedFile().getFileFromOffset();
+        ConsumeQueue cq = messageStore.findConsumeQueue(TOPIC, 0);
+        long lastSealedCqFileOffset = cq.getMappedFileQueue().getLastMappedFile().getFileFromOffset()
+            - cq.getMappedFileQueue().getMappedFileSize();
+        long start = System.currentTimeMillis();
+        while ((tieredStoreService.getUploadedCommitLogOffset() < lastFileOffset
+            || !tieredStoreService.getSegmentIndex().containsConsumeQueue(TOPIC, 0, lastSealedCqFileOffset))
+            && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        assertThat(tieredStoreService.getUploadedCommitLogOffset()).isEqualTo(lastFileOffset);
+
+        // Local files of the consume queue go with the commit log they point to
+        assertThat(messageStore.getCommitLog().deleteExpiredFile(0, 0, 0, true, Long.MAX_VALUE)).isGreaterThan(0);
+        long minPhyOffset = messageStore.getMinPhyOffset();
+        assertThat(minPhyOffset).isEqualTo(lastFileOffset);
+        cq.deleteExpiredFile(minPhyOffset);
+        assertThat(messageStore.getMinOffsetInQueue(TOPIC, 0)).isGreaterThan(0);
+        // Files not uploaded yet are kept, the min offset still moves to the first message left in the commit log
+        int firstLocal = 0;
+        while (physicOffsets.get(firstLocal) < minPhyOffset) {
+            firstLocal++;
+        }
+        assertThat(messageStore.getMinOffsetInQueue(TOPIC, 0)).isEqualTo(firstLocal);
+
+        long offset = 0;
+        int found = 0;
+        while (offset < TOTAL) {
+            GetMessageResult result = messageStore.getMessage("GROUP", TOPIC, 0, offset, 32, null);
+            try {
+                assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                for (ByteBuffer buffer : result.getMessageBufferList()) {
+                    MessageExt msgExt = MessageDecoder.decode(buffer);
+                    assertThat(msgExt.getKeys()).isEqualTo("key-" + found);
+                    assertThat(msgExt.getQueueOffset()).isEqualTo(found);
+                    found++;
+                }
+                assertThat(result.getNextBeginOffset()).isGreaterThan(offset);
+                offset = result.getNextBeginOffset();
+            } finally {
+                result.release();
+            }
+        }
+        assertThat(found).isEqualTo(TOTAL);
+        assertThat(tieredStoreService.getReadCache().getHitTimes()).isGreaterThan(0);
+
+        MessageExt first = messageStore.lookMessageByOffset(physicOffsets.get(0));
+        assertThat(first).isNotNull();
+        assertThat(first.getKeys()).isEqualTo("key-0");
+
+        TieredSegmentIndex reloaded = new TieredSegmentIndex(StorePathConfigHelper.getTieredSegmentIndexPath(baseDir));
+        assertThat(reloaded.load()).isTrue();
+        assertThat(reloaded.findCommitLog(physicOffsets.get(0))).isNotNull();
+        assertThat(reloaded.findConsumeQueue(TOPIC, 0, 0)).isNotNull();
+    }
+}
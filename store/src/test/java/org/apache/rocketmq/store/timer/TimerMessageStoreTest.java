@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.util.HashMap;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.running.RunningStats;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.BrokerRole;
+import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimerMessageStoreTest extends StoreTestBase {
+
+    private static final String TOPIC = "TimerMessageStoreTest";
+
+    private String baseDir;
+
+    private DefaultMessageStore messageStore;
+
+    @Before
+    public void init() throws Exception {
+        baseDir = createBaseDir();
+        baseDirs.add(baseDir);
+        messageStore = createMessageStore();
+    }
+
+    @After
+    public void destroy() {
+        messageStore.shutdown();
+        messageStore.destroy();
+    }
+
+    private DefaultMessageStore createMessageStore() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(baseDir);
+        messageStoreConfig.setStorePathCommitLog(baseDir + "/commitlog");
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024 * 10);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 1024);
+        messageStoreConfig.setMaxHashSlotNum(10000);
+        messageStoreConfig.setMaxIndexNum(100 * 100);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.ASYNC_FLUSH);
+        messageStoreConfig.setTimerWheelEnable(true);
+        messageStoreConfig.setTimerPrecisionMs(100);
+        messageStoreConfig.setTimerWheelSlots(10);
+        messageStoreConfig.setMappedFileSizeTimerLog(TimerLog.UNIT_SIZE * 1024);
+        messageStoreConfig.setTimerFlushIntervalMs(100);
+
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, new BrokerStatsManager("TimerMessageStoreTest"),
+            (topic, queueId, logicOffset, tagsCode, msgStoreTime, filterBitMap, properties) -> {
+            }, new BrokerConfig());
+        assertThat(store.load()).isTrue();
+        store.start();
+        store.handleScheduleMessageService(BrokerRole.ASYNC_MASTER);
+        return store;
+    }
+
+    private PutMessageResult putTimerMessage(int queueId, long deliverTimeMs) {
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setTopic(TOPIC);
+        msg.setQueueId(queueId);
+        msg.setDeliverTimeMs(deliverTimeMs);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        return messageStore.putMessage(msg);
+    }
+
+    private long waitForDelivery(int queueId, long timeoutMs) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (messageStore.getMaxOffsetInQueue(TOPIC, queueId) == 0 && System.currentTimeMillis() - start < timeoutMs) {
+            Thread.sleep(10);
+        }
+        return System.currentTimeMillis();
+    }
+
+    @Test
+    public void testDeliverAtDeliverTime() throws Exception {
+        long now = System.currentTimeMillis();
+        long[] deliverTimes = {now + 300, now + 600, now + 2500};
+        for (int queueId = 0; queueId < deliverTimes.length; queueId++) {
+            PutMessageResult result = putTimerMessage(queueId, deliverTimes[queueId]);
+            assertThat(result.getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        }
+        assertThat(putTimerMessage(3, now - 1000).getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+
+        waitForDelivery(3, 3000);
+        assertThat(messageStore.getMaxOffsetInQueue(TOPIC, 3)).isEqualTo(1);
+        assertThat(messageStore.getMaxOffsetInQueue(TimerMessageStore.TIMER_TOPIC, TimerMessageStore.TIMER_QUEUE_ID)).isEqualTo(3);
+
+        for (int queueId = 0; queueId < deliverTimes.length; queueId++) {
+            long deliveredAt = waitForDelivery(queueId, 6000);
+            assertThat(messageStore.getMaxOffsetInQueue(TOPIC, queueId)).isEqualTo(1);
+            assertThat(deliveredAt).isGreaterThanOrEqualTo(deliverTimes[queueId]);
+
+            GetMessageResult getResult = messageStore.getMessage("GROUP", TOPIC, queueId, 0, 1, null);
+            try {
+                MessageExt msgExt = MessageDecoder.decode(getResult.getMessageBufferList().get(0));
+                assertThat(msgExt.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS)).isNull();
+                assertThat(msgExt.getProperty(MessageConst.PROPERTY_REAL_TOPIC)).isEqualTo(TOPIC);
+            } finally {
+                getResult.release();
+            }
+        }
+
+        HashMap<String, String> stats = new HashMap<>();
+        messageStore.getTimerMessageStore().buildRunningStats(stats);
+        assertThat(stats.get(RunningStats.timerMessageOffset.name())).isEqualTo("3,3");
+    }
+
+    @Test
+    public void testDeliverSlotInBatches() throws Exception {
+        long deliverTimeMs = System.currentTimeMillis() + 500;
+        int count = 100;
+        for (int i = 0; i < count; i++) {
+            assertThat(putTimerMessage(0, deliverTimeMs).getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        }
+
+        long start = System.currentTimeMillis();
+        while (messageStore.getMaxOffsetInQueue(TOPIC, 0) < count && System.currentTimeMillis() - start < 6000) {
+            Thread.sleep(10);
+        }
+        assertThat(System.currentTimeMillis()).isGreaterThanOrEqualTo(deliverTimeMs);
+        Thread.sleep(300);
+        assertThat(messageStore.getMaxOffsetInQueue(TOPIC, 0)).isEqualTo(count);
+    }
+
+    @Test
+    public void testRecoverFromCheckpoint() throws Exception {
+        long deliverTimeMs = System.currentTimeMillis() + 3000;
+        assertThat(putTimerMessage(0, deliverTimeMs).getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+
+        long start = System.currentTimeMillis();
+        while (messageStore.getTimerMessageStore().getCurrQueueOffset() == 0 && System.currentTimeMillis() - start < 3000) {
+            Thread.sleep(10);
+        }
+        assertThat(messageStore.getTimerMessageStore().getCurrQueueOffset()).isEqualTo(1);
+        messageStore.shutdown();
+        assertThat(messageStore.getMaxOffsetInQueue(TOPIC, 0)).isEqualTo(0);
+
+        messageStore = createMessageStore();
+        assertThat(messageStore.getTimerMessageStore().getCurrQueueOffset()).isEqualTo(1);
+        long deliveredAt = waitForDelivery(0, 6000);
+        assertThat(deliveredAt).isGreaterThanOrEqualTo(deliverTimeMs);
+        Thread.sleep(300);
+        assertThat(messageStore.getMaxOffsetInQueue(TOPIC, 0)).isEqualTo(1);
+    }
+}